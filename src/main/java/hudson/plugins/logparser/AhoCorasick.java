@@ -0,0 +1,159 @@
+package hudson.plugins.logparser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton over a fixed set of literal keywords. A single scan
+ * of a line reports every keyword contained in it, regardless of how many
+ * keywords there are.
+ *
+ * Instances are immutable once built and may be shared between threads.
+ */
+final class AhoCorasick {
+
+    // Transitions of each state, sorted by character for binary search
+    private final char[][] transitionChars;
+    private final int[][] transitionTargets;
+    private final int[] failure;
+    // Keyword ids recognized when reaching each state (including the ones
+    // inherited through failure links)
+    private final int[][] outputs;
+
+    /**
+     * Build the automaton.
+     *
+     * @param keywords
+     *            the keywords to look for. The index in the array is the id
+     *            reported on a match. Null or empty keywords are ignored.
+     */
+    AhoCorasick(final String[] keywords) {
+        final List<StringBuilder> chars = new ArrayList<StringBuilder>();
+        final List<List<Integer>> targets = new ArrayList<List<Integer>>();
+        final List<List<Integer>> outs = new ArrayList<List<Integer>>();
+        chars.add(new StringBuilder());
+        targets.add(new ArrayList<Integer>());
+        outs.add(new ArrayList<Integer>());
+
+        // Build the keyword trie
+        for (int k = 0; k < keywords.length; k++) {
+            final String keyword = keywords[k];
+            if (keyword == null || keyword.length() == 0) {
+                continue;
+            }
+            int state = 0;
+            for (int i = 0; i < keyword.length(); i++) {
+                final char c = keyword.charAt(i);
+                final int pos = chars.get(state).indexOf(String.valueOf(c));
+                if (pos >= 0) {
+                    state = targets.get(state).get(pos);
+                } else {
+                    final int next = chars.size();
+                    chars.add(new StringBuilder());
+                    targets.add(new ArrayList<Integer>());
+                    outs.add(new ArrayList<Integer>());
+                    chars.get(state).append(c);
+                    targets.get(state).add(next);
+                    state = next;
+                }
+            }
+            outs.get(state).add(k);
+        }
+
+        final int numStates = chars.size();
+        this.transitionChars = new char[numStates][];
+        this.transitionTargets = new int[numStates][];
+        for (int s = 0; s < numStates; s++) {
+            final String stateChars = chars.get(s).toString();
+            final List<Integer> stateTargets = targets.get(s);
+            // Sort transitions by character
+            final char[] sorted = stateChars.toCharArray();
+            Arrays.sort(sorted);
+            final int[] sortedTargets = new int[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                sortedTargets[i] = stateTargets.get(stateChars.indexOf(sorted[i]));
+            }
+            this.transitionChars[s] = sorted;
+            this.transitionTargets[s] = sortedTargets;
+        }
+
+        // Compute failure links breadth first and merge outputs
+        this.failure = new int[numStates];
+        final LinkedList<Integer> queue = new LinkedList<Integer>();
+        for (int target : this.transitionTargets[0]) {
+            this.failure[target] = 0;
+            queue.add(target);
+        }
+        while (!queue.isEmpty()) {
+            final int state = queue.removeFirst();
+            for (int i = 0; i < this.transitionChars[state].length; i++) {
+                final char c = this.transitionChars[state][i];
+                final int target = this.transitionTargets[state][i];
+                int fallback = this.failure[state];
+                while (fallback != 0 && next(fallback, c) < 0) {
+                    fallback = this.failure[fallback];
+                }
+                final int fallbackTarget = next(fallback, c);
+                this.failure[target] = (fallbackTarget >= 0 && fallbackTarget != target)
+                        ? fallbackTarget : 0;
+                outs.get(target).addAll(outs.get(this.failure[target]));
+                queue.add(target);
+            }
+        }
+
+        this.outputs = new int[numStates][];
+        for (int s = 0; s < numStates; s++) {
+            final List<Integer> stateOuts = outs.get(s);
+            this.outputs[s] = new int[stateOuts.size()];
+            for (int i = 0; i < stateOuts.size(); i++) {
+                this.outputs[s][i] = stateOuts.get(i);
+            }
+        }
+    }
+
+    private int next(final int state, final char c) {
+        final int pos = Arrays.binarySearch(this.transitionChars[state], c);
+        return pos >= 0 ? this.transitionTargets[state][pos] : -1;
+    }
+
+    /**
+     * Scan the text and mark every contained keyword.
+     *
+     * @param text
+     *            the text to scan
+     * @param marks
+     *            indexed by keyword id; set to <code>stamp</code> for each
+     *            keyword found
+     * @param stamp
+     *            the value to mark found keywords with. Using a new stamp per
+     *            scan avoids clearing the array between lines.
+     * @return the number of keyword occurrences found
+     */
+    int scan(final CharSequence text, final int[] marks, final int stamp) {
+        int found = 0;
+        int state = 0;
+        final int length = text.length();
+        for (int i = 0; i < length; i++) {
+            final char c = text.charAt(i);
+            int target = next(state, c);
+            while (target < 0 && state != 0) {
+                state = this.failure[state];
+                target = next(state, c);
+            }
+            state = target < 0 ? 0 : target;
+            final int[] stateOutputs = this.outputs[state];
+            for (int k = 0; k < stateOutputs.length; k++) {
+                marks[stateOutputs[k]] = stamp;
+                found++;
+            }
+        }
+        return found;
+    }
+
+    int getNumStates() {
+        return this.failure.length;
+    }
+
+}
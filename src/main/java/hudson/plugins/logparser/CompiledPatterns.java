@@ -9,6 +9,7 @@ public class CompiledPatterns {
     private String errorMsg;
     private Pattern[] compiledPatterns;
     private List<String> extraTags;
+    private CompiledRuleSet ruleSet;
 
     public CompiledPatterns() {
         this.errorMsg = null;
@@ -36,6 +37,14 @@ public class CompiledPatterns {
         this.compiledPatterns = compiledPatterns;
     }
 
+    public CompiledRuleSet getRuleSet() {
+        return ruleSet;
+    }
+
+    public void setRuleSet(final CompiledRuleSet ruleSet) {
+        this.ruleSet = ruleSet;
+    }
+
     public List<String> getExtraTags() {
         return extraTags;
     }
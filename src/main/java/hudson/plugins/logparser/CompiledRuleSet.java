@@ -0,0 +1,448 @@
+package hudson.plugins.logparser;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The parsing rules compiled into a single matching engine.
+ *
+ * Each usable rule keeps its regular expression along with its standardized
+ * tag, both computed once. The longest literal that must appear in any match
+ * of the rule is extracted from the regular expression, and all these
+ * literals are fed to an Aho-Corasick automaton. Classifying a line scans it
+ * once with the automaton, and only the rules whose literal was found (or
+ * which have no literal at all) run their regular expression. The first rule
+ * matching the line wins, just like when looping over all the rules.
+ *
+ * A rule set is immutable and may be shared between threads, each thread
+ * using its own {@link Classifier}.
+ */
+public final class CompiledRuleSet implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Set this system property to true to also time the regular expression of
+     * each rule, see {@link LogParserRuleStats#getNanos(int)}. Reading the
+     * clock around every match costs as much as many matches, so only the
+     * evaluations and matches are counted by default. Read by each classifier,
+     * on the JVM classifying the log.
+     */
+    public static final String TIME_RULES_PROPERTY = CompiledRuleSet.class.getName()
+            + ".timeRules";
+
+    // Usable rules only, in the order of the rules file
+    private final String[] rules;
+    private final Pattern[] patterns;
+    private final String[] tags;
+    private final long[] compileNanos;
+    // Distinct statuses of the rules, LogParserConsts.NONE first
+    private final String[] statuses;
+    private final int[] ruleOrdinals;
+    // Required literal of each usable rule, null if none could be extracted
+    private final String[] literals;
+
+    private transient AhoCorasick prefilter;
+
+    /**
+     * Compile the rule set.
+     *
+     * @param parsingRulesArray
+     *            the lines of the parsing rules file
+     * @param compiledPatterns
+     *            the pattern of each line as compiled by
+     *            {@link LogParserUtils#compilePatterns(String[], java.util.logging.Logger)}
+     */
+    public CompiledRuleSet(final String[] parsingRulesArray, final Pattern[] compiledPatterns) {
+        this(parsingRulesArray, compiledPatterns, new long[parsingRulesArray.length]);
+    }
+
+    /**
+     * Compile the rule set.
+     *
+     * @param parsingRulesArray
+     *            the lines of the parsing rules file
+     * @param compiledPatterns
+     *            the pattern of each line as compiled by
+     *            {@link LogParserUtils#compilePatterns(String[], java.util.logging.Logger)}
+     * @param patternCompileNanos
+     *            the time taken to compile the pattern of each line
+     */
+    public CompiledRuleSet(final String[] parsingRulesArray, final Pattern[] compiledPatterns,
+            final long[] patternCompileNanos) {
+        final List<String> ruleLines = new ArrayList<String>();
+        final List<Pattern> rulePatterns = new ArrayList<Pattern>();
+        final List<String> ruleTags = new ArrayList<String>();
+        final List<String> ruleLiterals = new ArrayList<String>();
+        final List<Long> ruleCompileNanos = new ArrayList<Long>();
+        for (int i = 0; i < parsingRulesArray.length; i++) {
+            final String parsingRule = parsingRulesArray[i];
+            if (LogParserUtils.skipParsingRule(parsingRule) || compiledPatterns[i] == null) {
+                continue;
+            }
+            ruleLines.add(parsingRule);
+            rulePatterns.add(compiledPatterns[i]);
+            ruleTags.add(LogParserUtils.standardizeStatus(parsingRule.split("\\s")[0]));
+            ruleLiterals.add(extractLiteral(compiledPatterns[i]));
+            ruleCompileNanos.add(patternCompileNanos[i]);
+        }
+        this.rules = ruleLines.toArray(new String[ruleLines.size()]);
+        this.compileNanos = new long[ruleCompileNanos.size()];
+        for (int i = 0; i < this.compileNanos.length; i++) {
+            this.compileNanos[i] = ruleCompileNanos.get(i);
+        }
+        this.patterns = rulePatterns.toArray(new Pattern[rulePatterns.size()]);
+        this.tags = ruleTags.toArray(new String[ruleTags.size()]);
+        this.literals = ruleLiterals.toArray(new String[ruleLiterals.size()]);
+
+        // Intern the statuses to ordinals
+        final List<String> distinctStatuses = new ArrayList<String>();
+        distinctStatuses.add(LogParserConsts.NONE);
+        this.ruleOrdinals = new int[this.tags.length];
+        for (int i = 0; i < this.tags.length; i++) {
+            int ordinal = distinctStatuses.indexOf(this.tags[i]);
+            if (ordinal < 0) {
+                ordinal = distinctStatuses.size();
+                distinctStatuses.add(this.tags[i]);
+            }
+            this.ruleOrdinals[i] = ordinal;
+        }
+        this.statuses = distinctStatuses.toArray(new String[distinctStatuses.size()]);
+        this.prefilter = new AhoCorasick(this.literals);
+    }
+
+    private void readObject(final ObjectInputStream in) throws IOException,
+            ClassNotFoundException {
+        in.defaultReadObject();
+        // The automaton is cheap to rebuild - no need to send it over the wire
+        this.prefilter = new AhoCorasick(this.literals);
+    }
+
+    public int getNumRules() {
+        return patterns.length;
+    }
+
+    /**
+     * @return the line of the rules file the rule comes from
+     */
+    public String getRule(final int rule) {
+        return rules[rule];
+    }
+
+    public String getTag(final int rule) {
+        return tags[rule];
+    }
+
+    public long getCompileNanos(final int rule) {
+        return compileNanos[rule];
+    }
+
+    public String getLiteral(final int rule) {
+        return literals[rule];
+    }
+
+    /**
+     * @return the distinct statuses the rules may classify a line with,
+     *         indexed by ordinal. {@link LogParserConsts#NONE} is ordinal 0.
+     */
+    public String[] getStatuses() {
+        return statuses.clone();
+    }
+
+    /**
+     * Create an empty status table for the statuses of this rule set.
+     *
+     * @return a new status table
+     */
+    public LogParserStatusTable newStatusTable() {
+        return new LogParserStatusTable(getStatuses());
+    }
+
+    /**
+     * Create empty stats for the rules of this rule set.
+     *
+     * @return new stats
+     */
+    public LogParserRuleStats newRuleStats() {
+        return new LogParserRuleStats(patterns.length);
+    }
+
+    /**
+     * Create a classifier for use by a single thread.
+     *
+     * @return a new classifier
+     */
+    public Classifier newClassifier() {
+        return new Classifier();
+    }
+
+    /**
+     * Classifies lines against the rule set. Holds per thread matching state
+     * and stats, and so must not be shared between threads.
+     */
+    public final class Classifier {
+
+        private final Matcher[] matchers = new Matcher[patterns.length];
+        private final int[] literalFound = new int[patterns.length];
+        private final LogParserRuleStats stats = newRuleStats();
+        private final boolean timed = Boolean.getBoolean(TIME_RULES_PROPERTY);
+        private int stamp = 0;
+
+        private Classifier() {
+            // Created through newClassifier()
+            if (timed) {
+                stats.setTimed();
+            }
+        }
+
+        /**
+         * @return the stats of the rules over the lines classified so far
+         */
+        public LogParserRuleStats getStats() {
+            return stats;
+        }
+
+        /**
+         * Find the first rule matching the line.
+         *
+         * @param line
+         *            the line to classify
+         * @return the index of the matching rule, or -1 if no rule matches
+         */
+        public int findRule(final String line) {
+            stamp++;
+            if (stamp == 0) {
+                // Wrapped around - forget marks from earlier lines
+                Arrays.fill(literalFound, 0);
+                stamp = 1;
+            }
+            stats.countLine();
+            prefilter.scan(line, literalFound, stamp);
+            for (int i = 0; i < patterns.length; i++) {
+                if (literals[i] != null && literalFound[i] != stamp) {
+                    // The line lacks a literal required by this rule
+                    continue;
+                }
+                Matcher matcher = matchers[i];
+                if (matcher == null) {
+                    matcher = patterns[i].matcher(line);
+                    matchers[i] = matcher;
+                } else {
+                    matcher.reset(line);
+                }
+                final boolean found;
+                if (timed) {
+                    final long start = System.nanoTime();
+                    found = matcher.find();
+                    stats.addNanos(i, System.nanoTime() - start);
+                } else {
+                    found = matcher.find();
+                }
+                stats.record(i, found);
+                if (found) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Classify the line.
+         *
+         * @param line
+         *            the line to classify
+         * @return the standardized status of the first matching rule, or
+         *         {@link LogParserConsts#NONE} if no rule matches
+         */
+        public String classify(final String line) {
+            final int rule = findRule(line);
+            return rule < 0 ? LogParserConsts.NONE : tags[rule];
+        }
+
+        /**
+         * Classify the line.
+         *
+         * @param line
+         *            the line to classify
+         * @return the status ordinal of the first matching rule, or 0 (
+         *         {@link LogParserConsts#NONE}) if no rule matches
+         */
+        public int classifyOrdinal(final String line) {
+            final int rule = findRule(line);
+            return rule < 0 ? 0 : ruleOrdinals[rule];
+        }
+    }
+
+    /**
+     * Extract the longest literal that any match of the pattern must contain.
+     * The extraction is conservative: when the regular expression uses
+     * constructs which are not understood here, no literal is returned and the
+     * rule is always evaluated.
+     *
+     * @param pattern
+     *            the compiled pattern
+     * @return the literal, or null if none could be extracted
+     */
+    static String extractLiteral(final Pattern pattern) {
+        if (pattern.flags() != 0) {
+            return null;
+        }
+        final String regexp = pattern.pattern();
+        final StringBuilder current = new StringBuilder();
+        String longest = "";
+        int depth = 0;
+        int i = 0;
+        while (i < regexp.length()) {
+            final char c = regexp.charAt(i);
+            if (depth > 0) {
+                // Skip the content of groups, only looking for alternations
+                // and constructs that cannot be skipped safely
+                if (c == '\\') {
+                    if (i + 1 < regexp.length() && regexp.charAt(i + 1) == 'Q') {
+                        return null;
+                    }
+                    i += 2;
+                    continue;
+                } else if (c == '[') {
+                    i = skipCharacterClass(regexp, i);
+                    if (i < 0) {
+                        return null;
+                    }
+                    continue;
+                } else if (c == '(') {
+                    depth++;
+                } else if (c == ')') {
+                    depth--;
+                }
+                i++;
+                continue;
+            }
+            switch (c) {
+                case '|':
+                    // Top level alternation - no literal is required
+                    return null;
+                case '(':
+                    if (regexp.startsWith("(?", i) && i + 2 < regexp.length()) {
+                        final char groupType = regexp.charAt(i + 2);
+                        if (groupType != ':' && groupType != '=' && groupType != '!'
+                                && groupType != '<' && groupType != '>') {
+                            // Inline flags change the meaning of literals
+                            return null;
+                        }
+                    }
+                    longest = longest(longest, current);
+                    current.setLength(0);
+                    depth++;
+                    i++;
+                    break;
+                case '[':
+                    longest = longest(longest, current);
+                    current.setLength(0);
+                    i = skipCharacterClass(regexp, i);
+                    if (i < 0) {
+                        return null;
+                    }
+                    break;
+                case '?':
+                case '*':
+                case '{':
+                    // The preceding character is optional
+                    if (current.length() > 0) {
+                        current.setLength(current.length() - 1);
+                    }
+                    longest = longest(longest, current);
+                    current.setLength(0);
+                    if (c == '{') {
+                        final int close = regexp.indexOf('}', i);
+                        if (close < 0) {
+                            return null;
+                        }
+                        i = close + 1;
+                    } else {
+                        i++;
+                    }
+                    break;
+                case '+':
+                    // The preceding character is required at least once
+                    longest = longest(longest, current);
+                    current.setLength(0);
+                    i++;
+                    break;
+                case '.':
+                case '^':
+                case '$':
+                case ')':
+                    longest = longest(longest, current);
+                    current.setLength(0);
+                    i++;
+                    break;
+                case '\\':
+                    if (i + 1 >= regexp.length()) {
+                        return null;
+                    }
+                    final char escaped = regexp.charAt(i + 1);
+                    if (Character.isLetterOrDigit(escaped)) {
+                        if ("dDsSwWbBAGZzhHvV".indexOf(escaped) < 0) {
+                            // Escapes which consume more characters or
+                            // stand for specific characters
+                            return null;
+                        }
+                        longest = longest(longest, current);
+                        current.setLength(0);
+                    } else {
+                        current.append(escaped);
+                    }
+                    i += 2;
+                    break;
+                default:
+                    current.append(c);
+                    i++;
+                    break;
+            }
+        }
+        if (depth != 0) {
+            return null;
+        }
+        longest = longest(longest, current);
+        return longest.length() == 0 ? null : longest;
+    }
+
+    private static String longest(final String longest, final StringBuilder current) {
+        return current.length() > longest.length() ? current.toString() : longest;
+    }
+
+    private static int skipCharacterClass(final String regexp, final int start) {
+        int i = start + 1;
+        int depth = 1;
+        if (i < regexp.length() && regexp.charAt(i) == '^') {
+            i++;
+        }
+        if (i < regexp.length() && regexp.charAt(i) == ']') {
+            // A leading ] is a literal
+            i++;
+        }
+        while (i < regexp.length()) {
+            final char c = regexp.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            } else if (c == '[') {
+                depth++;
+            } else if (c == ']') {
+                depth--;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+            i++;
+        }
+        return -1;
+    }
+
+}
@@ -1,8 +1,15 @@
 package hudson.plugins.logparser;
 
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.List;
+
+import javax.servlet.http.HttpServletResponse;
 
 import org.kohsuke.stapler.Stapler;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
 import org.kohsuke.stapler.bind.JavaScriptMethod;
 
 import hudson.model.Action;
@@ -10,11 +17,22 @@ import hudson.model.Run;
 
 /**
  * This class gets user input, calls DiffToHtmlGenerator to generate the diff
- * result in html format, and then display the diff result on the build page
+ * result in html format, and then display the diff result on the build page.
+ * The diff is streamed to the page, with the unchanged lines far from the
+ * changes collapsed and fetched when expanded, so that its size follows the
+ * number of changes rather than the size of the logs. The downloaded diff has
+ * all the lines, as the collapsed ones cannot be fetched once offline.
  */
 
 public class ConsoleLineDiffDisplay implements Action{
 
+    static final int DEFAULT_CONTEXT_LINES = 10;
+
+    /**
+     * the unchanged lines expanded at a time
+     */
+    static final int MAX_EXPANDED_LINES = 1000;
+
     /**
      * the current build object
      */
@@ -26,9 +44,9 @@ public class ConsoleLineDiffDisplay implements Action{
     private String prevBuild;
 
     /**
-     * html string that will be displayed on the page
+     * the build diffed against
      */
-    private String html;
+    private final Run<?, ?> previousBuild;
     
     private String fileName;
 
@@ -44,21 +62,150 @@ public class ConsoleLineDiffDisplay implements Action{
         int currBuildNum = build.getNumber();
         int prevBuildNum = Integer.parseInt(prevBuild);
 
-        Run<?, ?> previousBuild = currentBuild.getParent().getBuildByNumber(prevBuildNum);
+        this.previousBuild = currentBuild.getParent().getBuildByNumber(prevBuildNum);
+        fileName = "build_" + prevBuildNum + "_" + currBuildNum + "_console_line_diff.html";
+    }
+
+    /**
+     * @return the unchanged lines shown around a change, which can be changed
+     *         with the system property
+     *         hudson.plugins.logparser.ConsoleLineDiffDisplay.contextLines
+     */
+    static int getContextLines() {
+        return Math.max(0, Integer.getInteger(ConsoleLineDiffDisplay.class.getName()
+                + ".contextLines", DEFAULT_CONTEXT_LINES));
+    }
 
-        String currLogFileLocation = currentBuild.getLogFile().getAbsolutePath();
-        String prevLogFileLocation = previousBuild.getLogFile().getAbsolutePath();
+    /**
+     * write the diff page, from the diff cache if it was computed before
+     * 
+     * @param out
+     *            where to write the page
+     * @param download
+     *            true to write all the lines, for the page to be viewed
+     *            offline, else the unchanged lines far from the changes are
+     *            collapsed
+     * @throws IOException
+     */
+    void writeHtml(Writer out, boolean download) throws IOException {
+        int contextLines = download ? DiffToHtmlGenerator.ALL_LINES : getContextLines();
+        LogParserLineHashes.Normalizer normalizer = getNormalizer();
+        // Depends on how hard the diff searches and on what lines match, not
+        // on the parsing rules
+        String variant = "maxEditCost=" + new LogLineDiff().getMaxEditCost() + ",contextLines="
+                + contextLines + ",masks=" + normalizer.getDigest();
+        if (LogParserDiffCache.copy(previousBuild, currentBuild, getUrlName(), variant, out)) {
+            return;
+        }
 
-        DiffToHtmlGenerator d2h = null;
+        // Diffed on the hashes saved by the parses, reading only the lines
+        // shown
+        LogParserLineHashes prevLines = LogParserLineHashes.forBuild(previousBuild, normalizer);
         try {
-            d2h = new DiffToHtmlGenerator(prevLogFileLocation, currLogFileLocation, currBuildNum, prevBuildNum);
-        } catch (IOException e) {
-            e.printStackTrace();
+            LogParserLineHashes currLines = LogParserLineHashes.forBuild(currentBuild, normalizer);
+            try {
+                DiffToHtmlGenerator d2h = new DiffToHtmlGenerator(prevLines, currLines,
+                        currentBuild.getNumber(), previousBuild.getNumber());
+
+                LogParserDiffCache.DiffWriter writer = LogParserDiffCache.writeThrough(
+                        previousBuild, currentBuild, getUrlName(), variant, out);
+                try {
+                    d2h.writeHtml(writer, false, contextLines);
+                    writer.close();
+                } finally {
+                    writer.discard();
+                }
+            } finally {
+                currLines.close();
+            }
+        } finally {
+            prevLines.close();
         }
+    }
 
-        html = d2h.generateHtmlString();
-        
-        fileName = "build_" + prevBuildNum + "_" + currBuildNum + "_console_line_diff.html";
+    private static LogParserLineHashes.Normalizer getNormalizer() {
+        return new LogParserLineHashes.Normalizer(
+                LogParserPublisher.DescriptorImpl.DESCRIPTOR.getDiffLineMasks());
+    }
+
+    /**
+     * stream the diff page, as an attachment if the "download" parameter is
+     * given
+     */
+    public void doDiff(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        rsp.setContentType("text/html;charset=UTF-8");
+        if (req.getParameter("download") != null) {
+            rsp.setHeader("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
+        }
+        Writer out = rsp.getWriter();
+        writeHtml(out, req.getParameter("download") != null);
+        out.flush();
+    }
+
+    /**
+     * write the rows of collapsed unchanged lines of a column, read from the
+     * log of its build by their offsets. The lines are given by the "side"
+     * ("prev" for the left column, "curr" for the right one), "from" (first
+     * line of the log of the column, from 0) and "count" parameters. At most
+     * {@link #MAX_EXPANDED_LINES} lines are written, followed by a collapsed
+     * row for the rest.
+     */
+    public void doContext(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        int from;
+        int count;
+        try {
+            from = Integer.parseInt(req.getParameter("from"));
+            count = Integer.parseInt(req.getParameter("count"));
+        } catch (NumberFormatException e) {
+            rsp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        // The lines only match once masked, so each column has its own text
+        boolean left = !"curr".equals(req.getParameter("side"));
+
+        LogParserLineHashes lines = LogParserLineHashes.forBuild(left ? previousBuild
+                : currentBuild, getNormalizer());
+        try {
+            StringWriter rows = new StringWriter();
+            if (!writeContext(rows, lines.getLines(), left, from, count)) {
+                rsp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+                return;
+            }
+            rsp.setContentType("text/html;charset=UTF-8");
+            Writer out = rsp.getWriter();
+            out.write(rows.toString());
+            out.flush();
+        } finally {
+            lines.close();
+        }
+    }
+
+    /**
+     * write the rows of collapsed unchanged lines of a column
+     * 
+     * @param lines
+     *            the lines of the log of the column
+     * @param left
+     *            the rows are in the left (previous) column, else in the
+     *            right one
+     * @return false if the lines are not in the log
+     */
+    public static boolean writeContext(Writer out, List<String> lines, boolean left, int from,
+            int count) throws IOException {
+        if (from < 0 || count < 0) {
+            return false;
+        }
+        int to = (int) Math.min(lines.size(), (long) from + count);
+        if (from > to) {
+            return false;
+        }
+        int expanded = Math.min(to - from, MAX_EXPANDED_LINES);
+        DiffToHtmlGenerator.writeUnchangedRows(out, lines.subList(from, from + expanded), from);
+        if (from + expanded < to) {
+            DiffToHtmlGenerator.writeCollapsedRow(out, left, from + expanded,
+                    to - from - expanded);
+        }
+        return true;
     }
 
     /**
@@ -84,19 +231,23 @@ public class ConsoleLineDiffDisplay implements Action{
      * 
      * @return html string
      */
-    public String getHtml() {
-        return this.html;
+    public String getHtml() throws IOException {
+        StringWriter html = new StringWriter();
+        writeHtml(html, false);
+        return html.toString();
     }
     
     /**
-     * returns html content
+     * returns html content, with all the lines
      * 
      * @return html content
      */
     
     @JavaScriptMethod
-    public String exportHtml(){
-        return this.html;
+    public String exportHtml() throws IOException {
+        StringWriter html = new StringWriter();
+        writeHtml(html, true);
+        return html.toString();
     }
     
     /**
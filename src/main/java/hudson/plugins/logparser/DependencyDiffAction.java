@@ -33,8 +33,7 @@ public class DependencyDiffAction implements Action {
     public DependencyDiffAction(Job<?, ?> job, int build1, int build2, Launcher launcher,
             FilePath workspace) throws Exception {
 this.owner = job.getBuildByNumber(build1);
-        Map<String, List<String>> pomcontent1 = SCMUtils.getFilesFromBuild("pom.xml", (AbstractProject<?, ?>) job, build1, launcher, workspace);
-    	Map<String, List<String>> pomcontent2 = SCMUtils.getFilesFromBuild("pom.xml", (AbstractProject<?, ?>) job, build2, launcher, workspace);
+   	this.fileName = "dependency_diff.html";
 	this.html = "";
 	
         String configPath = job.getConfigFile().getFile().getAbsolutePath();
@@ -49,6 +48,18 @@ this.owner = job.getBuildByNumber(build1);
 			break;
 		}
 	} 
+	br.close();
+
+	// Checking out the POMs of the builds again is what takes long
+	Run<?, ?> run2 = job.getBuildByNumber(build2);
+	String cached = LogParserDiffCache.get(owner, run2, getUrlName(), pomPath);
+	if (cached != null) {
+		this.html = cached;
+		return;
+	}
+
+        Map<String, List<String>> pomcontent1 = SCMUtils.getFilesFromBuild("pom.xml", (AbstractProject<?, ?>) job, build1, launcher, workspace);
+    	Map<String, List<String>> pomcontent2 = SCMUtils.getFilesFromBuild("pom.xml", (AbstractProject<?, ?>) job, build2, launcher, workspace);
 	List<String> contentlist1 = pomcontent1.get(pomPath);
 	List<String> contentlist2 = pomcontent2.get(pomPath);
 
@@ -68,9 +79,8 @@ this.owner = job.getBuildByNumber(build1);
 	byte[] bytes2 = baos2.toByteArray();
 	InputStream in2 = new ByteArrayInputStream(bytes2);
 	ArrayList<Dependency> deplist2 = DependencyDiffUtils.parsePom(in2);
-	br.close();
 	this.html+=DependencyDiffUtils.toHtml(deplist1, deplist2, DependencyDiffUtils.diff(deplist1, deplist2));
-   	this.fileName = "dependency_diff.html";
+	LogParserDiffCache.put(owner, run2, getUrlName(), pomPath, this.html);
     
     }
 
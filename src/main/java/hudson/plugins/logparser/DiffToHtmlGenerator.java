@@ -5,16 +5,16 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
 
 import difflib.ChangeDelta;
 import difflib.DeleteDelta;
 import difflib.Delta;
-import difflib.DiffUtils;
 import difflib.InsertDelta;
-import difflib.Patch;
 
 /**
  * This class can generate a html page based on line diff result
@@ -54,6 +54,11 @@ public class DiffToHtmlGenerator {
     private static final int DELETED = 2;
     private static final int CHANGED = 3;
 
+    /**
+     * show all the unchanged lines, collapsing none
+     */
+    public static final int ALL_LINES = -1;
+
     /**
      * @return deltas
      */
@@ -87,8 +92,7 @@ public class DiffToHtmlGenerator {
     public DiffToHtmlGenerator(List<String> prevText, List<String> currText) {
         this.prevText = prevText;
         this.currText = currText;
-        Patch patch = DiffUtils.diff(prevText, currText);
-        deltas = patch.getDeltas();
+        deltas = new LogLineDiff().diff(prevText, currText);
     }
 
     /**
@@ -126,8 +130,34 @@ public class DiffToHtmlGenerator {
         curr = currNum;
         prev = prevNum;
 
-        Patch patch = DiffUtils.diff(prevText, currText);
-        deltas = patch.getDeltas();
+        deltas = new LogLineDiff().diff(prevText, currText);
+    }
+
+    /**
+     * 
+     * create new DiffToHtmlGenerator object diffing two console outputs by
+     * the hashes of their lines, reading only the lines shown
+     * 
+     * @param prevLines
+     *            previous console output hashes
+     * @param currLines
+     *            current console output hashes
+     * @param prevNum
+     *            previous build number
+     * @param currNum
+     *            current build number
+     */
+
+    public DiffToHtmlGenerator(LogParserLineHashes prevLines, LogParserLineHashes currLines,
+            int prevNum, int currNum) {
+        prevText = prevLines.getLines();
+        currText = currLines.getLines();
+
+        curr = currNum;
+        prev = prevNum;
+
+        deltas = new LogLineDiff().diff(prevLines.getHashes(), currLines.getHashes(), prevText,
+                currText);
     }
 
     /**
@@ -148,88 +178,114 @@ public class DiffToHtmlGenerator {
      */
 
     public String generateHtmlString(boolean bodyOnly) {
-        StringBuilder res = new StringBuilder();
+        StringWriter res = new StringWriter();
+        try {
+            writeHtml(res, bodyOnly, ALL_LINES);
+        } catch (IOException e) {
+            // Not thrown by a StringWriter
+            throw new IllegalStateException(e);
+        }
+
+        htmlString = res.toString();
+        return htmlString;
+    }
 
+    /**
+     * write the html of the deltas, row by row, so that it never has to be
+     * held in memory.
+     *
+     * Unchanged lines further than contextLines from a change are collapsed
+     * into a row with the class d2h-collapsed, whose data-side ("prev" or
+     * "curr"), data-from and data-count attributes give the column, the
+     * first line in the text of the column and the number of lines of the
+     * collapsed lines, so that a page can fetch them with
+     * {@link #writeUnchangedRows(Writer, List, int)}. Both columns have the
+     * same collapsed rows, in the same order.
+     *
+     * @param out
+     *            where to write the html
+     * @param bodyOnly
+     *            only write the body html
+     * @param contextLines
+     *            the unchanged lines to show around a change,
+     *            {@link #ALL_LINES} to show them all
+     * @throws IOException
+     */
+
+    public void writeHtml(Writer out, boolean bodyOnly, int contextLines) throws IOException {
         if (!bodyOnly) {
-            res.append("<!doctype html>\n");
-            res.append("<html lang='en'>\n");
-            res.append(generateHead());
-            res.append("<body>\n");
+            out.write("<!doctype html>\n");
+            out.write("<html lang='en'>\n");
+            out.write(generateHead());
+            out.write("<body>\n");
         }
 
-        res.append("<div style='margin: 0 auto;'>\n");
-        res.append("<div class='d2h-wrapper'>\n");
-        res.append("<div class='d2h-file-wrapper'>\n");
-        res.append("<div class='d2h-file-header'>\n");
+        out.write("<div style='margin: 0 auto;'>\n");
+        out.write("<div class='d2h-wrapper'>\n");
+        out.write("<div class='d2h-file-wrapper'>\n");
+        out.write("<div class='d2h-file-header'>\n");
 
         if (!bodyOnly) {
-            res.append("<div class='d2h-file-name'>line diff between build" + prev + " and build" + curr + ' ' 
+            out.write("<div class='d2h-file-name'>line diff between build" + prev + " and build" + curr + ' ' 
             		+ DiffToHtmlUtils.generateButton("0","Show/Hide") + "</div>\n");
         }
 
-        res.append("</div>\n");
-        res.append("<div class='d2h-files-diff'>\n");
-        res.append("<div class='d2h-file-side-diff'>\n");
-        res.append("<div class='d2h-code-wrapper'>\n");
-        res.append("<table class='d2h-diff-table'>\n");
-        res.append("<tbody class='d2h-diff-tbody'>\n");
+        out.write("</div>\n");
+        out.write("<div class='d2h-files-diff'>\n");
+        out.write("<div class='d2h-file-side-diff'>\n");
+        out.write("<div class='d2h-code-wrapper'>\n");
+        out.write("<table class='d2h-diff-table'>\n");
+        out.write("<tbody class='d2h-diff-tbody'>\n");
 
-        // generate table based on diff result (deltas)
+        // generate table based on diff result (deltas), one column at a time
 
-        StringBuilder prev = new StringBuilder();
-        StringBuilder curr = new StringBuilder();
+        writeHtmlFromDeltas(out, true, contextLines);
 
-        generateHtmlFromDeltas(prev, curr);
+        out.write("</tbody>\n</table>\n</div>\n</div>\n");
 
-        res.append(prev.toString());
-        res.append("</tbody>\n</table>\n</div>\n</div>\n");
+        out.write("<div class='d2h-file-side-diff'>\n");
+        out.write("<div class='d2h-code-wrapper'>\n");
+        out.write("<table class='d2h-diff-table'>\n");
+        out.write("<tbody class='d2h-diff-tbody'>\n");
 
-        res.append("<div class='d2h-file-side-diff'>\n");
-        res.append("<div class='d2h-code-wrapper'>\n");
-        res.append("<table class='d2h-diff-table'>\n");
-        res.append("<tbody class='d2h-diff-tbody'>\n");
+        writeHtmlFromDeltas(out, false, contextLines);
 
-        res.append(curr.toString());
-        res.append("</tbody>\n</table>\n</div>\n</div>\n</div>\n</div>\n</div>\n</div>\n");
+        out.write("</tbody>\n</table>\n</div>\n</div>\n</div>\n</div>\n</div>\n</div>\n");
 
         if (!bodyOnly) {
-            res.append("</body>\n" + "</html>\n");
+            out.write("</body>\n" + "</html>\n");
         }
-
-        htmlString = res.toString();
-        return htmlString;
     }
 
     /**
      * 
-     * generate left and right column using deltas
+     * write the left or right column using deltas
      * 
-     * @param prev
-     *            stores left column
-     * @param curr
-     *            stores right column
+     * @param out
+     *            where to write the column
+     * @param left
+     *            write the left (previous) column, else the right one
+     * @param contextLines
+     *            the unchanged lines to show around a change
      */
 
-    private void generateHtmlFromDeltas(StringBuilder prev, StringBuilder curr) {
+    private void writeHtmlFromDeltas(Writer out, boolean left, int contextLines)
+            throws IOException {
         int last = -1;
+        // An insertion at the start leaves last at -1
+        boolean seenDelta = false;
         int prevIndex = 0, currIndex = 0;
-        int prevNumOfRows = 0, currNumOfRows = 0;
 
         for (Delta delta : deltas) {
 
             // append unchanged text
 
-            if (last + 1 < delta.getOriginal().getPosition()) {
-
-                for (int i = last + 1; i < delta.getOriginal().getPosition(); i++) {
-                    prev.append(generateTableRow(prevText.get(i), prevIndex, UNCHANGED));
-                    curr.append(generateTableRow(prevText.get(i), currIndex, UNCHANGED));
-                    prevIndex++;
-                    currIndex++;
-                    prevNumOfRows++;
-                    currNumOfRows++;
-                }
-
+            int position = delta.getOriginal().getPosition();
+            if (last + 1 < position) {
+                writeUnchanged(out, left, position - (last + 1), left ? prevIndex : currIndex,
+                        contextLines, seenDelta, true);
+                currIndex += position - (last + 1);
+                prevIndex += position - (last + 1);
             }
 
             // append changed/inserted/deleted text
@@ -247,59 +303,128 @@ public class DiffToHtmlGenerator {
                 typeNum = CHANGED;
             }
 
-            for (Object obj : prevBlock) {
-                prev.append(generateTableRow(obj.toString(), prevIndex, typeNum));
-                prevIndex++;
-                prevNumOfRows++;
-            }
-
-            for (Object obj : currBlock) {
-                curr.append(generateTableRow(obj.toString(), currIndex, typeNum));
-                currIndex++;
-                currNumOfRows++;
-            }
-
-            while (currNumOfRows < prevNumOfRows) {
-                curr.append(generateTableRow("", -1, UNCHANGED));
-                currNumOfRows++;
+            List<?> block = left ? prevBlock : currBlock;
+            int index = left ? prevIndex : currIndex;
+            for (Object obj : block) {
+                writeTableRow(out, obj.toString(), index++, typeNum);
             }
 
-            while (prevNumOfRows < currNumOfRows) {
-                prev.append(generateTableRow("", -1, UNCHANGED));
-                prevNumOfRows++;
+            // pad the shorter side, so that the rows of both columns line up
+            for (int i = block.size(); i < Math.max(prevBlock.size(), currBlock.size()); i++) {
+                writeTableRow(out, "", -1, UNCHANGED);
             }
 
+            prevIndex += prevBlock.size();
+            currIndex += currBlock.size();
             last = delta.getOriginal().last();
+            seenDelta = true;
         }
 
         if (last + 1 < prevText.size()) {
-            for (int i = last + 1; i < prevText.size(); i++) {
-                curr.append(generateTableRow(prevText.get(i), currIndex, UNCHANGED));
-                prev.append(generateTableRow(prevText.get(i), prevIndex, UNCHANGED));
-                currIndex++;
-                prevIndex++;
+            writeUnchanged(out, left, prevText.size() - (last + 1), left ? prevIndex : currIndex,
+                    contextLines, seenDelta, false);
+        }
+    }
+
+    /**
+     * write unchanged lines of a column, collapsing those further than
+     * contextLines from the changes before and after them. The lines only
+     * match once masked, so each column shows the text of its own build.
+     *
+     * @param left
+     *            write the lines of the left (previous) text, else those of
+     *            the right one
+     * @param count
+     *            the number of unchanged lines
+     * @param from
+     *            the first of the lines in the text of the column, which is
+     *            also its row number
+     */
+    private void writeUnchanged(Writer out, boolean left, int count, int from, int contextLines,
+            boolean changeBefore, boolean changeAfter) throws IOException {
+        List<String> text = left ? prevText : currText;
+        int to = from + count;
+        int before = changeBefore ? contextLines : 0;
+        int after = changeAfter ? contextLines : 0;
+        int collapseFrom = to;
+        int collapseTo = to;
+        // Not worth collapsing a single line
+        if (contextLines != ALL_LINES && count > before + after + 1) {
+            collapseFrom = from + before;
+            collapseTo = to - after;
+        }
+        for (int i = from; i < to; i++) {
+            if (i == collapseFrom) {
+                writeCollapsedRow(out, left, collapseFrom, collapseTo - collapseFrom);
+                i = collapseTo - 1;
+            } else {
+                writeTableRow(out, text.get(i), i, UNCHANGED);
             }
         }
     }
 
     /**
+     * write the rows of unchanged lines, such as the lines of a collapsed row
      * 
-     * generate a
+     * @param out
+     *            where to write the rows
+     * @param lines
+     *            the unchanged lines
+     * @param number
+     *            the row number of the first line
+     * @throws IOException
+     */
+
+    public static void writeUnchangedRows(Writer out, List<String> lines, int number)
+            throws IOException {
+        for (String line : lines) {
+            writeTableRow(out, line, number++, UNCHANGED);
+        }
+    }
+
+    /**
+     * write a row standing for unchanged lines which are not shown
+     * 
+     * @param out
+     *            where to write the row
+     * @param left
+     *            the row is in the left (previous) column, else in the right
+     *            one
+     * @param from
+     *            the first collapsed line of the text of the column, which
+     *            is also its row number
+     * @param count
+     *            the number of collapsed lines
+     * @throws IOException
+     */
+
+    public static void writeCollapsedRow(Writer out, boolean left, int from, int count)
+            throws IOException {
+        out.write("<tr class='d2h-collapsed' data-side='" + (left ? "prev" : "curr")
+                + "' data-from='" + from + "' data-count='" + count + "'>\n");
+        out.write("<td class='d2h-code-side-linenumber d2h-info'>...</td>\n");
+        out.write("<td class='d2h-info'>\n<div class='d2h-code-side-line d2h-info'>"
+                + "<a href='#'>" + count + " unchanged lines</a></div>\n</td>\n</tr>\n");
+    }
+
+    /**
+     * 
+     * write a
      * <tr>
      * element based on the content
      * 
+     * @param out
+     *            where to write the row
      * @param s
      *            content in the row
      * @param index
      *            row number
      * @param typeNum
      *            unchanged/changed/deleted/inserted
-     * @return a
-     *         <tr>
-     *         tag
      */
 
-    private String generateTableRow(String s, int index, int typeNum) {
+    private static void writeTableRow(Writer out, String s, int index, int typeNum)
+            throws IOException {
         String type = "";
         String indexString = index >= 0 ? String.valueOf(index) : "";
 
@@ -320,10 +445,19 @@ public class DiffToHtmlGenerator {
                 break;
         }
 
-        String res = "" + "<tr>\n" + "<td class='d2h-code-side-linenumber d2h-" + type + "'>" + indexString + "</td>\n"
-                + "<td class='d2h-" + type + "'>\n" + "<div class='d2h-code-side-line d2h-" + type + "' id = 'check-"
-                + type + "'><span class='d2h-code-line-ctn hljs'>" + s + "</span></div>\n" + "</td>\n" + "</tr>\n";
-        return res;
+        out.write("<tr>\n<td class='d2h-code-side-linenumber d2h-");
+        out.write(type);
+        out.write("'>");
+        out.write(indexString);
+        out.write("</td>\n<td class='d2h-");
+        out.write(type);
+        out.write("'>\n<div class='d2h-code-side-line d2h-");
+        out.write(type);
+        out.write("' id = 'check-");
+        out.write(type);
+        out.write("'><span class='d2h-code-line-ctn hljs'>");
+        out.write(s);
+        out.write("</span></div>\n</td>\n</tr>\n");
     }
 
     private String generateHead() {
@@ -364,7 +498,8 @@ public class DiffToHtmlGenerator {
                 + "border-width:0 1px;cursor:pointer;overflow:hidden;"
                 + "text-overflow:ellipsis}.d2h-del{background-color:#fee8e9;"
                 + "border-color:#e9aeae}.d2h-ins{background-color:#dfd;"
-                + "border-color:#b4e2b4}.d2h-rev{background-color:#A9F5F2;" + "border-color:#00BFFF}";
+                + "border-color:#b4e2b4}.d2h-rev{background-color:#A9F5F2;" + "border-color:#00BFFF}"
+                + ".d2h-info{background-color:#f1f8ff;color:rgba(0,0,0,0.5);" + "border-color:#d2e3fc}";
 
         return res;
     }
@@ -0,0 +1,469 @@
+package hudson.plugins.logparser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import difflib.ChangeDelta;
+import difflib.Chunk;
+import difflib.DeleteDelta;
+import difflib.Delta;
+import difflib.InsertDelta;
+
+/**
+ * Line diff of two logs, scaling to logs of millions of lines.
+ *
+ * The lines are interned to integers first, so that comparing two lines
+ * compares two ints. The common lines at both ends are matched straight
+ * away. In between, the longest run of common lines whose lines occur the
+ * fewest times in the original is matched, and the lines before and after it
+ * are diffed the same way, as the histogram diff of git does. This takes
+ * little more than linear time for logs which mostly match.
+ *
+ * Only where no line occurs few enough times in the original to split on is
+ * Myers' algorithm run, and only in a gap of at most {@link #MAX_MYERS_GAP}
+ * lines, up to an edit cost. Beyond that, the lines of the gap are reported
+ * as changed as a whole, rather than searching for the shortest edit.
+ *
+ * The differences are the deltas of java-diff-utils, in the order of the
+ * lines, so that they replace those of DiffUtils.diff.
+ */
+public class LogLineDiff {
+
+    /**
+     * The default number of inserted and deleted lines Myers' algorithm
+     * searches up to in a gap, which can be changed with the system property
+     * hudson.plugins.logparser.LogLineDiff.maxEditCost.
+     */
+    public static final int DEFAULT_MAX_EDIT_COST = 1000;
+
+    // Lines of the original occurring more often than this in a gap are not
+    // split on
+    static final int MAX_OCCURRENCES = 64;
+    static final int MAX_MYERS_GAP = 20000;
+
+    private static final int REGION = 0;
+    private static final int MATCH = 1;
+
+    private static final int SPLIT = 0;
+    private static final int FREQUENT_ONLY = 1;
+    private static final int NONE_COMMON = 2;
+
+    private final int maxEditCost;
+
+    // The lines as integers, and the runs of matched lines found so far, in
+    // order, as (original position, revised position, length)
+    private int[] a;
+    private int[] b;
+    private int[] matches = new int[48];
+    private int numMatches;
+
+    // Work of the regions left to diff, or of the matches to record once the
+    // regions before them are done, by 5 ints
+    private int[] stack = new int[80];
+    private int stackSize;
+
+    // The lines of the original region being split: the first position of
+    // each line, the next position of the same line, and the count of each
+    // line
+    private int[] head;
+    private int[] next;
+    private int[] count;
+
+    public LogLineDiff() {
+        this(Integer.getInteger(LogLineDiff.class.getName() + ".maxEditCost",
+                DEFAULT_MAX_EDIT_COST));
+    }
+
+    /**
+     * @param maxEditCost
+     *            the number of inserted and deleted lines Myers' algorithm
+     *            searches up to in a gap
+     */
+    public LogLineDiff(final int maxEditCost) {
+        this.maxEditCost = Math.max(0, maxEditCost);
+    }
+
+    /**
+     * @return the number of inserted and deleted lines Myers' algorithm
+     *         searches up to in a gap
+     */
+    public int getMaxEditCost() {
+        return maxEditCost;
+    }
+
+    /**
+     * Diff two logs.
+     *
+     * @param original
+     *            the lines of the original log
+     * @param revised
+     *            the lines of the revised log
+     * @return the deltas turning the original into the revised log, in the
+     *         order of the lines
+     */
+    public synchronized List<Delta> diff(final List<String> original,
+            final List<String> revised) {
+        final Map<String, Integer> ids = new HashMap<String, Integer>();
+        a = intern(original, ids);
+        b = intern(revised, ids);
+        return diffInterned(ids.size(), original, revised);
+    }
+
+    /**
+     * Diff two logs by the hashes of their lines, such as those of
+     * {@link LogParserLineHashes}, so that only the lines of the deltas are
+     * read.
+     *
+     * @param originalHashes
+     *            the hash of each line of the original log
+     * @param revisedHashes
+     *            the hash of each line of the revised log
+     * @param original
+     *            the lines of the original log, only got for the deltas
+     * @param revised
+     *            the lines of the revised log, only got for the deltas
+     * @return the deltas turning the original into the revised log, in the
+     *         order of the lines
+     */
+    public synchronized List<Delta> diff(final long[] originalHashes,
+            final long[] revisedHashes, final List<String> original,
+            final List<String> revised) {
+        final HashIds ids = new HashIds();
+        a = ids.intern(originalHashes);
+        b = ids.intern(revisedHashes);
+        return diffInterned(ids.size, original, revised);
+    }
+
+    private List<Delta> diffInterned(final int numIds, final List<String> original,
+            final List<String> revised) {
+        head = new int[numIds];
+        Arrays.fill(head, -1);
+        count = new int[numIds];
+        next = new int[a.length];
+        numMatches = 0;
+        stackSize = 0;
+
+        push(REGION, 0, a.length, 0, b.length);
+        while (stackSize > 0) {
+            stackSize -= 5;
+            final int type = stack[stackSize];
+            final int p1 = stack[stackSize + 1];
+            final int p2 = stack[stackSize + 2];
+            final int p3 = stack[stackSize + 3];
+            final int p4 = stack[stackSize + 4];
+            if (type == MATCH) {
+                addMatch(p1, p2, p3);
+            } else {
+                diffRegion(p1, p2, p3, p4);
+            }
+        }
+
+        final List<Delta> deltas = toDeltas(original, revised);
+        a = null;
+        b = null;
+        head = null;
+        next = null;
+        count = null;
+        return deltas;
+    }
+
+    /**
+     * Interns hashes without boxing them, by open addressing.
+     */
+    private static final class HashIds {
+        private long[] keys = new long[1024];
+        private int[] ids = new int[1024];
+        private int size;
+
+        HashIds() {
+            Arrays.fill(ids, -1);
+        }
+
+        int[] intern(final long[] hashes) {
+            final int[] result = new int[hashes.length];
+            for (int i = 0; i < hashes.length; i++) {
+                result[i] = intern(hashes[i]);
+            }
+            return result;
+        }
+
+        private int intern(final long hash) {
+            int slot = find(keys, ids, hash);
+            if (ids[slot] < 0) {
+                if (2 * (size + 1) > keys.length) {
+                    grow();
+                    slot = find(keys, ids, hash);
+                }
+                keys[slot] = hash;
+                ids[slot] = size++;
+            }
+            return ids[slot];
+        }
+
+        private static int find(final long[] keys, final int[] ids, final long hash) {
+            final int mask = keys.length - 1;
+            int slot = (int) (hash ^ (hash >>> 32)) & mask;
+            while (ids[slot] >= 0 && keys[slot] != hash) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            final long[] newKeys = new long[2 * keys.length];
+            final int[] newIds = new int[newKeys.length];
+            Arrays.fill(newIds, -1);
+            for (int i = 0; i < keys.length; i++) {
+                if (ids[i] >= 0) {
+                    final int slot = find(newKeys, newIds, keys[i]);
+                    newKeys[slot] = keys[i];
+                    newIds[slot] = ids[i];
+                }
+            }
+            keys = newKeys;
+            ids = newIds;
+        }
+    }
+
+    private static int[] intern(final List<String> lines, final Map<String, Integer> ids) {
+        final int[] result = new int[lines.size()];
+        int i = 0;
+        for (String line : lines) {
+            Integer id = ids.get(line);
+            if (id == null) {
+                id = ids.size();
+                ids.put(line, id);
+            }
+            result[i++] = id;
+        }
+        return result;
+    }
+
+    /**
+     * Diff the lines from aLo to aHi of the original with the lines from bLo
+     * to bHi of the revised log, once the lines before them are diffed.
+     */
+    private void diffRegion(final int aLo, final int aHi, final int bLo, final int bHi) {
+        int prefix = 0;
+        while (aLo + prefix < aHi && bLo + prefix < bHi && a[aLo + prefix] == b[bLo + prefix]) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (aHi - suffix > aLo + prefix && bHi - suffix > bLo + prefix
+                && a[aHi - suffix - 1] == b[bHi - suffix - 1]) {
+            suffix++;
+        }
+        // Pushed in reverse, to be done in order
+        if (suffix > 0) {
+            push(MATCH, aHi - suffix, bHi - suffix, suffix, 0);
+        }
+        final int innerALo = aLo + prefix;
+        final int innerAHi = aHi - suffix;
+        final int innerBLo = bLo + prefix;
+        final int innerBHi = bHi - suffix;
+        if (innerALo < innerAHi && innerBLo < innerBHi) {
+            final int split = split(innerALo, innerAHi, innerBLo, innerBHi);
+            if (split == FREQUENT_ONLY) {
+                // Nothing to split on
+                myers(innerALo, innerAHi, innerBLo, innerBHi);
+            }
+        }
+        if (prefix > 0) {
+            push(MATCH, aLo, bLo, prefix, 0);
+        }
+    }
+
+    /**
+     * Find the longest run of common lines occurring the fewest times in the
+     * original, and push the diff of the lines around it.
+     *
+     * @return {@link #SPLIT}, {@link #FREQUENT_ONLY} if the common lines all
+     *         occur too many times to split on, or {@link #NONE_COMMON}
+     */
+    private int split(final int aLo, final int aHi, final int bLo, final int bHi) {
+        for (int i = aHi - 1; i >= aLo; i--) {
+            final int id = a[i];
+            next[i] = head[id];
+            head[id] = i;
+            count[id]++;
+        }
+
+        int bestA = -1;
+        int bestB = -1;
+        int bestLength = 0;
+        int bestCount = MAX_OCCURRENCES;
+        boolean common = false;
+        int bi = bLo;
+        while (bi < bHi) {
+            final int id = b[bi];
+            int nextB = bi + 1;
+            final int occurrences = count[id];
+            common |= occurrences > 0;
+            if (occurrences > 0 && occurrences <= bestCount) {
+                for (int ai = head[id]; ai >= 0; ai = next[ai]) {
+                    int aStart = ai;
+                    int bStart = bi;
+                    int aEnd = ai + 1;
+                    int bEnd = bi + 1;
+                    int lowest = occurrences;
+                    while (aStart > aLo && bStart > bLo && a[aStart - 1] == b[bStart - 1]) {
+                        aStart--;
+                        bStart--;
+                        lowest = Math.min(lowest, count[a[aStart]]);
+                    }
+                    while (aEnd < aHi && bEnd < bHi && a[aEnd] == b[bEnd]) {
+                        lowest = Math.min(lowest, count[a[aEnd]]);
+                        aEnd++;
+                        bEnd++;
+                    }
+                    if (lowest < bestCount
+                            || (lowest == bestCount && aEnd - aStart > bestLength)) {
+                        bestA = aStart;
+                        bestB = bStart;
+                        bestLength = aEnd - aStart;
+                        bestCount = lowest;
+                    }
+                    // The lines of the run are not tried again
+                    nextB = Math.max(nextB, bEnd);
+                }
+            }
+            bi = nextB;
+        }
+
+        for (int i = aLo; i < aHi; i++) {
+            head[a[i]] = -1;
+            count[a[i]] = 0;
+        }
+        if (bestLength == 0) {
+            return common ? FREQUENT_ONLY : NONE_COMMON;
+        }
+        pushRegion(bestA + bestLength, aHi, bestB + bestLength, bHi);
+        push(MATCH, bestA, bestB, bestLength, 0);
+        pushRegion(aLo, bestA, bLo, bestB);
+        return SPLIT;
+    }
+
+    /**
+     * Match the lines of a gap with Myers' algorithm, if the shortest edit of
+     * the gap costs no more than the maximum, else leave them all unmatched.
+     */
+    private void myers(final int aLo, final int aHi, final int bLo, final int bHi) {
+        final int n = aHi - aLo;
+        final int m = bHi - bLo;
+        if (n + m > MAX_MYERS_GAP) {
+            return;
+        }
+        final int max = Math.min(n + m, maxEditCost);
+        final int offset = max + 1;
+        final int[] v = new int[2 * max + 3];
+        // The furthest x on each diagonal k, from -d to d, after each cost d
+        final List<int[]> trace = new ArrayList<int[]>();
+        int endD = -1;
+        for (int d = 0; d <= max && endD < 0; d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])) {
+                    x = v[offset + k + 1];
+                } else {
+                    x = v[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) {
+                    endD = d;
+                }
+            }
+            trace.add(Arrays.copyOfRange(v, offset - d, offset + d + 1));
+        }
+        if (endD < 0) {
+            // Costs too much
+            return;
+        }
+
+        // Walk back the path, pushing its runs of matched lines from the last
+        int x = n;
+        int y = m;
+        for (int d = endD; d > 0; d--) {
+            final int[] previous = trace.get(d - 1);
+            final int k = x - y;
+            final int previousK;
+            if (k == -d || (k != d && previous[k - 1 + d - 1] < previous[k + 1 + d - 1])) {
+                previousK = k + 1;
+            } else {
+                previousK = k - 1;
+            }
+            final int previousX = previous[previousK + d - 1];
+            final int startX = previousK == k + 1 ? previousX : previousX + 1;
+            if (x > startX) {
+                push(MATCH, aLo + startX, bLo + startX - k, x - startX, 0);
+            }
+            x = previousX;
+            y = previousX - previousK;
+        }
+        if (x > 0) {
+            push(MATCH, aLo, bLo, x, 0);
+        }
+    }
+
+    private void pushRegion(final int aLo, final int aHi, final int bLo, final int bHi) {
+        // Lines only in one of the logs have nothing to match
+        if (aLo < aHi && bLo < bHi) {
+            push(REGION, aLo, aHi, bLo, bHi);
+        }
+    }
+
+    private void push(final int type, final int p1, final int p2, final int p3, final int p4) {
+        if (stackSize + 5 > stack.length) {
+            stack = Arrays.copyOf(stack, 2 * stack.length);
+        }
+        stack[stackSize++] = type;
+        stack[stackSize++] = p1;
+        stack[stackSize++] = p2;
+        stack[stackSize++] = p3;
+        stack[stackSize++] = p4;
+    }
+
+    private void addMatch(final int aStart, final int bStart, final int length) {
+        if (3 * numMatches + 3 > matches.length) {
+            matches = Arrays.copyOf(matches, 2 * matches.length);
+        }
+        matches[3 * numMatches] = aStart;
+        matches[3 * numMatches + 1] = bStart;
+        matches[3 * numMatches + 2] = length;
+        numMatches++;
+    }
+
+    private List<Delta> toDeltas(final List<String> original, final List<String> revised) {
+        final List<Delta> deltas = new ArrayList<Delta>();
+        int ai = 0;
+        int bi = 0;
+        for (int i = 0; i <= numMatches; i++) {
+            final int aStart = i < numMatches ? matches[3 * i] : original.size();
+            final int bStart = i < numMatches ? matches[3 * i + 1] : revised.size();
+            if (aStart > ai || bStart > bi) {
+                final Chunk originalChunk = new Chunk(ai, original.subList(ai, aStart));
+                final Chunk revisedChunk = new Chunk(bi, revised.subList(bi, bStart));
+                if (aStart == ai) {
+                    deltas.add(new InsertDelta(originalChunk, revisedChunk));
+                } else if (bStart == bi) {
+                    deltas.add(new DeleteDelta(originalChunk, revisedChunk));
+                } else {
+                    deltas.add(new ChangeDelta(originalChunk, revisedChunk));
+                }
+            }
+            if (i < numMatches) {
+                ai = aStart + matches[3 * i + 2];
+                bi = bStart + matches[3 * i + 2];
+            }
+        }
+        return deltas;
+    }
+
+}
@@ -1,8 +1,9 @@
 package hudson.plugins.logparser;
 
 import hudson.Functions;
+import hudson.XmlFile;
 import hudson.model.AbstractBuild;
-import hudson.model.Action;
+import hudson.model.Api;
 import hudson.model.Run;
 import hudson.util.Area;
 import hudson.util.ChartUtil;
@@ -10,7 +11,10 @@ import hudson.util.ColorPalette;
 import hudson.util.DataSetBuilder;
 import hudson.util.ShiftedCategoryAxis;
 import hudson.util.StackedAreaRenderer2;
+import jenkins.model.RunAction2;
 import org.jfree.chart.ChartFactory;
+import org.jfree.chart.ChartRenderingInfo;
+import org.jfree.chart.ChartUtilities;
 import org.jfree.chart.JFreeChart;
 import org.jfree.chart.axis.CategoryAxis;
 import org.jfree.chart.axis.CategoryLabelPositions;
@@ -22,28 +26,140 @@ import org.jfree.data.category.CategoryDataset;
 import org.jfree.ui.RectangleInsets;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
 
+import javax.imageio.ImageIO;
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
 import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-
-public class LogParserAction implements Action {
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.ref.SoftReference;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+@ExportedBean
+public class LogParserAction implements RunAction2 {
 
     final private Run<?, ?> build;
-    final private LogParserResult result;
+
+    // Saved with the build, so that walking the builds does not load their
+    // results: see getResult()
+    private int totalErrors;
+    private int totalWarnings;
+    private int totalInfos;
+    private int totalDebugs;
+    // The counts of the extra tags, null for builds recorded before they
+    // were saved here
+    private Map<String, Integer> extraTotals;
+    private boolean parseFailed;
+    // Only while the counts are live, or until a build recorded before the
+    // result got a file of its own is loaded: see onLoad
+    private LogParserResult result;
+    private transient volatile SoftReference<LogParserResult> resultRef;
 
     private static String urlName = "parsed_console";
 
+    /**
+     * The file of the result of a build, in its directory.
+     */
+    public static final String RESULT_FILE_NAME = "log-parser-result.xml";
+
+    // Lines of the parsed log, or classified lines, served at once by
+    // default, and at most
+    private static final int PAGE_SIZE = 1000;
+    private static final int MAX_PAGE_SIZE = 10000;
+
     @Deprecated
     public LogParserAction(final AbstractBuild<?, ?> build, final LogParserResult result) {
         this((Run<?, ?>) build, result);
     }
 
     public LogParserAction(final Run<?, ?> build, final LogParserResult result) {
+        this(build, result, false);
+    }
+
+    /**
+     * @param live
+     *            true to keep the result, which is still being counted,
+     *            rather than save it to its file
+     */
+    LogParserAction(final Run<?, ?> build, final LogParserResult result, final boolean live) {
         this.build = build;
-        this.result = result;
+        setCounts(result);
+        if (live) {
+            this.result = result;
+            return;
+        }
+        try {
+            getResultFile().write(result);
+            this.resultRef = new SoftReference<LogParserResult>(result);
+        } catch (IOException e) {
+            Logger.getLogger(LogParserAction.class.getName()).log(Level.WARNING,
+                    "LogParserAction: Unable to save the result of " + build
+                            + ", keeping it with the build", e);
+            this.result = result;
+        }
+    }
+
+    private void setCounts(final LogParserResult result) {
+        this.totalErrors = result.getTotalErrors();
+        this.totalWarnings = result.getTotalWarnings();
+        this.totalInfos = result.getTotalInfos();
+        this.totalDebugs = result.getTotalDebugs();
+        this.extraTotals = new LinkedHashMap<String, Integer>();
+        for (String extraTag : result.getExtraTags()) {
+            this.extraTotals.put(extraTag, result.getTotalCountsByExtraTag(extraTag));
+        }
+        this.parseFailed = result.getFailedToParseError() != null;
+    }
 
+    public void onAttached(final Run<?, ?> r) {
+    }
+
+    /**
+     * Move the result of a build recorded before it got a file of its own
+     * out of the build.xml, so that the build no longer loads it with
+     * itself.
+     */
+    public void onLoad(final Run<?, ?> r) {
+        if (result == null || r.isBuilding()) {
+            return;
+        }
+        final LogParserResult legacy = result;
+        try {
+            getResultFile().write(legacy);
+        } catch (IOException e) {
+            Logger.getLogger(LogParserAction.class.getName()).log(Level.WARNING,
+                    "LogParserAction: Unable to save the result of " + r
+                            + ", keeping it with the build", e);
+            return;
+        }
+        setCounts(legacy);
+        result = null;
+        resultRef = new SoftReference<LogParserResult>(legacy);
+        try {
+            r.save();
+        } catch (IOException e) {
+            // Moved again the next time the build is loaded
+            Logger.getLogger(LogParserAction.class.getName()).log(Level.WARNING,
+                    "LogParserAction: Unable to save " + r, e);
+        }
     }
 
     public String getIconFileName() {
@@ -66,10 +182,177 @@ public class LogParserAction implements Action {
         return build;
     }
 
-    // Used by the summary.jelly of this class to show some totals from the
-    // result
+    /**
+     * @return the result of the parse, read from its file the first time it
+     *         is needed and kept as long as memory allows
+     */
     public LogParserResult getResult() {
-        return result;
+        if (result != null) {
+            return result;
+        }
+        LogParserResult loaded = resultRef == null ? null : resultRef.get();
+        if (loaded == null) {
+            loaded = loadResult();
+            resultRef = new SoftReference<LogParserResult>(loaded);
+        }
+        return loaded;
+    }
+
+    private LogParserResult loadResult() {
+        final XmlFile file = getResultFile();
+        try {
+            return (LogParserResult) file.read();
+        } catch (IOException e) {
+            Logger.getLogger(LogParserAction.class.getName()).log(Level.WARNING,
+                    "LogParserAction: Unable to read " + file.getFile(), e);
+        } catch (RuntimeException e) {
+            Logger.getLogger(LogParserAction.class.getName()).log(Level.WARNING,
+                    "LogParserAction: Unable to read " + file.getFile(), e);
+        }
+        // Still show the counts
+        final LogParserResult missing = new LogParserResult();
+        missing.setTotalErrors(totalErrors);
+        missing.setTotalWarnings(totalWarnings);
+        missing.setTotalInfos(totalInfos);
+        missing.setTotalDebugs(totalDebugs);
+        missing.setFailedToParseError("Unable to read " + file.getFile());
+        return missing;
+    }
+
+    private XmlFile getResultFile() {
+        return new XmlFile(Run.XSTREAM, new File(build.getRootDir(), RESULT_FILE_NAME));
+    }
+
+    // Used by the summary.jelly of this class, and the trend, without
+    // loading the result
+    public int getTotalErrors() {
+        return result != null ? result.getTotalErrors() : totalErrors;
+    }
+
+    public int getTotalWarnings() {
+        return result != null ? result.getTotalWarnings() : totalWarnings;
+    }
+
+    public int getTotalInfos() {
+        return result != null ? result.getTotalInfos() : totalInfos;
+    }
+
+    public int getTotalDebugs() {
+        return result != null ? result.getTotalDebugs() : totalDebugs;
+    }
+
+    /**
+     * @return true if the log could not be parsed
+     */
+    public boolean isParseFailed() {
+        return result != null ? result.getFailedToParseError() != null : parseFailed;
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    /**
+     * @return true while the counts of the result are kept current as the
+     *         build runs - see {@link LogParserTailer}
+     */
+    @Exported
+    public boolean isLive() {
+        return LogParserTailer.get(build) != null;
+    }
+
+    /**
+     * @return the counts of the lines seen so far by section while the build
+     *         runs, empty otherwise
+     */
+    public Map<String, Integer> getLiveStatusCountPerSection() {
+        final LogParserTailer tailer = LogParserTailer.get(build);
+        if (tailer == null) {
+            return new HashMap<String, Integer>();
+        }
+        return tailer.getStatusCountPerSection();
+    }
+
+    /**
+     * @return the number of lines of each tag, extra tags included, without
+     *         loading the result unless the build was recorded before the
+     *         counts of the extra tags were saved with it
+     */
+    @Exported
+    public Map<String, Integer> getTotals() {
+        if (result != null || extraTotals == null) {
+            return LogParserTrend.countsOf(getResult());
+        }
+        final Map<String, Integer> totals = new LinkedHashMap<String, Integer>();
+        totals.put(LogParserConsts.ERROR, totalErrors);
+        totals.put(LogParserConsts.WARNING, totalWarnings);
+        totals.put(LogParserConsts.INFO, totalInfos);
+        totals.put(LogParserConsts.DEBUG, totalDebugs);
+        totals.putAll(extraTotals);
+        return totals;
+    }
+
+    /**
+     * @return whether {@link #getTotals()} has the counts of the extra tags
+     *         without loading the result
+     */
+    boolean hasExtraTotals() {
+        return result != null || extraTotals != null;
+    }
+
+    /**
+     * @return the number of lines of each tag in each section which has
+     *         classified lines, in the order of the sections
+     */
+    // Not exported, as the counts are in the result, which the API of the
+    // build must not load: see doSections
+    public List<SectionCounts> getSections() {
+        final Map<String, Integer> countsBySectionKey = isLive()
+                ? getLiveStatusCountPerSection() : getResult().getStatusCountPerSection();
+        final TreeMap<Integer, SectionCounts> sections = new TreeMap<Integer, SectionCounts>();
+        for (Map.Entry<String, Integer> entry : countsBySectionKey.entrySet()) {
+            // See LogParserUtils.getSectionCountKey
+            final String key = entry.getKey();
+            final int dash = key.indexOf('-');
+            final int section;
+            try {
+                section = Integer.parseInt(key.substring(0, dash));
+            } catch (RuntimeException e) {
+                continue;
+            }
+            SectionCounts counts = sections.get(section);
+            if (counts == null) {
+                counts = new SectionCounts(section);
+                sections.put(section, counts);
+            }
+            counts.counts.put(key.substring(dash + 1), entry.getValue());
+        }
+        return new ArrayList<SectionCounts>(sections.values());
+    }
+
+    /**
+     * The counts of the lines of a section of the log.
+     */
+    public static final class SectionCounts {
+
+        private final int section;
+        private final Map<String, Integer> counts = new TreeMap<String, Integer>();
+
+        SectionCounts(final int section) {
+            this.section = section;
+        }
+
+        /**
+         * @return the number of the section, 0 for the lines before the
+         *         first section start
+         */
+        public int getSection() {
+            return section;
+        }
+
+        public Map<String, Integer> getCounts() {
+            return counts;
+        }
     }
 
     public LogParserAction getPreviousAction() {
@@ -87,15 +370,247 @@ public class LogParserAction implements Action {
         }
     }
 
+    /**
+     * Serve the pages of the parse, see {@link LogParserArtifactServer}.
+     */
     public void doDynamic(final StaplerRequest req, final StaplerResponse rsp)
             throws IOException, ServletException, InterruptedException {
-        final String dir = result.getHtmlLogPath();
+        final String dir = getResult().getHtmlLogPath();
+        if (dir == null) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
         final String file = req.getRestOfPath();
         final String fileArray[] = file.split("/");
         final String lastFileInPath = fileArray[fileArray.length - 1];
-        final File f = new File(dir + "/" + lastFileInPath);
-        rsp.serveFile(req, f.toURI().toURL());
+        LogParserArtifactServer.serve(req, rsp, new File(dir), lastFileInPath,
+                !getOwner().isBuilding());
+    }
+
+    /**
+     * Serve the per rule stats and the phase timings of the parse of this
+     * build, as JSON.
+     */
+    public void doRuleStats(final StaplerRequest req, final StaplerResponse rsp)
+            throws IOException {
+        final String dir = getResult().getHtmlLogPath();
+        final File f = dir == null ? null : new File(dir, LogParserConsts.RULE_STATS_FILE);
+        if (f == null || !f.isFile()) {
+            // Not parsed yet, or parsed before the stats were recorded
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        rsp.setContentType("application/json;charset=UTF-8");
+        final OutputStream out = rsp.getOutputStream();
+        try {
+            Files.copy(f.toPath(), out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Serve a window of lines of the parsed log, so that a long log is viewed
+     * a page at a time. The window is given by the "from" (first line, from 0)
+     * and "count" parameters, or by an "anchor" parameter such as "ERROR12"
+     * for the page of the line it marks.
+     */
+    public void doPage(final StaplerRequest req, final StaplerResponse rsp) throws IOException {
+        final String dir = getResult().getHtmlLogPath();
+        if (dir == null) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        final File indexFile = new File(dir, LogParserLineIndex.FILE_NAME);
+        final LogParserLineIndex index = LogParserLineIndex.load(indexFile);
+        final File content = LogParserGzip.find(new File(dir), "log_content.html");
+        if (index == null || content == null) {
+            // Parsed before lines were indexed
+            rsp.sendRedirect("log_content.html");
+            return;
+        }
+        if (req.checkIfModified(indexFile.lastModified(), rsp)) {
+            return;
+        }
+
+        final int count = Math.min(MAX_PAGE_SIZE, Math.max(1, getIntParameter(req, "count",
+                PAGE_SIZE)));
+        int from = Math.max(0, getIntParameter(req, "from", 0));
+        final String anchor = req.getParameter("anchor");
+        if (anchor != null) {
+            final int line = index.findAnchor(content, anchor);
+            if (line >= 0) {
+                from = line - line % count;
+            }
+        }
+
+        final Charset charset = Charset.defaultCharset();
+        final String navigation = getPageNavigation(from, count, index.getLineCount());
+        rsp.setContentType("text/html;charset=" + charset.name());
+        final OutputStream out = rsp.getOutputStream();
+        try {
+            out.write((LogParserConsts.getHtmlOpeningTags() + navigation).getBytes(charset));
+            if (index.isPreformattedHtml()) {
+                out.write("<pre>".getBytes(charset));
+            }
+            index.copyLines(content, from, count, out);
+            if (index.isPreformattedHtml()) {
+                out.write("</pre>".getBytes(charset));
+            }
+            out.write((navigation + LogParserConsts.getHtmlClosingTags()).getBytes(charset));
+        } finally {
+            out.close();
+        }
+    }
 
+    /**
+     * Serve the classified lines of the log as newline delimited JSON, one
+     * object per line, read from the event log as they are sent.
+     *
+     * The optional "tag" parameter keeps the lines of one tag. The lines
+     * start at the line of the log given by "from" (from 0), and there are at
+     * most "limit" of them: the next page starts right after the last line
+     * received, and a page with fewer lines is the last one.
+     */
+    public void doEvents(final StaplerRequest req, final StaplerResponse rsp)
+            throws IOException {
+        final LogParserResult result = getResult();
+        final File eventLogFile = result.getEventLogFile();
+        final LogParserEventLog.Cursor cursor;
+        if (eventLogFile == null || !eventLogFile.isFile()) {
+            cursor = null;
+        } else if (req.checkIfModified(eventLogFile.lastModified(), rsp)) {
+            return;
+        } else {
+            cursor = result.openEvents(req.getParameter("tag"),
+                    Math.max(0, getIntParameter(req, "from", 0)), Integer.MAX_VALUE);
+        }
+        if (cursor == null) {
+            // Not parsed yet, or parsed before the lines were recorded
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        final int limit = Math.min(MAX_PAGE_SIZE, Math.max(1, getIntParameter(req, "limit",
+                PAGE_SIZE)));
+
+        rsp.setContentType("application/x-ndjson;charset=UTF-8");
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(rsp.getOutputStream(),
+                "UTF-8"));
+        try {
+            for (int i = 0; i < limit && cursor.next(); i++) {
+                writer.write("{\"tag\":");
+                writeJsonString(writer, cursor.getTag());
+                writer.write(",\"ordinal\":" + cursor.getOrdinal());
+                writer.write(",\"line\":" + cursor.getLine());
+                writer.write(",\"offset\":" + cursor.getOffset());
+                writer.write(",\"section\":" + cursor.getSection());
+                writer.write(",\"text\":");
+                writeJsonString(writer, cursor.getText());
+                writer.write("}\n");
+            }
+        } finally {
+            cursor.close();
+            writer.close();
+        }
+    }
+
+    /**
+     * Serve the counts of the lines of each tag by section, see
+     * {@link #getSections()}, as a JSON array of objects with a "section"
+     * number and the "counts" by tag.
+     */
+    public void doSections(final StaplerRequest req, final StaplerResponse rsp)
+            throws IOException {
+        final List<SectionCounts> sections = getSections();
+        rsp.setContentType("application/json;charset=UTF-8");
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(rsp.getOutputStream(),
+                "UTF-8"));
+        try {
+            writer.write('[');
+            for (int i = 0; i < sections.size(); i++) {
+                final SectionCounts counts = sections.get(i);
+                writer.write(i == 0 ? "\n" : ",\n");
+                writer.write("{\"section\":" + counts.getSection() + ",\"counts\":{");
+                String separator = "";
+                for (Map.Entry<String, Integer> count : counts.getCounts().entrySet()) {
+                    writer.write(separator);
+                    writeJsonString(writer, count.getKey());
+                    writer.write(":" + count.getValue());
+                    separator = ",";
+                }
+                writer.write("}}");
+            }
+            writer.write("\n]\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    // Written by hand as json-lib takes strings such as "[INFO]" for JSON
+    private static void writeJsonString(final Writer writer, final String value)
+            throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        writer.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        writer.write(c);
+                    }
+            }
+        }
+        writer.write('"');
+    }
+
+    private static int getIntParameter(final StaplerRequest req, final String name,
+            final int defaultValue) {
+        final String value = req.getParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static String getPageNavigation(final int from, final int count, final int lineCount) {
+        final StringBuilder navigation = new StringBuilder("<p>Lines ");
+        navigation.append(Math.min(from + 1, lineCount)).append(" to ")
+                .append(Math.min(from + count, lineCount)).append(" of ").append(lineCount);
+        if (from > 0) {
+            navigation.append(" | ").append(getPageLink(0, count, "first"));
+            navigation.append(" | ").append(getPageLink(Math.max(0, from - count), count,
+                    "previous"));
+        }
+        if (from + count < lineCount) {
+            navigation.append(" | ").append(getPageLink(from + count, count, "next"));
+            navigation.append(" | ").append(getPageLink((lineCount - 1) / count * count, count,
+                    "last"));
+        }
+        return navigation.append("</p>\n").toString();
+    }
+
+    private static String getPageLink(final int from, final int count, final String text) {
+        return "<a href=\"page?from=" + from + "&amp;count=" + count + "\">" + text + "</a>";
     }
 
     public void doGraph(StaplerRequest req, StaplerResponse rsp) throws IOException {
@@ -108,14 +623,54 @@ public class LogParserAction implements Action {
         if (req.checkIfModified(getOwner().getTimestamp(), rsp))
             return;
 
-        ChartUtil.generateGraph(req, rsp, createChart(req, buildDataSet()), calcDefaultSize());
+        final LogParserChartCache.Chart chart = getChart(req);
+        rsp.setContentType("image/png");
+        final OutputStream out = rsp.getOutputStream();
+        try {
+            out.write(chart.getPng());
+        } finally {
+            out.close();
+        }
     }
 
     public void doGraphMap(StaplerRequest req, StaplerResponse rsp) throws IOException {
         if (req.checkIfModified(this.getOwner().getTimestamp(), rsp))
             return;
-        ChartUtil.generateClickableMap(req, rsp, createChart(req, buildDataSet()),
-                calcDefaultSize());
+        final LogParserChartCache.Chart chart = getChart(req);
+        rsp.setContentType("text/plain;charset=UTF-8");
+        rsp.getWriter().println(chart.getMap());
+    }
+
+    /**
+     * Render the trend up to this build at the requested size, along with
+     * the map of its links, unless it was rendered already.
+     */
+    private LogParserChartCache.Chart getChart(final StaplerRequest req) throws IOException {
+        final Area defaultSize = calcDefaultSize();
+        final int width = getIntParameter(req, "width", defaultSize.width);
+        final int height = getIntParameter(req, "height", defaultSize.height);
+        final int window = LogParserPublisher.DescriptorImpl.DESCRIPTOR.getTrendWindow();
+        final LogParserChartCache.Key key = new LogParserChartCache.Key(getOwner().getParent()
+                .getFullName(), getOwner().getNumber(), window, width, height, getRelPath(req));
+        LogParserChartCache.Chart chart = LogParserChartCache.getChart(key);
+        if (chart != null) {
+            return chart;
+        }
+
+        CategoryDataset dataset = LogParserChartCache.getDataset(key);
+        if (dataset == null) {
+            dataset = buildDataSet(window);
+            LogParserChartCache.putDataset(key, dataset);
+        }
+        final ChartRenderingInfo info = new ChartRenderingInfo();
+        final BufferedImage image = createChart(req, dataset).createBufferedImage(width, height,
+                info);
+        final ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "PNG", png);
+        chart = new LogParserChartCache.Chart(png.toByteArray(), ChartUtilities.getImageMap(
+                "map", info));
+        LogParserChartCache.putChart(key, chart);
+        return chart;
     }
 
     private Area calcDefaultSize() {
@@ -126,27 +681,60 @@ public class LogParserAction implements Action {
             return new Area(500, 200);
     }
 
-    private CategoryDataset buildDataSet() {
-
-        DataSetBuilder<String, ChartUtil.NumberOnlyBuildLabel> dsb = new DataSetBuilder<String, ChartUtil.NumberOnlyBuildLabel>();
-
-        for (LogParserAction a = this; a != null; a = a.getPreviousAction()) {
-            dsb.add(a.result.getTotalErrors(), "errors",
-                    new ChartUtil.NumberOnlyBuildLabel(a.getOwner()));
-            dsb.add(a.result.getTotalWarnings(), "warnings",
-                    new ChartUtil.NumberOnlyBuildLabel(a.getOwner()));
-            dsb.add(a.result.getTotalInfos(), "infos",
-                    new ChartUtil.NumberOnlyBuildLabel(a.getOwner()));
-            dsb.add(a.result.getTotalDebugs(), "debugs",
-                    new ChartUtil.NumberOnlyBuildLabel(a.getOwner()));
-            for (String extraTag : a.result.getExtraTags()) {
-                dsb.add(a.result.getTotalCountsByExtraTag(extraTag), extraTag,
-                        new ChartUtil.NumberOnlyBuildLabel(a.getOwner()));
+    private CategoryDataset buildDataSet(final int window) {
+
+        DataSetBuilder<String, BuildNumberLabel> dsb = new DataSetBuilder<String, BuildNumberLabel>();
+
+        // From the trend of the job rather than the actions of the builds,
+        // so that no build has to be loaded
+        final List<LogParserTrend.Entry> trend = LogParserTrend.read(getOwner().getParent(),
+                getOwner().getNumber(), window);
+        for (LogParserTrend.Entry entry : trend) {
+            final BuildNumberLabel label = new BuildNumberLabel(entry.getBuildNumber());
+            dsb.add(entry.getCount(LogParserConsts.ERROR), "errors", label);
+            dsb.add(entry.getCount(LogParserConsts.WARNING), "warnings", label);
+            dsb.add(entry.getCount(LogParserConsts.INFO), "infos", label);
+            dsb.add(entry.getCount(LogParserConsts.DEBUG), "debugs", label);
+            for (String tag : entry.getCounts().keySet()) {
+                if (!LogParserConsts.STATUSES_WITH_LINK_FILES.contains(tag)) {
+                    dsb.add(entry.getCount(tag), tag, label);
+                }
             }
         }
         return dsb.build();
     }
 
+    /**
+     * Labels a build in the trend by its number alone.
+     */
+    private static final class BuildNumberLabel implements Comparable<BuildNumberLabel> {
+
+        private final int number;
+
+        BuildNumberLabel(final int number) {
+            this.number = number;
+        }
+
+        public int compareTo(final BuildNumberLabel that) {
+            return this.number < that.number ? -1 : this.number == that.number ? 0 : 1;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof BuildNumberLabel && ((BuildNumberLabel) o).number == number;
+        }
+
+        @Override
+        public int hashCode() {
+            return number;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + number;
+        }
+    }
+
     private JFreeChart createChart(StaplerRequest req, CategoryDataset dataset) {
 
         final String relPath = getRelPath(req);
@@ -198,22 +786,21 @@ public class LogParserAction implements Action {
 
             @Override
             public String generateURL(CategoryDataset dataset, int row, int column) {
-                ChartUtil.NumberOnlyBuildLabel label = (ChartUtil.NumberOnlyBuildLabel) dataset
-                        .getColumnKey(column);
-                return relPath + label.build.getNumber() + "/testReport/";
+                BuildNumberLabel label = (BuildNumberLabel) dataset.getColumnKey(column);
+                return relPath + label.number + "/testReport/";
             }
 
             @Override
             public String generateToolTip(CategoryDataset dataset, int row, int column) {
                 switch (row) {
                     case 0:
-                        return "Errors: " + result.getTotalErrors();
+                        return "Errors: " + getTotalErrors();
                     case 1:
-                        return "Warnings: " + result.getTotalWarnings();
+                        return "Warnings: " + getTotalWarnings();
                     case 2:
-                        return "Debugs: " + result.getTotalDebugs();
+                        return "Debugs: " + getTotalDebugs();
                     default:
-                        return "Infos: " + result.getTotalInfos();
+                        return "Infos: " + getTotalInfos();
                 }
             }
         };
@@ -0,0 +1,277 @@
+package hudson.plugins.logparser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Serves the pages written by the parse of a build, see
+ * {@link LogParserAction#doDynamic}.
+ *
+ * Only the pages of the parse are served, by name, from the directory of the
+ * artifacts. Each response carries an ETag made of the length and the time
+ * of the file, so that a browser revisiting a large parsed log revalidates
+ * it rather than loading it again, and honours a single byte range, so that
+ * a load cut short can resume. The bytes are handed from the file channel to
+ * the response without going through a buffer of the plugin.
+ *
+ * A compressed artifact, see {@link LogParserGzip}, is sent as it is to the
+ * clients accepting gzip, with ranges of the compressed data, and
+ * decompressed on the fly for the others, without ranges.
+ */
+public final class LogParserArtifactServer {
+
+    // log.html, log_content.html, log_ref.html, and the link pages of the
+    // builds parsed before the event log, such as logerrorLinks.html
+    private static final Pattern SERVED = Pattern
+            .compile("log(_content|_ref|[^/\\\\]*Links)?\\.html");
+
+    // How long a browser keeps the pages of a finished build before
+    // revalidating them
+    private static final String CACHE_FINISHED = "private, max-age=86400";
+    private static final String CACHE_BUILDING = "private, no-cache";
+
+    public static final long[] UNSATISFIABLE = new long[0];
+
+    private LogParserArtifactServer() {
+    }
+
+    static boolean isServed(final String name) {
+        return SERVED.matcher(name).matches();
+    }
+
+    /**
+     * Serve an artifact.
+     *
+     * @param dir
+     *            the directory of the artifacts of the build
+     * @param name
+     *            the name of the uncompressed artifact
+     * @param finished
+     *            true if the build is over, so that its pages can be cached
+     *            for longer
+     */
+    static void serve(final StaplerRequest req, final StaplerResponse rsp, final File dir,
+            final String name, final boolean finished) throws IOException {
+        final File file = isServed(name) ? LogParserGzip.find(dir, name) : null;
+        if (file == null) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        final boolean compressed = LogParserGzip.isCompressed(file.getPath());
+        final boolean sendCompressed = compressed && acceptsGzip(req);
+
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            final FileChannel channel = in.getChannel();
+            final long length = channel.size();
+            final long lastModified = file.lastModified();
+            // Each encoding of the artifact is a representation of its own
+            final String etag = "\"" + Long.toHexString(length) + "-"
+                    + Long.toHexString(lastModified)
+                    + (compressed && !sendCompressed ? "-gunzip" : "") + "\"";
+
+            rsp.setContentType("text/html;charset=" + Charset.defaultCharset().name());
+            rsp.setHeader("ETag", etag);
+            rsp.setDateHeader("Last-Modified", lastModified);
+            rsp.setHeader("Cache-Control", finished ? CACHE_FINISHED : CACHE_BUILDING);
+            if (compressed) {
+                rsp.setHeader("Vary", "Accept-Encoding");
+            }
+            if (isNotModified(req, etag, lastModified)) {
+                rsp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+            final boolean head = "HEAD".equals(req.getMethod());
+
+            if (compressed && !sendCompressed) {
+                rsp.setHeader("Accept-Ranges", "none");
+                if (!head) {
+                    final InputStream inflated = new GZIPInputStream(in);
+                    final OutputStream out = rsp.getOutputStream();
+                    try {
+                        IOUtils.copy(inflated, out);
+                    } finally {
+                        inflated.close();
+                        out.close();
+                    }
+                }
+                return;
+            }
+
+            if (sendCompressed) {
+                rsp.setHeader("Content-Encoding", "gzip");
+            }
+            rsp.setHeader("Accept-Ranges", "bytes");
+            long start = 0;
+            long end = length;
+            final long[] range = ifRange(req, etag, lastModified) ? parseRange(
+                    req.getHeader("Range"), length) : null;
+            if (range == UNSATISFIABLE) {
+                rsp.setHeader("Content-Range", "bytes */" + length);
+                rsp.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (range != null) {
+                start = range[0];
+                end = range[1];
+                rsp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                rsp.setHeader("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + length);
+            }
+            // Not setContentLength, which takes an int
+            rsp.setHeader("Content-Length", Long.toString(end - start));
+            if (head) {
+                return;
+            }
+
+            final OutputStream out = rsp.getOutputStream();
+            try {
+                final WritableByteChannel target = Channels.newChannel(out);
+                long position = start;
+                while (position < end) {
+                    final long sent = channel.transferTo(position, end - position, target);
+                    if (sent <= 0) {
+                        // Cut short under us
+                        break;
+                    }
+                    position += sent;
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static boolean acceptsGzip(final StaplerRequest req) {
+        final String acceptEncoding = req.getHeader("Accept-Encoding");
+        return acceptEncoding != null && acceptEncoding.contains("gzip");
+    }
+
+    private static boolean isNotModified(final StaplerRequest req, final String etag,
+            final long lastModified) {
+        final String ifNoneMatch = req.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            return ifNoneMatch.trim().equals("*") || matchesEtag(ifNoneMatch, etag);
+        }
+        final long ifModifiedSince = getDateHeader(req, "If-Modified-Since");
+        // HTTP dates are to the second
+        return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    private static boolean matchesEtag(final String header, final String etag) {
+        for (String candidate : header.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return false if the request asks for a range only of another version
+     *         of the artifact
+     */
+    private static boolean ifRange(final StaplerRequest req, final String etag,
+            final long lastModified) {
+        final String ifRange = req.getHeader("If-Range");
+        return ifRange(ifRange, ifRange == null ? -1 : getDateHeader(req, "If-Range"), etag,
+                lastModified);
+    }
+
+    /**
+     * @param ifRange
+     *            the If-Range header, may be null
+     * @param date
+     *            the header as a date, -1 if it is not one
+     * @return false if the request asks for a range only of another version
+     *         of the artifact
+     */
+    public static boolean ifRange(final String ifRange, final long date, final String etag,
+            final long lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.trim().startsWith("\"")) {
+            return ifRange.trim().equals(etag);
+        }
+        return date >= 0 && lastModified / 1000 == date / 1000;
+    }
+
+    private static long getDateHeader(final StaplerRequest req, final String name) {
+        try {
+            return req.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            // Not a date
+            return -1;
+        }
+    }
+
+    /**
+     * Parse a Range header of a single range of bytes. Several ranges are
+     * rare and are served as the whole artifact, as HTTP allows.
+     *
+     * @param header
+     *            the header, may be null
+     * @param length
+     *            the length of the artifact
+     * @return the start and end (exclusive) of the range, null to serve the
+     *         whole artifact, or {@link #UNSATISFIABLE}
+     */
+    public static long[] parseRange(final String header, final long length) {
+        if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return null;
+        }
+        final String spec = header.substring("bytes=".length()).trim();
+        final int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        final long start;
+        final long end;
+        try {
+            if (dash == 0) {
+                // The last bytes
+                final long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0) {
+                    return UNSATISFIABLE;
+                }
+                start = Math.max(0, length - suffix);
+                end = length;
+            } else {
+                start = Long.parseLong(spec.substring(0, dash));
+                end = dash == spec.length() - 1 ? length : Math.min(length,
+                        Long.parseLong(spec.substring(dash + 1)) + 1);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (start >= length) {
+            return UNSATISFIABLE;
+        }
+        if (start < 0 || end <= start) {
+            return null;
+        }
+        return new long[] { start, end };
+    }
+
+}
@@ -0,0 +1,153 @@
+package hudson.plugins.logparser;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jfree.data.category.CategoryDataset;
+
+/**
+ * The trend charts last rendered, so that a page showing a trend does not
+ * render it once for the image and once more for its map, and the pages
+ * viewed again do not render it at all.
+ *
+ * A chart is keyed by its job, the build it is drawn up to, the trend window
+ * and the requested size and link prefix. The datasets are kept apart, so
+ * that the same trend at another size is only drawn again. Both are dropped
+ * for a job when its trend changes, and the least recently used ones are
+ * dropped when there are too many.
+ */
+public final class LogParserChartCache {
+
+    static final int MAX_CHARTS = 64;
+    static final int MAX_DATASETS = 32;
+
+    /**
+     * A rendered chart: the image and the map of its links.
+     */
+    public static final class Chart {
+
+        private final byte[] png;
+        private final String map;
+
+        public Chart(final byte[] png, final String map) {
+            this.png = png;
+            this.map = map;
+        }
+
+        byte[] getPng() {
+            return png;
+        }
+
+        String getMap() {
+            return map;
+        }
+    }
+
+    private static final Map<Key, Chart> CHARTS = new Lru<Chart>(MAX_CHARTS);
+    private static final Map<Key, CategoryDataset> DATASETS = new Lru<CategoryDataset>(
+            MAX_DATASETS);
+
+    private LogParserChartCache() {
+    }
+
+    public static synchronized Chart getChart(final Key key) {
+        return CHARTS.get(key);
+    }
+
+    public static synchronized void putChart(final Key key, final Chart chart) {
+        CHARTS.put(key, chart);
+    }
+
+    public static synchronized CategoryDataset getDataset(final Key key) {
+        return DATASETS.get(key.getDatasetKey());
+    }
+
+    public static synchronized void putDataset(final Key key, final CategoryDataset dataset) {
+        DATASETS.put(key.getDatasetKey(), dataset);
+    }
+
+    /**
+     * Drop the charts of a job, when its trend changes.
+     *
+     * @param job
+     *            the full name of the job
+     */
+    static synchronized void invalidate(final String job) {
+        invalidate(CHARTS, job);
+        invalidate(DATASETS, job);
+    }
+
+    private static void invalidate(final Map<Key, ?> map, final String job) {
+        for (Iterator<Key> keys = map.keySet().iterator(); keys.hasNext();) {
+            if (keys.next().job.equals(job)) {
+                keys.remove();
+            }
+        }
+    }
+
+    /**
+     * Identifies a rendered chart.
+     */
+    public static final class Key {
+
+        private final String job;
+        private final int build;
+        private final int window;
+        private final int width;
+        private final int height;
+        private final String rel;
+
+        public Key(final String job, final int build, final int window, final int width,
+                final int height, final String rel) {
+            this.job = job;
+            this.build = build;
+            this.window = window;
+            this.width = width;
+            this.height = height;
+            this.rel = rel;
+        }
+
+        Key getDatasetKey() {
+            return new Key(job, build, window, 0, 0, "");
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key that = (Key) o;
+            return job.equals(that.job) && build == that.build && window == that.window
+                    && width == that.width && height == that.height && rel.equals(that.rel);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = job.hashCode();
+            hash = 31 * hash + build;
+            hash = 31 * hash + window;
+            hash = 31 * hash + width;
+            hash = 31 * hash + height;
+            return 31 * hash + rel.hashCode();
+        }
+    }
+
+    private static final class Lru<V> extends LinkedHashMap<Key, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+        Lru(final int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Key, V> eldest) {
+            return size() > maxSize;
+        }
+    }
+
+}
@@ -0,0 +1,427 @@
+package hudson.plugins.logparser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * How far the log of a build has been parsed, saved next to
+ * log_content.html so that parsing the same build again with the same rules
+ * only has to go through the lines added since.
+ *
+ * A checkpoint is only taken at the end of a line, after which the parsed
+ * log and the event log are exactly as long as recorded here. Resuming
+ * truncates them back to these lengths, restores the counters and the
+ * section state, and carries on from the recorded log offset.
+ */
+public class LogParserCheckpoint {
+
+    public static final String FILE_NAME = "log_parser_checkpoint.properties";
+
+    private static final String RULES_HASH = "rulesHash";
+    private static final String OFFSET = "offset";
+    private static final String ENDS_WITH_CR = "endsWithCR";
+    private static final String LINE_COUNT = "lineCount";
+    private static final String SECTION_COUNTER = "sectionCounter";
+    private static final String CONTENT_LENGTH = "contentLength";
+    private static final String STATUS_COUNT = "statusCount.";
+    private static final String SECTION_COUNT = "sectionCount.";
+    private static final String HEADER = "header.";
+    private static final String EVENT_LOG_LENGTH = "eventLogLength";
+    private static final String GZIP_STATE = "gzipState.";
+
+    private String rulesHash;
+    private long offset;
+    private boolean endsWithCR;
+    private int lineCount;
+    private int sectionCounter;
+    private long contentLength;
+    private long eventLogLength;
+    private final HashMap<String, Integer> statusCount = new HashMap<String, Integer>();
+    private final HashMap<String, Integer> statusCountPerSection = new HashMap<String, Integer>();
+    private final ArrayList<String> headerForSection = new ArrayList<String>();
+    private final HashMap<String, long[]> gzipStates = new HashMap<String, long[]>();
+
+    public String getRulesHash() {
+        return rulesHash;
+    }
+
+    public void setRulesHash(final String rulesHash) {
+        this.rulesHash = rulesHash;
+    }
+
+    /**
+     * @return the offset in bytes of the first log line not parsed yet
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    public void setOffset(final long offset) {
+        this.offset = offset;
+    }
+
+    /**
+     * @return true if the parsed part of the log ends with '\r', in which case
+     *         a '\n' right at the offset belongs to the last parsed line
+     */
+    public boolean getEndsWithCR() {
+        return endsWithCR;
+    }
+
+    public void setEndsWithCR(final boolean endsWithCR) {
+        this.endsWithCR = endsWithCR;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    public void setLineCount(final int lineCount) {
+        this.lineCount = lineCount;
+    }
+
+    public int getSectionCounter() {
+        return sectionCounter;
+    }
+
+    public void setSectionCounter(final int sectionCounter) {
+        this.sectionCounter = sectionCounter;
+    }
+
+    /**
+     * @return the length of the parsed log, before its closing tags
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    public void setContentLength(final long contentLength) {
+        this.contentLength = contentLength;
+    }
+
+    public HashMap<String, Integer> getStatusCount() {
+        return statusCount;
+    }
+
+    public HashMap<String, Integer> getStatusCountPerSection() {
+        return statusCountPerSection;
+    }
+
+    public ArrayList<String> getHeaderForSection() {
+        return headerForSection;
+    }
+
+    /**
+     * @return the length of the event log - see {@link LogParserEventLog}
+     */
+    public long getEventLogLength() {
+        return eventLogLength;
+    }
+
+    public void setEventLogLength(final long eventLogLength) {
+        this.eventLogLength = eventLogLength;
+    }
+
+    /**
+     * @return the CRC-32 and the length of the data written so far to each
+     *         compressed file, by file name - see {@link LogParserGzip}
+     */
+    public HashMap<String, long[]> getGzipStates() {
+        return gzipStates;
+    }
+
+    /**
+     * Check that the checkpoint can be resumed from.
+     *
+     * @param expectedRulesHash
+     *            the hash of the rules about to be used
+     * @param logFile
+     *            the log about to be parsed
+     * @param parsedFile
+     *            the parsed log written from the checkpoint
+     * @param eventLogFile
+     *            the event log written from the checkpoint
+     * @return true if the rules are the same, none of the files is shorter
+     *         than recorded and the state of the parsed log is known if it
+     *         is compressed
+     */
+    public boolean isUsable(final String expectedRulesHash, final File logFile,
+            final File parsedFile, final File eventLogFile) {
+        return expectedRulesHash.equals(rulesHash) && logFile.length() >= offset
+                && parsedFile.length() >= contentLength && eventLogFile.length() >= eventLogLength
+                && hasGzipState(parsedFile.getPath());
+    }
+
+    private boolean hasGzipState(final String path) {
+        return !LogParserGzip.isCompressed(path)
+                || gzipStates.containsKey(new File(path).getName());
+    }
+
+    /**
+     * Read a checkpoint.
+     *
+     * @param file
+     *            the checkpoint file
+     * @return the checkpoint, or null if there is none or it cannot be read
+     */
+    public static LogParserCheckpoint load(final File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        final Properties properties = new Properties();
+        try {
+            final InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+            final LogParserCheckpoint checkpoint = new LogParserCheckpoint();
+            checkpoint.rulesHash = properties.getProperty(RULES_HASH);
+            checkpoint.offset = Long.parseLong(properties.getProperty(OFFSET));
+            checkpoint.endsWithCR = Boolean.parseBoolean(properties.getProperty(ENDS_WITH_CR));
+            checkpoint.lineCount = Integer.parseInt(properties.getProperty(LINE_COUNT));
+            checkpoint.sectionCounter = Integer.parseInt(properties.getProperty(SECTION_COUNTER));
+            checkpoint.contentLength = Long.parseLong(properties.getProperty(CONTENT_LENGTH));
+            // Missing from the checkpoints taken with link files
+            checkpoint.eventLogLength = Long.parseLong(properties.getProperty(EVENT_LOG_LENGTH));
+            for (String name : properties.stringPropertyNames()) {
+                final String value = properties.getProperty(name);
+                if (name.startsWith(STATUS_COUNT)) {
+                    checkpoint.statusCount.put(name.substring(STATUS_COUNT.length()),
+                            Integer.valueOf(value));
+                } else if (name.startsWith(SECTION_COUNT)) {
+                    checkpoint.statusCountPerSection.put(name.substring(SECTION_COUNT.length()),
+                            Integer.valueOf(value));
+                } else if (name.startsWith(GZIP_STATE)) {
+                    final String[] state = value.split(",");
+                    checkpoint.gzipStates.put(name.substring(GZIP_STATE.length()), new long[] {
+                            Long.parseLong(state[0]), Long.parseLong(state[1]) });
+                }
+            }
+            for (int i = 0; properties.getProperty(HEADER + i) != null; i++) {
+                checkpoint.headerForSection.add(properties.getProperty(HEADER + i));
+            }
+            return checkpoint;
+        } catch (IOException e) {
+            Logger.getLogger(LogParserCheckpoint.class.getName()).log(Level.WARNING,
+                    "LogParserCheckpoint: Ignoring unreadable checkpoint " + file, e);
+        } catch (RuntimeException e) {
+            // Missing or malformed value
+            Logger.getLogger(LogParserCheckpoint.class.getName()).log(Level.WARNING,
+                    "LogParserCheckpoint: Ignoring unreadable checkpoint " + file, e);
+        }
+        return null;
+    }
+
+    /**
+     * Write the checkpoint. The file is replaced in one go so that a reader
+     * never sees half of it.
+     *
+     * @param file
+     *            the checkpoint file
+     */
+    public void save(final File file) throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty(RULES_HASH, rulesHash);
+        properties.setProperty(OFFSET, Long.toString(offset));
+        properties.setProperty(ENDS_WITH_CR, Boolean.toString(endsWithCR));
+        properties.setProperty(LINE_COUNT, Integer.toString(lineCount));
+        properties.setProperty(SECTION_COUNTER, Integer.toString(sectionCounter));
+        properties.setProperty(CONTENT_LENGTH, Long.toString(contentLength));
+        properties.setProperty(EVENT_LOG_LENGTH, Long.toString(eventLogLength));
+        for (Map.Entry<String, Integer> entry : statusCount.entrySet()) {
+            properties.setProperty(STATUS_COUNT + entry.getKey(), entry.getValue().toString());
+        }
+        for (Map.Entry<String, Integer> entry : statusCountPerSection.entrySet()) {
+            properties.setProperty(SECTION_COUNT + entry.getKey(), entry.getValue().toString());
+        }
+        for (int i = 0; i < headerForSection.size(); i++) {
+            properties.setProperty(HEADER + i, headerForSection.get(i));
+        }
+        for (Map.Entry<String, long[]> entry : gzipStates.entrySet()) {
+            properties.setProperty(GZIP_STATE + entry.getKey(), entry.getValue()[0] + ","
+                    + entry.getValue()[1]);
+        }
+
+        final File tempFile = new File(file.getPath() + ".tmp");
+        final OutputStream out = new FileOutputStream(tempFile);
+        try {
+            properties.store(out, "log-parser checkpoint");
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            // Windows does not rename over an existing file
+            if (!file.delete() || !tempFile.renameTo(file)) {
+                throw new IOException("Unable to write checkpoint " + file);
+            }
+        }
+    }
+
+    /**
+     * Compute the hash the checkpoint is keyed on. Anything changing the
+     * output for the same log must be part of it.
+     *
+     * @param parsingRulesArray
+     *            the lines of the parsing rules file
+     * @param preformattedHtml
+     *            whether the parsed log is preformatted
+     * @return the hash, as an hexadecimal string
+     */
+    public static String hashRules(final String[] parsingRulesArray,
+            final boolean preformattedHtml) {
+        return hashRules(parsingRulesArray, preformattedHtml, false);
+    }
+
+    /**
+     * Compute the hash the checkpoint is keyed on. Anything changing the
+     * output for the same log must be part of it.
+     *
+     * @param parsingRulesArray
+     *            the lines of the parsing rules file
+     * @param preformattedHtml
+     *            whether the parsed log is preformatted
+     * @param compressed
+     *            whether the parse artifacts are compressed
+     * @return the hash, as an hexadecimal string
+     */
+    public static String hashRules(final String[] parsingRulesArray,
+            final boolean preformattedHtml, final boolean compressed) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            final Charset utf8 = Charset.forName("UTF-8");
+            for (String parsingRule : parsingRulesArray) {
+                digest.update(parsingRule.getBytes(utf8));
+                digest.update((byte) '\n');
+            }
+            digest.update((byte) (preformattedHtml ? 1 : 0));
+            if (compressed) {
+                // Same hash as before compression was an option otherwise
+                digest.update((byte) 1);
+            }
+            final StringBuilder hash = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hash.append(String.format("%02x", b & 0xFF));
+            }
+            return hash.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Find where the last complete line of a part of the log ends.
+     *
+     * @param logFile
+     *            the log
+     * @param start
+     *            the offset the part starts at
+     * @param end
+     *            the offset the part ends at
+     * @return the offset right after the last '\n' or '\r' of the part, or
+     *         start if it has none
+     */
+    public static long findLastLineEnd(final File logFile, final long start, final long end)
+            throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(logFile, "r");
+        try {
+            final byte[] buffer = new byte[8192];
+            long blockEnd = end;
+            while (blockEnd > start) {
+                final int length = (int) Math.min(buffer.length, blockEnd - start);
+                raf.seek(blockEnd - length);
+                raf.readFully(buffer, 0, length);
+                for (int i = length - 1; i >= 0; i--) {
+                    if (buffer[i] == '\n' || buffer[i] == '\r') {
+                        return blockEnd - length + i + 1;
+                    }
+                }
+                blockEnd -= length;
+            }
+            return start;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Read a byte of the log.
+     *
+     * @param logFile
+     *            the log
+     * @param offset
+     *            the offset of the byte
+     * @return the byte, or -1 if the log ends before the offset
+     */
+    public static int byteAt(final File logFile, final long offset) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(logFile, "r");
+        try {
+            if (offset >= raf.length()) {
+                return -1;
+            }
+            raf.seek(offset);
+            return raf.read();
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Read a part of the log holding a single line with no line end.
+     *
+     * @param logFile
+     *            the log
+     * @param start
+     *            the offset the part starts at
+     * @param end
+     *            the offset the part ends at
+     * @return the line, decoded with the default charset like the rest of the
+     *         log
+     */
+    public static String readLine(final File logFile, final long start, final long end)
+            throws IOException {
+        final byte[] bytes = new byte[(int) (end - start)];
+        final RandomAccessFile raf = new RandomAccessFile(logFile, "r");
+        try {
+            raf.seek(start);
+            raf.readFully(bytes);
+        } finally {
+            raf.close();
+        }
+        return new String(bytes, Charset.defaultCharset());
+    }
+
+    /**
+     * Truncate a file written from a checkpoint back to its recorded length.
+     *
+     * @param file
+     *            the file
+     * @param length
+     *            the recorded length
+     */
+    public static void truncate(final File file, final long length) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+}
@@ -19,6 +19,8 @@ public class LogParserConsts {
     // Error messages
     public static final String CANNOT_PARSE = "log-parser plugin ERROR: Cannot parse log ";
     public static final String NOT_INT = " is not an integer - using default";
+    // Per rule stats and phase timings of the last parse, next to log.html
+    public static final String RULE_STATS_FILE = "log_rule_stats.json";
 
     public static final List<String> LEGAL_STATUS = Arrays.asList(ERROR, WARNING, INFO, DEBUG, NONE, START);
     public static final List<String> STATUSES_WITH_LINK_FILES = Arrays.asList(ERROR, WARNING, INFO, DEBUG);
@@ -40,8 +42,10 @@ public class LogParserConsts {
     // Parsing in threads for performance
     public static final int LINES_PER_THREAD = 10000; // How many lines to parse
                                                       // in each thread
-    public static final int MAX_THREADS = 2; // How many concurrent threads to
-                                             // run (unused when implementing
-                                             // cached thread pool)
+    @Deprecated
+    public static final int MAX_THREADS = 2; // Unused - the shared pool is
+                                             // sized to the number of
+                                             // processors (see
+                                             // LogParserExecutor)
 
 }
\ No newline at end of file
@@ -0,0 +1,343 @@
+package hudson.plugins.logparser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullWriter;
+
+import hudson.model.Run;
+
+/**
+ * The diffs between two builds computed so far, saved gzip compressed in the
+ * directory of their job, so that viewing or exporting a diff again does not
+ * read the logs or check out the sources again.
+ *
+ * A diff is keyed by the two builds, the type of the diff and what else its
+ * page depends on, such as the parsing rules or the settings of the diff. The
+ * builds of a diff must be over, as the diff of two finished builds never
+ * changes. Once the diffs of a job take more than {@link #getMaxBytes()},
+ * the least recently viewed ones are deleted.
+ */
+public final class LogParserDiffCache {
+
+    public static final String DIR_NAME = "log-parser-diffs";
+    static final long DEFAULT_MAX_BYTES = 100L * 1024 * 1024;
+
+    private static final String SUFFIX = ".html.gz";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    // Writes and evictions of all jobs
+    private static final Object LOCK = new Object();
+
+    private LogParserDiffCache() {
+    }
+
+    /**
+     * @return the size the diffs of a job may take, which can be changed with
+     *         the system property
+     *         hudson.plugins.logparser.LogParserDiffCache.maxBytes
+     */
+    static long getMaxBytes() {
+        return Long.getLong(LogParserDiffCache.class.getName() + ".maxBytes", DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Get a diff computed before.
+     *
+     * @param buildA
+     *            the build diffed against
+     * @param buildB
+     *            the build diffed
+     * @param type
+     *            the type of the diff, such as "consoleLineDiff"
+     * @param variant
+     *            what else the diff depends on, may be null
+     * @return the html of the diff, or null if it was not computed before or
+     *         one of the builds is not over
+     */
+    public static String get(final Run<?, ?> buildA, final Run<?, ?> buildB, final String type,
+            final String variant) {
+        final StringWriter html = new StringWriter();
+        try {
+            return copy(buildA, buildB, type, variant, html) ? html.toString() : null;
+        } catch (IOException e) {
+            // Not thrown by a StringWriter, so by the saved diff
+            Logger.getLogger(LogParserDiffCache.class.getName()).log(Level.WARNING,
+                    "LogParserDiffCache: Ignoring unreadable diff", e);
+            return null;
+        }
+    }
+
+    /**
+     * Write a diff computed before, without holding it in memory.
+     *
+     * @param out
+     *            where to write the html of the diff
+     * @return false, having written nothing, if the diff was not computed
+     *         before or one of the builds is not over
+     * @throws IOException
+     *             if the saved diff cannot be read or out cannot be written
+     * @see #get(Run, Run, String, String)
+     */
+    public static boolean copy(final Run<?, ?> buildA, final Run<?, ?> buildB, final String type,
+            final String variant, final Writer out) throws IOException {
+        final File file = getFile(buildA, buildB, type, variant);
+        if (file == null || !file.isFile()) {
+            return false;
+        }
+        final Reader reader;
+        try {
+            reader = new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), UTF8);
+        } catch (IOException e) {
+            Logger.getLogger(LogParserDiffCache.class.getName()).log(Level.WARNING,
+                    "LogParserDiffCache: Ignoring unreadable diff " + file, e);
+            return false;
+        }
+        try {
+            IOUtils.copy(reader, out);
+        } finally {
+            reader.close();
+        }
+        // Recently viewed, see evict()
+        file.setLastModified(System.currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * Save a diff, if both its builds are over.
+     *
+     * @param html
+     *            the html of the diff
+     * @see #get(Run, Run, String, String)
+     */
+    public static void put(final Run<?, ?> buildA, final Run<?, ?> buildB, final String type,
+            final String variant, final String html) {
+        if (html == null) {
+            return;
+        }
+        final DiffWriter writer = writeThrough(buildA, buildB, type, variant,
+                NullWriter.NULL_WRITER);
+        try {
+            writer.write(html);
+            writer.close();
+        } catch (IOException e) {
+            // Not thrown by the null writer, the diff not being saved is
+            // logged
+        } finally {
+            writer.discard();
+        }
+    }
+
+    /**
+     * Get a writer which writes through to out, and saves what was written as
+     * the diff once it is closed, if both builds are over. out is not closed.
+     * What was written is compressed to a file aside as it is written, so the
+     * diff may be as large as the logs.
+     *
+     * @param out
+     *            where to write the html of the diff
+     * @see #put(Run, Run, String, String, String)
+     */
+    public static DiffWriter writeThrough(final Run<?, ?> buildA, final Run<?, ?> buildB,
+            final String type, final String variant, final Writer out) {
+        final File file = getFile(buildA, buildB, type, variant);
+        File tempFile = null;
+        Writer saved = null;
+        if (file != null) {
+            try {
+                // Written aside, so that a reader never sees half of it
+                final File dir = file.getParentFile();
+                synchronized (LOCK) {
+                    if (!dir.isDirectory() && !dir.mkdirs()) {
+                        throw new IOException("Unable to create " + dir);
+                    }
+                    tempFile = File.createTempFile("diff", ".tmp", dir);
+                }
+                saved = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(
+                        tempFile)), UTF8);
+            } catch (IOException e) {
+                Logger.getLogger(LogParserDiffCache.class.getName()).log(Level.WARNING,
+                        "LogParserDiffCache: Unable to save diff " + file, e);
+                if (tempFile != null) {
+                    tempFile.delete();
+                }
+                tempFile = null;
+            }
+        }
+        return new DiffWriter(out, file, tempFile, saved);
+    }
+
+    /**
+     * Writes a diff through to where it is shown, saving it on the side.
+     * Closing it saves the diff, while discarding it drops what was written,
+     * such as when the diff could not be written in full.
+     */
+    public static final class DiffWriter extends Writer {
+
+        private final Writer out;
+        private final File file;
+        private File tempFile;
+        private Writer saved;
+
+        private DiffWriter(final Writer out, final File file, final File tempFile,
+                final Writer saved) {
+            this.out = out;
+            this.file = file;
+            this.tempFile = tempFile;
+            this.saved = saved;
+        }
+
+        @Override
+        public void write(final char[] cbuf, final int off, final int len) throws IOException {
+            out.write(cbuf, off, len);
+            if (saved != null) {
+                try {
+                    saved.write(cbuf, off, len);
+                } catch (IOException e) {
+                    // Still shown, just not saved
+                    Logger.getLogger(LogParserDiffCache.class.getName()).log(Level.WARNING,
+                            "LogParserDiffCache: Unable to save diff " + file, e);
+                    discard();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        /**
+         * Save the diff written. out is not closed.
+         */
+        @Override
+        public void close() {
+            if (saved == null) {
+                return;
+            }
+            try {
+                saved.close();
+                saved = null;
+                save(tempFile, file);
+                tempFile = null;
+            } catch (IOException e) {
+                Logger.getLogger(LogParserDiffCache.class.getName()).log(Level.WARNING,
+                        "LogParserDiffCache: Unable to save diff " + file, e);
+                discard();
+            }
+        }
+
+        /**
+         * Drop what was written, unless it was saved already.
+         */
+        public void discard() {
+            if (saved != null) {
+                try {
+                    saved.close();
+                } catch (IOException e) {
+                    // Deleted anyway
+                }
+                saved = null;
+            }
+            if (tempFile != null) {
+                tempFile.delete();
+                tempFile = null;
+            }
+        }
+    }
+
+    private static void save(final File tempFile, final File file) throws IOException {
+        synchronized (LOCK) {
+            if (!tempFile.renameTo(file) && (!file.delete() || !tempFile.renameTo(file))) {
+                tempFile.delete();
+                throw new IOException("Unable to write " + file);
+            }
+            evict(file.getParentFile(), getMaxBytes());
+        }
+    }
+
+    /**
+     * Delete the least recently viewed diffs of a job until they take at
+     * most the given size. The diffs being written are left alone.
+     */
+    static void evict(final File dir, final long maxBytes) {
+        final File[] files = dir.listFiles(new FilenameFilter() {
+            public boolean accept(final File parent, final String name) {
+                return name.endsWith(SUFFIX);
+            }
+        });
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        final long[] lastModified = new long[files.length];
+        for (int i = 0; i < files.length; i++) {
+            lastModified[i] = files[i].lastModified();
+        }
+        final Integer[] order = new Integer[files.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(final Integer i, final Integer j) {
+                return Long.compare(lastModified[i], lastModified[j]);
+            }
+        });
+        for (int i = 0; i < order.length && total > maxBytes; i++) {
+            final File file = files[order[i]];
+            final long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    private static File getFile(final Run<?, ?> buildA, final Run<?, ?> buildB,
+            final String type, final String variant) {
+        if (buildA == null || buildB == null || buildA.isBuilding() || buildB.isBuilding()) {
+            return null;
+        }
+        final File dir = new File(buildB.getParent().getRootDir(), DIR_NAME);
+        return new File(dir, type + "-" + buildA.getNumber() + "-" + buildB.getNumber() + "-"
+                + digest(variant == null ? "" : variant) + SUFFIX);
+    }
+
+    private static String digest(final String variant) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(
+                    variant.getBytes(UTF8));
+            final StringBuilder hex = new StringBuilder();
+            // Long enough to tell the variants of a diff apart
+            for (int i = 0; i < 8; i++) {
+                hex.append(String.format("%02x", digest[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
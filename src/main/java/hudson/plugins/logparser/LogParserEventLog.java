@@ -0,0 +1,551 @@
+package hudson.plugins.logparser;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.output.CountingOutputStream;
+
+/**
+ * The classified lines of a parsed log, in the order they were found, saved
+ * next to log_content.html. The reference page listing the lines of each
+ * tag is written from it, and {@link LogParserResult} reads it back for
+ * whoever needs the classified lines of a build without parsing it again.
+ *
+ * The file starts with its version and the names of the tags. Each line is
+ * then appended as a record of variable length integers: the tag, the number
+ * of the line among those of its tag, the number of the line in the log, the
+ * offset of the line in the log and its section, followed by the length and
+ * the UTF-8 bytes of the text of the line. While the log is being written,
+ * the offsets of the records of each tag are kept so that a tag is read
+ * without going through the records of the others. Once written, the file is
+ * read from start to end, or from the offset the line index gives for a
+ * line, one record at a time.
+ */
+public class LogParserEventLog {
+
+    public static final String FILE_NAME = "log_events.bin";
+
+    private static final int VERSION = 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final List<String> tags;
+    private long headerLength = 0;
+    // Only for the event log being written
+    private long[][] offsets;
+    private int[] numEvents;
+
+    // Open while appending
+    private CountingOutputStream counter;
+    private OutputStream out;
+    private long start;
+    private final CharsetEncoder encoder = UTF8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private ByteBuffer encoded = ByteBuffer.allocate(256);
+
+    /**
+     * @param file
+     *            the file of the event log
+     * @param tags
+     *            the tags the lines can have
+     */
+    public LogParserEventLog(final File file, final List<String> tags) {
+        this.file = file;
+        this.tags = new ArrayList<String>(tags);
+        this.offsets = new long[tags.size()][16];
+        this.numEvents = new int[tags.size()];
+    }
+
+    /**
+     * Read back an event log written by a parse.
+     *
+     * @param file
+     *            the file of the event log
+     * @return the event log, or null if there is none or it cannot be read
+     */
+    public static LogParserEventLog load(final File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            final LogParserEventLog eventLog = new LogParserEventLog(file,
+                    Collections.<String> emptyList());
+            eventLog.offsets = null;
+            eventLog.numEvents = null;
+            if (eventLog.readHeader()) {
+                return eventLog;
+            }
+        } catch (IOException e) {
+            Logger.getLogger(LogParserEventLog.class.getName()).log(Level.WARNING,
+                    "LogParserEventLog: Ignoring unreadable event log " + file, e);
+        }
+        return null;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public List<String> getTags() {
+        return tags;
+    }
+
+    /**
+     * @param tag
+     *            a tag
+     * @return the number of lines recorded with the tag, only known while
+     *         the event log is being written
+     */
+    public int getCount(final String tag) {
+        final int index = tags.indexOf(tag);
+        return index < 0 || numEvents == null ? 0 : numEvents[index];
+    }
+
+    /**
+     * Start appending to the event log.
+     *
+     * @param length
+     *            the length to resume from, which drops the records after it,
+     *            or 0 to start a new event log
+     */
+    public void open(final long length) throws IOException {
+        if (length > 0) {
+            LogParserCheckpoint.truncate(file, length);
+            if (!readHeader()) {
+                throw new IOException("Unexpected event log " + file);
+            }
+            scan(length);
+        }
+        start = length;
+        counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file,
+                length > 0)));
+        out = counter;
+        if (length == 0) {
+            writeVarint(VERSION);
+            writeVarint(tags.size());
+            for (String tag : tags) {
+                final byte[] bytes = tag.getBytes(UTF8);
+                writeVarint(bytes.length);
+                out.write(bytes);
+            }
+            headerLength = counter.getByteCount();
+        }
+    }
+
+    /**
+     * Record a classified line.
+     *
+     * @param tag
+     *            the tag of the line
+     * @param ordinal
+     *            the number of the line among the lines of its tag, from 1
+     * @param line
+     *            the number of the line in the log, from 0
+     * @param offset
+     *            the offset in bytes of the line in the log
+     * @param section
+     *            the section of the line
+     * @param text
+     *            the text of the line
+     * @param length
+     *            the length of the text
+     */
+    public void add(final String tag, final int ordinal, final int line, final long offset,
+            final int section, final char[] text, final int length) throws IOException {
+        final int index = tags.indexOf(tag);
+        addOffset(index, getLength());
+
+        encode(text, length);
+        writeVarint(index);
+        writeVarint(ordinal);
+        writeVarint(line);
+        writeVarint(offset);
+        writeVarint(section);
+        writeVarint(encoded.position());
+        out.write(encoded.array(), 0, encoded.position());
+    }
+
+    private void addOffset(final int index, final long offset) {
+        if (numEvents[index] == offsets[index].length) {
+            offsets[index] = Arrays.copyOf(offsets[index], 2 * offsets[index].length);
+        }
+        offsets[index][numEvents[index]++] = offset;
+    }
+
+    private void encode(final char[] text, final int length) {
+        encoder.reset();
+        encoded.clear();
+        final CharBuffer chars = CharBuffer.wrap(text, 0, length);
+        while (true) {
+            CoderResult result = encoder.encode(chars, encoded, true);
+            if (!result.isOverflow()) {
+                result = encoder.flush(encoded);
+            }
+            if (!result.isOverflow()) {
+                return;
+            }
+            final ByteBuffer larger = ByteBuffer.allocate(2 * encoded.capacity());
+            encoded.flip();
+            larger.put(encoded);
+            encoded = larger;
+        }
+    }
+
+    private void writeVarint(final long value) throws IOException {
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            out.write((int) (remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        out.write((int) remaining);
+    }
+
+    /**
+     * @return the length of the event log so far, including what is not
+     *         flushed yet
+     */
+    public long getLength() {
+        return start + counter.getByteCount();
+    }
+
+    /**
+     * Write the records appended so far to the file.
+     *
+     * @return the length of the event log
+     */
+    public long flush() throws IOException {
+        out.flush();
+        return getLength();
+    }
+
+    public void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    /**
+     * Read the version and the tags at the start of the file.
+     *
+     * @return false if the file is of another version
+     */
+    private boolean readHeader() throws IOException {
+        final Reader reader = new Reader();
+        try {
+            reader.seek(0);
+            if (reader.readVarint() != VERSION) {
+                return false;
+            }
+            final int numTags = (int) reader.readVarint();
+            final List<String> fileTags = new ArrayList<String>();
+            for (int i = 0; i < numTags; i++) {
+                fileTags.add(new String(reader.readBytes((int) reader.readVarint()), UTF8));
+            }
+            if (numEvents != null && !fileTags.equals(tags)) {
+                return false;
+            }
+            tags.clear();
+            tags.addAll(fileTags);
+            headerLength = reader.position();
+            return true;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Find the records of each tag in the first part of the file.
+     */
+    private void scan(final long length) throws IOException {
+        final Reader reader = new Reader();
+        try {
+            long offset = headerLength;
+            while (offset < length) {
+                reader.seek(offset);
+                addOffset((int) reader.readVarint(), offset);
+                for (int i = 0; i < 4; i++) {
+                    reader.readVarint();
+                }
+                final long textLength = reader.readVarint();
+                offset = reader.position() + textLength;
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Go through the lines of a tag, in order.
+     *
+     * @param tag
+     *            the tag
+     * @return a cursor before the first line of the tag, to be closed
+     */
+    public Cursor openCursor(final String tag) throws IOException {
+        final int index = tags.indexOf(tag);
+        if (index < 0) {
+            // No line has it
+            return new Cursor(-1, 0, 0, headerLength);
+        }
+        return new Cursor(index, 0, Integer.MAX_VALUE, headerLength);
+    }
+
+    /**
+     * Go through the lines of all tags in a range of lines of the log, in
+     * order.
+     *
+     * @param fromLine
+     *            the first line of the range, from 0
+     * @param toLine
+     *            the line after the range
+     * @param lineIndex
+     *            the line index of the parsed log, to start reading close to
+     *            the first line, or null to read from the start
+     * @return a cursor before the first line in the range, to be closed
+     */
+    public Cursor openCursor(final int fromLine, final int toLine,
+            final LogParserLineIndex lineIndex) throws IOException {
+        return openCursor(null, fromLine, toLine, lineIndex);
+    }
+
+    /**
+     * Go through the lines of a tag in a range of lines of the log, in order.
+     *
+     * @param tag
+     *            the tag, or null for all tags
+     * @param fromLine
+     *            the first line of the range, from 0
+     * @param toLine
+     *            the line after the range
+     * @param lineIndex
+     *            the line index of the parsed log, to start reading close to
+     *            the first line, or null to read from the start
+     * @return a cursor before the first line in the range, to be closed
+     */
+    public Cursor openCursor(final String tag, final int fromLine, final int toLine,
+            final LogParserLineIndex lineIndex) throws IOException {
+        final int index = tag == null ? -1 : tags.indexOf(tag);
+        if (tag != null && index < 0) {
+            // No line has it
+            return new Cursor(-1, 0, 0, headerLength);
+        }
+        final long from = lineIndex == null ? 0 : lineIndex.getEventOffset(fromLine);
+        return new Cursor(index, fromLine, toLine, Math.max(headerLength, from));
+    }
+
+    /**
+     * The recorded lines of a tag, or of a range of lines, read one at a
+     * time.
+     */
+    public final class Cursor {
+
+        private final int tagFilter;
+        private final int fromLine;
+        private final int toLine;
+        private final Reader reader;
+        private final long end;
+        private long position;
+        private int next = 0;
+        private int tagIndex;
+        private int ordinal;
+        private int line;
+        private long offset;
+        private int section;
+        private String text;
+
+        private Cursor(final int tagFilter, final int fromLine, final int toLine,
+                final long position) throws IOException {
+            this.tagFilter = tagFilter;
+            this.fromLine = fromLine;
+            this.toLine = toLine;
+            this.position = position;
+            this.end = file.length();
+            this.reader = new Reader();
+        }
+
+        /**
+         * Move to the next line.
+         *
+         * @return false if there is none
+         */
+        public boolean next() throws IOException {
+            if (tagFilter >= 0 && numEvents != null) {
+                // Straight to the records of the tag
+                while (next < numEvents[tagFilter]) {
+                    reader.seek(offsets[tagFilter][next++]);
+                    final int textLength = readRecord();
+                    if (line >= toLine) {
+                        next = numEvents[tagFilter];
+                        return false;
+                    }
+                    if (line >= fromLine) {
+                        text = new String(reader.readBytes(textLength), UTF8);
+                        return true;
+                    }
+                }
+                return false;
+            }
+            while (position < end) {
+                reader.seek(position);
+                final int textLength = readRecord();
+                position = reader.position() + textLength;
+                if (line >= toLine) {
+                    // The records are in the order of the lines
+                    position = end;
+                    return false;
+                }
+                if (line >= fromLine && (tagFilter < 0 || tagIndex == tagFilter)) {
+                    text = new String(reader.readBytes(textLength), UTF8);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int readRecord() throws IOException {
+            tagIndex = (int) reader.readVarint();
+            ordinal = (int) reader.readVarint();
+            line = (int) reader.readVarint();
+            offset = reader.readVarint();
+            section = (int) reader.readVarint();
+            return (int) reader.readVarint();
+        }
+
+        public String getTag() {
+            return tags.get(tagIndex);
+        }
+
+        /**
+         * @return the number of the line among the lines of its tag, from 1
+         */
+        public int getOrdinal() {
+            return ordinal;
+        }
+
+        /**
+         * @return the number of the line in the log, from 0
+         */
+        public int getLine() {
+            return line;
+        }
+
+        /**
+         * @return the offset in bytes of the line in the log
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getSection() {
+            return section;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads the file through a buffer which is only refilled when a record
+     * is not in it.
+     */
+    private final class Reader {
+
+        private final RandomAccessFile raf;
+        private final byte[] buffer = new byte[64 * 1024];
+        private long bufferStart = 0;
+        private int bufferLength = 0;
+        private int pos = 0;
+
+        Reader() throws IOException {
+            raf = new RandomAccessFile(file, "r");
+        }
+
+        void seek(final long offset) throws IOException {
+            if (offset >= bufferStart && offset < bufferStart + bufferLength) {
+                pos = (int) (offset - bufferStart);
+                return;
+            }
+            fill(offset);
+        }
+
+        long position() {
+            return bufferStart + pos;
+        }
+
+        private void fill(final long offset) throws IOException {
+            raf.seek(offset);
+            bufferStart = offset;
+            bufferLength = Math.max(0, raf.read(buffer));
+            pos = 0;
+        }
+
+        int readByte() throws IOException {
+            if (pos == bufferLength) {
+                fill(position());
+                if (bufferLength == 0) {
+                    throw new EOFException("Truncated event log " + file);
+                }
+            }
+            return buffer[pos++] & 0xFF;
+        }
+
+        long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed event log " + file);
+        }
+
+        byte[] readBytes(final int length) throws IOException {
+            final byte[] bytes = new byte[length];
+            int done = 0;
+            while (done < length) {
+                if (pos == bufferLength) {
+                    fill(position());
+                    if (bufferLength == 0) {
+                        throw new EOFException("Truncated event log " + file);
+                    }
+                }
+                final int chunk = Math.min(length - done, bufferLength - pos);
+                System.arraycopy(buffer, pos, bytes, done, chunk);
+                pos += chunk;
+                done += chunk;
+            }
+            return bytes;
+        }
+
+        void close() throws IOException {
+            raf.close();
+        }
+    }
+
+}
@@ -0,0 +1,38 @@
+package hudson.plugins.logparser;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The JVM-wide pool classifying log parts.
+ *
+ * All the parses running in this JVM - on the master or on a slave - share
+ * this pool, so concurrent builds parsing large logs queue their work instead
+ * of each creating threads. The pool is sized to the number of processors, or
+ * to HUDSON_LOG_PARSER_THREADS when set (see
+ * {@link LogParserUtils#getNumThreads()}), and idle workers steal queued log
+ * parts from each other.
+ */
+public final class LogParserExecutor {
+
+    private static ForkJoinPool pool;
+
+    /**
+     * @return the shared pool, created on first use
+     */
+    public static synchronized ForkJoinPool get() {
+        if (pool == null) {
+            final int numThreads = LogParserUtils.getNumThreads();
+            Logger.getLogger(LogParserExecutor.class.getName()).log(Level.INFO,
+                    "LogParserExecutor: Using " + numThreads + " threads to parse logs");
+            pool = new ForkJoinPool(numThreads);
+        }
+        return pool;
+    }
+
+    private LogParserExecutor() {
+        // PMD warning to use singleton or bypass by private empty constructor
+    }
+
+}
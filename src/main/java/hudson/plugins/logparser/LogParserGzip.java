@@ -0,0 +1,281 @@
+package hudson.plugins.logparser;
+
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads and writes the parse artifacts (parsed log, reference page) either
+ * as they are or gzip compressed, depending on whether their path ends with
+ * {@link #SUFFIX}.
+ *
+ * A compressed artifact is a single gzip member, so that browsers accepting
+ * gzip can be sent the file as it is. Each flush of it is a full flush, after
+ * which the compressed data does not depend on what came before: the line
+ * index can point a raw inflater at a flush, and a checkpoint taken right
+ * after one can be resumed by appending a new deflate stream.
+ */
+public final class LogParserGzip {
+
+    public static final String SUFFIX = ".gz";
+
+    private LogParserGzip() {
+    }
+
+    public static boolean isCompressed(final String path) {
+        return path.endsWith(SUFFIX);
+    }
+
+    /**
+     * Open an artifact for writing from its start.
+     *
+     * @param path
+     *            the path of the artifact
+     * @return a writer using the default charset, compressing if the path
+     *         asks for it
+     */
+    static BufferedWriter openWriter(final String path) throws IOException {
+        if (!isCompressed(path)) {
+            return new BufferedWriter(new FileWriter(path));
+        }
+        return new BufferedWriter(new OutputStreamWriter(new Output(new FileOutputStream(path)),
+                Charset.defaultCharset()));
+    }
+
+    /**
+     * Decompress an artifact from a flush on.
+     *
+     * @param in
+     *            the compressed data, starting right after a flush
+     * @return the decompressed data, which ends quietly where the compressed
+     *         data does
+     */
+    public static InputStream inflateFromFlush(final InputStream in) {
+        return new InflaterInputStream(in, new Inflater(true)) {
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                try {
+                    return super.read(b, off, len);
+                } catch (EOFException e) {
+                    // No final block before the end of the part read
+                    return -1;
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                super.close();
+                inf.end();
+            }
+        };
+    }
+
+    /**
+     * Pick the file an artifact was written to.
+     *
+     * @param dir
+     *            the directory of the artifacts
+     * @param name
+     *            the name of the uncompressed artifact
+     * @return the uncompressed artifact if there is one, else the compressed
+     *         one if there is one, else null
+     */
+    static File find(final File dir, final String name) {
+        final File file = new File(dir, name);
+        if (file.isFile()) {
+            return file;
+        }
+        final File compressed = new File(dir, name + SUFFIX);
+        return compressed.isFile() ? compressed : null;
+    }
+
+    /**
+     * A gzip member written through a raw deflater, full flushing on
+     * {@link #flush()}. Can carry on a member whose trailer was cut off
+     * right after a flush.
+     */
+    public static final class Output extends OutputStream {
+
+        private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0,
+                0, 0, 0 };
+
+        private final OutputStream out;
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final CRC32 crc = new CRC32();
+        private final long crcBefore;
+        private final long lengthBefore;
+        private long length = 0;
+        private final byte[] buffer = new byte[8192];
+        private final byte[] single = new byte[1];
+
+        /**
+         * Start a new member.
+         */
+        public Output(final OutputStream out) throws IOException {
+            this(out, 0, 0);
+            out.write(HEADER);
+        }
+
+        /**
+         * Carry on a member.
+         *
+         * @param crcBefore
+         *            the CRC-32 of the data already in the member
+         * @param lengthBefore
+         *            the length of the data already in the member
+         */
+        public Output(final OutputStream out, final long crcBefore, final long lengthBefore) {
+            this.out = out;
+            this.crcBefore = crcBefore;
+            this.lengthBefore = lengthBefore;
+        }
+
+        /**
+         * @return the CRC-32 of all the data of the member so far
+         */
+        public long getCrc() {
+            return combineCrc(crcBefore, crc.getValue(), length);
+        }
+
+        /**
+         * @return the length of all the data of the member so far
+         */
+        public long getLength() {
+            return lengthBefore + length;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            single[0] = (byte) b;
+            write(single, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            crc.update(b, off, len);
+            length += len;
+            deflater.setInput(b, off, len);
+            while (!deflater.needsInput()) {
+                final int deflated = deflater.deflate(buffer, 0, buffer.length,
+                        Deflater.NO_FLUSH);
+                out.write(buffer, 0, deflated);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            int deflated;
+            do {
+                deflated = deflater.deflate(buffer, 0, buffer.length, Deflater.FULL_FLUSH);
+                out.write(buffer, 0, deflated);
+            } while (deflated == buffer.length);
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+                writeIntLE(getCrc());
+                writeIntLE(getLength());
+            } finally {
+                deflater.end();
+                out.close();
+            }
+        }
+
+        private void writeIntLE(final long value) throws IOException {
+            out.write((int) value & 0xFF);
+            out.write((int) (value >>> 8) & 0xFF);
+            out.write((int) (value >>> 16) & 0xFF);
+            out.write((int) (value >>> 24) & 0xFF);
+        }
+    }
+
+    /**
+     * Compute the CRC-32 of two pieces of data from theirs, as zlib's
+     * crc32_combine does.
+     *
+     * @param crc1
+     *            the CRC-32 of the first piece
+     * @param crc2
+     *            the CRC-32 of the second piece
+     * @param length2
+     *            the length of the second piece
+     * @return the CRC-32 of the first piece followed by the second
+     */
+    public static long combineCrc(final long crc1, final long crc2, final long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+        // Operator for one zero bit, then for two and four
+        final long[] odd = new long[32];
+        final long[] even = new long[32];
+        odd[0] = 0xedb88320L;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        squareMatrix(even, odd);
+        squareMatrix(odd, even);
+
+        // Apply the operator for each bit of the length in zero bytes
+        long crc = crc1;
+        long remaining = length2;
+        while (true) {
+            squareMatrix(even, odd);
+            if ((remaining & 1) != 0) {
+                crc = multiplyMatrix(even, crc);
+            }
+            remaining >>= 1;
+            if (remaining == 0) {
+                break;
+            }
+            squareMatrix(odd, even);
+            if ((remaining & 1) != 0) {
+                crc = multiplyMatrix(odd, crc);
+            }
+            remaining >>= 1;
+            if (remaining == 0) {
+                break;
+            }
+        }
+        return crc ^ crc2;
+    }
+
+    private static long multiplyMatrix(final long[] matrix, final long vector) {
+        long sum = 0;
+        long remaining = vector;
+        for (int i = 0; remaining != 0; i++, remaining >>>= 1) {
+            if ((remaining & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void squareMatrix(final long[] square, final long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = multiplyMatrix(matrix, matrix[n]);
+        }
+    }
+
+}
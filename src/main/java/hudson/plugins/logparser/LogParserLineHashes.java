@@ -0,0 +1,541 @@
+package hudson.plugins.logparser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.commons.io.input.BoundedInputStream;
+
+import hudson.console.ConsoleNote;
+import hudson.model.Run;
+
+/**
+ * A hash of each line of a console log and where the line starts, saved next
+ * to the log by the parse so that two logs are diffed on their hashes alone,
+ * reading only the lines shown.
+ *
+ * A line is hashed once its console notes are removed and the parts matched
+ * by the masks, such as timestamps, durations and hex ids, are replaced, so
+ * that lines differing only by them match. The file holds a header, then a
+ * hash and a byte offset for each line, {@link #RECORD_LENGTH} bytes a line,
+ * so that it is appended to by a resumed parse and any line is found without
+ * reading the others. The header records the masks the lines were hashed
+ * with and the length of the log covered, which is -1 until the parse is
+ * done.
+ */
+public final class LogParserLineHashes implements Closeable {
+
+    public static final String FILE_NAME = "log_lines.hash";
+
+    /**
+     * The masks used when none are configured: timestamps, durations, UUIDs
+     * and hex ids, one regular expression per line.
+     */
+    public static final String DEFAULT_MASKS =
+            "\\d{4}-\\d{2}-\\d{2}[T ]\\d{2}:\\d{2}:\\d{2}([.,]\\d+)?(Z|[+-]\\d{2}:?\\d{2})?\n"
+            + "\\b\\d{1,2}:\\d{2}:\\d{2}([.,]\\d+)?\\b\n"
+            + "\\b\\d+([.,]\\d+)? ?(ms|s|sec|secs|seconds?|min|mins|minutes?)\\b\n"
+            + "\\b[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}\\b\n"
+            + "\\b(0x)?[0-9a-fA-F]{8,}\\b";
+
+    public static final int RECORD_LENGTH = 16;
+    private static final int VERSION = 1;
+    // Version, masks digest, log length
+    private static final int HEADER_LENGTH = 4 + 8 + 8;
+    private static final int LOG_LENGTH_POSITION = 4 + 8;
+    private static final String MASK = "#";
+    // Appending to the files of finished builds
+    private static final Object LOCK = new Object();
+
+    private final long[] hashes;
+    private final File file;
+    private final File log;
+    private final long logLength;
+    private final boolean temporary;
+    private RandomAccessFile fileIn;
+    private RandomAccessFile logIn;
+
+    private LogParserLineHashes(final long[] hashes, final File file, final File log,
+            final long logLength, final boolean temporary) {
+        this.hashes = hashes;
+        this.file = file;
+        this.log = log;
+        this.logLength = logLength;
+        this.temporary = temporary;
+    }
+
+    /**
+     * Normalizes and hashes lines. Thread safe.
+     */
+    public static final class Normalizer {
+
+        private final Pattern pattern;
+        private final long digest;
+
+        /**
+         * @param masks
+         *            the regular expressions of the parts of a line to mask,
+         *            one per line. Those which do not compile are skipped.
+         */
+        public Normalizer(final String masks) {
+            final StringBuilder combined = new StringBuilder();
+            final StringBuilder used = new StringBuilder();
+            if (masks != null) {
+                for (String mask : masks.split("[\r\n]+")) {
+                    mask = mask.trim();
+                    if (mask.length() == 0) {
+                        continue;
+                    }
+                    try {
+                        Pattern.compile(mask);
+                    } catch (PatternSyntaxException e) {
+                        Logger.getLogger(LogParserLineHashes.class.getName()).log(Level.WARNING,
+                                "LogParserLineHashes: Skipping bad mask " + mask, e);
+                        continue;
+                    }
+                    combined.append(combined.length() == 0 ? "" : "|").append("(?:")
+                            .append(mask).append(')');
+                    used.append(mask).append('\n');
+                }
+            }
+            this.pattern = combined.length() == 0 ? null : Pattern.compile(combined.toString());
+            this.digest = hash(VERSION + "\n" + used);
+        }
+
+        /**
+         * @return identifies the masks, so that hashes of lines are only
+         *         compared when computed with the same ones
+         */
+        public long getDigest() {
+            return digest;
+        }
+
+        /**
+         * @param line
+         *            a line of the console log
+         * @return the line without its notes and with its masked parts
+         *         replaced
+         */
+        public String normalize(final String line) {
+            final String text = ConsoleNote.removeNotes(line);
+            if (pattern == null) {
+                return text;
+            }
+            final Matcher matcher = pattern.matcher(text);
+            return matcher.find() ? matcher.replaceAll(MASK) : text;
+        }
+
+        public long hashLine(final String line) {
+            return hash(normalize(line));
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a of the chars, mixed as the finalizer of MurmurHash3 does
+     * so that all its bits depend on every char.
+     */
+    static long hash(final String text) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            h ^= text.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Writes the file as the log is parsed. A failure to write it does not
+     * fail the parse: it is logged, and the file deleted.
+     */
+    public static final class Output {
+
+        private final File file;
+        private DataOutputStream out;
+
+        private Output(final File file, final DataOutputStream out) {
+            this.file = file;
+            this.out = out;
+        }
+
+        /**
+         * Start the file, or go on with it when resuming a parse.
+         *
+         * @param file
+         *            the file
+         * @param normalizer
+         *            how to hash the lines
+         * @param lineCount
+         *            the lines parsed already, whose hashes are kept
+         * @return null if the hashes of the lines parsed already are missing
+         */
+        public static Output open(final File file, final Normalizer normalizer, final int lineCount) {
+            try {
+                if (lineCount > 0) {
+                    final RandomAccessFile existing = new RandomAccessFile(file, "rw");
+                    try {
+                        final long length = HEADER_LENGTH + (long) RECORD_LENGTH * lineCount;
+                        if (existing.length() < length || existing.readInt() != VERSION
+                                || existing.readLong() != normalizer.getDigest()) {
+                            existing.close();
+                            delete(file);
+                            return null;
+                        }
+                        existing.setLength(length);
+                        existing.writeLong(-1);
+                    } finally {
+                        existing.close();
+                    }
+                    return new Output(file, new DataOutputStream(
+                            new BufferedOutputStream(new FileOutputStream(file, true))));
+                }
+                final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(file)));
+                out.writeInt(VERSION);
+                out.writeLong(normalizer.getDigest());
+                out.writeLong(-1);
+                return new Output(file, out);
+            } catch (IOException e) {
+                Logger.getLogger(LogParserLineHashes.class.getName()).log(Level.WARNING,
+                        "LogParserLineHashes: Unable to write " + file, e);
+                delete(file);
+                return null;
+            }
+        }
+
+        /**
+         * @param hash
+         *            the hash of the next line of the log, see
+         *            {@link Normalizer#hashLine(String)}
+         * @param offset
+         *            where the line starts in the log
+         */
+        public void add(final long hash, final long offset) {
+            if (out == null) {
+                return;
+            }
+            try {
+                out.writeLong(hash);
+                out.writeLong(offset);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * @param logLength
+         *            the length of the log, up to which it was parsed
+         */
+        public void close(final long logLength) {
+            if (out == null) {
+                return;
+            }
+            try {
+                out.close();
+                out = null;
+                final RandomAccessFile header = new RandomAccessFile(file, "rw");
+                try {
+                    header.seek(LOG_LENGTH_POSITION);
+                    header.writeLong(logLength);
+                } finally {
+                    header.close();
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        private void fail(final IOException e) {
+            Logger.getLogger(LogParserLineHashes.class.getName()).log(Level.WARNING,
+                    "LogParserLineHashes: Unable to write " + file, e);
+            try {
+                if (out != null) {
+                    out.close();
+                }
+            } catch (IOException ignored) {
+                // Deleted anyway
+            }
+            out = null;
+            delete(file);
+        }
+    }
+
+    /**
+     * Get the hashes of the lines of a build's log, from the file written by
+     * its parse if it was written with the same masks. The lines logged
+     * after the parse, such as the end of the build, are hashed and appended
+     * to it once the build is over. Otherwise the log is hashed now, without
+     * keeping its text, and the file is written for next time if the build
+     * is over.
+     *
+     * @param build
+     *            the build
+     * @param normalizer
+     *            how to hash the lines
+     * @return the hashes, to close once done with the lines
+     */
+    public static LogParserLineHashes forBuild(final Run<?, ?> build,
+            final Normalizer normalizer) throws IOException {
+        return forLog(build.getLogFile(), build.isBuilding(), normalizer);
+    }
+
+    /**
+     * @param building
+     *            whether the log may still grow
+     * @see #forBuild(Run, Normalizer)
+     */
+    public static LogParserLineHashes forLog(final File log, final boolean building,
+            final Normalizer normalizer) throws IOException {
+        final File file = new File(log.getParentFile(), FILE_NAME);
+        LogParserLineHashes saved = load(file, log, normalizer, false);
+        if (saved != null) {
+            return saved;
+        }
+        if (!building && extend(file, log, normalizer)) {
+            saved = load(file, log, normalizer, false);
+            if (saved != null) {
+                return saved;
+            }
+        }
+
+        final File tempFile = File.createTempFile("log_lines", ".tmp", log.getParentFile());
+        try {
+            final long logLength = log.length();
+            final Output output = Output.open(tempFile, normalizer, 0);
+            if (output == null) {
+                throw new IOException("Unable to write " + tempFile);
+            }
+            hashLines(output, log, 0, logLength, normalizer);
+
+            File hashed = tempFile;
+            // Replaced in one go so that a reader never sees half of it
+            if (!building && (tempFile.renameTo(file) || file.delete() && tempFile.renameTo(file))) {
+                hashed = file;
+            }
+            final LogParserLineHashes computed = load(hashed, log, normalizer, hashed == tempFile);
+            if (computed == null) {
+                throw new IOException("Unable to read " + hashed);
+            }
+            return computed;
+        } catch (IOException e) {
+            delete(tempFile);
+            throw e;
+        }
+    }
+
+    /**
+     * Hash the lines of the log from a line start on, and close the output.
+     */
+    private static void hashLines(final Output output, final File log, final long start,
+            final long logLength, final Normalizer normalizer) throws IOException {
+        final FileInputStream in = new FileInputStream(log);
+        final LogParserLineReader reader;
+        try {
+            in.getChannel().position(start);
+            reader = new LogParserLineReader(new BoundedInputStream(in, logLength - start),
+                    start, Charset.defaultCharset());
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.add(normalizer.hashLine(line), reader.getLineStart());
+            }
+        } finally {
+            reader.close();
+        }
+        output.close(logLength);
+    }
+
+    /**
+     * Hash the lines logged after the file was written and append them, such
+     * as the end of the build, logged after the publishers are done.
+     *
+     * @return false if the file is missing, not done, computed with other
+     *         masks or does not cover a part of the log
+     */
+    private static boolean extend(final File file, final File log, final Normalizer normalizer)
+            throws IOException {
+        synchronized (LOCK) {
+            if (!file.isFile()) {
+                return false;
+            }
+            final long logLength = log.length();
+            int lineCount;
+            long start;
+            final RandomAccessFile existing = new RandomAccessFile(file, "r");
+            try {
+                final long records = existing.length() - HEADER_LENGTH;
+                if (records < 0 || records % RECORD_LENGTH != 0
+                        || existing.readInt() != VERSION
+                        || existing.readLong() != normalizer.getDigest()) {
+                    return false;
+                }
+                final long covered = existing.readLong();
+                if (covered < 0 || covered >= logLength) {
+                    // Not done, already extended or not of this log
+                    return false;
+                }
+                lineCount = (int) (records / RECORD_LENGTH);
+                start = 0;
+                if (lineCount > 0) {
+                    // The last line may go on past what was covered, or its
+                    // "\r" be followed by a "\n", so it is hashed again
+                    lineCount--;
+                    existing.seek(HEADER_LENGTH + (long) RECORD_LENGTH * lineCount + 8);
+                    start = existing.readLong();
+                }
+            } finally {
+                existing.close();
+            }
+            final Output output = Output.open(file, normalizer, lineCount);
+            if (output == null) {
+                return false;
+            }
+            hashLines(output, log, start, logLength, normalizer);
+            return true;
+        }
+    }
+
+    /**
+     * @return the hashes, or null if the file is missing, incomplete or
+     *         computed with other masks
+     */
+    static LogParserLineHashes load(final File file, final File log,
+            final Normalizer normalizer, final boolean temporary) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file), 64 * 1024));
+            try {
+                final long records = file.length() - HEADER_LENGTH;
+                if (records < 0 || records % RECORD_LENGTH != 0 || in.readInt() != VERSION
+                        || in.readLong() != normalizer.getDigest()) {
+                    return null;
+                }
+                final long logLength = in.readLong();
+                if (logLength != log.length()) {
+                    // Not parsed yet, or parsed before the log grew
+                    return null;
+                }
+                final long[] hashes = new long[(int) (records / RECORD_LENGTH)];
+                for (int i = 0; i < hashes.length; i++) {
+                    hashes[i] = in.readLong();
+                    in.readLong();
+                }
+                return new LogParserLineHashes(hashes, file, log, logLength, temporary);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Logger.getLogger(LogParserLineHashes.class.getName()).log(Level.WARNING,
+                    "LogParserLineHashes: Ignoring unreadable " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the hash of each line of the log
+     */
+    public long[] getHashes() {
+        return hashes;
+    }
+
+    /**
+     * @return the lines of the log, each read from the log by its offset when
+     *         got, for as long as this is not closed
+     */
+    public List<String> getLines() {
+        return new AbstractList<String>() {
+            @Override
+            public String get(final int index) {
+                try {
+                    return readLine(index);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Unable to read line " + index + " of "
+                            + log, e);
+                }
+            }
+
+            @Override
+            public int size() {
+                return hashes.length;
+            }
+        };
+    }
+
+    private String readLine(final int index) throws IOException {
+        if (index < 0 || index >= hashes.length) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        if (fileIn == null) {
+            fileIn = new RandomAccessFile(file, "r");
+            logIn = new RandomAccessFile(log, "r");
+        }
+        fileIn.seek(HEADER_LENGTH + (long) RECORD_LENGTH * index + 8);
+        final long start = fileIn.readLong();
+        long end = logLength;
+        if (index + 1 < hashes.length) {
+            fileIn.seek(HEADER_LENGTH + (long) RECORD_LENGTH * (index + 1) + 8);
+            end = fileIn.readLong();
+        }
+        final byte[] bytes = new byte[(int) (end - start)];
+        logIn.seek(start);
+        logIn.readFully(bytes);
+        // Without its line end: "\n", "\r" or "\r\n"
+        int length = bytes.length;
+        if (length > 0 && bytes[length - 1] == '\n') {
+            length--;
+        }
+        if (length > 0 && bytes[length - 1] == '\r') {
+            length--;
+        }
+        return new String(bytes, 0, length, Charset.defaultCharset());
+    }
+
+    public void close() throws IOException {
+        try {
+            if (fileIn != null) {
+                fileIn.close();
+                logIn.close();
+            }
+        } finally {
+            fileIn = null;
+            logIn = null;
+            if (temporary) {
+                delete(file);
+            }
+        }
+    }
+
+    private static void delete(final File file) {
+        if (file.exists() && !file.delete()) {
+            Logger.getLogger(LogParserLineHashes.class.getName()).log(Level.WARNING,
+                    "LogParserLineHashes: Unable to delete " + file);
+        }
+    }
+
+}
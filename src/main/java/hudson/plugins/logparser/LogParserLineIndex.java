@@ -0,0 +1,384 @@
+package hudson.plugins.logparser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.input.BoundedInputStream;
+
+/**
+ * Where the lines of log_content.html start, saved next to it so that any
+ * window of lines can be served without reading the lines before it.
+ *
+ * Every {@link #INTERVAL} lines, the byte offset of the rendered line and the
+ * counts of each status before it are recorded. A window is served by
+ * seeking to the entry before its first line and skipping the few lines in
+ * between. The counts find the entry before the line marked by an anchor such
+ * as "ERROR12", so that the links to the lines can point at their page. The
+ * length of the event log at the entry finds the classified lines from the
+ * line on, see {@link LogParserEventLog}.
+ *
+ * A rendered line contains no new line but the ones written after it: the
+ * line separator, preceded by "&lt;br/&gt;\n" when the log is not
+ * preformatted. The offsets of a compressed log are in its compressed data,
+ * see {@link LogParserGzip}.
+ */
+public class LogParserLineIndex {
+
+    public static final String FILE_NAME = "log_content.idx";
+
+    public static final int INTERVAL = 1024;
+    private static final int VERSION = 2;
+
+    private final List<String> statuses;
+    private final boolean preformattedHtml;
+    private long[] offsets = new long[16];
+    private long[] eventOffsets = new long[16];
+    private int[] countsBefore;
+    private int numEntries = 0;
+    private int lineCount = 0;
+    private long bodyEnd = 0;
+
+    public LogParserLineIndex(final List<String> statuses, final boolean preformattedHtml) {
+        this.statuses = new ArrayList<String>(statuses);
+        this.preformattedHtml = preformattedHtml;
+        this.countsBefore = new int[offsets.length * statuses.size()];
+    }
+
+    public boolean isPreformattedHtml() {
+        return preformattedHtml;
+    }
+
+    /**
+     * @return the number of lines of the parsed log
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Record the start of a line. Called for the lines whose number is a
+     * multiple of {@link #INTERVAL}.
+     *
+     * @param line
+     *            the number of the line, from 0
+     * @param offset
+     *            where the rendered line starts in the parsed log
+     * @param statusCount
+     *            the counts of each status before the line
+     * @param eventOffset
+     *            the length of the event log before the line
+     */
+    public void lineStart(final int line, final long offset, final Map<String, Integer> statusCount,
+            final long eventOffset) {
+        if (line % INTERVAL != 0 || line / INTERVAL != numEntries) {
+            // Already recorded
+            return;
+        }
+        if (numEntries == offsets.length) {
+            offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+            eventOffsets = Arrays.copyOf(eventOffsets, offsets.length);
+            countsBefore = Arrays.copyOf(countsBefore, offsets.length * statuses.size());
+        }
+        offsets[numEntries] = offset;
+        eventOffsets[numEntries] = eventOffset;
+        for (int i = 0; i < statuses.size(); i++) {
+            final Integer count = statusCount.get(statuses.get(i));
+            countsBefore[numEntries * statuses.size() + i] = count == null ? 0 : count;
+        }
+        numEntries++;
+    }
+
+    /**
+     * @param lineCount
+     *            the number of lines of the parsed log
+     * @param bodyEnd
+     *            where the last rendered line ends in the parsed log
+     */
+    public void setEnd(final int lineCount, final long bodyEnd) {
+        this.lineCount = lineCount;
+        this.bodyEnd = bodyEnd;
+    }
+
+    /**
+     * Drop the lines from the given one on, when resuming a parse.
+     *
+     * @param lines
+     *            the number of lines to keep
+     */
+    void truncate(final int lines) {
+        numEntries = Math.min(numEntries, (lines + INTERVAL - 1) / INTERVAL);
+        lineCount = Math.min(lineCount, lines);
+    }
+
+    /**
+     * Read an index.
+     *
+     * @param file
+     *            the index file
+     * @return the index, or null if there is none or it cannot be read
+     */
+    public static LogParserLineIndex load(final File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+            try {
+                if (in.readInt() != VERSION) {
+                    return null;
+                }
+                final boolean preformattedHtml = in.readBoolean();
+                final List<String> statuses = new ArrayList<String>();
+                final int numStatuses = in.readInt();
+                for (int i = 0; i < numStatuses; i++) {
+                    statuses.add(in.readUTF());
+                }
+                final LogParserLineIndex index = new LogParserLineIndex(statuses,
+                        preformattedHtml);
+                index.lineCount = in.readInt();
+                index.bodyEnd = in.readLong();
+                index.numEntries = in.readInt();
+                index.offsets = new long[Math.max(16, index.numEntries)];
+                index.eventOffsets = new long[index.offsets.length];
+                index.countsBefore = new int[index.offsets.length * numStatuses];
+                for (int i = 0; i < index.numEntries; i++) {
+                    index.offsets[i] = in.readLong();
+                    index.eventOffsets[i] = in.readLong();
+                    for (int j = 0; j < numStatuses; j++) {
+                        index.countsBefore[i * numStatuses + j] = in.readInt();
+                    }
+                }
+                return index;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Logger.getLogger(LogParserLineIndex.class.getName()).log(Level.WARNING,
+                    "LogParserLineIndex: Ignoring unreadable index " + file, e);
+        }
+        return null;
+    }
+
+    /**
+     * Write the index. The file is replaced in one go so that a reader never
+     * sees half of it.
+     *
+     * @param file
+     *            the index file
+     */
+    public void save(final File file) throws IOException {
+        final File tempFile = new File(file.getPath() + ".tmp");
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tempFile)));
+        try {
+            out.writeInt(VERSION);
+            out.writeBoolean(preformattedHtml);
+            out.writeInt(statuses.size());
+            for (String status : statuses) {
+                out.writeUTF(status);
+            }
+            out.writeInt(lineCount);
+            out.writeLong(bodyEnd);
+            out.writeInt(numEntries);
+            for (int i = 0; i < numEntries; i++) {
+                out.writeLong(offsets[i]);
+                out.writeLong(eventOffsets[i]);
+                for (int j = 0; j < statuses.size(); j++) {
+                    out.writeInt(countsBefore[i * statuses.size() + j]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            // Windows does not rename over an existing file
+            if (!file.delete() || !tempFile.renameTo(file)) {
+                throw new IOException("Unable to write line index " + file);
+            }
+        }
+    }
+
+    /**
+     * @param line
+     *            a line, from 0
+     * @return where to start reading the event log for the classified lines
+     *         from the line on
+     */
+    public long getEventOffset(final int line) {
+        if (numEntries == 0) {
+            return 0;
+        }
+        return eventOffsets[Math.min(Math.max(0, line) / INTERVAL, numEntries - 1)];
+    }
+
+    /**
+     * Find the line marked by an anchor of the parsed log.
+     *
+     * @param content
+     *            the parsed log
+     * @param anchor
+     *            the name of the anchor, such as "ERROR12"
+     * @return the number of the line, or -1 if there is no such anchor
+     */
+    public int findAnchor(final File content, final String anchor) throws IOException {
+        // The longest status, in case one tag starts with another
+        int status = -1;
+        for (int i = 0; i < statuses.size(); i++) {
+            final String candidate = statuses.get(i);
+            if (anchor.startsWith(candidate) && anchor.length() > candidate.length()
+                    && (status < 0 || candidate.length() > statuses.get(status).length())) {
+                status = i;
+            }
+        }
+        if (status < 0) {
+            return -1;
+        }
+        final int number;
+        try {
+            number = Integer.parseInt(anchor.substring(statuses.get(status).length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+
+        // Last entry with fewer lines of the status before it than the number
+        int low = 0;
+        int high = numEntries - 1;
+        int entry = -1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            if (countsBefore[middle * statuses.size() + status] < number) {
+                entry = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        if (entry < 0) {
+            return -1;
+        }
+
+        final byte[] marker = ("<a name=\"" + anchor + "\">").getBytes(Charset.defaultCharset());
+        final BufferedInputStream in = openAt(content, offsets[entry]);
+        try {
+            final byte[] start = new byte[marker.length];
+            final int end = Math.min(lineCount, (entry + 1) * INTERVAL);
+            for (int line = entry * INTERVAL; line < end; line++) {
+                in.mark(marker.length);
+                final int read = readFully(in, start);
+                if (read == marker.length && Arrays.equals(start, marker)) {
+                    return line;
+                }
+                in.reset();
+                if (!skipLines(in, 1)) {
+                    break;
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return -1;
+    }
+
+    /**
+     * Copy a window of rendered lines of the parsed log.
+     *
+     * @param content
+     *            the parsed log
+     * @param from
+     *            the first line, from 0
+     * @param count
+     *            the number of lines
+     * @param out
+     *            where to copy the lines
+     */
+    public void copyLines(final File content, final int from, final int count,
+                          final OutputStream out) throws IOException {
+        if (from >= lineCount || count <= 0 || numEntries == 0) {
+            return;
+        }
+        final int entry = Math.min(from / INTERVAL, numEntries - 1);
+        final InputStream in = openAt(content, offsets[entry]);
+        try {
+            if (!skipLines(in, from - entry * INTERVAL)) {
+                return;
+            }
+            final int newLinesPerLine = preformattedHtml ? 1 : 2;
+            int newLines = 0;
+            final long toCopy = (long) Math.min(count, lineCount - from) * newLinesPerLine;
+            final byte[] buffer = new byte[8192];
+            int read;
+            while (newLines < toCopy && (read = in.read(buffer)) > 0) {
+                int end = read;
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == '\n' && ++newLines == toCopy) {
+                        end = i + 1;
+                        break;
+                    }
+                }
+                out.write(buffer, 0, end);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private BufferedInputStream openAt(final File content, final long offset) throws IOException {
+        final FileInputStream in = new FileInputStream(content);
+        try {
+            in.getChannel().position(offset);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        final InputStream part = new BoundedInputStream(in, Math.max(0, bodyEnd - offset));
+        // Offsets into a compressed log are those of full flushes
+        return new BufferedInputStream(LogParserGzip.isCompressed(content.getPath())
+                ? LogParserGzip.inflateFromFlush(part) : part);
+    }
+
+    /**
+     * @return false if the parsed log ended first
+     */
+    private boolean skipLines(final InputStream in, final int lines) throws IOException {
+        long newLines = (long) lines * (preformattedHtml ? 1 : 2);
+        while (newLines > 0) {
+            final int b = in.read();
+            if (b < 0) {
+                return false;
+            }
+            if (b == '\n') {
+                newLines--;
+            }
+        }
+        return true;
+    }
+
+    private static int readFully(final InputStream in, final byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            final int read = in.read(buffer, total, buffer.length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+}
@@ -0,0 +1,119 @@
+package hudson.plugins.logparser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Reads the lines of a log and where each of them starts.
+ *
+ * Lines are split on the bytes of '\n', '\r' or "\r\n", the same lines as
+ * {@link java.io.BufferedReader#readLine()} returns for any charset in which
+ * these are single bytes that no other character contains, such as UTF-8 and
+ * the ISO-8859 charsets. Each line is then decoded on its own.
+ */
+public final class LogParserLineReader {
+
+    private final InputStream in;
+    private final Charset charset;
+    private final byte[] buffer = new byte[64 * 1024];
+    private long bufferStart;
+    private int limit = 0;
+    private int pos = 0;
+    private long lineStart;
+    // The start of a line read across buffers
+    private byte[] line = new byte[256];
+    private int lineLength;
+
+    /**
+     * @param in
+     *            the log, from a line start on
+     * @param start
+     *            the offset in the log where the stream starts
+     * @param charset
+     *            the charset of the log
+     */
+    public LogParserLineReader(final InputStream in, final long start, final Charset charset) {
+        this.in = in;
+        this.bufferStart = start;
+        this.lineStart = start;
+        this.charset = charset;
+    }
+
+    /**
+     * @return the next line without its line end, or null at the end of the
+     *         log
+     */
+    public String readLine() throws IOException {
+        lineStart = bufferStart + pos;
+        lineLength = 0;
+        while (true) {
+            if (pos == limit && !fill()) {
+                return bufferStart + pos == lineStart ? null
+                        : new String(line, 0, lineLength, charset);
+            }
+            final int start = pos;
+            while (pos < limit && buffer[pos] != '\n' && buffer[pos] != '\r') {
+                pos++;
+            }
+            if (pos == limit) {
+                append(start, pos - start);
+                continue;
+            }
+            final String result = decode(start, pos - start);
+            if (buffer[pos++] == '\r') {
+                if (pos == limit) {
+                    fill();
+                }
+                if (pos < limit && buffer[pos] == '\n') {
+                    pos++;
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * @return the offset in the log of the line last read
+     */
+    public long getLineStart() {
+        return lineStart;
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private boolean fill() throws IOException {
+        bufferStart += limit;
+        pos = 0;
+        limit = 0;
+        int read;
+        do {
+            read = in.read(buffer);
+        } while (read == 0);
+        if (read > 0) {
+            limit = read;
+        }
+        return limit > 0;
+    }
+
+    private void append(final int start, final int length) {
+        if (lineLength + length > line.length) {
+            line = Arrays.copyOf(line, Math.max(lineLength + length, 2 * line.length));
+        }
+        System.arraycopy(buffer, start, line, lineLength, length);
+        lineLength += length;
+    }
+
+    private String decode(final int start, final int length) {
+        if (lineLength == 0) {
+            // All in the buffer
+            return new String(buffer, start, length, charset);
+        }
+        append(start, length);
+        return new String(line, 0, lineLength, charset);
+    }
+
+}
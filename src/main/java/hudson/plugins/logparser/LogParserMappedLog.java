@@ -0,0 +1,243 @@
+package hudson.plugins.logparser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.console.ConsoleNote;
+
+/**
+ * Classifies a local log file by byte ranges.
+ *
+ * The file is split into ranges ending right after a new line. Each range is
+ * memory mapped, decoded and classified by a task of the
+ * {@link LogParserExecutor} pool with no lock shared with the other ranges.
+ * Once all the ranges are done, their line counts are summed up to place the
+ * statuses of each range at the right line numbers.
+ *
+ * Lines are split the same way as {@link java.io.BufferedReader#readLine()}
+ * does: on '\n', '\r' or "\r\n".
+ */
+final class LogParserMappedLog {
+
+    // Ranges are decoded whole, so keep them small enough for many workers
+    // to hold one each
+    static final long MAX_RANGE_SIZE = 8L * 1024 * 1024;
+    static final long MIN_RANGE_SIZE = 256L * 1024;
+
+    private final File file;
+    private final CompiledRuleSet ruleSet;
+    private final Charset charset;
+
+    LogParserMappedLog(final File file, final CompiledRuleSet ruleSet, final Charset charset) {
+        this.file = file;
+        this.ruleSet = ruleSet;
+        this.charset = charset;
+    }
+
+    /**
+     * Classify all the lines of the file.
+     *
+     * @return the status of every line
+     */
+    LogParserStatusTable classify() throws IOException {
+        final LogParserStatusTable result = ruleSet.newStatusTable();
+        final LogParserRuleStats ruleStats = ruleSet.newRuleStats();
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final long[] bounds = splitRanges(channel, targetRangeSize(channel.size()));
+            final RangeResult[] results = new RangeResult[bounds.length - 1];
+
+            LogParserExecutor.get().invoke(new ClassifyRanges(channel, bounds, results, 0,
+                    results.length));
+
+            // Prefix sum of the line counts gives the first line of each range
+            int firstLine = 0;
+            for (RangeResult rangeResult : results) {
+                if (rangeResult.error != null) {
+                    throw rangeResult.error;
+                }
+                result.setOrdinals(firstLine, rangeResult.ordinals, rangeResult.numLines);
+                ruleStats.merge(rangeResult.ruleStats);
+                firstLine += rangeResult.numLines;
+            }
+            result.setRuleStats(ruleStats);
+            Logger.getLogger(getClass().getName()).log(Level.INFO,
+                    "LogParserMappedLog: Classified " + firstLine + " lines in "
+                            + results.length + " ranges");
+        } finally {
+            raf.close();
+        }
+        return result;
+    }
+
+    private static long targetRangeSize(final long fileSize) {
+        // A few ranges per thread so that idle threads can steal work
+        final long perThread = fileSize / (4L * LogParserExecutor.get().getParallelism());
+        return Math.max(MIN_RANGE_SIZE, Math.min(MAX_RANGE_SIZE, perThread));
+    }
+
+    /**
+     * Split the file into ranges of about the target size, each ending right
+     * after a '\n' (or at the end of the file).
+     *
+     * @return the range boundaries: range i is [bounds[i], bounds[i + 1])
+     */
+    static long[] splitRanges(final FileChannel channel, final long targetRangeSize)
+            throws IOException {
+        final long size = channel.size();
+        final List<Long> bounds = new ArrayList<Long>();
+        bounds.add(0L);
+        final ByteBuffer probe = ByteBuffer.allocate(4096);
+        long start = 0;
+        while (size - start > targetRangeSize) {
+            // Look for the end of the line at the target position
+            long pos = start + targetRangeSize;
+            long end = -1;
+            while (end < 0 && pos < size) {
+                probe.clear();
+                final int read = channel.read(probe, pos);
+                if (read <= 0) {
+                    break;
+                }
+                for (int i = 0; i < read; i++) {
+                    if (probe.get(i) == '\n') {
+                        end = pos + i + 1;
+                        break;
+                    }
+                }
+                pos += read;
+            }
+            if (end < 0 || end >= size) {
+                break;
+            }
+            bounds.add(end);
+            start = end;
+        }
+        bounds.add(size);
+
+        final long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    private static final class RangeResult {
+        private byte[] ordinals;
+        private int numLines;
+        private LogParserRuleStats ruleStats;
+        private IOException error;
+    }
+
+    /**
+     * Classifies a span of ranges, splitting it in halves so that idle
+     * workers can steal one.
+     */
+    private final class ClassifyRanges extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long[] bounds;
+        private final RangeResult[] results;
+        private final int from;
+        private final int to;
+
+        ClassifyRanges(final FileChannel channel, final long[] bounds,
+                final RangeResult[] results, final int from, final int to) {
+            this.channel = channel;
+            this.bounds = bounds;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new ClassifyRanges(channel, bounds, results, from, middle),
+                        new ClassifyRanges(channel, bounds, results, middle, to));
+                return;
+            }
+            final RangeResult result = new RangeResult();
+            try {
+                classifyRange(channel, bounds[from], bounds[from + 1], result);
+            } catch (IOException e) {
+                result.error = e;
+            }
+            results[from] = result;
+        }
+    }
+
+    private void classifyRange(final FileChannel channel, final long start, final long end,
+            final RangeResult result) throws IOException {
+        final CharBuffer chars;
+        if (end > start) {
+            final MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                    end - start);
+            final CharsetDecoder decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            chars = decoder.decode(bytes);
+        } else {
+            chars = CharBuffer.allocate(0);
+        }
+
+        final CompiledRuleSet.Classifier classifier = ruleSet.newClassifier();
+        byte[] ordinals = new byte[1024];
+        int numLines = 0;
+        final int length = chars.remaining();
+        int lineStart = 0;
+        int i = 0;
+        while (i < length) {
+            final char c = chars.get(i);
+            if (c != '\n' && c != '\r') {
+                i++;
+                continue;
+            }
+            if (numLines == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, ordinals.length * 2);
+            }
+            ordinals[numLines++] = (byte) classifyLine(classifier, chars, lineStart, i);
+            i++;
+            if (c == '\r' && i < length && chars.get(i) == '\n') {
+                i++;
+            }
+            lineStart = i;
+        }
+        if (lineStart < length) {
+            // Last line of the file, with no new line at its end
+            if (numLines == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, ordinals.length + 1);
+            }
+            ordinals[numLines++] = (byte) classifyLine(classifier, chars, lineStart, length);
+        }
+        result.ordinals = ordinals;
+        result.numLines = numLines;
+        result.ruleStats = classifier.getStats();
+    }
+
+    private static int classifyLine(final CompiledRuleSet.Classifier classifier,
+            final CharBuffer chars, final int start, final int end) {
+        final String line = chars.subSequence(start, end).toString();
+        // Notes can break start-of-line patterns - see LogParserThread
+        return classifier.classifyOrdinal(ConsoleNote.removeNotes(line));
+    }
+
+}
@@ -1,19 +1,28 @@
 package hudson.plugins.logparser;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.output.CountingOutputStream;
 
 import hudson.FilePath;
 import hudson.console.ConsoleNote;
@@ -24,12 +33,13 @@ import hudson.remoting.VirtualChannel;
 public class LogParserParser {
 
     final private HashMap<String, Integer> statusCount = new HashMap<String, Integer>();
-    final private HashMap<String, BufferedWriter> writers = new HashMap<String, BufferedWriter>();
-    final private HashMap<String, String> linkFiles = new HashMap<String, String>();
+    // Compressed artifacts being written, by path
+    final private HashMap<String, LogParserGzip.Output> gzipOutputs =
+            new HashMap<String, LogParserGzip.Output>();
 
     final private String[] parsingRulesArray;
-    final private Pattern[] compiledPatterns;
-    final private CompiledPatterns compiledPatternsPlusError;
+    final private CompiledRuleSet ruleSet;
+    final private String badParsingRulesError;
     final private List<String> extraTags;
 
     // if key is 3-ERROR it shows how many errors are in section 3
@@ -39,8 +49,32 @@ public class LogParserParser {
 
     final private LogParserDisplayConsts displayConstants = new LogParserDisplayConsts();
 
+    // Instrumentation of the last parse, in the order the phases ran
+    final private LogParserRuleStats ruleStats;
+    final private LinkedHashMap<String, Long> phaseNanos = new LinkedHashMap<String, Long>();
+
     final private VirtualChannel channel;
     final private boolean preformattedHtml;
+    private boolean streaming = false;
+    private boolean compressArtifacts = false;
+    private LogParserLineHashes.Normalizer diffLineNormalizer;
+
+    // The classified lines of the current parse
+    private LogParserEventLog eventLog;
+
+    // Where the lines rendered by the current parse start in the parsed log
+    private LogParserLineIndex lineIndex;
+    private CountingOutputStream contentOut;
+    private long contentStart = 0;
+    private int renderedLines = 0;
+    // Where the line being rendered starts in the console log
+    private long lineOffset = 0;
+    // The hashes of the lines of the current parse, null if not written
+    private LogParserLineHashes.Output lineHashes;
+
+    // Reused by renderLine for the text of each line and its counts
+    private char[] renderBuffer = new char[256];
+    final private char[] digitBuffer = new char[11];
 
     public LogParserParser(final FilePath parsingRulesFile, final boolean preformattedHtml,
                            final VirtualChannel channel) throws IOException {
@@ -48,14 +82,14 @@ public class LogParserParser {
         // init logger
         final Logger logger = Logger.getLogger(getClass().getName());
 
-        this.parsingRulesArray = LogParserUtils.readParsingRules(parsingRulesFile);
-
-        // This causes each regular expression to be compiled once for better
-        // performance
-        this.compiledPatternsPlusError = LogParserUtils.compilePatterns(this.parsingRulesArray,
-                logger);
-        this.compiledPatterns = this.compiledPatternsPlusError.getCompiledPatterns();
-        this.extraTags = this.compiledPatternsPlusError.getExtraTags();
+        // Each regular expression is compiled once for all the builds, as
+        // long as the rules file does not change
+        final LogParserRuleCache.Rules rules = LogParserRuleCache.get(parsingRulesFile, logger);
+        this.parsingRulesArray = rules.getLines();
+        this.ruleSet = rules.getRuleSet();
+        this.extraTags = rules.getExtraTags();
+        this.badParsingRulesError = rules.getError();
+        this.ruleStats = this.ruleSet.newRuleStats();
 
         this.preformattedHtml = preformattedHtml;
         this.channel = channel;
@@ -70,6 +104,43 @@ public class LogParserParser {
         }
     }
 
+    /**
+     * Classify and render the log in a single streaming pass on the
+     * controller, instead of classifying it through the channel first and then
+     * reading it again to render it.
+     *
+     * @param streaming
+     *            true to use the single pass pipeline
+     */
+    public void setStreaming(final boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Write the parsed log and the reference page gzip
+     * compressed, with {@link LogParserGzip#SUFFIX} appended to their names.
+     *
+     * @param compressArtifacts
+     *            true to compress the artifacts
+     */
+    public void setCompressArtifacts(final boolean compressArtifacts) {
+        this.compressArtifacts = compressArtifacts;
+    }
+
+    /**
+     * Write the hash of each line, with the given parts masked, and where it
+     * starts, so that console line diffs do not read the whole logs again,
+     * see {@link LogParserLineHashes}.
+     *
+     * @param diffLineMasks
+     *            the regular expressions of the masked parts, one per line,
+     *            or null not to write the hashes
+     */
+    public void setDiffLineMasks(final String diffLineMasks) {
+        this.diffLineNormalizer = diffLineMasks == null ? null
+                : new LogParserLineHashes.Normalizer(diffLineMasks);
+    }
+
     /*
      * This method creates the parsed log file : log.html It also creates the
      * lists of links to these errors/warnings/info messages respectively :
@@ -94,100 +165,173 @@ public class LogParserParser {
         final FilePath filePath = new FilePath(new File(logFileLocation));
 
         // Determine parsed log files
-        final String parsedFilePath = logDirectory + "/log_content.html";
-        final String errorLinksFilePath = logDirectory + "/logerrorLinks.html";
-        final String warningLinksFilePath = logDirectory + "/logwarningLinks.html";
-        final String infoLinksFilePath = logDirectory + "/loginfoLinks.html";
-        final String debugLinksFilePath = logDirectory + "/logdebugLinks.html";
-        final Map<String, String> linksFilePathByExtraTags = new HashMap<String, String>();
-        for (String extraTag : this.extraTags) {
-            linksFilePathByExtraTags.put(extraTag, logDirectory + "/log" + extraTag + "Links.html");
-        }
-        final String buildRefPath = logDirectory + "/log_ref.html";
+        final String suffix = this.compressArtifacts ? LogParserGzip.SUFFIX : "";
+        final String parsedFilePath = logDirectory + "/log_content.html" + suffix;
+        final String buildRefPath = logDirectory + "/log_ref.html" + suffix;
         final String buildWrapperPath = logDirectory + "/log.html";
 
-        // Record file paths in hash
-        linkFiles.put(LogParserConsts.ERROR, errorLinksFilePath);
-        linkFiles.put(LogParserConsts.WARNING, warningLinksFilePath);
-        linkFiles.put(LogParserConsts.INFO, infoLinksFilePath);
-        linkFiles.put(LogParserConsts.DEBUG, debugLinksFilePath);
-        for (String extraTag : this.extraTags) {
-            linkFiles.put(extraTag, linksFilePathByExtraTags.get(extraTag));
+        // The lines of these tags are listed by the reference html
+        final List<String> linkedTags = new ArrayList<String>(
+                LogParserConsts.STATUSES_WITH_LINK_FILES);
+        linkedTags.addAll(this.extraTags);
+        eventLog = new LogParserEventLog(new File(logDirectory, LogParserEventLog.FILE_NAME),
+                linkedTags);
+
+        // Resume from where an earlier parse of this build with the same
+        // rules stopped, if possible
+        final File checkpointFile = new File(logDirectory, LogParserCheckpoint.FILE_NAME);
+        final String rulesHash = LogParserCheckpoint.hashRules(this.parsingRulesArray,
+                this.preformattedHtml, this.compressArtifacts);
+        LogParserCheckpoint checkpoint = LogParserCheckpoint.load(checkpointFile);
+        if (checkpoint != null && !checkpoint.isUsable(rulesHash, logFile,
+                new File(parsedFilePath), eventLog.getFile())) {
+            checkpoint = null;
+        }
+        final File lineIndexFile = new File(logDirectory, LogParserLineIndex.FILE_NAME);
+        if (checkpoint != null) {
+            lineIndex = LogParserLineIndex.load(lineIndexFile);
+            if (lineIndex == null) {
+                // Parsed before lines were indexed
+                checkpoint = null;
+            }
+        }
+        final boolean resuming = checkpoint != null;
+        long bodyStart = 0;
+        boolean endsWithCR = false;
+        int lineCount = 0;
+        if (resuming) {
+            // Drop whatever was written after the checkpoint
+            LogParserCheckpoint.truncate(new File(parsedFilePath), checkpoint.getContentLength());
+            eventLog.open(checkpoint.getEventLogLength());
+            statusCount.putAll(checkpoint.getStatusCount());
+            statusCountPerSection.putAll(checkpoint.getStatusCountPerSection());
+            headerForSection.addAll(checkpoint.getHeaderForSection());
+            sectionCounter = checkpoint.getSectionCounter();
+            lineCount = checkpoint.getLineCount();
+            bodyStart = checkpoint.getOffset();
+            endsWithCR = checkpoint.getEndsWithCR();
+            lineIndex.truncate(lineCount);
+            contentStart = checkpoint.getContentLength();
+            if (endsWithCR && LogParserCheckpoint.byteAt(logFile, bodyStart) == '\n') {
+                // The "\r\n" of the last parsed line
+                bodyStart++;
+                endsWithCR = false;
+            }
+            logger.log(Level.INFO, "LogParserParser: Resuming parse at line " + lineCount);
+        } else {
+            eventLog.open(0);
+            lineIndex = new LogParserLineIndex(linkedTags, this.preformattedHtml);
+        }
+        renderedLines = lineCount;
+        if (diffLineNormalizer != null) {
+            // Missing if the lines parsed already were not hashed, then the
+            // diffs hash the log themselves
+            lineHashes = LogParserLineHashes.Output.open(new File(logDirectory,
+                    LogParserLineHashes.FILE_NAME), diffLineNormalizer, lineCount);
         }
 
-        // Open console log for reading and all other files for writing
-        final BufferedWriter writer = new BufferedWriter(new FileWriter(parsedFilePath));
+        // Drop the artifacts of an earlier parse stored the other way
+        deleteOtherForm(parsedFilePath);
+        deleteOtherForm(buildRefPath);
 
-        // Record writers to links files in hash
-        writers.put(LogParserConsts.ERROR, new BufferedWriter(new FileWriter(errorLinksFilePath)));
-        writers.put(LogParserConsts.WARNING, new BufferedWriter(new FileWriter(warningLinksFilePath)));
-        writers.put(LogParserConsts.INFO, new BufferedWriter(new FileWriter(infoLinksFilePath)));
-        writers.put(LogParserConsts.DEBUG, new BufferedWriter(new FileWriter(debugLinksFilePath)));
-        for (String extraTag : this.extraTags) {
-            writers.put(extraTag, new BufferedWriter(new FileWriter(
-                    linksFilePathByExtraTags.get(extraTag))));
-        }
+        // Open console log for reading and all other files for writing. The
+        // bytes written are counted to index the lines.
+        contentOut = new CountingOutputStream(new FileOutputStream(parsedFilePath, resuming));
+        final BufferedWriter writer = openArtifact(parsedFilePath, contentOut, checkpoint);
 
         // Loop on the console log as long as there are input lines and parse
         // line by line
         // At the end of this loop, we will have:
         // - a parsed log with colored lines
-        // - 3 links files which will be consolidated into one referencing html
-        // file.
-
-        // Create dummy header and section for beginning of log
-        final String shortLink = " <a target=\"content\" href=\"log_content.html\">Beginning of log</a>";
-        LogParserWriter.writeHeaderTemplateToAllLinkFiles(writers, sectionCounter); // This
-        // enters
-        // a
-        // line
-        // which
-        // will
-        // later
-        // be
-        // replaced
-        // by
-        // the
-        // actual
-        // header
-        // and
-        // count
-        // for
-        // this
-        // header
-        headerForSection.add(shortLink);
-        writer.write(LogParserConsts.getHtmlOpeningTags());
-        if (this.preformattedHtml)
-            writer.write("<pre>");
-        // Read bulks of lines, parse
-        final int linesInLog = LogParserUtils.countLines(logFileLocation);
-        parseLogBody(build, writer, filePath, logFileLocation, linesInLog, logger);
+        // - an event log of the classified lines, from which the referencing
+        // html file is written.
+
+        if (!resuming) {
+            // Create dummy header and section for beginning of log
+            final String shortLink = " <a target=\"content\" href=\"page\">Beginning of log</a>";
+            headerForSection.add(shortLink);
+            writer.write(LogParserConsts.getHtmlOpeningTags());
+            if (this.preformattedHtml)
+                writer.write("<pre>");
+        }
+
+        // Parse up to the end of the last complete line - the line after it
+        // may still be being written, so it comes after the checkpoint
+        final long logLength = logFile.length();
+        final long bodyEnd = LogParserCheckpoint.findLastLineEnd(logFile, bodyStart, logLength);
+        final LogParserLineReader bodyReader = openLogPart(logFile, bodyStart, bodyEnd);
+        try {
+            if (this.streaming || resuming) {
+                // Classify and render as the log is read - no line count or
+                // copy of the log needed
+                lineCount += parseLogBodyStreaming(build, writer, bodyReader, logger);
+            } else {
+                // Read bulks of lines, parse
+                final long countStart = System.nanoTime();
+                final int linesInLog = LogParserUtils.countLines(logFileLocation);
+                recordPhase("count", countStart);
+                lineCount += parseLogBody(build, writer, filePath, bodyReader, linesInLog, logger);
+            }
+        } finally {
+            bodyReader.close();
+        }
+        if (bodyEnd > bodyStart) {
+            endsWithCR = LogParserCheckpoint.byteAt(logFile, bodyEnd - 1) == '\r';
+        }
+        saveCheckpoint(checkpointFile, rulesHash, bodyEnd, endsWithCR, lineCount, writer,
+                parsedFilePath, logger);
+
+        if (logLength > bodyEnd) {
+            // Last line, with no line end yet
+            final String line = LogParserCheckpoint.readLine(logFile, bodyEnd, logLength);
+            // Notes can break start-of-line patterns - see LogParserThread
+            final CompiledRuleSet.Classifier classifier = ruleSet.newClassifier();
+            final String status = classifier.classify(ConsoleNote.removeNotes(line));
+            ruleStats.merge(classifier.getStats());
+            renderLogLine(writer, line, bodyEnd, status,
+                    lineHashes == null ? 0 : diffLineNormalizer.hashLine(line));
+        }
+        lineIndex.setEnd(renderedLines, contentPosition(writer));
+        if (lineHashes != null) {
+            lineHashes.close(logLength);
+            lineHashes = null;
+        }
 
         // Write parsed output, links, etc.
         // writeLogBody();
 
         // Close html footer
+        final long referenceStart = System.nanoTime();
         if (this.preformattedHtml)
             writer.write("</pre>");
         writer.write(LogParserConsts.getHtmlClosingTags());
         writer.close(); // Close to unlock and flush to disk.
-
-        ((BufferedWriter) writers.get(LogParserConsts.ERROR)).close();
-        ((BufferedWriter) writers.get(LogParserConsts.WARNING)).close();
-        ((BufferedWriter) writers.get(LogParserConsts.INFO)).close();
-        ((BufferedWriter) writers.get(LogParserConsts.DEBUG)).close();
-        for (String extraTag : this.extraTags) {
-            ((BufferedWriter) writers.get(extraTag)).close();
+        try {
+            lineIndex.save(lineIndexFile);
+        } catch (IOException e) {
+            // The parsed log can still be viewed whole
+            logger.log(Level.WARNING, "LogParserParser: Unable to save line index", e);
         }
 
-        // Build the reference html from the warnings/errors/info html files
-        // created in the loop above
+        eventLog.close();
+
+        // Build the reference html from the lines recorded in the loop above
         LogParserWriter.writeReferenceHtml(buildRefPath, headerForSection, statusCountPerSection,
                 displayConstants.getIconTable(), displayConstants.getLinkListDisplay(),
-                displayConstants.getLinkListDisplayPlural(), statusCount, linkFiles, extraTags);
+                displayConstants.getLinkListDisplayPlural(), displayConstants.getColorTable(),
+                statusCount, eventLog, extraTags);
         // Write the wrapping html for the reference page and the parsed log
         // page
         LogParserWriter.writeWrapperHtml(buildWrapperPath);
+        recordPhase("referenceHtml", referenceStart);
+        LogParserWriter.writeRuleStats(logDirectory + "/" + LogParserConsts.RULE_STATS_FILE,
+                ruleSet, ruleStats, phaseNanos);
+        final StringBuilder phases = new StringBuilder();
+        for (Map.Entry<String, Long> phase : phaseNanos.entrySet()) {
+            phases.append(' ').append(phase.getKey()).append('=')
+                    .append(phase.getValue() / 1000000);
+        }
+        logger.log(Level.INFO, "LogParserParser: Phase timings (ms):" + phases);
 
         final String buildUrlPath = build.getUrl(); // job/cat_log/58
         final String buildActionPath = LogParserAction.getUrlNameStat(); // "parsed_console";
@@ -203,16 +347,10 @@ public class LogParserParser {
         for (String extraTag : this.extraTags) {
             result.putTotalCountsByExtraTag(extraTag, (Integer) statusCount.get(extraTag));
         }
-        result.setErrorLinksFile(errorLinksFilePath);
-        result.setWarningLinksFile(warningLinksFilePath);
-        result.setInfoLinksFile(infoLinksFilePath);
-        result.setDebugLinksFile(debugLinksFilePath);
-        for (String extraTag : this.extraTags) {
-            result.putLinksFileByExtraTag(extraTag, linksFilePathByExtraTags.get(extraTag));
-        }
+        result.setStatusCountPerSection(statusCountPerSection);
         result.setParsedLogURL(parsedLogURL);
         result.setHtmlLogPath(logDirectory);
-        result.setBadParsingRulesError(this.compiledPatternsPlusError.getError());
+        result.setBadParsingRulesError(this.badParsingRulesError);
         result.setExtraTags(this.extraTags);
 
         return result;
@@ -223,8 +361,36 @@ public class LogParserParser {
         return parseLine(line, null);
     }
 
+    /**
+     * Render a classified line as {@link #renderLine(Writer, String, String)}
+     * does, returning the HTML instead of writing it.
+     *
+     * @param line
+     *            the line of the console log
+     * @param status
+     *            the status of the line, null if none
+     * @return the HTML of the line
+     */
     public String parseLine(final String line, final String status) throws IOException {
-        String parsedLine = line;
+        final StringWriter writer = new StringWriter();
+        renderLine(writer, line, status);
+        return writer.toString();
+    }
+
+    /**
+     * Render a classified line straight into the parsed log, counting it and
+     * recording it in the event log. Escapes the line in a single scan of a
+     * reused buffer instead of building intermediate strings.
+     *
+     * @param writer
+     *            the parsed log
+     * @param line
+     *            the line of the console log
+     * @param status
+     *            the status of the line, null if none
+     */
+    public void renderLine(final Writer writer, final String line, final String status)
+            throws IOException {
         String effectiveStatus = status;
         if (status == null) {
             effectiveStatus = LogParserConsts.NONE;
@@ -233,28 +399,135 @@ public class LogParserParser {
         }
 
         // need to strip out for display also (in addition to parsing).
-        parsedLine = ConsoleNote.removeNotes(parsedLine);
-        // Allows < to be seen in log which is html
-        parsedLine = parsedLine.replaceAll("<", "&lt;");
-        // Allows > to be seen in log which is html
-        parsedLine = parsedLine.replaceAll(">", "&gt;");
+        final String text = ConsoleNote.removeNotes(line);
+        final int length = text.length();
+        if (renderBuffer.length < length) {
+            renderBuffer = new char[Math.max(length, 2 * renderBuffer.length)];
+        }
+        text.getChars(0, length, renderBuffer, 0);
 
-        if (effectiveStatus != null && !effectiveStatus.equals(LogParserConsts.NONE)) {
+        if (effectiveStatus.equals(LogParserConsts.NONE)) {
+            writeEscaped(writer, length);
+        } else {
             // Increment count of the status
             incrementCounter(effectiveStatus);
             incrementCounterPerSection(effectiveStatus, sectionCounter);
-            // Color line according to the status
-            final String parsedLineColored = colorLine(parsedLine, effectiveStatus);
-
-            // Mark line and add to left side links of highlighted lines
-            final String parsedLineColoredAndMarked = addMarkerAndLink(parsedLineColored,
-                    effectiveStatus, status);
-            parsedLine = parsedLineColoredAndMarked;
+            final int count = statusCount.get(effectiveStatus);
+            String color = displayConstants.getColorTable().get(effectiveStatus);
+            if (color == null) {
+                color = LogParserDisplayConsts.DEFAULT_COLOR;
+            }
+
+            // Record for the left side links of highlighted lines
+            eventLog.add(effectiveStatus, count, renderedLines, lineOffset, sectionCounter,
+                    renderBuffer, length);
+
+            // Handle case where we are entering a new section
+            if (status.equals(LogParserConsts.START)) {
+                sectionCounter++;
+                final StringWriter brShortLink = new StringWriter();
+                brShortLink.write("<br/>");
+                writeShortLink(brShortLink, effectiveStatus, count, color, length);
+                headerForSection.add(brShortLink.toString());
+            }
+
+            // Mark the line and color it according to the status
+            writer.write("<a name=\"");
+            writer.write(effectiveStatus);
+            writeInt(writer, count);
+            writer.write("\"></a>");
+            writeColored(writer, color, length);
         }
-        final StringBuffer result = new StringBuffer(parsedLine);
         if (!preformattedHtml)
-            result.append("<br/>\n");
-        return result.toString();
+            writer.write("<br/>\n");
+    }
+
+    private void writeShortLink(final Writer writer, final String effectiveStatus,
+            final int count, final String color, final int length) throws IOException {
+        writer.write(" <a target=\"content\" href=\"page?anchor=");
+        writer.write(effectiveStatus);
+        writeInt(writer, count);
+        writer.write('#');
+        writer.write(effectiveStatus);
+        writeInt(writer, count);
+        writer.write("\">");
+        writeColored(writer, color, length);
+        writer.write("</a>");
+    }
+
+    private void writeColored(final Writer writer, final String color, final int length)
+            throws IOException {
+        writer.write("<span style=\"color:");
+        writer.write(color);
+        writer.write("\">");
+        writeEscaped(writer, length);
+        writer.write("</span>");
+    }
+
+    // Allows < and > to be seen in log which is html
+    private void writeEscaped(final Writer writer, final int length) throws IOException {
+        int runStart = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = renderBuffer[i];
+            if (c == '<' || c == '>') {
+                if (i > runStart) {
+                    writer.write(renderBuffer, runStart, i - runStart);
+                }
+                writer.write(c == '<' ? "&lt;" : "&gt;");
+                runStart = i + 1;
+            }
+        }
+        if (length > runStart) {
+            writer.write(renderBuffer, runStart, length - runStart);
+        }
+    }
+
+    private void writeInt(final Writer writer, final int value) throws IOException {
+        // Counts are never negative
+        int remaining = value;
+        int pos = digitBuffer.length;
+        do {
+            digitBuffer[--pos] = (char) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining > 0);
+        writer.write(digitBuffer, pos, digitBuffer.length - pos);
+    }
+
+    /**
+     * Count a classified line the same way
+     * {@link #renderLine(Writer, String, String)} does, without rendering it.
+     * Used to keep the counts current while the log is still being written.
+     *
+     * @param status
+     *            the status of the line
+     */
+    public void countLine(final String status) {
+        if (status == null || status.equals(LogParserConsts.NONE)) {
+            return;
+        }
+        final String effectiveStatus = status.equals(LogParserConsts.START)
+                ? LogParserConsts.INFO : status;
+        incrementCounter(effectiveStatus);
+        incrementCounterPerSection(effectiveStatus, sectionCounter);
+        if (status.equals(LogParserConsts.START)) {
+            sectionCounter++;
+        }
+    }
+
+    public CompiledRuleSet getRuleSet() {
+        return ruleSet;
+    }
+
+    public List<String> getExtraTags() {
+        return extraTags;
+    }
+
+    public HashMap<String, Integer> getStatusCount() {
+        return statusCount;
+    }
+
+    public HashMap<String, Integer> getStatusCountPerSection() {
+        return statusCountPerSection;
     }
 
     public void incrementCounter(final String status) {
@@ -273,92 +546,202 @@ public class LogParserParser {
         statusCountPerSection.put(key, newVal);
     }
 
-    private String colorLine(final String line, final String status) {
-        String color = (String) displayConstants.getColorTable().get(status);
-        if (color == null) {
-            color = LogParserDisplayConsts.DEFAULT_COLOR;
+    /**
+     * Render a line of the console log into the parsed log, indexing where
+     * it starts.
+     *
+     * @param offset
+     *            where the line starts in the console log
+     * @param hash
+     *            the hash of the line for console line diffs
+     */
+    private void renderLogLine(final BufferedWriter writer, final String line,
+                               final long offset, final String status, final long hash)
+            throws IOException {
+        if (renderedLines % LogParserLineIndex.INTERVAL == 0) {
+            lineIndex.lineStart(renderedLines, contentPosition(writer), statusCount,
+                    eventLog.getLength());
         }
-        final StringBuffer result = new StringBuffer("<span style=\"color:");
-        result.append(color);
-        result.append("\">");
-        result.append(line);
-        result.append("</span>");
-        return result.toString();
-    }
-
-    private String addMarkerAndLink(final String line, final String effectiveStatus,
-                                    final String status) throws IOException {
-        // Add marker
-        final String statusCountStr = ((Integer) statusCount.get(effectiveStatus)).toString();
-        final String marker = effectiveStatus + statusCountStr;
-
-        // Add link
-        final StringBuffer shortLink = new StringBuffer(
-                " <a target=\"content\" href=\"log_content.html#");
-        shortLink.append(marker);
-        shortLink.append("\">");
-        shortLink.append(line);
-        shortLink.append("</a>");
-
-        final StringBuffer link = new StringBuffer("<li>");
-        link.append(statusCountStr);
-        link.append(shortLink);
-        link.append("</li><br/>");
-
-        final BufferedWriter linkWriter = (BufferedWriter) writers.get(effectiveStatus);
-        linkWriter.write(link.toString());
-        linkWriter.newLine(); // Write system dependent end of line.
-
-        // Mark the line
-        final StringBuffer markedLine = new StringBuffer("<a name=\"");
-        markedLine.append(marker);
-        markedLine.append("\"></a>");
-        markedLine.append(line);
-
-        // Handle case where we are entering a new section
-        if (status.equals(LogParserConsts.START)) {
-            sectionCounter++;
-            // This enters a line which will later be replaced by the actual
-            // header and count for this header
-            LogParserWriter.writeHeaderTemplateToAllLinkFiles(writers, sectionCounter);
+        lineOffset = offset;
+        if (lineHashes != null) {
+            lineHashes.add(hash, offset);
+        }
+        renderLine(writer, line, status);
+        writer.newLine(); // Write system dependent end of line.
+        renderedLines++;
+    }
+
+    /**
+     * Wrap an artifact file being written, compressing it if its path asks
+     * for it.
+     *
+     * @param checkpoint
+     *            the checkpoint the file is appended from, null if written
+     *            from its start
+     */
+    private BufferedWriter openArtifact(final String path, final OutputStream file,
+                                        final LogParserCheckpoint checkpoint) throws IOException {
+        if (!LogParserGzip.isCompressed(path)) {
+            return new BufferedWriter(new OutputStreamWriter(file, Charset.defaultCharset()));
+        }
+        final LogParserGzip.Output gzip;
+        if (checkpoint == null) {
+            gzip = new LogParserGzip.Output(file);
+        } else {
+            final long[] state = checkpoint.getGzipStates().get(new File(path).getName());
+            gzip = new LogParserGzip.Output(file, state[0], state[1]);
+        }
+        gzipOutputs.put(path, gzip);
+        return new BufferedWriter(new OutputStreamWriter(gzip, Charset.defaultCharset()));
+    }
+
+    private static void deleteOtherForm(final String path) {
+        final File other = new File(LogParserGzip.isCompressed(path)
+                ? path.substring(0, path.length() - LogParserGzip.SUFFIX.length())
+                : path + LogParserGzip.SUFFIX);
+        if (other.isFile() && !other.delete()) {
+            Logger.getLogger(LogParserParser.class.getName()).log(Level.WARNING,
+                    "LogParserParser: Unable to delete " + other);
+        }
+    }
+
+    private long contentPosition(final BufferedWriter writer) throws IOException {
+        // Only what reached the file is counted. For a compressed log, the
+        // flush makes the position one a reader can start from.
+        writer.flush();
+        return contentStart + contentOut.getByteCount();
+    }
 
-            final StringBuffer brShortLink = new StringBuffer("<br/>");
-            brShortLink.append(shortLink);
-            headerForSection.add(brShortLink.toString());
+    private static LogParserLineReader openLogPart(final File logFile, final long start,
+                                                   final long end) throws IOException {
+        final InputStream in = new FileInputStream(logFile);
+        try {
+            IOUtils.skipFully(in, start);
+        } catch (IOException e) {
+            in.close();
+            throw e;
         }
+        return new LogParserLineReader(new BoundedInputStream(in, end - start), start,
+                Charset.defaultCharset());
+    }
 
-        return markedLine.toString();
+    private void saveCheckpoint(final File checkpointFile, final String rulesHash,
+                                final long offset, final boolean endsWithCR, final int lineCount,
+                                final BufferedWriter writer, final String parsedFilePath,
+                                final Logger logger) throws IOException {
+        // Flush so that the files are as long as recorded
+        writer.flush();
+        final long eventLogLength = eventLog.flush();
+
+        final LogParserCheckpoint checkpoint = new LogParserCheckpoint();
+        checkpoint.setRulesHash(rulesHash);
+        checkpoint.setOffset(offset);
+        checkpoint.setEndsWithCR(endsWithCR);
+        checkpoint.setLineCount(lineCount);
+        checkpoint.setSectionCounter(sectionCounter);
+        checkpoint.setContentLength(new File(parsedFilePath).length());
+        checkpoint.getStatusCount().putAll(statusCount);
+        checkpoint.getStatusCountPerSection().putAll(statusCountPerSection);
+        checkpoint.getHeaderForSection().addAll(headerForSection);
+        checkpoint.setEventLogLength(eventLogLength);
+        for (Map.Entry<String, LogParserGzip.Output> gzip : gzipOutputs.entrySet()) {
+            checkpoint.getGzipStates().put(new File(gzip.getKey()).getName(), new long[] {
+                    gzip.getValue().getCrc(), gzip.getValue().getLength() });
+        }
+        try {
+            checkpoint.save(checkpointFile);
+        } catch (IOException e) {
+            // Only costs a full parse next time
+            logger.log(Level.WARNING, "LogParserParser: Unable to save checkpoint", e);
+        }
     }
 
-    private void parseLogBody(final Run<?, ?> build, final BufferedWriter writer,
-                              final FilePath filePath, final String logFileLocation, final int linesInLog,
-                              final Logger logger) throws IOException, InterruptedException {
+    private int parseLogBody(final Run<?, ?> build, final BufferedWriter writer,
+                              final FilePath filePath, final LogParserLineReader reader,
+                              final int linesInLog, final Logger logger) throws IOException, InterruptedException {
 
         // Logging information - start
         final String signature = build.getParent().getName() + "_build_" + build.getNumber();
         logger.log(Level.INFO, "LogParserParser: Start parsing : " + signature);
         final Calendar calendarStart = Calendar.getInstance();
 
+        final long classifyStart = System.nanoTime();
         final LogParserStatusComputer computer = new LogParserStatusComputer(channel, filePath,
-                parsingRulesArray, compiledPatterns, linesInLog, signature);
-        final HashMap<String, String> lineStatusMatches = computer.getComputedStatusMatches();
+                ruleSet, linesInLog, signature);
+        final LogParserStatusTable lineStatusMatches = computer.getComputedStatusMatches();
+        ruleStats.merge(lineStatusMatches.getRuleStats());
+        recordPhase("classify", classifyStart);
+        final long renderStart = System.nanoTime();
 
         // Read log file from start - line by line and apply the statuses as
         // found by the threads.
-        final BufferedReader reader = new BufferedReader(new FileReader(logFileLocation));
         String line;
         String status;
         int line_num = 0;
         while ((line = reader.readLine()) != null) {
-            status = (String) lineStatusMatches.get(String.valueOf(line_num));
-            final String parsedLine = parseLine(line, status);
+            status = lineStatusMatches.getStatus(line_num);
             // This is for displaying sections in the links part
-            writer.write(parsedLine);
-            writer.newLine(); // Write system dependent end of line.
+            renderLogLine(writer, line, reader.getLineStart(), status,
+                    lineHashes == null ? 0 : diffLineNormalizer.hashLine(line));
             line_num++;
         }
-        reader.close();
+        recordPhase("render", renderStart);
 
+        logParsingTime(calendarStart, logger);
+        return line_num;
+    }
+
+    private int parseLogBodyStreaming(final Run<?, ?> build, final BufferedWriter writer,
+                                      final LogParserLineReader reader, final Logger logger)
+            throws IOException, InterruptedException {
+
+        // Logging information - start
+        final String signature = build.getParent().getName() + "_build_" + build.getNumber();
+        logger.log(Level.INFO, "LogParserParser: Start streaming parse : " + signature);
+        final Calendar calendarStart = Calendar.getInstance();
+
+        final long start = System.nanoTime();
+        final int numThreads = LogParserExecutor.get().getParallelism();
+        // Keep a couple of chunks per thread in flight so that neither
+        // reading nor rendering waits on classification
+        final LogParserPipeline pipeline = new LogParserPipeline(ruleSet,
+                lineHashes == null ? null : diffLineNormalizer, LogParserExecutor.get(),
+                LogParserUtils.getLinesPerThread(), 2 * numThreads);
+        final int lineCount = pipeline.run(reader, new LogParserPipeline.LineHandler() {
+            public void handleLine(final String line, final long offset, final String status,
+                    final long hash) throws IOException {
+                renderLogLine(writer, line, offset, status, hash);
+            }
+        });
+
+        ruleStats.merge(pipeline.getRuleStats());
+        // Both happen at once
+        recordPhase("classifyAndRender", start);
+
+        logParsingTime(calendarStart, logger);
+        return lineCount;
+    }
+
+    private void recordPhase(final String phase, final long startNanos) {
+        phaseNanos.put(phase, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return the stats of the rules over the lines classified by the last
+     *         parse
+     */
+    public LogParserRuleStats getRuleStats() {
+        return ruleStats;
+    }
+
+    /**
+     * @return the time taken by each phase of the last parse, in nanoseconds
+     */
+    public Map<String, Long> getPhaseNanos() {
+        return phaseNanos;
+    }
+
+    private void logParsingTime(final Calendar calendarStart, final Logger logger) {
         // Logging information - end
         final Calendar calendarEnd = Calendar.getInstance();
         final long diffSeconds = (calendarEnd.getTimeInMillis() - calendarStart.getTimeInMillis())
@@ -366,7 +749,6 @@ public class LogParserParser {
         final long diffMinutes = diffSeconds / 60;
         logger.log(Level.INFO, "LogParserParser: Parsing took " + diffMinutes + " minutes ("
                 + diffSeconds + ") seconds.");
-
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,216 @@
+package hudson.plugins.logparser;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.console.ConsoleNote;
+
+/**
+ * Classifies and hands over the lines of a log in a single pass.
+ *
+ * A producer thread reads the log in chunks of lines and submits each chunk
+ * to be classified by the executor. The calling thread consumes the
+ * classified chunks in log order and hands every line, its offset and its
+ * status to a {@link LineHandler}. The number of chunks in flight is bounded so memory
+ * use does not depend on the size of the log. The lines are hashed for
+ * console line diffs along with their classification, when asked to.
+ */
+public final class LogParserPipeline {
+
+    /**
+     * Receives the lines of the log in order.
+     */
+    public interface LineHandler {
+        /**
+         * @param hash
+         *            the hash of the line for console line diffs, 0 if the
+         *            lines are not hashed
+         */
+        void handleLine(String line, long offset, String status, long hash) throws IOException;
+    }
+
+    private static final class Chunk {
+        private final String[] lines;
+        private final long[] offsets;
+        private final int numLines;
+        private String[] statuses;
+        private long[] hashes;
+        private LogParserRuleStats ruleStats;
+
+        Chunk(final String[] lines, final long[] offsets, final int numLines) {
+            this.lines = lines;
+            this.offsets = offsets;
+            this.numLines = numLines;
+        }
+    }
+
+    // Marks the end of the log in the queue
+    private static final Future<Chunk> END = new FutureTask<Chunk>(new Callable<Chunk>() {
+        public Chunk call() {
+            return null;
+        }
+    });
+
+    private final CompiledRuleSet ruleSet;
+    private final LogParserLineHashes.Normalizer normalizer;
+    private final ExecutorService executor;
+    private final int linesPerChunk;
+    private final int maxChunksInFlight;
+    private final LogParserRuleStats ruleStats;
+
+    /**
+     * @param normalizer
+     *            hashes the lines for console line diffs, null not to hash
+     *            them
+     */
+    public LogParserPipeline(final CompiledRuleSet ruleSet,
+            final LogParserLineHashes.Normalizer normalizer, final ExecutorService executor,
+            final int linesPerChunk, final int maxChunksInFlight) {
+        this.ruleSet = ruleSet;
+        this.normalizer = normalizer;
+        this.executor = executor;
+        this.linesPerChunk = linesPerChunk;
+        this.maxChunksInFlight = maxChunksInFlight;
+        this.ruleStats = ruleSet.newRuleStats();
+    }
+
+    /**
+     * @return the stats of the rules over the lines classified so far
+     */
+    public LogParserRuleStats getRuleStats() {
+        return ruleStats;
+    }
+
+    /**
+     * Read, classify and hand over all the lines of the log.
+     *
+     * @param reader
+     *            the log reader - read until its end but not closed
+     * @param handler
+     *            receives every line with its offset and status
+     * @return the number of lines in the log
+     */
+    public int run(final LogParserLineReader reader, final LineHandler handler) throws IOException,
+            InterruptedException {
+        final BlockingQueue<Future<Chunk>> queue = new ArrayBlockingQueue<Future<Chunk>>(
+                maxChunksInFlight);
+        final Throwable[] readError = new Throwable[1];
+
+        final Thread producer = new Thread("log-parser pipeline reader") {
+            @Override
+            public void run() {
+                boolean stopped = false;
+                try {
+                    while (true) {
+                        final String[] lines = new String[linesPerChunk];
+                        final long[] offsets = new long[linesPerChunk];
+                        int numLines = 0;
+                        String line;
+                        while (numLines < linesPerChunk && (line = reader.readLine()) != null) {
+                            offsets[numLines] = reader.getLineStart();
+                            lines[numLines++] = line;
+                        }
+                        if (numLines == 0) {
+                            break;
+                        }
+                        queue.put(executor.submit(classifyTask(new Chunk(lines, offsets, numLines))));
+                        if (numLines < linesPerChunk) {
+                            break;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // Consumer gave up - stop reading
+                    stopped = true;
+                } catch (Throwable e) {
+                    // Whatever it is, the consumer must not wait forever
+                    readError[0] = e;
+                } finally {
+                    // No one is left to take it once the consumer gave up
+                    if (!stopped) {
+                        try {
+                            queue.put(END);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }
+            }
+        };
+        producer.setDaemon(true);
+        producer.start();
+
+        int lineCount = 0;
+        try {
+            while (true) {
+                final Future<Chunk> future = queue.take();
+                if (future == END) {
+                    break;
+                }
+                final Chunk chunk = future.get();
+                for (int i = 0; i < chunk.numLines; i++) {
+                    handler.handleLine(chunk.lines[i], chunk.offsets[i], chunk.statuses[i],
+                            chunk.hashes == null ? 0 : chunk.hashes[i]);
+                }
+                lineCount += chunk.numLines;
+                ruleStats.merge(chunk.ruleStats);
+            }
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            producer.interrupt();
+            producer.join();
+            // Cancel whatever remains if we stopped early
+            Future<Chunk> pending;
+            while ((pending = queue.poll()) != null) {
+                pending.cancel(true);
+            }
+        }
+        if (readError[0] instanceof IOException) {
+            throw (IOException) readError[0];
+        } else if (readError[0] instanceof RuntimeException) {
+            throw (RuntimeException) readError[0];
+        } else if (readError[0] instanceof Error) {
+            throw (Error) readError[0];
+        } else if (readError[0] != null) {
+            throw new IOException(readError[0]);
+        }
+        Logger.getLogger(getClass().getName()).log(Level.FINE,
+                "LogParserPipeline: classified " + lineCount + " lines");
+        return lineCount;
+    }
+
+    private Callable<Chunk> classifyTask(final Chunk chunk) {
+        return new Callable<Chunk>() {
+            public Chunk call() {
+                final CompiledRuleSet.Classifier classifier = ruleSet.newClassifier();
+                final String[] statuses = new String[chunk.numLines];
+                for (int i = 0; i < chunk.numLines; i++) {
+                    // Notes can break start-of-line patterns - see
+                    // LogParserThread
+                    statuses[i] = classifier.classify(ConsoleNote.removeNotes(chunk.lines[i]));
+                }
+                chunk.statuses = statuses;
+                if (normalizer != null) {
+                    // Masking costs about as much as classifying, so is
+                    // spread over the threads too
+                    final long[] hashes = new long[chunk.numLines];
+                    for (int i = 0; i < chunk.numLines; i++) {
+                        hashes[i] = normalizer.hashLine(chunk.lines[i]);
+                    }
+                    chunk.hashes = hashes;
+                }
+                chunk.ruleStats = classifier.getStats();
+                return chunk;
+            }
+        };
+    }
+
+}
@@ -34,6 +34,7 @@ public class LogParserPublisher extends Recorder implements SimpleBuildStep, Ser
     public boolean failBuildOnError;
     public boolean showGraphs;
     public boolean enableDiffBuild;
+    public boolean liveParsing;
     public String parsingRulesPath = null;
     public boolean useProjectRule;
     public String projectRulePath = null;
@@ -102,6 +103,11 @@ public class LogParserPublisher extends Recorder implements SimpleBuildStep, Ser
         this.enableDiffBuild = enableDiffBuild;
     }
 
+    @DataBoundSetter
+    public void setLiveParsing(boolean liveParsing) {
+        this.liveParsing = liveParsing;
+    }
+
     @Override
     public boolean prebuild(final AbstractBuild<?, ?> build, final BuildListener listener) {
         return true;
@@ -120,6 +126,7 @@ public class LogParserPublisher extends Recorder implements SimpleBuildStep, Ser
             TaskListener listener) throws InterruptedException, IOException {
 
         final Logger logger = Logger.getLogger(getClass().getName());
+        final long parseStart = System.currentTimeMillis();
         LogParserResult result = new LogParserResult();
         try {
             // Create a parser with the parsing rules as configured : colors,
@@ -133,6 +140,9 @@ public class LogParserPublisher extends Recorder implements SimpleBuildStep, Ser
             }
             final LogParserParser parser = new LogParserParser(parsingRulesFile, preformattedHtml,
                     launcher.getChannel());
+            parser.setStreaming(((DescriptorImpl) getDescriptor()).getStreamingParser());
+            parser.setCompressArtifacts(((DescriptorImpl) getDescriptor()).getCompressArtifacts());
+            parser.setDiffLineMasks(((DescriptorImpl) getDescriptor()).getDiffLineMasks());
 
             // Parse the build's log according to these rules and get the result
             result = parser.parseLog(build);
@@ -161,6 +171,10 @@ public class LogParserPublisher extends Recorder implements SimpleBuildStep, Ser
             build.setResult(Result.ABORTED);
         }
 
+        // The full result replaces the live counts, if any
+        LogParserTailer.stop(build, true);
+        LogParserTrend.record(build, result, System.currentTimeMillis() - parseStart);
+
         // Add an action created with the above results
         final LogParserAction action = new LogParserAction(build, result);
         build.addAction(action);
@@ -181,6 +195,10 @@ public class LogParserPublisher extends Recorder implements SimpleBuildStep, Ser
         public static final DescriptorImpl DESCRIPTOR = new DescriptorImpl();
         private volatile ParserRuleFile[] parsingRulesGlobal = new ParserRuleFile[0];
         private boolean useLegacyFormatting = false;
+        private boolean useStreamingParser = false;
+        private boolean compressArtifacts = false;
+        private int trendWindow = LogParserTrend.DEFAULT_WINDOW;
+        private String diffLineMasks = LogParserLineHashes.DEFAULT_MASKS;
 
         private DescriptorImpl() {
             super(LogParserPublisher.class);
@@ -210,6 +228,29 @@ public class LogParserPublisher extends Recorder implements SimpleBuildStep, Ser
             return useLegacyFormatting;
         }
 
+        public boolean getStreamingParser() {
+            return useStreamingParser;
+        }
+
+        public boolean getCompressArtifacts() {
+            return compressArtifacts;
+        }
+
+        /**
+         * @return the number of builds the trend goes back at most
+         */
+        public int getTrendWindow() {
+            return trendWindow > 0 ? trendWindow : LogParserTrend.DEFAULT_WINDOW;
+        }
+
+        /**
+         * @return the regular expressions, one per line, of the parts of the
+         *         lines ignored when diffing console logs
+         */
+        public String getDiffLineMasks() {
+            return diffLineMasks != null ? diffLineMasks : LogParserLineHashes.DEFAULT_MASKS;
+        }
+
         @Override
         public boolean configure(final StaplerRequest req, final JSONObject json)
                 throws FormException {
@@ -217,6 +258,14 @@ public class LogParserPublisher extends Recorder implements SimpleBuildStep, Ser
                     .toArray(new ParserRuleFile[0]);
             useLegacyFormatting = json.getJSONObject("log-parser")
                     .getBoolean("useLegacyFormatting");
+            useStreamingParser = json.getJSONObject("log-parser")
+                    .getBoolean("useStreamingParser");
+            compressArtifacts = json.getJSONObject("log-parser")
+                    .getBoolean("compressArtifacts");
+            trendWindow = json.getJSONObject("log-parser")
+                    .optInt("trendWindow", LogParserTrend.DEFAULT_WINDOW);
+            diffLineMasks = json.getJSONObject("log-parser")
+                    .optString("diffLineMasks", LogParserLineHashes.DEFAULT_MASKS);
             save();
             return true;
         }
@@ -18,6 +18,8 @@ public class LogParserResult {
     private int totalInfos = 0;
     private int totalDebugs = 0;
     private Map<String, Integer> totalCountsByExtraTag = new HashMap<String, Integer>();
+    // Keyed as LogParserUtils.getSectionCountKey, null for older builds
+    private Map<String, Integer> statusCountPerSection;
 
     private String htmlLogFile;
     private String errorLinksFile;
@@ -73,6 +75,17 @@ public class LogParserResult {
         return totalCountsByExtraTag.get(tag);
     }
 
+    /**
+     * @return the counts of each status by section, keyed by
+     *         {@link LogParserUtils#getSectionCountKey(String, int)}
+     */
+    public Map<String, Integer> getStatusCountPerSection() {
+        if (statusCountPerSection == null) {
+            return new HashMap<String, Integer>();
+        }
+        return statusCountPerSection;
+    }
+
     public String getHtmlLogFile() {
         return htmlLogFile;
     }
@@ -165,6 +178,10 @@ public class LogParserResult {
         this.linkedFilesByExtraTag.put(tag, file);
     }
 
+    public void setStatusCountPerSection(final Map<String, Integer> statusCountPerSection) {
+        this.statusCountPerSection = new HashMap<String, Integer>(statusCountPerSection);
+    }
+
     public void setTotalErrors(final int totalErrors) {
         this.totalErrors = totalErrors;
     }
@@ -201,6 +218,74 @@ public class LogParserResult {
         return this.extraTags;
     }
 
+    /**
+     * Go through the classified lines of a tag, in order, as recorded by the
+     * parse - the log is not read again.
+     *
+     * @param tag
+     *            the tag
+     * @return a cursor to be closed, or null if the lines of the build were
+     *         not recorded
+     */
+    public LogParserEventLog.Cursor openEvents(final String tag) throws IOException {
+        final LogParserEventLog eventLog = loadEventLog();
+        return eventLog == null ? null : eventLog.openCursor(tag);
+    }
+
+    /**
+     * Go through the classified lines of all tags in a range of lines of the
+     * log, in order, as recorded by the parse.
+     *
+     * @param fromLine
+     *            the first line of the range, from 0
+     * @param toLine
+     *            the line after the range
+     * @return a cursor to be closed, or null if the lines of the build were
+     *         not recorded
+     */
+    public LogParserEventLog.Cursor openEvents(final int fromLine, final int toLine)
+            throws IOException {
+        return openEvents(null, fromLine, toLine);
+    }
+
+    /**
+     * Go through the classified lines of a tag in a range of lines of the
+     * log, in order, as recorded by the parse.
+     *
+     * @param tag
+     *            the tag, or null for all tags
+     * @param fromLine
+     *            the first line of the range, from 0
+     * @param toLine
+     *            the line after the range
+     * @return a cursor to be closed, or null if the lines of the build were
+     *         not recorded
+     */
+    public LogParserEventLog.Cursor openEvents(final String tag, final int fromLine,
+            final int toLine) throws IOException {
+        final LogParserEventLog eventLog = loadEventLog();
+        if (eventLog == null) {
+            return null;
+        }
+        // Without the index, the lines before the range are skipped
+        final LogParserLineIndex lineIndex = LogParserLineIndex.load(new File(htmlLogPath,
+                LogParserLineIndex.FILE_NAME));
+        return eventLog.openCursor(tag, fromLine, toLine, lineIndex);
+    }
+
+    /**
+     * @return the file of the classified lines, null if the build was not
+     *         parsed yet
+     */
+    public File getEventLogFile() {
+        return htmlLogPath == null ? null : new File(htmlLogPath, LogParserEventLog.FILE_NAME);
+    }
+
+    private LogParserEventLog loadEventLog() {
+        final File file = getEventLogFile();
+        return file == null ? null : LogParserEventLog.load(file);
+    }
+
     public String getHtmlContent() {
         final StringBuffer result = new StringBuffer("");
         String line = "";
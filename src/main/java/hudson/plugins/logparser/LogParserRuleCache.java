@@ -0,0 +1,158 @@
+package hudson.plugins.logparser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+
+/**
+ * The parsing rules files last compiled, shared by all the builds using
+ * them, so that a rules file is only read and compiled again when it
+ * changes.
+ *
+ * A rules file is keyed by its path and the channel it is read through, as
+ * the same path of a workspace may hold other rules on another node. A
+ * cached rule set is reused as long as the size and modification time of
+ * the file are the same, without reading it. When they are not, the digest
+ * of the file is computed where the file is, and the rules are only read and
+ * compiled again if it differs. The least recently used rule sets are
+ * dropped when there are too many.
+ */
+final class LogParserRuleCache {
+
+    static final int MAX_RULE_SETS = 32;
+
+    private static final Map<String, Rules> CACHE = new LinkedHashMap<String, Rules>(16,
+            0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Rules> eldest) {
+            return size() > MAX_RULE_SETS;
+        }
+    };
+
+    private LogParserRuleCache() {
+    }
+
+    /**
+     * The compiled rules of a rules file. Immutable, so that concurrent
+     * builds share it.
+     */
+    static final class Rules {
+
+        private final String[] lines;
+        private final CompiledRuleSet ruleSet;
+        private final List<String> extraTags;
+        private final String error;
+        private final long length;
+        private final long lastModified;
+        private final String digest;
+
+        Rules(final String[] lines, final CompiledPatterns compiled, final long length,
+                final long lastModified, final String digest) {
+            this.lines = lines.clone();
+            this.ruleSet = compiled.getRuleSet();
+            this.extraTags = Collections.unmodifiableList(new ArrayList<String>(compiled
+                    .getExtraTags()));
+            this.error = compiled.getError();
+            this.length = length;
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
+
+        private Rules(final Rules rules, final long length, final long lastModified) {
+            this.lines = rules.lines;
+            this.ruleSet = rules.ruleSet;
+            this.extraTags = rules.extraTags;
+            this.error = rules.error;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.digest = rules.digest;
+        }
+
+        /**
+         * @return the lines of the rules file
+         */
+        String[] getLines() {
+            return lines.clone();
+        }
+
+        CompiledRuleSet getRuleSet() {
+            return ruleSet;
+        }
+
+        List<String> getExtraTags() {
+            return extraTags;
+        }
+
+        /**
+         * @return the rules which could not be compiled, null if none
+         */
+        String getError() {
+            return error;
+        }
+    }
+
+    /**
+     * Get the compiled rules of a rules file, compiling them if they changed
+     * or were not compiled yet.
+     *
+     * @param parsingRulesFile
+     *            the rules file
+     * @param logger
+     *            where to log the rules which cannot be compiled
+     * @return the compiled rules
+     */
+    static Rules get(final FilePath parsingRulesFile, final Logger logger) throws IOException {
+        final String key = getKey(parsingRulesFile);
+        final long length;
+        final long lastModified;
+        try {
+            length = parsingRulesFile.length();
+            lastModified = parsingRulesFile.lastModified();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+        Rules cached;
+        synchronized (CACHE) {
+            cached = CACHE.get(key);
+        }
+        if (cached != null && cached.length == length && cached.lastModified == lastModified) {
+            return cached;
+        }
+
+        final String digest;
+        try {
+            digest = parsingRulesFile.digest();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+        final Rules rules;
+        if (cached != null && cached.digest.equals(digest)) {
+            // Touched but the same
+            rules = new Rules(cached, length, lastModified);
+        } else {
+            final String[] lines = LogParserUtils.readParsingRules(parsingRulesFile);
+            rules = new Rules(lines, LogParserUtils.compilePatterns(lines, logger), length,
+                    lastModified, digest);
+        }
+        synchronized (CACHE) {
+            CACHE.put(key, rules);
+        }
+        return rules;
+    }
+
+    private static String getKey(final FilePath parsingRulesFile) {
+        final VirtualChannel channel = parsingRulesFile.getChannel();
+        // A channel is replaced when its node reconnects
+        return (channel == null ? "" : channel.toString()) + ":" + parsingRulesFile.getRemote();
+    }
+
+}
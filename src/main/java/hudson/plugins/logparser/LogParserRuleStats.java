@@ -0,0 +1,106 @@
+package hudson.plugins.logparser;
+
+import java.io.Serializable;
+
+/**
+ * How often each rule of a {@link CompiledRuleSet} was evaluated while
+ * classifying a log, how often it matched and, if asked for, how long it took:
+ * see {@link CompiledRuleSet#TIME_RULES_PROPERTY}.
+ *
+ * Each {@link CompiledRuleSet.Classifier} records into its own instance,
+ * with no synchronization. The instances are merged once the classifier is
+ * done, so the threads classifying a log never contend on the counters.
+ */
+public class LogParserRuleStats implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private long lines;
+    private final long[] evaluations;
+    private final long[] matches;
+    private final long[] nanos;
+    private boolean timed;
+
+    public LogParserRuleStats(final int numRules) {
+        this.evaluations = new long[numRules];
+        this.matches = new long[numRules];
+        this.nanos = new long[numRules];
+    }
+
+    void countLine() {
+        lines++;
+    }
+
+    void setTimed() {
+        timed = true;
+    }
+
+    void record(final int rule, final boolean matched) {
+        evaluations[rule]++;
+        if (matched) {
+            matches[rule]++;
+        }
+    }
+
+    void addNanos(final int rule, final long elapsedNanos) {
+        nanos[rule] += elapsedNanos;
+    }
+
+    /**
+     * Add the counters of other stats of the same rule set to these.
+     *
+     * @param other
+     *            the stats to add
+     */
+    public synchronized void merge(final LogParserRuleStats other) {
+        if (other == null) {
+            return;
+        }
+        lines += other.lines;
+        timed |= other.timed;
+        for (int i = 0; i < evaluations.length; i++) {
+            evaluations[i] += other.evaluations[i];
+            matches[i] += other.matches[i];
+            nanos[i] += other.nanos[i];
+        }
+    }
+
+    public int getNumRules() {
+        return evaluations.length;
+    }
+
+    /**
+     * @return the number of lines classified
+     */
+    public long getLines() {
+        return lines;
+    }
+
+    /**
+     * @return the number of lines the regular expression of the rule ran on,
+     *         the other lines lacking the literal of the rule
+     */
+    public long getEvaluations(final int rule) {
+        return evaluations[rule];
+    }
+
+    public long getMatches(final int rule) {
+        return matches[rule];
+    }
+
+    /**
+     * @return true if the rules were timed
+     */
+    public boolean isTimed() {
+        return timed;
+    }
+
+    /**
+     * @return the time taken by the regular expression of the rule, 0 unless
+     *         the rules were timed
+     */
+    public long getNanos(final int rule) {
+        return nanos[rule];
+    }
+
+}
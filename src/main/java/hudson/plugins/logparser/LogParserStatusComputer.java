@@ -5,14 +5,13 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
 
 import hudson.FilePath;
 import hudson.remoting.VirtualChannel;
@@ -22,30 +21,28 @@ public class LogParserStatusComputer implements Serializable {
 
     private static final long serialVersionUID = 1L;
     // private VirtualChannel channel;
-    final private String[] parsingRulesArray;
-    final private Pattern[] compiledPatterns;
-    final private HashMap<String, String> computedStatusMatches;
+    final private CompiledRuleSet ruleSet;
+    final private LogParserStatusTable computedStatusMatches;
 
     public LogParserStatusComputer(final VirtualChannel channel, final FilePath filePath,
-            final String[] parsingRulesArray, final Pattern[] compiledPatterns,
-            final int linesInLog, final String signature) throws IOException, InterruptedException {
-        this.parsingRulesArray = parsingRulesArray;
-        this.compiledPatterns = compiledPatterns;
+            final CompiledRuleSet ruleSet, final int linesInLog, final String signature)
+            throws IOException, InterruptedException {
+        this.ruleSet = ruleSet;
         this.computedStatusMatches = computeStatusMatches(filePath, linesInLog, channel, signature);
     }
 
-    private HashMap<String, String> computeStatusMatches(final FilePath filePath,
+    private LogParserStatusTable computeStatusMatches(final FilePath filePath,
             final int linesInLog, final VirtualChannel channel, final String signature)
                     throws IOException, InterruptedException {
-        HashMap<String, String> result = null;
+        LogParserStatusTable result = null;
 
         result = channel
-                .call(new MasterToSlaveCallable<HashMap<String, String>, RuntimeException>() {
+                .call(new MasterToSlaveCallable<LogParserStatusTable, RuntimeException>() {
 
                     private static final long serialVersionUID = 1L;
 
-                    public HashMap<String, String> call() {
-                        HashMap<String, String> result = null;
+                    public LogParserStatusTable call() {
+                        LogParserStatusTable result = null;
                         try {
                             result = computeStatusMatches(filePath, linesInLog, signature);
 
@@ -59,108 +56,93 @@ public class LogParserStatusComputer implements Serializable {
                         return result;
                     }
                 });
+
+        final Logger logger = Logger.getLogger(this.getClass().getName());
+        if (logger.isLoggable(Level.FINE)) {
+            // Counted here, the table does not carry its counts
+            final int[] counts = result.countByOrdinal();
+            final String[] statuses = result.getStatuses();
+            final StringBuilder summary = new StringBuilder();
+            for (int i = 0; i < statuses.length; i++) {
+                summary.append(' ').append(statuses[i]).append('=').append(counts[i]);
+            }
+            logger.log(Level.FINE, "LogParserStatusComputer: " + result.size()
+                    + " lines classified:" + summary);
+        }
         return result;
     }
 
-    private HashMap<String, String> computeStatusMatches(final FilePath filePath,
+    private LogParserStatusTable computeStatusMatches(final FilePath filePath,
             final int linesInLog, final String signature) throws IOException, InterruptedException {
         // SLAVE PART START
 
         final Logger logger = Logger.getLogger(this.getClass().getName());
 
-        // Copy remote file to temp local location
-        String tempDir = System.getProperty("java.io.tmpdir");
-        if (!tempDir.endsWith(File.separator)) {
-            final StringBuffer tempDirBuffer = new StringBuffer(tempDir);
-            tempDirBuffer.append(File.separator);
-            tempDir = tempDirBuffer.toString();
+        if (!filePath.isRemote()) {
+            // The log is on this machine - classify it in place by byte
+            // ranges, with no copy and no reader shared between the parts
+            return new LogParserMappedLog(new File(filePath.getRemote()), ruleSet,
+                    Charset.defaultCharset()).classify();
         }
 
-        final String tempFileLocation = tempDir + "log-parser_" + signature;
-        final File tempFile = new File(tempFileLocation);
-        final FilePath tempFilePath = new FilePath(tempFile);
-        filePath.copyTo(tempFilePath);
-
-        logger.log(Level.INFO, "Local temp file:" + tempFileLocation);
-
-        final BufferedReader reader = new BufferedReader(
-                new InputStreamReader(tempFilePath.read()));
-        int threadCounter = 0;
-
-        final ArrayList<LogParserThread> runners = new ArrayList<LogParserThread>();
+        // Classify the log as it streams in - no temp copy. Only the compact
+        // status table goes back over the channel
+        logger.log(Level.INFO, "LogParserStatusComputer: Streaming log of " + signature);
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(filePath.read()));
         final LogParserReader logParserReader = new LogParserReader(reader);
 
-        // ExecutorService execSvc = Executors.newFixedThreadPool(
-        // LogParserUtils.getNumThreads() );
-        final ExecutorService execSvc = Executors.newCachedThreadPool();
-        final int threadsNeeded = linesInLog / LogParserUtils.getLinesPerThread() + 1;
-
-        // Read and parse the log parts. Keep the threads and results in an
-        // array for future reference when writing
-        for (int i = 0; i < threadsNeeded; i++) {
-            // logger.log(Level.INFO,"LogParserParser: Open thread
-            // #"+threadCounter);
-            final LogParserThread logParserThread = new LogParserThread(logParserReader,
-                    parsingRulesArray, compiledPatterns, threadCounter);
-            // logParserThread.start();
-            runners.add(logParserThread);
-            execSvc.execute(logParserThread);
-            threadCounter++;
-        }
-
-        // Wait for all threads to finish before sequentially writing the
-        // outcome
-        execSvc.shutdown();
-        execSvc.awaitTermination(3600, TimeUnit.SECONDS);
-
-        // Sort the threads in the order of the log parts they read
-        // It could be that thread #1 read log part #2 and thread #2 read log
-        // part #1
-
-        final int runnersSize = runners.size();
-        LogParserThread[] sortedRunners = new LogParserThread[runnersSize];
-        for (LogParserThread logParserThread : runners) {
-            final LogParserLogPart logPart = logParserThread.getLogPart();
-            if (logPart != null) {
-                final int logPartNum = logPart.getLogPartNum();
-                sortedRunners[logPartNum] = logParserThread;
+        final LogParserStatusTable result = ruleSet.newStatusTable();
+        final LogParserRuleStats ruleStats = ruleSet.newRuleStats();
+        final int linesPerThread = LogParserUtils.getLinesPerThread();
+        final int partsNeeded = linesInLog / linesPerThread + 1;
+
+        // The log is read by this thread, and only the classification of its
+        // parts is queued on the shared pool, so that a slow read does not
+        // hold the threads of the pool that other parses use. A few parts are
+        // in flight at a time, so memory does not grow with the log
+        final int maxPartsInFlight = 2 * LogParserExecutor.get().getParallelism();
+        final Deque<Future<LogParserThread>> inFlight = new ArrayDeque<Future<LogParserThread>>();
+        try {
+            for (int partNum = 0; partNum < partsNeeded; partNum++) {
+                final LogParserLogPart logPart = logParserReader.readLogPart(partNum);
+                if (logPart.isEmpty()) {
+                    break;
+                }
+                if (inFlight.size() == maxPartsInFlight) {
+                    addPart(result, ruleStats, inFlight.removeFirst().get(), linesPerThread);
+                }
+                final LogParserThread logParserThread = new LogParserThread(logPart, ruleSet,
+                        partNum);
+                inFlight.addLast(LogParserExecutor.get().submit(logParserThread,
+                        logParserThread));
             }
-        }
-
-        final HashMap<String, String> result = new HashMap<String, String>();
-        HashMap<String, String> moreLineStatusMatches;
-        for (int i = 0; i < runnersSize; i++) {
-            final LogParserThread logParserThread = sortedRunners[i];
-            if (logParserThread != null) {
-                moreLineStatusMatches = getLineStatusMatches(logParserThread.getLineStatuses(), i);
-                result.putAll(moreLineStatusMatches);
+            // The parts are done in the order they were read
+            while (!inFlight.isEmpty()) {
+                addPart(result, ruleStats, inFlight.removeFirst().get(), linesPerThread);
             }
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            for (Future<LogParserThread> future : inFlight) {
+                future.cancel(true);
+            }
+            reader.close();
         }
-
-        reader.close(); // Close to unlock.
-
-        // Delete temp file
-        tempFilePath.delete();
+        result.setRuleStats(ruleStats);
 
         return result;
         // SLAVE PART END
     }
 
-    private HashMap<String, String> getLineStatusMatches(final String[] statuses,
-            final int logPart) {
-        final HashMap<String, String> result = new HashMap<String, String>();
-        String status;
-        int line_num;
-        final int linesPerThread = LogParserUtils.getLinesPerThread();
-        for (int i = 0; i < statuses.length; i++) {
-            status = statuses[i];
-            line_num = i + logPart * linesPerThread;
-            result.put(String.valueOf(line_num), status);
-        }
-        return result;
+    private static void addPart(final LogParserStatusTable result,
+            final LogParserRuleStats ruleStats, final LogParserThread logParserThread,
+            final int linesPerThread) {
+        result.setOrdinals(logParserThread.getLogPart().getLogPartNum() * linesPerThread,
+                logParserThread.getLineStatuses(), logParserThread.getNumOfLines());
+        ruleStats.merge(logParserThread.getRuleStats());
     }
 
-    public HashMap<String, String> getComputedStatusMatches() {
+    public LogParserStatusTable getComputedStatusMatches() {
         return computedStatusMatches;
     }
 
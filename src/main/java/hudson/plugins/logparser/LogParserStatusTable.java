@@ -0,0 +1,215 @@
+package hudson.plugins.logparser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The status of each line of the log, indexed by line number.
+ *
+ * Statuses are interned to small ordinals (see
+ * {@link CompiledRuleSet#getStatuses()}), ordinal 0 being
+ * {@link LogParserConsts#NONE}, and stored one byte per line. Lines which
+ * were never set have no status.
+ *
+ * When sent over a channel the table is run-length encoded, as most lines of
+ * a log share the same status, and deflated, along with the stats of the
+ * rules which classified the lines. The number of lines with each status is
+ * not sent: the totals are counted as the lines are rendered, so it is only
+ * counted again on the receiving side if asked for.
+ */
+public class LogParserStatusTable implements Serializable {
+
+    private static final long serialVersionUID = 2L;
+
+    private static final int INITIAL_CAPACITY = 1024;
+    // Ordinals are stored as unsigned bytes
+    public static final int MAX_STATUSES = 256;
+
+    private final String[] statuses;
+    private LogParserRuleStats ruleStats;
+    private transient byte[] ordinals;
+    private transient int size;
+    // Number of lines by ordinal, null until counted or after a change
+    private transient int[] counts;
+
+    /**
+     * Create an empty table.
+     *
+     * @param statuses
+     *            the statuses by ordinal
+     */
+    public LogParserStatusTable(final String[] statuses) {
+        if (statuses.length > MAX_STATUSES) {
+            throw new IllegalArgumentException("Too many statuses: " + statuses.length);
+        }
+        this.statuses = statuses;
+        this.ordinals = new byte[INITIAL_CAPACITY];
+        this.size = 0;
+    }
+
+    public String[] getStatuses() {
+        return statuses;
+    }
+
+    /**
+     * @return the stats of the rules which classified the lines, null if
+     *         unknown
+     */
+    public LogParserRuleStats getRuleStats() {
+        return ruleStats;
+    }
+
+    public void setRuleStats(final LogParserRuleStats ruleStats) {
+        this.ruleStats = ruleStats;
+    }
+
+    /**
+     * @return the number of lines in the table
+     */
+    public int size() {
+        return size;
+    }
+
+    public void setOrdinal(final int lineNum, final int ordinal) {
+        ensureCapacity(lineNum + 1);
+        ordinals[lineNum] = (byte) ordinal;
+        counts = null;
+        if (lineNum >= size) {
+            size = lineNum + 1;
+        }
+    }
+
+    /**
+     * Copy the ordinals of a part of the log into the table.
+     *
+     * @param firstLineNum
+     *            the number of the first line of the part
+     * @param partOrdinals
+     *            the ordinals of the lines of the part
+     * @param length
+     *            the number of lines in the part
+     */
+    public void setOrdinals(final int firstLineNum, final byte[] partOrdinals, final int length) {
+        if (length == 0) {
+            return;
+        }
+        ensureCapacity(firstLineNum + length);
+        System.arraycopy(partOrdinals, 0, ordinals, firstLineNum, length);
+        counts = null;
+        if (firstLineNum + length > size) {
+            size = firstLineNum + length;
+        }
+    }
+
+    /**
+     * @param lineNum
+     *            the line number
+     * @return the ordinal of the line status, 0 ({@link LogParserConsts#NONE})
+     *         if the line is not in the table
+     */
+    public int getOrdinal(final int lineNum) {
+        if (lineNum < 0 || lineNum >= size) {
+            return 0;
+        }
+        return ordinals[lineNum] & 0xFF;
+    }
+
+    /**
+     * @param lineNum
+     *            the line number
+     * @return the status of the line, null if the line is not in the table
+     */
+    public String getStatus(final int lineNum) {
+        if (lineNum < 0 || lineNum >= size) {
+            return null;
+        }
+        return statuses[ordinals[lineNum] & 0xFF];
+    }
+
+    /**
+     * @return the number of lines with each status, by ordinal
+     */
+    public int[] countByOrdinal() {
+        if (counts == null) {
+            final int[] newCounts = new int[statuses.length];
+            for (int i = 0; i < size; i++) {
+                newCounts[ordinals[i] & 0xFF]++;
+            }
+            counts = newCounts;
+        }
+        return counts.clone();
+    }
+
+    /**
+     * @param status
+     *            a status
+     * @return the number of lines with the status, 0 if the status is not in
+     *         the table
+     */
+    public int getCount(final String status) {
+        final int ordinal = Arrays.asList(statuses).indexOf(status);
+        return ordinal < 0 ? 0 : countByOrdinal()[ordinal];
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if (capacity > ordinals.length) {
+            int newCapacity = ordinals.length * 2;
+            if (newCapacity < capacity) {
+                newCapacity = capacity;
+            }
+            ordinals = Arrays.copyOf(ordinals, newCapacity);
+        }
+    }
+
+    private void writeObject(final ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(size);
+
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        final DataOutputStream runs = new DataOutputStream(new DeflaterOutputStream(compressed));
+        int i = 0;
+        while (i < size) {
+            final byte ordinal = ordinals[i];
+            int runLength = 1;
+            while (i + runLength < size && ordinals[i + runLength] == ordinal) {
+                runLength++;
+            }
+            runs.writeByte(ordinal);
+            runs.writeInt(runLength);
+            i += runLength;
+        }
+        runs.close();
+        out.writeInt(compressed.size());
+        compressed.writeTo(out);
+    }
+
+    private void readObject(final ObjectInputStream in) throws IOException,
+            ClassNotFoundException {
+        in.defaultReadObject();
+        size = in.readInt();
+
+        final byte[] compressed = new byte[in.readInt()];
+        in.readFully(compressed);
+        final DataInputStream runs = new DataInputStream(new InflaterInputStream(
+                new ByteArrayInputStream(compressed)));
+        ordinals = new byte[Math.max(size, INITIAL_CAPACITY)];
+        int i = 0;
+        while (i < size) {
+            final byte ordinal = runs.readByte();
+            final int runLength = runs.readInt();
+            Arrays.fill(ordinals, i, i + runLength, ordinal);
+            i += runLength;
+        }
+        runs.close();
+    }
+
+}
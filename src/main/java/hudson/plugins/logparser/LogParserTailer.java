@@ -0,0 +1,302 @@
+package hudson.plugins.logparser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.console.ConsoleNote;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Executor;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import jenkins.util.Timer;
+
+/**
+ * Follows the console log of a running build and classifies the new lines as
+ * they are written, so that the counts are current before the build ends.
+ *
+ * Started for the builds of projects whose {@link LogParserPublisher} has
+ * live parsing enabled. The counts are shown by a {@link LogParserAction}
+ * added to the build, which the publisher replaces with the full result once
+ * it has parsed the complete log. When the publisher fails the build on
+ * errors, the build is stopped as soon as the first error is seen.
+ *
+ * The log is read in fixed size blocks and only the bytes of the line being
+ * written are kept between polls, up to {@link #MAX_LINE_LENGTH}.
+ */
+public final class LogParserTailer implements Runnable {
+
+    static final int POLL_SECONDS = 2;
+    static final int BLOCK_SIZE = 64 * 1024;
+    // Longer lines are classified on their beginning only
+    static final int MAX_LINE_LENGTH = 1024 * 1024;
+
+    private static final Map<Run<?, ?>, LogParserTailer> TAILERS = new ConcurrentHashMap<Run<?, ?>, LogParserTailer>();
+
+    private final Run<?, ?> build;
+    private final LogParserPublisher publisher;
+    private final File logFile;
+    private final Charset charset;
+    private final LogParserResult result = new LogParserResult();
+    private final byte[] block = new byte[BLOCK_SIZE];
+    private final ByteArrayOutputStream partialLine = new ByteArrayOutputStream();
+
+    // Created once the rules can be read
+    private LogParserParser parser;
+    private CompiledRuleSet.Classifier classifier;
+    private LogParserAction action;
+
+    private long offset = 0;
+    private boolean pendingCR = false;
+    private boolean failed = false;
+    private ScheduledFuture<?> future;
+
+    /**
+     * Follow a build without polling its log: {@link #run()} reads the lines
+     * written since it was last called. See {@link #start(Run)} for a tailer
+     * which polls.
+     *
+     * @param build
+     *            the build
+     * @param publisher
+     *            the publisher of its project, for the rules and whether to
+     *            fail the build on errors
+     */
+    public LogParserTailer(final Run<?, ?> build, final LogParserPublisher publisher) {
+        this.build = build;
+        this.publisher = publisher;
+        this.logFile = build.getLogFile();
+        this.charset = build.getCharset();
+    }
+
+    /**
+     * @param build
+     *            a build
+     * @return the tailer following the build, or null if there is none
+     */
+    public static LogParserTailer get(final Run<?, ?> build) {
+        return TAILERS.get(build);
+    }
+
+    /**
+     * Start following the build, if its project asks for live parsing.
+     *
+     * @param build
+     *            the build which just started
+     */
+    public static void start(final Run<?, ?> build) {
+        if (!(build instanceof AbstractBuild)) {
+            // Pipeline steps are not known before they run
+            return;
+        }
+        final AbstractProject<?, ?> project = ((AbstractBuild<?, ?>) build).getProject();
+        final LogParserPublisher publisher = project.getPublishersList().get(
+                LogParserPublisher.class);
+        if (publisher == null || !publisher.liveParsing) {
+            return;
+        }
+        final LogParserTailer tailer = new LogParserTailer(build, publisher);
+        TAILERS.put(build, tailer);
+        synchronized (tailer) {
+            tailer.future = Timer.get().scheduleWithFixedDelay(tailer, POLL_SECONDS,
+                    POLL_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Stop following the build.
+     *
+     * @param build
+     *            the build
+     * @param removeAction
+     *            true to remove the action showing the live counts, when a
+     *            full result replaces it
+     */
+    public static void stop(final Run<?, ?> build, final boolean removeAction) {
+        final LogParserTailer tailer = TAILERS.remove(build);
+        if (tailer == null) {
+            return;
+        }
+        synchronized (tailer) {
+            if (tailer.future != null) {
+                tailer.future.cancel(false);
+            }
+            if (removeAction && tailer.action != null) {
+                build.getActions().remove(tailer.action);
+            }
+        }
+    }
+
+    public synchronized void run() {
+        try {
+            if (parser == null && !createParser()) {
+                return;
+            }
+            final long length = logFile.length();
+            if (length > offset) {
+                readLines(length);
+                publishCounts();
+            }
+            if (publisher.failBuildOnError && !failed && result.getTotalErrors() > 0) {
+                failBuild();
+            }
+        } catch (IOException e) {
+            Logger.getLogger(getClass().getName()).log(Level.WARNING,
+                    "LogParserTailer: Stopped following " + build, e);
+            stop(build, false);
+        } catch (RuntimeException e) {
+            // Thrown out of run, it would silently end the polls and leave
+            // the tailer registered
+            Logger.getLogger(getClass().getName()).log(Level.WARNING,
+                    "LogParserTailer: Stopped following " + build, e);
+            stop(build, false);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean createParser() throws InterruptedException {
+        final FilePath parsingRulesFile;
+        if (publisher.useProjectRule) {
+            final FilePath workspace = ((AbstractBuild<?, ?>) build).getWorkspace();
+            if (workspace == null) {
+                // Not assigned yet
+                return false;
+            }
+            parsingRulesFile = new FilePath(workspace, publisher.projectRulePath);
+        } else {
+            parsingRulesFile = new FilePath(new File(publisher.parsingRulesPath));
+        }
+        try {
+            // Nothing is rendered, so neither the formatting nor a channel
+            // matter
+            parser = new LogParserParser(parsingRulesFile, false, null);
+        } catch (IOException e) {
+            // The project rules may not be checked out yet
+            Logger.getLogger(getClass().getName()).log(Level.FINE,
+                    "LogParserTailer: Rules not readable yet for " + build, e);
+            return false;
+        }
+        classifier = parser.getRuleSet().newClassifier();
+        result.setExtraTags(parser.getExtraTags());
+        publishCounts();
+        action = new LogParserAction(build, result, true);
+        build.addAction(action);
+        return true;
+    }
+
+    private void readLines(final long length) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(logFile, "r");
+        try {
+            raf.seek(offset);
+            while (offset < length) {
+                final int read = raf.read(block, 0, (int) Math.min(block.length, length - offset));
+                if (read <= 0) {
+                    break;
+                }
+                offset += read;
+                int lineStart = 0;
+                for (int i = 0; i < read; i++) {
+                    final byte b = block[i];
+                    if (b == '\n' && pendingCR) {
+                        // Second half of "\r\n"
+                        pendingCR = false;
+                        lineStart = i + 1;
+                        continue;
+                    }
+                    pendingCR = false;
+                    if (b == '\n' || b == '\r') {
+                        appendToLine(lineStart, i - lineStart);
+                        handleLine();
+                        pendingCR = b == '\r';
+                        lineStart = i + 1;
+                    }
+                }
+                // Keep the line being written for the next block or poll
+                appendToLine(lineStart, read - lineStart);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void appendToLine(final int start, final int length) {
+        final int room = MAX_LINE_LENGTH - partialLine.size();
+        if (room > 0 && length > 0) {
+            partialLine.write(block, start, Math.min(room, length));
+        }
+    }
+
+    private void handleLine() {
+        final String line = new String(partialLine.toByteArray(), charset);
+        partialLine.reset();
+        // Notes can break start-of-line patterns - see LogParserThread
+        parser.countLine(classifier.classify(ConsoleNote.removeNotes(line)));
+    }
+
+    private void publishCounts() {
+        final HashMap<String, Integer> statusCount = parser.getStatusCount();
+        result.setTotalErrors(statusCount.get(LogParserConsts.ERROR));
+        result.setTotalWarnings(statusCount.get(LogParserConsts.WARNING));
+        result.setTotalInfos(statusCount.get(LogParserConsts.INFO));
+        result.setTotalDebugs(statusCount.get(LogParserConsts.DEBUG));
+        for (String extraTag : parser.getExtraTags()) {
+            result.putTotalCountsByExtraTag(extraTag, statusCount.get(extraTag));
+        }
+    }
+
+    private void failBuild() {
+        failed = true;
+        Logger.getLogger(getClass().getName()).log(Level.INFO,
+                "LogParserTailer: Errors found, failing " + build);
+        build.setResult(Result.FAILURE);
+        final Executor executor = build.getExecutor();
+        if (executor != null) {
+            executor.interrupt(Result.FAILURE);
+        }
+    }
+
+    /**
+     * @return the counts of the lines seen so far, by section - see
+     *         {@link LogParserUtils#getSectionCountKey(String, int)}
+     */
+    public synchronized Map<String, Integer> getStatusCountPerSection() {
+        if (parser == null) {
+            return new HashMap<String, Integer>();
+        }
+        return new HashMap<String, Integer>(parser.getStatusCountPerSection());
+    }
+
+    /**
+     * Starts and stops the tailers along with the builds.
+     */
+    @Extension
+    public static class RunListenerImpl extends RunListener<Run<?, ?>> {
+
+        @Override
+        public void onStarted(final Run<?, ?> build, final TaskListener listener) {
+            start(build);
+        }
+
+        @Override
+        public void onCompleted(final Run<?, ?> build, final TaskListener listener) {
+            // Keep the live counts if the publisher did not get to run
+            stop(build, false);
+        }
+    }
+
+}
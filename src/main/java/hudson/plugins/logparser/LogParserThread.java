@@ -1,40 +1,31 @@
 package hudson.plugins.logparser;
 
-import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
 
 import hudson.console.ConsoleNote;
 
-class LogParserThread extends Thread {
+/**
+ * Classifies the lines of a part of the log. Runs as a task of the
+ * {@link LogParserExecutor} pool, so the part is read before, not by the
+ * task, which would hold a thread of the pool while reading.
+ */
+class LogParserThread implements Runnable {
 
-    private LogParserLogPart logPart;
-    private final String[] parsingRulesArray;
-    private final Pattern[] compiledPatterns;
+    private final LogParserLogPart logPart;
+    private final CompiledRuleSet.Classifier classifier;
     private final int threadNum;
-    private String[] logPartStatuses;
+    private byte[] logPartStatuses;
     private int numOfLines;
-    private final LogParserReader logParserReader;
 
-    public LogParserThread(final LogParserReader logParserReader, final String[] parsingRulesArray,
-            final Pattern[] compiledPatterns, final int threadNum) {
-        this.parsingRulesArray = parsingRulesArray;
-        this.compiledPatterns = compiledPatterns;
+    public LogParserThread(final LogParserLogPart logPart, final CompiledRuleSet ruleSet,
+            final int threadNum) {
+        this.logPart = logPart;
+        this.classifier = ruleSet.newClassifier();
         this.threadNum = threadNum;
-        this.logParserReader = logParserReader;
     }
 
-    @Override
     public void run() {
-        try {
-            // Synchronized method so as not to read from the same file from
-            // several threads.
-            logPart = logParserReader.readLogPart(this.threadNum);
-        } catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        }
         logPartStatuses = getLineStatuses(logPart.getLines());
 
         /*
@@ -49,10 +40,17 @@ class LogParserThread extends Thread {
 
     }
 
-    public String[] getLineStatuses() {
+    /**
+     * @return the status ordinal of each line of the log part
+     */
+    public byte[] getLineStatuses() {
         return this.logPartStatuses;
     }
 
+    public LogParserRuleStats getRuleStats() {
+        return classifier.getStats();
+    }
+
     public LogParserLogPart getLogPart() {
         return this.logPart;
     }
@@ -61,22 +59,21 @@ class LogParserThread extends Thread {
         return this.numOfLines;
     }
 
-    private String[] getLineStatuses(final String[] logPart) {
+    private byte[] getLineStatuses(final String[] logPart) {
 
         final Logger logger = Logger.getLogger(this.getClass().getName());
         logger.log(Level.INFO,
                 "LogParserThread: Start parsing log part " + this.logPart.getLogPartNum());
 
         numOfLines = 0;
-        String[] result = new String[logPart.length];
+        byte[] result = new byte[logPart.length];
         for (int i = 0; i < logPart.length; i++) {
             final String line = logPart[i];
             if (line == null) {
                 continue;
             }
             numOfLines++;
-            final String status = getLineStatus(line);
-            result[i] = status;
+            result[i] = (byte) getLineStatus(line);
         }
 
         logger.log(Level.INFO,
@@ -85,22 +82,13 @@ class LogParserThread extends Thread {
         return result;
     }
 
-    private String getLineStatus(String line) {
+    private int getLineStatus(String line) {
         // For now, strip out ConsoleNote(s) before parsing.
         // Notes are injected into log lines, and can break start-of-line
         // patterns, and include html. Will likely need alternative way to
         // handle in the future.
         line = ConsoleNote.removeNotes(line);
-        for (int i = 0; i < this.parsingRulesArray.length; i++) {
-            final String parsingRule = this.parsingRulesArray[i];
-            if (!LogParserUtils.skipParsingRule(parsingRule) && this.compiledPatterns[i] != null
-                    && this.compiledPatterns[i].matcher(line).find()) {
-                final String status = parsingRule.split("\\s")[0];
-                return LogParserUtils.standardizeStatus(status);
-            }
-        }
-
-        return LogParserConsts.NONE;
+        return classifier.classifyOrdinal(line);
     }
 
     public int getThreadNum() {
@@ -0,0 +1,387 @@
+package hudson.plugins.logparser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.IOUtils;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import hudson.Extension;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.listeners.RunListener;
+
+/**
+ * The counts of the parsed builds of a job, saved in the directory of the
+ * job so that the trend is drawn without loading the builds.
+ *
+ * A line is appended for each parsed build: its number, how long the parse
+ * took in milliseconds and the count of each tag, separated by tabs. A
+ * build parsed again gets a new line, which replaces the earlier one, and a
+ * deleted build gets a line with "-" for its parse time. A job parsed before
+ * the file existed has it filled from the actions of its builds the first
+ * time a build is recorded.
+ *
+ * The file only grows, so the entries read from it are kept for the jobs
+ * whose trend was read last, and only the lines appended since are read
+ * again.
+ */
+public final class LogParserTrend {
+
+    public static final String FILE_NAME = "log-parser-trend.txt";
+    public static final int DEFAULT_WINDOW = 100;
+    static final int MAX_CACHED_TRENDS = 64;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String DELETED = "-";
+    // Appends from the builds of a job, by trend file
+    private static final ConcurrentMap<File, Object> LOCKS = new ConcurrentHashMap<File, Object>();
+    private static final Map<File, Entries> CACHE = new LinkedHashMap<File, Entries>(16,
+            0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<File, Entries> eldest) {
+            return size() > MAX_CACHED_TRENDS;
+        }
+    };
+
+    private LogParserTrend() {
+    }
+
+    /**
+     * The counts of a parsed build.
+     */
+    @ExportedBean(defaultVisibility = 2)
+    public static final class Entry {
+
+        private final int buildNumber;
+        private final long parseMillis;
+        private final Map<String, Integer> counts;
+
+        Entry(final int buildNumber, final long parseMillis, final Map<String, Integer> counts) {
+            this.buildNumber = buildNumber;
+            this.parseMillis = parseMillis;
+            this.counts = counts;
+        }
+
+        @Exported
+        public int getBuildNumber() {
+            return buildNumber;
+        }
+
+        /**
+         * @return how long the parse took, 0 if not known
+         */
+        @Exported
+        public long getParseMillis() {
+            return parseMillis;
+        }
+
+        /**
+         * @return the number of lines of each tag, extra tags included
+         */
+        @Exported
+        public Map<String, Integer> getCounts() {
+            return counts;
+        }
+
+        /**
+         * @return the number of lines of a tag, 0 if none
+         */
+        public int getCount(final String tag) {
+            final Integer count = counts.get(tag);
+            return count == null ? 0 : count;
+        }
+    }
+
+    /**
+     * The entries read from a trend file, and the length read.
+     */
+    private static final class Entries {
+
+        private final long length;
+        private final TreeMap<Integer, Entry> byBuild;
+
+        Entries(final long length, final TreeMap<Integer, Entry> byBuild) {
+            this.length = length;
+            this.byBuild = byBuild;
+        }
+    }
+
+    /**
+     * Add the counts of a parsed build to the trend of its job.
+     *
+     * @param build
+     *            the build
+     * @param result
+     *            the result of its parse
+     * @param parseMillis
+     *            how long the parse took
+     */
+    public static void record(final Run<?, ?> build, final LogParserResult result,
+            final long parseMillis) {
+        final File file = getFile(build.getParent());
+        try {
+            synchronized (lockOf(file)) {
+                if (!file.exists()) {
+                    backfill(build.getParent(), file, build.getNumber());
+                }
+                append(file, format(build.getNumber(), parseMillis, countsOf(result)));
+            }
+            LogParserChartCache.invalidate(build.getParent().getFullName());
+        } catch (IOException e) {
+            Logger.getLogger(LogParserTrend.class.getName()).log(Level.WARNING,
+                    "LogParserTrend: Unable to record " + build, e);
+        }
+    }
+
+    /**
+     * Read the trend of a job.
+     *
+     * @param job
+     *            the job
+     * @param upToBuild
+     *            the last build to read
+     * @param window
+     *            the number of builds to read at most, the latest ones
+     * @return the counts of the builds, in the order of their numbers
+     */
+    public static List<Entry> read(final Job<?, ?> job, final int upToBuild, final int window) {
+        final File file = getFile(job);
+        if (!file.isFile()) {
+            return Collections.emptyList();
+        }
+        Entries entries;
+        synchronized (CACHE) {
+            entries = CACHE.get(file);
+        }
+        final long length = file.length();
+        if (entries == null || entries.length != length) {
+            try {
+                // Appended to since, unless it was made again
+                entries = readEntries(file, entries != null && entries.length < length ? entries
+                        : null, length);
+            } catch (IOException e) {
+                Logger.getLogger(LogParserTrend.class.getName()).log(Level.WARNING,
+                        "LogParserTrend: Unable to read " + file, e);
+                return Collections.emptyList();
+            }
+            synchronized (CACHE) {
+                CACHE.put(file, entries);
+            }
+        }
+        final List<Entry> latest = new ArrayList<Entry>();
+        for (Entry entry : entries.byBuild.headMap(upToBuild, true).descendingMap().values()) {
+            if (latest.size() >= window) {
+                break;
+            }
+            latest.add(entry);
+        }
+        Collections.reverse(latest);
+        return latest;
+    }
+
+    /**
+     * Read the lines of a trend file past those read already.
+     *
+     * @param read
+     *            the entries read already, null to read the whole file
+     * @param length
+     *            the length of the file
+     * @return the entries of the whole lines of the file
+     */
+    private static Entries readEntries(final File file, final Entries read, final long length)
+            throws IOException {
+        final long start = read == null ? 0 : read.length;
+        final byte[] bytes = new byte[(int) (length - start)];
+        final InputStream in = new FileInputStream(file);
+        try {
+            IOUtils.skipFully(in, start);
+            IOUtils.readFully(in, bytes);
+        } finally {
+            in.close();
+        }
+        // A line being appended is read once it is whole
+        int end = bytes.length;
+        while (end > 0 && bytes[end - 1] != '\n') {
+            end--;
+        }
+        final TreeMap<Integer, Entry> byBuild = read == null ? new TreeMap<Integer, Entry>()
+                : new TreeMap<Integer, Entry>(read.byBuild);
+        for (String line : new String(bytes, 0, end, UTF8).split("\n")) {
+            parseLine(line, byBuild);
+        }
+        return new Entries(start + end, byBuild);
+    }
+
+    private static void parseLine(final String line, final TreeMap<Integer, Entry> entries) {
+        final String[] fields = line.split("\t");
+        final int buildNumber;
+        try {
+            buildNumber = Integer.parseInt(fields[0]);
+            if (fields.length < 2) {
+                return;
+            }
+            if (fields[1].equals(DELETED)) {
+                entries.remove(buildNumber);
+                return;
+            }
+            final long parseMillis = Long.parseLong(fields[1]);
+            final Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+            for (int i = 2; i < fields.length; i++) {
+                final int equals = fields[i].lastIndexOf('=');
+                counts.put(fields[i].substring(0, equals),
+                        Integer.parseInt(fields[i].substring(equals + 1)));
+            }
+            entries.put(buildNumber, new Entry(buildNumber, parseMillis, counts));
+        } catch (RuntimeException e) {
+            // Cut short by a crash while appending - skip it
+        }
+    }
+
+    private static File getFile(final Job<?, ?> job) {
+        return new File(job.getRootDir(), FILE_NAME);
+    }
+
+    private static Object lockOf(final File file) {
+        final Object lock = new Object();
+        final Object existing = LOCKS.putIfAbsent(file, lock);
+        return existing == null ? lock : existing;
+    }
+
+    static Map<String, Integer> countsOf(final LogParserResult result) {
+        final Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+        counts.put(LogParserConsts.ERROR, result.getTotalErrors());
+        counts.put(LogParserConsts.WARNING, result.getTotalWarnings());
+        counts.put(LogParserConsts.INFO, result.getTotalInfos());
+        counts.put(LogParserConsts.DEBUG, result.getTotalDebugs());
+        for (String extraTag : result.getExtraTags()) {
+            counts.put(extraTag, result.getTotalCountsByExtraTag(extraTag));
+        }
+        return counts;
+    }
+
+    private static Map<String, Integer> countsOf(final LogParserAction action) {
+        if (action.hasExtraTotals()) {
+            return action.getTotals();
+        }
+        final Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+        counts.put(LogParserConsts.ERROR, action.getTotalErrors());
+        counts.put(LogParserConsts.WARNING, action.getTotalWarnings());
+        counts.put(LogParserConsts.INFO, action.getTotalInfos());
+        counts.put(LogParserConsts.DEBUG, action.getTotalDebugs());
+        return counts;
+    }
+
+    private static String format(final int buildNumber, final long parseMillis,
+            final Map<String, Integer> counts) {
+        final StringBuilder line = new StringBuilder();
+        line.append(buildNumber).append('\t').append(parseMillis);
+        for (Map.Entry<String, Integer> count : counts.entrySet()) {
+            line.append('\t').append(count.getKey()).append('=').append(count.getValue());
+        }
+        return line.append('\n').toString();
+    }
+
+    private static void append(final File file, final String line) throws IOException {
+        dropCutShortLine(file);
+        final OutputStream out = new FileOutputStream(file, true);
+        try {
+            // A single write, so that a line is never split
+            out.write(line.getBytes(UTF8));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Drop the end of a trend file past its last whole line, cut short by a
+     * crash while appending, rather than finish it with counts which may
+     * themselves be cut short.
+     */
+    private static void dropCutShortLine(final File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            long end = raf.length();
+            while (end > 0) {
+                raf.seek(end - 1);
+                if (raf.read() == '\n') {
+                    break;
+                }
+                end--;
+            }
+            if (end < raf.length()) {
+                raf.setLength(end);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Fill a new trend file from the actions of the builds parsed before it
+     * existed, among the builds of the default window. Only the counts saved
+     * with the actions are used, those of the extra tags included, so the
+     * results of the builds are not loaded.
+     */
+    private static void backfill(final Job<?, ?> job, final File file, final int skipBuild)
+            throws IOException {
+        final List<String> lines = new ArrayList<String>();
+        int walked = 0;
+        for (Run<?, ?> run = job.getLastBuild(); run != null && walked < DEFAULT_WINDOW;
+                run = run.getPreviousBuild(), walked++) {
+            final LogParserAction action = run.getAction(LogParserAction.class);
+            if (action != null && run.getNumber() != skipBuild) {
+                lines.add(format(run.getNumber(), 0, countsOf(action)));
+            }
+        }
+        final StringBuilder content = new StringBuilder();
+        for (int i = lines.size() - 1; i >= 0; i--) {
+            content.append(lines.get(i));
+        }
+        append(file, content.toString());
+    }
+
+    /**
+     * Drops the deleted builds from the trend.
+     */
+    @Extension
+    public static class RunListenerImpl extends RunListener<Run<?, ?>> {
+
+        @Override
+        public void onDeleted(final Run<?, ?> build) {
+            final File file = getFile(build.getParent());
+            if (!file.isFile()) {
+                return;
+            }
+            try {
+                synchronized (lockOf(file)) {
+                    append(file, build.getNumber() + "\t" + DELETED + "\n");
+                }
+                LogParserChartCache.invalidate(build.getParent().getFullName());
+            } catch (IOException e) {
+                Logger.getLogger(LogParserTrend.class.getName()).log(Level.WARNING,
+                        "LogParserTrend: Unable to drop " + build, e);
+            }
+        }
+    }
+
+}
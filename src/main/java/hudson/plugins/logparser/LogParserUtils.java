@@ -5,8 +5,10 @@ import java.io.IOException;
 import java.io.LineNumberReader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -61,8 +63,12 @@ public final class LogParserUtils {
                                                    final Logger logger) {
 
         Pattern[] result = new Pattern[parsingRulesArray.length];
+        final long[] compileNanos = new long[parsingRulesArray.length];
         final StringBuffer badParsingRules = new StringBuffer();
         List<String> extraTags = new ArrayList<String>();
+        // The status of each line is stored in a byte, see LogParserStatusTable
+        final Set<String> statuses = new HashSet<String>();
+        statuses.add(LogParserConsts.NONE);
 
         for (int i = 0; i < parsingRulesArray.length; i++) {
             final String parsingRule = parsingRulesArray[i];
@@ -72,6 +78,12 @@ public final class LogParserUtils {
                     final String ruleParts[] = parsingRule.split("\\s");
                     String regexp = ruleParts[1];
                     String tag = ruleParts[0];
+                    final String status = standardizeStatus(tag);
+                    if (!statuses.contains(status)
+                            && statuses.size() == LogParserStatusTable.MAX_STATUSES) {
+                        throw new IllegalArgumentException("More than "
+                                + (LogParserStatusTable.MAX_STATUSES - 1) + " different tags");
+                    }
                     if (!LogParserConsts.LEGAL_STATUS.contains(tag.toUpperCase(Locale.ENGLISH))) {
                         if (!Arrays.asList("OK", "END", "WARN").contains(tag.toUpperCase(Locale.ENGLISH))) {
                             extraTags.add(tag);
@@ -82,8 +94,11 @@ public final class LogParserUtils {
                     final int lastDash = parsingRule.lastIndexOf('/');
                     if (firstDash != -1 && lastDash != -1) {
                         regexp = parsingRule.substring(firstDash + 1, lastDash);
+                        final long start = System.nanoTime();
                         final Pattern p = Pattern.compile(regexp);
+                        compileNanos[i] = System.nanoTime() - start;
                         result[i] = p;
+                        statuses.add(status);
 
                     }
                 } catch (Exception e) {
@@ -102,6 +117,7 @@ public final class LogParserUtils {
         fullResult.setCompiledPatters(result);
         fullResult.setError(badParsingRules.toString());
         fullResult.setExtraTags(extraTags);
+        fullResult.setRuleSet(new CompiledRuleSet(parsingRulesArray, result, compileNanos));
         return fullResult;
     }
 
@@ -110,11 +126,12 @@ public final class LogParserUtils {
     }
 
     public static int getNumThreads() {
-        int result = LogParserConsts.MAX_THREADS;
+        // One thread per core unless configured otherwise
+        int result = Runtime.getRuntime().availableProcessors();
         final String maxThreadsByEnvStr = System.getenv("HUDSON_LOG_PARSER_THREADS");
         if (maxThreadsByEnvStr != null) {
             try {
-                result = (Integer.valueOf(maxThreadsByEnvStr)).intValue();
+                result = Math.max(1, (Integer.valueOf(maxThreadsByEnvStr)).intValue());
             } catch (Exception e) {
                 // Do nothing - use the default;
                 Logger.getLogger("getNumThreads").log(Level.FINEST,
@@ -1,38 +1,24 @@
 package hudson.plugins.logparser;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import hudson.Functions;
 import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
 
 public final class LogParserWriter {
 
-    public static void writeHeaderTemplateToAllLinkFiles(
-            final HashMap<String, BufferedWriter> writers, final int sectionCounter)
-            throws IOException {
-        final List<String> statuses = LogParserConsts.STATUSES_WITH_SECTIONS_IN_LINK_FILES;
-        final int statusesSize = statuses.size();
-        for (int i = 0; i < statusesSize; i++) {
-            final String currentStatus = (String) statuses.get(i);
-            final BufferedWriter linkWriter = (BufferedWriter) writers.get(currentStatus);
-            String str = "HEADER HERE: #NUMBER";
-            str = str.replaceFirst("NUMBER", ((Integer) sectionCounter).toString());
-            linkWriter.write(str + "\n");
-        }
-
-    }
-
     public static void writeWrapperHtml(final String buildWrapperPath) throws IOException {
         final String wrapperHtml = "<frameset cols=\"270,*\">\n"
                 + "<frame src=\"log_ref.html\" scrolling=auto name=\"sidebar\">\n"
-                + "<frame src=\"log_content.html\" scrolling=auto name=\"content\">\n"
+                + "<frame src=\"page\" scrolling=auto name=\"content\">\n"
                 + "<noframes>\n"
                 + "<p>Viewing the build report requires a Frames-enabled browser</p>\n"
                 + "<a href='build.log'>build log</a>\n" + "</noframes>\n" + "</frameset>\n";
@@ -42,12 +28,43 @@ public final class LogParserWriter {
         writer.close();
     }
 
+    public static void writeRuleStats(final String ruleStatsPath, final CompiledRuleSet ruleSet,
+                                      final LogParserRuleStats ruleStats,
+                                      final Map<String, Long> phaseNanos) throws IOException {
+        final JSONObject phases = new JSONObject();
+        for (Map.Entry<String, Long> phase : phaseNanos.entrySet()) {
+            phases.element(phase.getKey(), phase.getValue().longValue());
+        }
+        final JSONArray rules = new JSONArray();
+        for (int i = 0; i < ruleSet.getNumRules(); i++) {
+            final JSONObject rule = new JSONObject();
+            rule.element("rule", ruleSet.getRule(i));
+            rule.element("tag", ruleSet.getTag(i));
+            rule.element("compileNanos", ruleSet.getCompileNanos(i));
+            rule.element("evaluations", ruleStats.getEvaluations(i));
+            rule.element("matches", ruleStats.getMatches(i));
+            if (ruleStats.isTimed()) {
+                rule.element("nanos", ruleStats.getNanos(i));
+            }
+            rules.add(rule);
+        }
+        final JSONObject stats = new JSONObject();
+        stats.element("lines", ruleStats.getLines());
+        stats.element("phaseNanos", phases);
+        stats.element("rules", rules);
+
+        final BufferedWriter writer = new BufferedWriter(new FileWriter(ruleStatsPath));
+        writer.write(stats.toString(2));
+        writer.close();
+    }
+
     public static void writeReferenceHtml(final String buildRefPath,
                                           final ArrayList<String> headerForSection,
                                           final HashMap<String, Integer> statusCountPerSection,
                                           final HashMap<String, String> iconTable, final HashMap<String, String> linkListDisplay,
                                           final HashMap<String, String> linkListDisplayPlural,
-                                          final HashMap<String, Integer> statusCount, final HashMap<String, String> linkFiles,
+                                          final HashMap<String, String> colorTable,
+                                          final HashMap<String, Integer> statusCount, final LogParserEventLog eventLog,
                                           final List<String> extraTags)
             throws IOException {
 
@@ -57,28 +74,28 @@ public final class LogParserWriter {
                 + "\t\telement.display == 'none' ? element.display='block' : element.display='none';\n"
                 + "\t}\n" + "</script>\n";
 
-        final BufferedWriter writer = new BufferedWriter(new FileWriter(buildRefPath));
+        final BufferedWriter writer = LogParserGzip.openWriter(buildRefPath);
         // Hudson stylesheets
         writer.write(LogParserConsts.getHtmlOpeningTags());
         writer.write(refStart); // toggle links javascript
         // Write Errors
         writeLinks(writer, LogParserConsts.ERROR, headerForSection, statusCountPerSection,
-                iconTable, linkListDisplay, linkListDisplayPlural, statusCount, linkFiles);
+                iconTable, linkListDisplay, linkListDisplayPlural, colorTable, statusCount, eventLog);
         // Write Warnings
         writeLinks(writer, LogParserConsts.WARNING, headerForSection, statusCountPerSection,
-                iconTable, linkListDisplay, linkListDisplayPlural, statusCount, linkFiles);
+                iconTable, linkListDisplay, linkListDisplayPlural, colorTable, statusCount, eventLog);
         // Write Info
         writeLinks(writer, LogParserConsts.INFO, headerForSection, statusCountPerSection, iconTable,
-                linkListDisplay, linkListDisplayPlural, statusCount, linkFiles);
+                linkListDisplay, linkListDisplayPlural, colorTable, statusCount, eventLog);
         // Write Debugs
         writeLinks(writer, LogParserConsts.DEBUG, headerForSection,
                 statusCountPerSection, iconTable, linkListDisplay,
-                linkListDisplayPlural, statusCount, linkFiles);
+                linkListDisplayPlural, colorTable, statusCount, eventLog);
         // Write extra tags
         for (String extraTag : extraTags) {
             writeLinks(writer, extraTag, headerForSection,
                     statusCountPerSection, iconTable, linkListDisplay,
-                    linkListDisplayPlural, statusCount, linkFiles);
+                    linkListDisplayPlural, colorTable, statusCount, eventLog);
         }
         writer.write(LogParserConsts.getHtmlClosingTags());
         writer.close(); // Close to unlock and flush to disk.
@@ -90,7 +107,8 @@ public final class LogParserWriter {
                                    final HashMap<String, Integer> statusCountPerSection,
                                    final HashMap<String, String> iconTable, final HashMap<String, String> linkListDisplay,
                                    final HashMap<String, String> linkListDisplayPlural,
-                                   final HashMap<String, Integer> statusCount, final HashMap<String, String> linkFiles)
+                                   final HashMap<String, String> colorTable,
+                                   final HashMap<String, Integer> statusCount, final LogParserEventLog eventLog)
             throws IOException {
         String statusIcon = (String) iconTable.get(status);
         if (statusIcon == null) {
@@ -118,49 +136,45 @@ public final class LogParserWriter {
 
         writer.write(linksStart);
 
-        // Read the links file and insert here
-        final BufferedReader reader = new BufferedReader(
-                new FileReader((String) linkFiles.get(status)));
-        String line = null;
+        String color = colorTable.get(status);
+        if (color == null) {
+            color = LogParserDisplayConsts.DEFAULT_COLOR;
+        }
         final String summaryLine = "<br/>(SUMMARY_INT_HERE LINK_LIST_DISPLAY_STR in this section)<br/>";
-
-        final String headerTemplateRegexp = "HEADER HERE:";
-        final String headerTemplateSplitBy = "#";
-
-        // If it's a header line - put the header of the section
-        while ((line = reader.readLine()) != null) {
-            String curSummaryLine = null;
-            if (line.startsWith(headerTemplateRegexp)) {
-                final String headerNum = line.split(headerTemplateSplitBy)[1];
-                line = (String) headerForSection.get(Integer.parseInt(headerNum));
-                final String key = LogParserUtils.getSectionCountKey(status,
-                        Integer.valueOf(headerNum));
-                final Integer summaryInt = (Integer) statusCountPerSection.get(key);
-                if (summaryInt == null || summaryInt == 0) {
-                    // Don't write the header if there are no relevant lines for
-                    // this section
-                    line = null;
-                } else {
+        final boolean withSections = LogParserConsts.STATUSES_WITH_SECTIONS_IN_LINK_FILES
+                .contains(status);
+
+        // Go through the lines of the status, putting the header of each
+        // section before its first line
+        final LogParserEventLog.Cursor cursor = eventLog.openCursor(status);
+        try {
+            int section = -1;
+            while (cursor.next()) {
+                if (withSections && cursor.getSection() != section) {
+                    section = cursor.getSection();
+                    final Integer summaryInt = statusCountPerSection.get(LogParserUtils
+                            .getSectionCountKey(status, section));
                     String linkListDisplayStrWithPlural = linkListDisplayStr;
-                    if (summaryInt > 1) {
+                    if (summaryInt != null && summaryInt > 1) {
                         linkListDisplayStrWithPlural = linkListDisplayStrPlural;
                     }
-                    curSummaryLine = summaryLine.replace("SUMMARY_INT_HERE", summaryInt.toString())
-                            .replace("LINK_LIST_DISPLAY_STR", linkListDisplayStrWithPlural);
+                    writer.write(headerForSection.get(section));
+                    writer.newLine(); // Write system dependent end of line.
+                    writer.write(summaryLine.replace("SUMMARY_INT_HERE", String.valueOf(summaryInt))
+                            .replace("LINK_LIST_DISPLAY_STR", linkListDisplayStrWithPlural));
+                    writer.newLine(); // Write system dependent end of line.
                 }
-
-            }
-
-            if (line != null) {
-                writer.write(line);
-                writer.newLine(); // Write system dependent end of line.
-            }
-            if (curSummaryLine != null) {
-                writer.write(curSummaryLine);
+                final String marker = status + cursor.getOrdinal();
+                writer.write("<li>" + cursor.getOrdinal()
+                        + " <a target=\"content\" href=\"page?anchor=" + marker + "#" + marker
+                        + "\"><span style=\"color:" + color + "\">"
+                        + cursor.getText().replace("<", "&lt;").replace(">", "&gt;")
+                        + "</span></a></li><br/>");
                 writer.newLine(); // Write system dependent end of line.
             }
+        } finally {
+            cursor.close();
         }
-        reader.close(); // Close to unlock.
 
         final String linksEnd = "</ul>\n";
         writer.write(linksEnd);
@@ -1,15 +1,25 @@
 package hudson.plugins.logparser;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 
+import hudson.console.ConsoleNote;
+
 /**
  * A model class represents sections of console logs
  *
  * @author Hanjie Wang, Xiang Li
  */
 public class LogSection {
+    private static final String ERROR_PREFIX = "[" + LogParserConsts.ERROR;
+    private static final String INFO_PREFIX = "[" + LogParserConsts.INFO;
+    private static final String WARNING_PREFIX = "[" + LogParserConsts.WARNING;
+
     // The build number
     int build;
 
@@ -44,21 +54,48 @@ public class LogSection {
      */
     public LogSection(int build, List<String> list) {
         this(build);
-        List<String> errorList = new ArrayList<String>();
-        List<String> warningList = new ArrayList<String>();
-        List<String> infoList = new ArrayList<String>();
+        setData(LogParserConsts.ERROR, new ArrayList<String>());
+        setData(LogParserConsts.INFO, new ArrayList<String>());
+        setData(LogParserConsts.WARNING, new ArrayList<String>());
         for (String s : list) {
-            if (s.startsWith("[" + LogParserConsts.ERROR))
-                errorList.add(s);
-            else if (s.startsWith("[" + LogParserConsts.INFO))
-                infoList.add(s);
-            else if (s.startsWith("[" + LogParserConsts.WARNING))
-                warningList.add(s);
+            addLine(s);
+        }
+    }
 
+    /**
+     * Construct the sections of a console log in one pass over it, keeping
+     * only the lines of the sections
+     *
+     * @param build the build number
+     * @param log the console log
+     * @return the sections, with the notes of their lines removed
+     * @throws IOException if the log cannot be read
+     */
+    public static LogSection read(int build, File log) throws IOException {
+        LogSection section = new LogSection(build, new ArrayList<String>());
+        try (BufferedReader reader = new BufferedReader(new FileReader(log))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                section.addLine(ConsoleNote.removeNotes(line));
+            }
         }
-        setData(LogParserConsts.ERROR, errorList);
-        setData(LogParserConsts.INFO, infoList);
-        setData(LogParserConsts.WARNING, warningList);
+        return section;
+    }
+
+    /**
+     * Add a line to its section, if it belongs to one
+     *
+     * @param line the line, without notes
+     */
+    void addLine(String line) {
+        if (line.isEmpty() || line.charAt(0) != '[')
+            return;
+        if (line.startsWith(ERROR_PREFIX))
+            data.get(LogParserConsts.ERROR).add(line);
+        else if (line.startsWith(INFO_PREFIX))
+            data.get(LogParserConsts.INFO).add(line);
+        else if (line.startsWith(WARNING_PREFIX))
+            data.get(LogParserConsts.WARNING).add(line);
     }
 
     /**
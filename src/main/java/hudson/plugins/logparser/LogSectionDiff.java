@@ -6,10 +6,11 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 import difflib.Delta;
 import difflib.Delta.TYPE;
-import difflib.DiffUtils;
 
 /**
  * A model class represents diff between two sections of console logs
@@ -34,7 +35,30 @@ public class LogSectionDiff {
     }
 
     /**
-     * Construct a diff between two sections of console logs
+     * The diff of one section, computed on the shared pool
+     */
+    private final class SectionDiffTask extends RecursiveTask<Diff> {
+        private static final long serialVersionUID = 1L;
+
+        private final String sectionName;
+        private final List<String> base;
+        private final List<String> comp;
+
+        SectionDiffTask(String sectionName, List<String> base, List<String> comp) {
+            this.sectionName = sectionName;
+            this.base = base;
+            this.comp = comp;
+        }
+
+        @Override
+        protected Diff compute() {
+            return generateDiff(base, comp);
+        }
+    }
+
+    /**
+     * Construct a diff between two sections of console logs. The sections
+     * are diffed in parallel.
      *
      * @param logSection1 the compared section
      * @param logSection2 the base section
@@ -46,20 +70,34 @@ public class LogSectionDiff {
         List<String> allSectionNames = Arrays.asList(LogParserConsts.ERROR, LogParserConsts.WARNING,
                 LogParserConsts.INFO);
 
+        final List<SectionDiffTask> tasks = new ArrayList<SectionDiffTask>();
         for (String sectionName : allSectionNames) {
             if (logSection1.data.containsKey(sectionName)
                     && logSection2.data.containsKey(sectionName)) {
                 List<String> build1Strings = logSection1.data.get(sectionName);
                 List<String> build2Strings = logSection2.data.get(sectionName);
-                this.data.put(sectionName, generateDiff(build1Strings, build2Strings));
+                tasks.add(new SectionDiffTask(sectionName, build1Strings, build2Strings));
+            }
+        }
+        LogParserExecutor.get().invoke(new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
             }
+        });
+        // In section order
+        for (SectionDiffTask task : tasks) {
+            this.data.put(task.sectionName, task.join());
         }
     }
 
     private Diff generateDiff(List<String> base, List<String> comp) {
         Diff diff = new Diff();
 
-        List<Delta> deltas = DiffUtils.diff(base, comp).getDeltas();
+        // Scales to sections of large logs, where Myers alone does not
+        List<Delta> deltas = new LogLineDiff().diff(base, comp);
         for (Delta delta : deltas) {
             if (delta.getType() == TYPE.INSERT) {
                 diff.added.addAll((List<String>) delta.getRevised().getLines());
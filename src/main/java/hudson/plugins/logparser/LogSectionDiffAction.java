@@ -1,8 +1,12 @@
 package hudson.plugins.logparser;
 
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 
 import org.kohsuke.stapler.Stapler;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
 import org.kohsuke.stapler.bind.JavaScriptMethod;
 
 import com.google.gson.Gson;
@@ -10,28 +14,61 @@ import com.google.gson.Gson;
 import hudson.model.Action;
 import hudson.model.Run;
 
+/**
+ * Shows the section diff of the console logs of two builds. The diff is
+ * streamed to the page, from the diff cache if it was computed before.
+ */
 public class LogSectionDiffAction implements Action {
     final private Run<?, ?> thisBuild;
     private String thatBuild;
-    public String html;
+    final private Run<?, ?> that;
     private String fileName;
 
     public LogSectionDiffAction(Run<?, ?> build) {
         this.thisBuild = build;
         this.thatBuild = Stapler.getCurrentRequest().getParameter("prevBuild");
-        Run<?, ?> that = thisBuild.getParent().getBuildByNumber(Integer.parseInt(this.thatBuild));
-        LogSectionDiffWorker lsdw = new LogSectionDiffWorker(thisBuild, that);
-        try {
-            this.html = lsdw.writeSectionDiffToHTMLs();
-        } catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        }
-        this.html += "<br><br>";
+        this.that = thisBuild.getParent().getBuildByNumber(Integer.parseInt(this.thatBuild));
         
         fileName = "build_" + thatBuild + "_" + thisBuild.getNumber() + "_console_section_diff.html";
     }
 
+    /**
+     * write the diff page
+     * 
+     * @param out
+     *            where to write the page
+     * @throws IOException
+     */
+    void writeHtml(Writer out) throws IOException {
+        // Sections are told apart by their prefixes, not by the parsing rules
+        if (!LogParserDiffCache.copy(that, thisBuild, getUrlName(), null, out)) {
+            LogSectionDiffWorker lsdw = new LogSectionDiffWorker(thisBuild, that);
+            LogParserDiffCache.DiffWriter writer = LogParserDiffCache.writeThrough(that,
+                    thisBuild, getUrlName(), null, out);
+            try {
+                lsdw.writeSectionDiffToHTML(writer);
+                writer.close();
+            } finally {
+                writer.discard();
+            }
+        }
+        out.write("<br><br>");
+    }
+
+    /**
+     * stream the diff page, as an attachment if the "download" parameter is
+     * given
+     */
+    public void doDiff(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        rsp.setContentType("text/html;charset=UTF-8");
+        if (req.getParameter("download") != null) {
+            rsp.setHeader("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
+        }
+        Writer out = rsp.getWriter();
+        writeHtml(out);
+        out.flush();
+    }
+
     public Run<?, ?> getOwner() {
         return this.thisBuild;
     }
@@ -40,6 +77,17 @@ public class LogSectionDiffAction implements Action {
         return this.thatBuild;
     }
     
+    /**
+     * returns html string
+     * 
+     * @return html string
+     */
+    public String getHtml() throws IOException {
+        StringWriter html = new StringWriter();
+        writeHtml(html);
+        return html.toString();
+    }
+
     /**
      * returns html content
      * 
@@ -47,8 +95,8 @@ public class LogSectionDiffAction implements Action {
      */
     
     @JavaScriptMethod
-    public String exportHtml(){
-        return this.html;
+    public String exportHtml() throws IOException {
+        return getHtml();
     }
     
     /**
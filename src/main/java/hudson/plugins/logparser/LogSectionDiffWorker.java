@@ -3,6 +3,8 @@ package hudson.plugins.logparser;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -15,7 +17,8 @@ import jenkins.model.Jenkins;
 
 /**
  * LogSectionDiffWorker contains methods to diff logs for two builds, and write
- * the diff results to HTML.
+ * the diff results to HTML. Each log is read once, keeping only the lines of
+ * its sections, and the HTML is written out as it is generated.
  */
 public class LogSectionDiffWorker {
     private Run<?, ?> build1;
@@ -45,53 +48,62 @@ public class LogSectionDiffWorker {
         return buildLog;
     }
 
-    public void writeHeader(StringBuilder sb) {
-        sb.append("<br>");
-        sb.append(String.format(
+    public void writeHeader(Writer out) throws IOException {
+        out.write("<br>");
+        out.write(String.format(
                 "<font size = \"6\">Section Diff for Console Output between Build %s and %s</font>",
                 build1.number, build2.number));
-        sb.append("<br><br>");
-        sb.append("<span style=\"color:green;font-weight:bold\">added<br></span>");
-        sb.append("<span style=\"color:blue;font-weight:bold\">modified<br></span>");
-        sb.append("<span style=\"color:red;font-weight:bold\">removed<br></span>");
-        sb.append("<br>");
+        out.write("<br><br>");
+        out.write("<span style=\"color:green;font-weight:bold\">added<br></span>");
+        out.write("<span style=\"color:blue;font-weight:bold\">modified<br></span>");
+        out.write("<span style=\"color:red;font-weight:bold\">removed<br></span>");
+        out.write("<br>");
     }
 
-    public void writeSectionHeader(StringBuilder sb, String sectionName, String imgName) {
+    public void writeSectionHeader(Writer out, String sectionName, String imgName)
+            throws IOException {
         String hudsonRoot = Jenkins.getInstance().getRootUrl();
         String iconLocation = String.format("%s/images/16x16/", Functions.getResourcePath());
-        sb.append("<img src=\"" + hudsonRoot + "/" + iconLocation + imgName + "\" "
+        out.write("<img src=\"" + hudsonRoot + "/" + iconLocation + imgName + "\" "
                 + "style=\"margin: 2px;\" width=\"24\" alt=\"Error Icon\" height=\"24\" />");
-        sb.append(String.format("<strong>%s</strong><br>", sectionName));
+        out.write(String.format("<strong>%s</strong><br>", sectionName));
     }
 
     public String writeSectionDiffToHTMLs() throws IOException {
-        int num1 = build1.getNumber();
-        int num2 = build2.getNumber();
-
-        List<String> build1Log = LogSectionDiffWorker.getBuildLog(build1);
-        List<String> build2Log = LogSectionDiffWorker.getBuildLog(build2);
+        StringWriter html = new StringWriter();
+        writeSectionDiffToHTML(html);
+        return html.toString();
+    }
 
-        LogSection section1 = new LogSection(num1, build1Log);
-        LogSection section2 = new LogSection(num2, build2Log);
+    /**
+     * Diff the sections of the logs of the two builds and write the result
+     * as HTML. Both logs are read by the calling thread, so that a request
+     * takes no other thread to wait on the disk, and the sections are diffed
+     * in parallel on the shared pool.
+     *
+     * @param out
+     *            where to write the HTML
+     * @throws IOException
+     *             if a log cannot be read or out cannot be written
+     */
+    public void writeSectionDiffToHTML(Writer out) throws IOException {
+        LogSection section1 = LogSection.read(build1.getNumber(), build1.getLogFile());
+        LogSection section2 = LogSection.read(build2.getNumber(), build2.getLogFile());
         LogSectionDiff sectionDiff = new LogSectionDiff(section1, section2);
 
-        Map<String, String> sectionHTMLs = LogSectionDiffWorker.sectionDiffToHTML(sectionDiff);
+        writeHeader(out);
 
-        StringBuilder sb = new StringBuilder();
-        writeHeader(sb);
-
-        for (Map.Entry<String, String> entry : sectionHTMLs.entrySet()) {
+        // In section order, writing each section as it goes
+        for (Map.Entry<String, LogSectionDiff.Diff> entry : sectionDiff.getData().entrySet()) {
             if (entry.getKey().equals("ERROR")) {
-                writeSectionHeader(sb, "Error", "red.gif");
+                writeSectionHeader(out, "Error", "red.gif");
             } else if (entry.getKey().equals("WARNING")) {
-                writeSectionHeader(sb, "Warning", "yellow.gif");
+                writeSectionHeader(out, "Warning", "yellow.gif");
             } else if (entry.getKey().equals("INFO")) {
-                writeSectionHeader(sb, "Info", "blue.gif");
+                writeSectionHeader(out, "Info", "blue.gif");
             }
-            sb.append(entry.getValue());
+            LogSectionDiffWorker.diffToHTML(entry.getValue(), out);
         }
-        return sb.toString();
     }
 
     /**
@@ -113,27 +125,38 @@ public class LogSectionDiffWorker {
     }
 
     public static String diffToHTML(LogSectionDiff.Diff diff) {
-        StringBuilder sb = new StringBuilder();
+        StringWriter html = new StringWriter();
+        try {
+            diffToHTML(diff, html);
+        } catch (IOException e) {
+            // Not thrown by a StringWriter
+            throw new IllegalStateException(e);
+        }
+        return html.toString();
+    }
 
-        sb.append("<span style=\"color:green;font-weight:bold\">");
+    public static void diffToHTML(LogSectionDiff.Diff diff, Writer out) throws IOException {
+        out.write("<span style=\"color:green;font-weight:bold\">");
         for (String line : diff.added) {
-            sb.append(line + "<br>");
+            out.write(line);
+            out.write("<br>");
         }
-        sb.append("</span>");
+        out.write("</span>");
 
-        sb.append("<span style=\"color:blue;font-weight:bold\">");
+        out.write("<span style=\"color:blue;font-weight:bold\">");
         for (String line : diff.modified) {
-            sb.append(line + "<br>");
+            out.write(line);
+            out.write("<br>");
         }
-        sb.append("</span>");
+        out.write("</span>");
 
-        sb.append("<span style=\"color:red;font-weight:bold\">");
+        out.write("<span style=\"color:red;font-weight:bold\">");
         for (String line : diff.removed) {
-            sb.append(line + "<br>");
+            out.write(line);
+            out.write("<br>");
         }
-        sb.append("</span>");
+        out.write("</span>");
 
-        sb.append("<br><br><br>");
-        return sb.toString();
+        out.write("<br><br><br>");
     }
 }
@@ -16,6 +16,8 @@ import org.kohsuke.stapler.bind.JavaScriptMethod;
  * codes between two builds.
  */
 public class SourceCodeDiffAction implements Action {
+    private static final String SOURCE_FILES = "*.java";
+
     public final String html;
     private final Run<?, ?> owner;
     private final String fileName;
@@ -33,15 +35,24 @@ public class SourceCodeDiffAction implements Action {
     public SourceCodeDiffAction(Job<?, ?> job, int build1, int build2, Launcher launcher,
             FilePath workspace) throws Exception {
         this.owner = job.getBuildByNumber(build1);
+        fileName = "build_" + build1 + "_" + build2 + "_source_code_diff.html";
 
-        Map<String, List<String>> content1 = SCMUtils.getFilesFromBuild("*.java",
+        // Checking out the sources of the builds again is what takes long
+        final Run<?, ?> run2 = job.getBuildByNumber(build2);
+        final String cached = LogParserDiffCache.get(owner, run2, getUrlName(), SOURCE_FILES);
+        if (cached != null) {
+            this.html = cached;
+            return;
+        }
+
+        Map<String, List<String>> content1 = SCMUtils.getFilesFromBuild(SOURCE_FILES,
                 (AbstractProject<?, ?>) job, build1, launcher, workspace);
-        Map<String, List<String>> content2 = SCMUtils.getFilesFromBuild("*.java",
+        Map<String, List<String>> content2 = SCMUtils.getFilesFromBuild(SOURCE_FILES,
                 (AbstractProject<?, ?>) job, build2, launcher, workspace);
 
         this.html = DiffToHtmlUtils.generateDiffHTML(build1, build2, "Source Code", content1,
                 content2, null);
-        fileName = "build_" + build1 + "_" + build2 + "_source_code_diff.html";
+        LogParserDiffCache.put(owner, run2, getUrlName(), SOURCE_FILES, html);
     }
 
     public Run<?, ?> getOwner() {
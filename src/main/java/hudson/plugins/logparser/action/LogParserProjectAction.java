@@ -1,22 +1,30 @@
 package hudson.plugins.logparser.action;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletResponse;
 
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
 
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.Action;
+import hudson.model.Api;
 import hudson.plugins.logparser.LogParserAction;
+import hudson.plugins.logparser.LogParserPublisher;
+import hudson.plugins.logparser.LogParserTrend;
 
 /**
  * Created by IntelliJ IDEA. User: evilpupu Date: 3.10.2011 Time: 0:14 To change
  * this template use File | Settings | File Templates.
  */
+@ExportedBean
 public class LogParserProjectAction implements Action {
 
     public final AbstractProject<?, ?> project;
@@ -37,6 +45,47 @@ public class LogParserProjectAction implements Action {
         return "logparser";
     }
 
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    /**
+     * @return the number of the last build with parsed console output, or 0
+     *         if there is none
+     */
+    @Exported
+    public int getLastParsedBuild() {
+        final LogParserAction a = this.getLastLogParserAction();
+        return a == null ? 0 : a.getOwner().getNumber();
+    }
+
+    /**
+     * @return the number of lines of each tag in the last build with parsed
+     *         console output, or null if there is none
+     */
+    @Exported
+    public Map<String, Integer> getLastTotals() {
+        final LogParserAction a = this.getLastLogParserAction();
+        return a == null ? null : a.getTotals();
+    }
+
+    /**
+     * @return the counts of the latest parsed builds, as far back as the
+     *         trend window
+     */
+    @Exported(visibility = 2)
+    public List<LogParserTrend.Entry> getTrend() {
+        return LogParserTrend.read(project, Integer.MAX_VALUE,
+                LogParserPublisher.DescriptorImpl.DESCRIPTOR.getTrendWindow());
+    }
+
+    /**
+     * @return true if there are enough parsed builds to draw a trend
+     */
+    public boolean isTrendAvailable() {
+        return getTrend().size() >= 2;
+    }
+
     public LogParserAction getLastLogParserAction() {
         final AbstractBuild<?, ?> tb = project.getLastSuccessfulBuild();
 
@@ -78,4 +127,17 @@ public class LogParserProjectAction implements Action {
         }
     }
 
+    /**
+     * Serve the classified lines of the last build with parsed console
+     * output - see {@link LogParserAction#doEvents}.
+     */
+    public void doEvents(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        LogParserAction a = this.getLastLogParserAction();
+        if (a != null) {
+            a.doEvents(req, rsp);
+        } else {
+            rsp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,93 @@
+package org.jenkinsci.plugins.logparser;
+
+import java.util.Random;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import hudson.plugins.logparser.CompiledPatterns;
+import hudson.plugins.logparser.CompiledRuleSet;
+import hudson.plugins.logparser.LogParserConsts;
+import hudson.plugins.logparser.LogParserUtils;
+
+/**
+ * Compares the time to classify lines with the compiled rule set against
+ * looping over every rule for every line, as LogParserThread used to do.
+ *
+ * Run with: java -cp ... org.jenkinsci.plugins.logparser.CompiledRuleSetBenchmark [rules] [lines]
+ */
+public class CompiledRuleSetBenchmark {
+
+    public static void main(final String[] args) {
+        final int numRules = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        final int numLines = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+
+        final String[] rules = new String[numRules];
+        for (int i = 0; i < numRules; i++) {
+            switch (i % 4) {
+                case 0:
+                    rules[i] = "error /ERR-" + i + ": .*failed/";
+                    break;
+                case 1:
+                    rules[i] = "warning /[Ww]arning W" + i + "\\b/";
+                    break;
+                case 2:
+                    rules[i] = "info /^\\[module-" + i + "\\] done/";
+                    break;
+                default:
+                    rules[i] = "debug /took \\d+ms in step" + i + "$/";
+                    break;
+            }
+        }
+
+        final Random random = new Random(42);
+        final String[] lines = new String[numLines];
+        for (int i = 0; i < numLines; i++) {
+            if (random.nextInt(100) == 0) {
+                lines[i] = "[module-" + random.nextInt(numRules) + "] ERR-"
+                        + random.nextInt(numRules) + ": step failed";
+            } else {
+                lines[i] = "[INFO] Compiling " + random.nextInt(1000)
+                        + " source files to /home/jenkins/workspace/target/classes";
+            }
+        }
+
+        final CompiledPatterns compiled = LogParserUtils.compilePatterns(rules,
+                Logger.getLogger(CompiledRuleSetBenchmark.class.getName()));
+
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            int legacyMatches = 0;
+            for (String line : lines) {
+                if (!LogParserConsts.NONE.equals(legacyStatus(rules, compiled.getCompiledPatterns(), line))) {
+                    legacyMatches++;
+                }
+            }
+            final long legacyNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int ruleSetMatches = 0;
+            final CompiledRuleSet.Classifier classifier = compiled.getRuleSet().newClassifier();
+            for (String line : lines) {
+                if (!LogParserConsts.NONE.equals(classifier.classify(line))) {
+                    ruleSetMatches++;
+                }
+            }
+            final long ruleSetNanos = System.nanoTime() - start;
+
+            System.out.println(String.format(
+                    "round %d: rule loop %d ms (%d matches), rule set %d ms (%d matches)", round,
+                    legacyNanos / 1000000, legacyMatches, ruleSetNanos / 1000000, ruleSetMatches));
+        }
+    }
+
+    private static String legacyStatus(final String[] rules, final Pattern[] patterns,
+            final String line) {
+        for (int i = 0; i < rules.length; i++) {
+            if (!LogParserUtils.skipParsingRule(rules[i]) && patterns[i] != null
+                    && patterns[i].matcher(line).find()) {
+                return LogParserUtils.standardizeStatus(rules[i].split("\\s")[0]);
+            }
+        }
+        return LogParserConsts.NONE;
+    }
+}
@@ -0,0 +1,96 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.logging.Logger;
+
+import org.junit.Test;
+
+import hudson.plugins.logparser.CompiledPatterns;
+import hudson.plugins.logparser.CompiledRuleSet;
+import hudson.plugins.logparser.LogParserConsts;
+import hudson.plugins.logparser.LogParserUtils;
+
+public class CompiledRuleSetTest {
+
+    private static final String[] RULES = {
+            "# comment line",
+            "ok /not a real error/",
+            "error /(?i)fatal/",
+            "error /^ERROR\\]/",
+            "error /BUILD FAIL(ED|URE)/",
+            "warning /[Ww]arn(ing)?:/",
+            "warn /deprecat/",
+            "error /Exception\\s+in thread/",
+            "info /colou?r/",
+            "start /^=== .* ===$/",
+            "error /a+b{2}c/",
+            "debug /\\d+ms/",
+            "custom /tag|label/",
+            "",
+            "error /x\\.y/" };
+
+    private static final String[] LINES = {
+            "plain line",
+            "this is not a real error, just a test",
+            "FATAL: something went wrong",
+            "ERROR] compilation failed",
+            "[ERROR] compilation failed",
+            "BUILD FAILED in 3s",
+            "BUILD FAILURE",
+            "warning: unused variable",
+            "Warn: check this",
+            "deprecated API used",
+            "Exception  in thread main",
+            "color and colour",
+            "colr",
+            "=== section one ===",
+            "aaabbc",
+            "abc",
+            "took 25ms",
+            "a tag here",
+            "label",
+            "x.y",
+            "xzy" };
+
+    private static String legacyStatus(final String[] rules, final CompiledPatterns compiled,
+            final String line) {
+        for (int i = 0; i < rules.length; i++) {
+            if (!LogParserUtils.skipParsingRule(rules[i])
+                    && compiled.getCompiledPatterns()[i] != null
+                    && compiled.getCompiledPatterns()[i].matcher(line).find()) {
+                return LogParserUtils.standardizeStatus(rules[i].split("\\s")[0]);
+            }
+        }
+        return LogParserConsts.NONE;
+    }
+
+    @Test
+    public void testSameStatusAsRuleLoop() {
+        final CompiledPatterns compiled = LogParserUtils.compilePatterns(RULES,
+                Logger.getLogger(getClass().getName()));
+        final CompiledRuleSet.Classifier classifier = compiled.getRuleSet().newClassifier();
+        for (String line : LINES) {
+            assertEquals(line, legacyStatus(RULES, compiled, line), classifier.classify(line));
+        }
+    }
+
+    @Test
+    public void testExtractedLiterals() {
+        final CompiledPatterns compiled = LogParserUtils.compilePatterns(RULES,
+                Logger.getLogger(getClass().getName()));
+        final CompiledRuleSet ruleSet = compiled.getRuleSet();
+        assertEquals(13, ruleSet.getNumRules());
+        assertEquals("not a real error", ruleSet.getLiteral(0));
+        assertNull(ruleSet.getLiteral(1)); // inline flags
+        assertEquals("ERROR]", ruleSet.getLiteral(2));
+        assertEquals("BUILD FAIL", ruleSet.getLiteral(3));
+        assertEquals("arn", ruleSet.getLiteral(4));
+        assertEquals("Exception", ruleSet.getLiteral(6));
+        assertEquals("colo", ruleSet.getLiteral(7));
+        assertNull(ruleSet.getLiteral(11)); // top level alternation
+        assertEquals("x.y", ruleSet.getLiteral(12));
+        assertEquals(LogParserConsts.ERROR, ruleSet.getTag(12));
+    }
+}
@@ -0,0 +1,94 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import hudson.plugins.logparser.ConsoleLineDiffDisplay;
+import hudson.plugins.logparser.DiffToHtmlGenerator;
+import hudson.plugins.logparser.LogParserLineHashes;
+
+public class ConsoleLineDiffDisplayTest {
+
+    private static final String TABLE = "<table class='d2h-diff-table'>";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final LogParserLineHashes.Normalizer normalizer = new LogParserLineHashes.Normalizer(
+            LogParserLineHashes.DEFAULT_MASKS);
+
+    /**
+     * Write a log whose lines only differ from build to build in their timestamps, apart from
+     * the one in the middle.
+     */
+    private LogParserLineHashes log(final String name, final String date, final String change)
+            throws IOException {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            text.append(i == 20 ? change : "[" + date + "T10:00:00] step " + i).append('\n');
+        }
+        final File log = new File(folder.newFolder(name), "log");
+        final OutputStream out = new FileOutputStream(log);
+        try {
+            out.write(text.toString().getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return LogParserLineHashes.forLog(log, false, normalizer);
+    }
+
+    private static String html(final DiffToHtmlGenerator generator, final int contextLines)
+            throws IOException {
+        final StringWriter out = new StringWriter();
+        generator.writeHtml(out, true, contextLines);
+        return out.toString();
+    }
+
+    @Test
+    public void testMaskedLinesShowTheirOwnText() throws Exception {
+        final LogParserLineHashes prev = log("prev", "2024-01-01", "removed");
+        final LogParserLineHashes curr = log("curr", "2025-06-30", "added");
+        try {
+            final DiffToHtmlGenerator generator = new DiffToHtmlGenerator(prev, curr, 1, 2);
+            assertEquals(1, generator.getDeltas().size());
+            for (int contextLines : new int[] { DiffToHtmlGenerator.ALL_LINES, 3 }) {
+                final String html = html(generator, contextLines);
+                final int right = html.indexOf(TABLE, html.indexOf(TABLE) + 1);
+                assertTrue(right > 0);
+                final String left = html.substring(0, right);
+                assertTrue(left.contains("[2024-01-01T10:00:00] step 19"));
+                assertFalse(left.contains("2025-06-30"));
+                assertTrue(html.substring(right).contains("[2025-06-30T10:00:00] step 19"));
+                assertFalse(html.substring(right).contains("2024-01-01"));
+            }
+
+            // The collapsed lines of the right column expand to the current build's text
+            final String collapsed = html(generator, 3);
+            assertTrue(collapsed.contains("data-side='prev' data-from='0' data-count='17'"));
+            assertTrue(collapsed.contains("data-side='curr' data-from='0' data-count='17'"));
+            final List<String> lines = curr.getLines();
+            final StringWriter rows = new StringWriter();
+            assertTrue(ConsoleLineDiffDisplay.writeContext(rows, lines, false, 0, 17));
+            assertTrue(rows.toString().contains("[2025-06-30T10:00:00] step 16"));
+            assertFalse(rows.toString().contains("2024-01-01"));
+            assertFalse(ConsoleLineDiffDisplay.writeContext(new StringWriter(), lines, false, 41,
+                    17));
+        } finally {
+            prev.close();
+            curr.close();
+        }
+    }
+
+}
@@ -7,6 +7,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -138,6 +139,48 @@ public class DiffToHtmlGeneratorTest {
         assertEquals("2nd line", divs.first().text());
     }
 
+    @Test
+    public void testCollapsedContext() throws Exception {
+        List<String> original = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            original.add("line " + i);
+        }
+        List<String> revised = new ArrayList<String>(original);
+        revised.set(50, "changed line");
+
+        DiffToHtmlGenerator d2h = new DiffToHtmlGenerator(original, revised);
+        StringWriter html = new StringWriter();
+        d2h.writeHtml(html, true, 3);
+
+        // Lines 0-46 and 54-99 in both columns
+        Elements collapsed = Jsoup.parse(html.toString()).select("tr.d2h-collapsed");
+        assertEquals(4, collapsed.size());
+        assertEquals("0", collapsed.get(0).attr("data-from"));
+        assertEquals("47", collapsed.get(0).attr("data-count"));
+        assertEquals("54", collapsed.get(1).attr("data-from"));
+        assertEquals("46", collapsed.get(1).attr("data-count"));
+        // 3 lines either side of the change in both columns
+        assertEquals(12, Jsoup.parse(html.toString()).select("div.d2h-cntx").size());
+
+        // Expanding the collapsed rows gives all the lines
+        StringWriter rows = new StringWriter();
+        DiffToHtmlGenerator.writeUnchangedRows(rows, original.subList(0, 47), 0);
+        assertTrue(d2h.generateHtmlString(true).contains(rows.toString()));
+
+        // A line inserted before the first one still keeps the lines after it
+        List<String> inserted = new ArrayList<String>(original);
+        inserted.add(0, "inserted line");
+        html = new StringWriter();
+        new DiffToHtmlGenerator(original, inserted).writeHtml(html, true, 3);
+        collapsed = Jsoup.parse(html.toString()).select("tr.d2h-collapsed");
+        assertEquals(2, collapsed.size());
+        assertEquals("3", collapsed.get(0).attr("data-from"));
+        assertEquals("97", collapsed.get(0).attr("data-count"));
+        // 3 lines after the insertion in both columns, and the empty row
+        // facing it in the left one
+        assertEquals(7, Jsoup.parse(html.toString()).select("div.d2h-cntx").size());
+    }
+
     // Jenkins Rules tests
 
     @Test
@@ -1,5 +1,8 @@
 package org.jenkinsci.plugins.logparser;
 
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 import java.io.IOException;
 
 import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
@@ -78,4 +81,18 @@ public class DownloadButtonTest {
         WebAssert.assertElementPresent((HtmlPage)newPage, "downloadlink");
     }
 
+    @Test
+    public void testDownloadHasAllLines() throws IOException, SAXException{
+        String url = "job/" + job.getName() + "/" + buildNumber + "/diffbuild/consoleLineDiffDisplay/diff?prevBuild="
+                + buildNumber;
+        JenkinsRule.WebClient webClient = jenkinsRule.createWebClient();
+        String page = webClient.goTo(url, "text/html").getWebResponse().getContentAsString();
+        assertTrue(page.contains("d2h-collapsed"));
+        // The collapsed lines cannot be fetched once offline
+        String download = webClient.goTo(url + "&download=true", "text/html").getWebResponse()
+                .getContentAsString();
+        assertFalse(download.contains("d2h-collapsed"));
+        assertTrue(download.length() > page.length());
+    }
+
 }
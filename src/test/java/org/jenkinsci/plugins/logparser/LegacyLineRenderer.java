@@ -0,0 +1,175 @@
+package org.jenkinsci.plugins.logparser;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import hudson.console.ConsoleNote;
+import hudson.plugins.logparser.LogParserConsts;
+import hudson.plugins.logparser.LogParserDisplayConsts;
+import hudson.plugins.logparser.LogParserUtils;
+
+/**
+ * LogParserParser.parseLine as it was before lines were rendered straight
+ * into the parsed log, copied verbatim along with what it calls, as the
+ * reference for the output of LogParserParser.renderLine. The link files it
+ * writes are kept in memory.
+ */
+final class LegacyLineRenderer {
+
+    final private HashMap<String, Integer> statusCount = new HashMap<String, Integer>();
+    final private HashMap<String, BufferedWriter> writers = new HashMap<String, BufferedWriter>();
+
+    // if key is 3-ERROR it shows how many errors are in section 3
+    final private HashMap<String, Integer> statusCountPerSection = new HashMap<String, Integer>();
+    final private ArrayList<String> headerForSection = new ArrayList<String>();
+    private int sectionCounter = 0;
+
+    final private LogParserDisplayConsts displayConstants = new LogParserDisplayConsts();
+
+    final private boolean preformattedHtml;
+
+    LegacyLineRenderer(final List<String> extraTags, final boolean preformattedHtml) {
+        this.preformattedHtml = preformattedHtml;
+        final List<String> tags = new ArrayList<String>(LogParserConsts.STATUSES_WITH_LINK_FILES);
+        tags.addAll(extraTags);
+        for (String tag : tags) {
+            statusCount.put(tag, 0);
+            writers.put(tag, new BufferedWriter(new StringWriter()));
+        }
+    }
+
+    HashMap<String, Integer> getStatusCount() {
+        return statusCount;
+    }
+
+    HashMap<String, Integer> getStatusCountPerSection() {
+        return statusCountPerSection;
+    }
+
+    public String parseLine(final String line, final String status) throws IOException {
+        String parsedLine = line;
+        String effectiveStatus = status;
+        if (status == null) {
+            effectiveStatus = LogParserConsts.NONE;
+        } else if (status.equals(LogParserConsts.START)) {
+            effectiveStatus = LogParserConsts.INFO;
+        }
+
+        // need to strip out for display also (in addition to parsing).
+        parsedLine = ConsoleNote.removeNotes(parsedLine);
+        // Allows < to be seen in log which is html
+        parsedLine = parsedLine.replaceAll("<", "&lt;");
+        // Allows > to be seen in log which is html
+        parsedLine = parsedLine.replaceAll(">", "&gt;");
+
+        if (effectiveStatus != null && !effectiveStatus.equals(LogParserConsts.NONE)) {
+            // Increment count of the status
+            incrementCounter(effectiveStatus);
+            incrementCounterPerSection(effectiveStatus, sectionCounter);
+            // Color line according to the status
+            final String parsedLineColored = colorLine(parsedLine, effectiveStatus);
+
+            // Mark line and add to left side links of highlighted lines
+            final String parsedLineColoredAndMarked = addMarkerAndLink(parsedLineColored,
+                    effectiveStatus, status);
+            parsedLine = parsedLineColoredAndMarked;
+        }
+        final StringBuffer result = new StringBuffer(parsedLine);
+        if (!preformattedHtml)
+            result.append("<br/>\n");
+        return result.toString();
+    }
+
+    public void incrementCounter(final String status) {
+        final int currentVal = (Integer) statusCount.get(status);
+        statusCount.put(status, currentVal + 1);
+    }
+
+    public void incrementCounterPerSection(final String status, final int sectionNumber) {
+        final String key = LogParserUtils.getSectionCountKey(status, sectionNumber);
+        Integer currentValInteger = (Integer) statusCountPerSection.get(key);
+        // No value - entered yet - initialize with 0
+        if (currentValInteger == null) {
+            currentValInteger = new Integer(0);
+        }
+        final int newVal = currentValInteger + 1;
+        statusCountPerSection.put(key, newVal);
+    }
+
+    private String colorLine(final String line, final String status) {
+        String color = (String) displayConstants.getColorTable().get(status);
+        if (color == null) {
+            color = LogParserDisplayConsts.DEFAULT_COLOR;
+        }
+        final StringBuffer result = new StringBuffer("<span style=\"color:");
+        result.append(color);
+        result.append("\">");
+        result.append(line);
+        result.append("</span>");
+        return result.toString();
+    }
+
+    private String addMarkerAndLink(final String line, final String effectiveStatus,
+                                    final String status) throws IOException {
+        // Add marker
+        final String statusCountStr = ((Integer) statusCount.get(effectiveStatus)).toString();
+        final String marker = effectiveStatus + statusCountStr;
+
+        // Add link
+        final StringBuffer shortLink = new StringBuffer(
+                " <a target=\"content\" href=\"log_content.html#");
+        shortLink.append(marker);
+        shortLink.append("\">");
+        shortLink.append(line);
+        shortLink.append("</a>");
+
+        final StringBuffer link = new StringBuffer("<li>");
+        link.append(statusCountStr);
+        link.append(shortLink);
+        link.append("</li><br/>");
+
+        final BufferedWriter linkWriter = (BufferedWriter) writers.get(effectiveStatus);
+        linkWriter.write(link.toString());
+        linkWriter.newLine(); // Write system dependent end of line.
+
+        // Mark the line
+        final StringBuffer markedLine = new StringBuffer("<a name=\"");
+        markedLine.append(marker);
+        markedLine.append("\"></a>");
+        markedLine.append(line);
+
+        // Handle case where we are entering a new section
+        if (status.equals(LogParserConsts.START)) {
+            sectionCounter++;
+            // This enters a line which will later be replaced by the actual
+            // header and count for this header
+            writeHeaderTemplateToAllLinkFiles(writers, sectionCounter);
+
+            final StringBuffer brShortLink = new StringBuffer("<br/>");
+            brShortLink.append(shortLink);
+            headerForSection.add(brShortLink.toString());
+        }
+
+        return markedLine.toString();
+    }
+
+    // From LogParserWriter
+    private static void writeHeaderTemplateToAllLinkFiles(
+            final HashMap<String, BufferedWriter> writers, final int sectionCounter)
+            throws IOException {
+        final List<String> statuses = LogParserConsts.STATUSES_WITH_SECTIONS_IN_LINK_FILES;
+        final int statusesSize = statuses.size();
+        for (int i = 0; i < statusesSize; i++) {
+            final String currentStatus = (String) statuses.get(i);
+            final BufferedWriter linkWriter = (BufferedWriter) writers.get(currentStatus);
+            String str = "HEADER HERE: #NUMBER";
+            str = str.replaceFirst("NUMBER", ((Integer) sectionCounter).toString());
+            linkWriter.write(str + "\n");
+        }
+
+    }
+}
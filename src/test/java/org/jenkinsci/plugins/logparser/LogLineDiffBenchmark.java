@@ -0,0 +1,110 @@
+package org.jenkinsci.plugins.logparser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import difflib.Delta;
+import difflib.DiffUtils;
+import hudson.plugins.logparser.LogLineDiff;
+
+/**
+ * Compares the time to diff two logs with LogLineDiff and with
+ * DiffUtils.diff, for logs which differ a little and logs which differ a lot,
+ * and checks that the deltas of LogLineDiff turn the original log into the
+ * revised one. DiffUtils.diff is skipped past a number of lines, where it
+ * takes too long.
+ *
+ * Run with: java -cp ... org.jenkinsci.plugins.logparser.LogLineDiffBenchmark [lines] [myersLines]
+ */
+public class LogLineDiffBenchmark {
+
+    public static void main(final String[] args) throws Exception {
+        final int numLines = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        final int maxMyersLines = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+        for (int size = Math.min(10000, numLines);; size = Math.min(10 * size, numLines)) {
+            for (int changePercent : new int[] { 1, 30 }) {
+                final Random random = new Random(42);
+                final List<String> original = generateLog(random, size);
+                final List<String> revised = edit(random, original, changePercent);
+
+                long start = System.nanoTime();
+                final List<Delta> deltas = new LogLineDiff().diff(original, revised);
+                final long logLineNanos = System.nanoTime() - start;
+
+                final boolean same = revised.equals(apply(original, deltas));
+
+                String myers = "skipped";
+                if (size <= maxMyersLines) {
+                    start = System.nanoTime();
+                    final int myersDeltas = DiffUtils.diff(original, revised).getDeltas().size();
+                    myers = String.format("%d ms (%d deltas)",
+                            (System.nanoTime() - start) / 1000000, myersDeltas);
+                }
+
+                System.out.println(String.format(
+                        "%d lines, %d%% changed: LogLineDiff %d ms (%d deltas, same output: %b),"
+                                + " DiffUtils %s", size, changePercent, logLineNanos / 1000000,
+                        deltas.size(), same, myers));
+            }
+            if (size == numLines) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Apply the deltas in one pass, as Patch.applyTo edits the list in place
+     * for each delta.
+     */
+    private static List<Object> apply(final List<String> original, final List<Delta> deltas) {
+        final List<Object> result = new ArrayList<Object>(original.size());
+        int position = 0;
+        for (Delta delta : deltas) {
+            result.addAll(original.subList(position, delta.getOriginal().getPosition()));
+            result.addAll(delta.getRevised().getLines());
+            position = delta.getOriginal().getPosition() + delta.getOriginal().size();
+        }
+        result.addAll(original.subList(position, original.size()));
+        return result;
+    }
+
+    private static List<String> generateLog(final Random random, final int numLines) {
+        final List<String> lines = new ArrayList<String>(numLines);
+        for (int i = 0; i < numLines; i++) {
+            switch (random.nextInt(4)) {
+                case 0:
+                    lines.add("[INFO] ------------------------------------------------");
+                    break;
+                case 1:
+                    lines.add("[INFO] Compiling " + random.nextInt(100) + " source files");
+                    break;
+                case 2:
+                    lines.add("Downloading artifact-" + random.nextInt(1000000) + ".jar");
+                    break;
+                default:
+                    lines.add("Tests run: " + i + ", Failures: 0, Errors: 0, Skipped: 0");
+                    break;
+            }
+        }
+        return lines;
+    }
+
+    private static List<String> edit(final Random random, final List<String> original,
+            final int changePercent) {
+        final List<String> revised = new ArrayList<String>(original.size());
+        for (String line : original) {
+            if (random.nextInt(100) >= changePercent) {
+                revised.add(line);
+            } else if (random.nextBoolean()) {
+                revised.add("changed " + random.nextInt(1000000));
+            } else if (random.nextBoolean()) {
+                revised.add(line);
+                revised.add("inserted " + random.nextInt(1000000));
+            }
+        }
+        return revised;
+    }
+
+}
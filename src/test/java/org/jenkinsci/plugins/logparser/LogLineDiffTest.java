@@ -0,0 +1,130 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import difflib.ChangeDelta;
+import difflib.DeleteDelta;
+import difflib.Delta;
+import difflib.InsertDelta;
+import difflib.Patch;
+import hudson.plugins.logparser.LogLineDiff;
+import hudson.plugins.logparser.LogParserLineHashes;
+
+public class LogLineDiffTest {
+
+    private static List<?> apply(final List<String> original, final List<Delta> deltas)
+            throws Exception {
+        final Patch patch = new Patch();
+        for (Delta delta : deltas) {
+            patch.addDelta(delta);
+        }
+        return patch.applyTo(original);
+    }
+
+    @Test
+    public void testDeltaTypes() {
+        final List<String> original = Arrays.asList("first line", "second line", "third line",
+                "fourth line", "fifth line");
+        final List<String> revised = Arrays.asList("first line", "inserted line", "second line",
+                "fourth line", "changed line");
+
+        final List<Delta> deltas = new LogLineDiff().diff(original, revised);
+        assertEquals(3, deltas.size());
+        assertTrue(deltas.get(0) instanceof InsertDelta);
+        assertEquals(1, deltas.get(0).getOriginal().getPosition());
+        assertTrue(deltas.get(1) instanceof DeleteDelta);
+        assertEquals(2, deltas.get(1).getOriginal().getPosition());
+        assertTrue(deltas.get(2) instanceof ChangeDelta);
+        assertEquals(Arrays.asList("changed line"), deltas.get(2).getRevised().getLines());
+    }
+
+    @Test
+    public void testRandomEditsRoundTrip() throws Exception {
+        final Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            final List<String> original = new ArrayList<String>();
+            final int length = random.nextInt(300);
+            for (int i = 0; i < length; i++) {
+                // Few distinct lines, so that most of them repeat
+                original.add("line " + random.nextInt(round % 2 == 0 ? 5 : 1000));
+            }
+            final List<String> revised = new ArrayList<String>(original);
+            final int edits = random.nextInt(20);
+            for (int i = 0; i < edits; i++) {
+                final int position = revised.isEmpty() ? 0 : random.nextInt(revised.size());
+                if (random.nextBoolean() && !revised.isEmpty()) {
+                    revised.remove(position);
+                } else {
+                    revised.add(position, "edit " + random.nextInt(10));
+                }
+            }
+            for (int maxEditCost : new int[] { 0, 3, 1000 }) {
+                assertEquals(revised, apply(original, new LogLineDiff(maxEditCost).diff(original,
+                        revised)));
+            }
+        }
+    }
+
+    @Test
+    public void testEditCostCap() throws Exception {
+        // Only lines repeated too often to split on, so left to Myers
+        final List<String> original = new ArrayList<String>();
+        final List<String> revised = new ArrayList<String>();
+        for (int i = 0; i < 200; i++) {
+            original.add(i % 2 == 0 ? "a" : "b");
+            revised.add(i % 3 == 0 ? "a" : "b");
+        }
+
+        final List<Delta> capped = new LogLineDiff(0).diff(original, revised);
+        assertEquals(revised, apply(original, capped));
+        int changedLines = 0;
+        for (Delta delta : capped) {
+            changedLines += delta.getOriginal().size();
+        }
+        final List<Delta> searched = new LogLineDiff(1000).diff(original, revised);
+        assertEquals(revised, apply(original, searched));
+        int searchedChangedLines = 0;
+        for (Delta delta : searched) {
+            searchedChangedLines += delta.getOriginal().size();
+        }
+        assertTrue(searchedChangedLines < changedLines);
+    }
+
+    @Test
+    public void testHashedLines() throws Exception {
+        final LogParserLineHashes.Normalizer normalizer = new LogParserLineHashes.Normalizer(
+                LogParserLineHashes.DEFAULT_MASKS);
+        final List<String> original = Arrays.asList("10:00:01 Building module-1",
+                "Finished at: 2024-05-01T10:11:12+02:00", "[INFO] Total time: 12.345 s",
+                "commit 0123abcdef99");
+        final List<String> revised = Arrays.asList("11:30:59 Building module-1",
+                "[ERROR] inserted line", "Finished at: 2025-01-31T23:59:59+02:00",
+                "[INFO] Total time: 9.1 s", "commit fedcba987654");
+
+        final List<Delta> deltas = new LogLineDiff().diff(hashes(normalizer, original),
+                hashes(normalizer, revised), original, revised);
+        // Only the inserted line differs once masked
+        assertEquals(1, deltas.size());
+        assertTrue(deltas.get(0) instanceof InsertDelta);
+        assertEquals(1, deltas.get(0).getOriginal().getPosition());
+        assertEquals(Arrays.asList("[ERROR] inserted line"), deltas.get(0).getRevised().getLines());
+    }
+
+    private static long[] hashes(final LogParserLineHashes.Normalizer normalizer,
+            final List<String> lines) {
+        final long[] hashes = new long[lines.size()];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = normalizer.hashLine(lines.get(i));
+        }
+        return hashes;
+    }
+
+}
@@ -0,0 +1,76 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.model.FreeStyleBuild;
+import hudson.plugins.logparser.LogParserAction;
+
+public class LogParserActionTest {
+
+    // As saved by the releases which kept the whole result with the build
+    private static final String LEGACY_ACTION = ""
+            + "<hudson.plugins.logparser.LogParserAction plugin=\"log-parser@1.0.8\">\n"
+            + "  <build class=\"build\" reference=\"../../..\"/>\n"
+            + "  <result>\n"
+            + "    <totalErrors>2</totalErrors>\n"
+            + "    <totalWarnings>1</totalWarnings>\n"
+            + "    <totalInfos>4</totalInfos>\n"
+            + "    <totalDebugs>0</totalDebugs>\n"
+            + "    <totalCountsByExtraTag>\n"
+            + "      <entry><string>jenkins</string><int>3</int></entry>\n"
+            + "    </totalCountsByExtraTag>\n"
+            + "    <linkedFilesByExtraTag/>\n"
+            + "    <extraTags><string>jenkins</string></extraTags>\n"
+            + "    <parsedLogURL>job/legacy/1/parsed_console/log.html</parsedLogURL>\n"
+            + "    <htmlLogPath>legacy-log-parser</htmlLogPath>\n"
+            + "  </result>\n"
+            + "</hudson.plugins.logparser.LogParserAction>\n";
+
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+
+    private static String read(final File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testLegacyResultMovedOutOfBuild() throws Exception {
+        final FreeStyleBuild build = jenkinsRule.buildAndAssertSuccess(jenkinsRule
+                .createFreeStyleProject("legacy"));
+        final File buildXml = new File(build.getRootDir(), "build.xml");
+        final String xml = read(buildXml).replace("<actions/>", "<actions></actions>")
+                .replace("<actions>", "<actions>\n" + LEGACY_ACTION);
+        Files.write(buildXml.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+
+        build.reload();
+        LogParserAction action = build.getAction(LogParserAction.class);
+        assertEquals(2, action.getTotalErrors());
+        assertEquals(1, action.getTotalWarnings());
+        assertEquals(4, action.getTotalInfos());
+        assertEquals(Integer.valueOf(3), action.getTotals().get("jenkins"));
+        assertFalse(action.isParseFailed());
+        assertTrue(new File(build.getRootDir(), LogParserAction.RESULT_FILE_NAME).isFile());
+        assertFalse(read(buildXml).contains("<htmlLogPath>"));
+
+        // Loaded again, the counts come from the build and the rest from the
+        // file of the result
+        build.reload();
+        action = build.getAction(LogParserAction.class);
+        assertEquals(2, action.getTotalErrors());
+        assertEquals(Integer.valueOf(3), action.getTotals().get("jenkins"));
+        assertEquals("legacy-log-parser", action.getResult().getHtmlLogPath());
+        assertEquals(3, action.getResult().getTotalCountsByExtraTag("jenkins"));
+    }
+
+}
@@ -0,0 +1,101 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import hudson.plugins.logparser.LogParserArtifactServer;
+
+public class LogParserArtifactServerTest {
+
+    private static final long LENGTH = 1000;
+
+    private static final String ETAG = "\"3e8-5f5e100\"";
+
+    private static final long LAST_MODIFIED = 100000000L;
+
+    @Test
+    public void testRange() {
+        assertArrayEquals(new long[] { 0, 500 }, LogParserArtifactServer.parseRange("bytes=0-499",
+                LENGTH));
+        assertArrayEquals(new long[] { 500, 501 },
+                LogParserArtifactServer.parseRange("bytes= 500-500", LENGTH));
+        // The last byte position is cut to the length
+        assertArrayEquals(new long[] { 900, 1000 },
+                LogParserArtifactServer.parseRange("bytes=900-5000", LENGTH));
+    }
+
+    @Test
+    public void testOpenEndedRange() {
+        assertArrayEquals(new long[] { 400, 1000 }, LogParserArtifactServer.parseRange(
+                "bytes=400-", LENGTH));
+        assertArrayEquals(new long[] { 999, 1000 }, LogParserArtifactServer.parseRange(
+                "bytes=999-", LENGTH));
+    }
+
+    @Test
+    public void testSuffixRange() {
+        assertArrayEquals(new long[] { 900, 1000 }, LogParserArtifactServer.parseRange(
+                "bytes=-100", LENGTH));
+        // More than the whole artifact
+        assertArrayEquals(new long[] { 0, 1000 }, LogParserArtifactServer.parseRange(
+                "bytes=-5000", LENGTH));
+    }
+
+    @Test
+    public void testUnsatisfiableRange() {
+        assertSame(LogParserArtifactServer.UNSATISFIABLE,
+                LogParserArtifactServer.parseRange("bytes=1000-", LENGTH));
+        assertSame(LogParserArtifactServer.UNSATISFIABLE,
+                LogParserArtifactServer.parseRange("bytes=2000-3000", LENGTH));
+        assertSame(LogParserArtifactServer.UNSATISFIABLE,
+                LogParserArtifactServer.parseRange("bytes=-0", LENGTH));
+        assertSame(LogParserArtifactServer.UNSATISFIABLE,
+                LogParserArtifactServer.parseRange("bytes=-10", 0));
+    }
+
+    @Test
+    public void testWholeArtifact() {
+        assertNull(LogParserArtifactServer.parseRange(null, LENGTH));
+        // Several ranges are served as the whole artifact
+        assertNull(LogParserArtifactServer.parseRange("bytes=0-9,20-29", LENGTH));
+        assertNull(LogParserArtifactServer.parseRange("bytes=-10, 0-9", LENGTH));
+        // Ignored as invalid
+        assertNull(LogParserArtifactServer.parseRange("items=0-9", LENGTH));
+        assertNull(LogParserArtifactServer.parseRange("bytes=10-5", LENGTH));
+        assertNull(LogParserArtifactServer.parseRange("bytes=5", LENGTH));
+        assertNull(LogParserArtifactServer.parseRange("bytes=-", LENGTH));
+        assertNull(LogParserArtifactServer.parseRange("bytes=a-b", LENGTH));
+    }
+
+    @Test
+    public void testIfRange() {
+        assertEquals(true, LogParserArtifactServer.ifRange(null, -1, ETAG, LAST_MODIFIED));
+        assertEquals(true, LogParserArtifactServer.ifRange(ETAG, -1, ETAG, LAST_MODIFIED));
+        assertEquals(true, LogParserArtifactServer.ifRange(" " + ETAG + " ", -1, ETAG,
+                LAST_MODIFIED));
+        assertEquals(false, LogParserArtifactServer.ifRange("\"3e8-0\"", -1, ETAG,
+                LAST_MODIFIED));
+        // A weak ETag never matches
+        assertEquals(false, LogParserArtifactServer.ifRange("W/" + ETAG, -1, ETAG,
+                LAST_MODIFIED));
+    }
+
+    @Test
+    public void testIfRangeDate() {
+        final String date = "Fri, 02 Jan 1970 03:46:40 GMT";
+        // HTTP dates are to the second
+        assertEquals(true, LogParserArtifactServer.ifRange(date, 100000000L, ETAG,
+                LAST_MODIFIED + 999));
+        assertEquals(false, LogParserArtifactServer.ifRange(date, 100000000L, ETAG,
+                LAST_MODIFIED + 1000));
+        assertEquals(false, LogParserArtifactServer.ifRange(date, 99000000L, ETAG,
+                LAST_MODIFIED));
+        // Not a date
+        assertEquals(false, LogParserArtifactServer.ifRange("yesterday", -1, ETAG,
+                LAST_MODIFIED));
+    }
+}
@@ -0,0 +1,198 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.plugins.logparser.LogParserDiffCache;
+
+public class LogParserDiffCacheTest {
+
+    private static final String TYPE = "consoleLineDiff";
+
+    private static final String MAX_BYTES_PROPERTY = LogParserDiffCache.class.getName()
+            + ".maxBytes";
+
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+
+    private FreeStyleProject project;
+
+    private FreeStyleBuild first;
+
+    private FreeStyleBuild second;
+
+    @Before
+    public void setup() throws Exception {
+        project = jenkinsRule.createFreeStyleProject("diffs");
+        first = jenkinsRule.buildAndAssertSuccess(project);
+        second = jenkinsRule.buildAndAssertSuccess(project);
+    }
+
+    @After
+    public void clearProperty() {
+        System.clearProperty(MAX_BYTES_PROPERTY);
+    }
+
+    private static String html(final String text) {
+        final StringBuilder html = new StringBuilder("<table>");
+        for (int i = 0; i < 200; i++) {
+            html.append("<tr><td>").append(i).append(' ').append(text).append("</td></tr>\n");
+        }
+        return html.append("</table>\n").toString();
+    }
+
+    private File[] diffFiles() {
+        final File[] files = new File(project.getRootDir(), LogParserDiffCache.DIR_NAME)
+                .listFiles(new FilenameFilter() {
+                    public boolean accept(final File dir, final String name) {
+                        return name.endsWith(".html.gz");
+                    }
+                });
+        return files == null ? new File[0] : files;
+    }
+
+    private File newDiffFile(final List<File> known) {
+        for (File file : diffFiles()) {
+            if (!known.contains(file)) {
+                known.add(file);
+                return file;
+            }
+        }
+        throw new AssertionError("No diff saved");
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final String html = html("caf\u00e9 \u4e2d");
+        assertNull(LogParserDiffCache.get(first, second, TYPE, "a"));
+        LogParserDiffCache.put(first, second, TYPE, "a", html);
+        assertEquals(html, LogParserDiffCache.get(first, second, TYPE, "a"));
+
+        final StringWriter out = new StringWriter();
+        assertTrue(LogParserDiffCache.copy(first, second, TYPE, "a", out));
+        assertEquals(html, out.toString());
+
+        // Keyed by the builds, the type and the variant
+        assertNull(LogParserDiffCache.get(first, second, TYPE, "b"));
+        assertNull(LogParserDiffCache.get(first, second, TYPE, null));
+        assertNull(LogParserDiffCache.get(first, second, "logSectionDiff", "a"));
+        assertNull(LogParserDiffCache.get(second, first, TYPE, "a"));
+        assertFalse(LogParserDiffCache.copy(first, second, TYPE, "b", new StringWriter()));
+    }
+
+    @Test
+    public void testWriteThrough() throws Exception {
+        final String html = html("written through");
+        final StringWriter out = new StringWriter();
+        final LogParserDiffCache.DiffWriter writer = LogParserDiffCache.writeThrough(first,
+                second, TYPE, null, out);
+        try {
+            writer.write(html);
+            // Not saved before it is closed
+            assertNull(LogParserDiffCache.get(first, second, TYPE, null));
+            writer.close();
+        } finally {
+            writer.discard();
+        }
+        assertEquals(html, out.toString());
+        assertEquals(html, LogParserDiffCache.get(first, second, TYPE, null));
+
+        // Discarded, such as when the diff failed half way
+        final LogParserDiffCache.DiffWriter discarded = LogParserDiffCache.writeThrough(first,
+                second, TYPE, "discarded", new StringWriter());
+        discarded.write(html);
+        discarded.discard();
+        discarded.close();
+        assertNull(LogParserDiffCache.get(first, second, TYPE, "discarded"));
+        // Nor is anything left of it
+        assertEquals(1, new File(project.getRootDir(), LogParserDiffCache.DIR_NAME).list()
+                .length);
+    }
+
+    @Test
+    public void testNotSavedWhileBuilding() throws Exception {
+        final List<String> whileBuilding = new ArrayList<String>();
+        project.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(final AbstractBuild<?, ?> build, final Launcher launcher,
+                    final BuildListener listener) throws InterruptedException, IOException {
+                LogParserDiffCache.put(second, build, TYPE, null, html("running"));
+                whileBuilding.add(LogParserDiffCache.get(second, build, TYPE, null));
+                final StringWriter out = new StringWriter();
+                final LogParserDiffCache.DiffWriter writer = LogParserDiffCache.writeThrough(
+                        second, build, TYPE, "through", out);
+                writer.write("shown");
+                writer.close();
+                whileBuilding.add(out.toString());
+                return true;
+            }
+        });
+        final FreeStyleBuild third = jenkinsRule.buildAndAssertSuccess(project);
+
+        assertEquals(2, whileBuilding.size());
+        assertNull(whileBuilding.get(0));
+        // Shown all the same
+        assertEquals("shown", whileBuilding.get(1));
+        assertNull(LogParserDiffCache.get(second, third, TYPE, null));
+        assertNull(LogParserDiffCache.get(second, third, TYPE, "through"));
+        assertEquals(0, diffFiles().length);
+    }
+
+    @Test
+    public void testLeastRecentlyViewedEvicted() throws Exception {
+        final List<File> known = new ArrayList<File>();
+        final long now = System.currentTimeMillis();
+        LogParserDiffCache.put(first, second, TYPE, "a", html("a"));
+        final File fileA = newDiffFile(known);
+        fileA.setLastModified(now - 20000);
+        LogParserDiffCache.put(first, second, TYPE, "b", html("b"));
+        final File fileB = newDiffFile(known);
+        fileB.setLastModified(now - 10000);
+
+        // A diff being written is neither counted nor evicted
+        final LogParserDiffCache.DiffWriter writing = LogParserDiffCache.writeThrough(first,
+                second, TYPE, "writing", new StringWriter());
+        try {
+            writing.write(html("writing"));
+            writing.flush();
+
+            // Viewed again, a is kept and b is evicted in its place
+            assertEquals(html("a"), LogParserDiffCache.get(first, second, TYPE, "a"));
+            System.setProperty(MAX_BYTES_PROPERTY,
+                    Long.toString(fileA.length() + fileB.length() + fileA.length() / 2));
+            LogParserDiffCache.put(first, second, TYPE, "c", html("c"));
+            assertEquals(html("a"), LogParserDiffCache.get(first, second, TYPE, "a"));
+            assertNull(LogParserDiffCache.get(first, second, TYPE, "b"));
+            assertEquals(html("c"), LogParserDiffCache.get(first, second, TYPE, "c"));
+            assertEquals(2, diffFiles().length);
+
+            System.clearProperty(MAX_BYTES_PROPERTY);
+            writing.close();
+        } finally {
+            writing.discard();
+        }
+        assertEquals(html("writing"), LogParserDiffCache.get(first, second, TYPE, "writing"));
+    }
+
+}
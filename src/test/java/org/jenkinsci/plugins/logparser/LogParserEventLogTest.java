@@ -0,0 +1,234 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import hudson.plugins.logparser.LogParserConsts;
+import hudson.plugins.logparser.LogParserEventLog;
+import hudson.plugins.logparser.LogParserLineIndex;
+
+public class LogParserEventLogTest {
+
+    public static final List<String> TAGS = Arrays.asList(LogParserConsts.ERROR,
+            LogParserConsts.WARNING, LogParserConsts.INFO, "CUSTOM");
+
+    public static final int LINES = 5000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * The tag of a line of the test log, null if it has none.
+     */
+    static String tagOf(final int line) {
+        if (line % 5 == 0) {
+            return LogParserConsts.ERROR;
+        } else if (line % 7 == 0) {
+            return LogParserConsts.WARNING;
+        } else if (line % 400 == 1) {
+            return "CUSTOM";
+        }
+        return null;
+    }
+
+    static String textOf(final int line) {
+        if (line == 1500) {
+            // Longer than the buffers of the writer and of the reader
+            final char[] text = new char[100000];
+            Arrays.fill(text, '\u00e9');
+            return new String(text);
+        }
+        return "line " + line + " \u65e5\u672c <b>";
+    }
+
+    /**
+     * The records of the test log, as "tag ordinal line offset section text".
+     */
+    public static List<String> expected(final String tag, final int fromLine, final int toLine) {
+        final List<String> records = new ArrayList<String>();
+        final Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (int line = 0; line < LINES; line++) {
+            final String lineTag = tagOf(line);
+            if (lineTag == null) {
+                continue;
+            }
+            final int ordinal = counts.containsKey(lineTag) ? counts.get(lineTag) + 1 : 1;
+            counts.put(lineTag, ordinal);
+            if (line >= fromLine && line < toLine && (tag == null || tag.equals(lineTag))) {
+                records.add(lineTag + " " + ordinal + " " + line + " " + offsetOf(line) + " "
+                        + line / 100 + " " + textOf(line));
+            }
+        }
+        return records;
+    }
+
+    private static long offsetOf(final int line) {
+        // Past 32 bits
+        return line * 3000000L;
+    }
+
+    /**
+     * Record the lines of the test log from a line, with the event log
+     * offsets of the line index, the way LogParserParser does.
+     */
+    public static void write(final LogParserEventLog eventLog, final LogParserLineIndex lineIndex,
+            final int fromLine, final int toLine) throws Exception {
+        final Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (int line = 0; line < toLine; line++) {
+            final String tag = tagOf(line);
+            if (line >= fromLine && line % LogParserLineIndex.INTERVAL == 0 && lineIndex != null) {
+                lineIndex.lineStart(line, 0, counts, eventLog.getLength());
+            }
+            if (tag == null) {
+                continue;
+            }
+            final int ordinal = counts.containsKey(tag) ? counts.get(tag) + 1 : 1;
+            counts.put(tag, ordinal);
+            if (line >= fromLine) {
+                final char[] text = textOf(line).toCharArray();
+                eventLog.add(tag, ordinal, line, offsetOf(line), line / 100, text, text.length);
+            }
+        }
+        if (lineIndex != null) {
+            lineIndex.setEnd(toLine, 0);
+        }
+    }
+
+    public static List<String> read(final LogParserEventLog.Cursor cursor) throws Exception {
+        final List<String> records = new ArrayList<String>();
+        try {
+            while (cursor.next()) {
+                records.add(cursor.getTag() + " " + cursor.getOrdinal() + " " + cursor.getLine()
+                        + " " + cursor.getOffset() + " " + cursor.getSection() + " "
+                        + cursor.getText());
+            }
+            assertFalse(cursor.next());
+        } finally {
+            cursor.close();
+        }
+        return records;
+    }
+
+    private File newFile() {
+        return new File(folder.getRoot(), LogParserEventLog.FILE_NAME);
+    }
+
+    @Test
+    public void testWriteAndLoad() throws Exception {
+        final File file = newFile();
+        final LogParserEventLog written = new LogParserEventLog(file, TAGS);
+        written.open(0);
+        write(written, null, 0, LINES);
+        written.flush();
+        assertEquals(expected(LogParserConsts.ERROR, 0, LINES).size(),
+                written.getCount(LogParserConsts.ERROR));
+        // While written, through the offsets of each tag
+        assertEquals(expected(LogParserConsts.WARNING, 0, LINES),
+                read(written.openCursor(LogParserConsts.WARNING)));
+        written.close();
+
+        final LogParserEventLog loaded = LogParserEventLog.load(file);
+        assertNotNull(loaded);
+        assertEquals(TAGS, loaded.getTags());
+        assertEquals(file.length(), loaded.getFile().length());
+        assertEquals(expected(null, 0, LINES), read(loaded.openCursor(0, LINES, null)));
+    }
+
+    @Test
+    public void testTagCursor() throws Exception {
+        final File file = newFile();
+        final LogParserEventLog written = new LogParserEventLog(file, TAGS);
+        written.open(0);
+        write(written, null, 0, LINES);
+        written.close();
+
+        final LogParserEventLog loaded = LogParserEventLog.load(file);
+        for (final String tag : TAGS) {
+            assertEquals(tag, expected(tag, 0, LINES), read(loaded.openCursor(tag)));
+            assertEquals(tag, expected(tag, 0, LINES), read(written.openCursor(tag)));
+        }
+        assertEquals(new ArrayList<String>(), read(loaded.openCursor(LogParserConsts.DEBUG)));
+        assertEquals(new ArrayList<String>(), read(written.openCursor(LogParserConsts.DEBUG)));
+    }
+
+    @Test
+    public void testLineRangeCursor() throws Exception {
+        final File file = newFile();
+        final LogParserEventLog written = new LogParserEventLog(file, TAGS);
+        final LogParserLineIndex lineIndex = new LogParserLineIndex(TAGS, true);
+        written.open(0);
+        write(written, lineIndex, 0, LINES);
+        written.close();
+        final LogParserEventLog loaded = LogParserEventLog.load(file);
+
+        final int[][] ranges = { { 0, 10 }, { 1020, 1030 }, { 1024, 1025 }, { 1500, 3100 },
+                { 4990, LINES + 10 }, { LINES, LINES + 10 }, { 2000, 2000 } };
+        for (final int[] range : ranges) {
+            final String name = range[0] + "-" + range[1];
+            assertEquals(name, expected(null, range[0], range[1]),
+                    read(loaded.openCursor(range[0], range[1], lineIndex)));
+            assertEquals(name, expected(null, range[0], range[1]),
+                    read(loaded.openCursor(range[0], range[1], null)));
+            assertEquals(name, expected(LogParserConsts.WARNING, range[0], range[1]),
+                    read(loaded.openCursor(LogParserConsts.WARNING, range[0], range[1],
+                            lineIndex)));
+            assertEquals(name, expected(LogParserConsts.ERROR, range[0], range[1]),
+                    read(written.openCursor(LogParserConsts.ERROR, range[0], range[1],
+                            lineIndex)));
+        }
+        // Starts reading at the entry of the line, not at the start
+        assertEquals(true, lineIndex.getEventOffset(3000) > 0);
+    }
+
+    @Test
+    public void testResumeAfterTruncation() throws Exception {
+        final File once = new File(folder.newFolder(), LogParserEventLog.FILE_NAME);
+        final LogParserEventLog onceLog = new LogParserEventLog(once, TAGS);
+        onceLog.open(0);
+        write(onceLog, null, 0, LINES);
+        onceLog.close();
+
+        // Parsed up to a checkpoint, then further before stopping
+        final File file = newFile();
+        final LogParserEventLog first = new LogParserEventLog(file, TAGS);
+        first.open(0);
+        write(first, null, 0, 2000);
+        final long checkpoint = first.flush();
+        write(first, null, 2000, 2600);
+        first.close();
+
+        final LogParserEventLog resumed = new LogParserEventLog(file, TAGS);
+        resumed.open(checkpoint);
+        assertEquals(expected(LogParserConsts.ERROR, 0, 2000).size(),
+                resumed.getCount(LogParserConsts.ERROR));
+        write(resumed, null, 2000, LINES);
+        resumed.flush();
+        assertEquals(expected("CUSTOM", 0, LINES), read(resumed.openCursor("CUSTOM")));
+        resumed.close();
+
+        assertArrayEquals(Files.readAllBytes(once.toPath()), Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void testLoadMissing() throws Exception {
+        assertNull(LogParserEventLog.load(newFile()));
+        final File other = folder.newFile("other.bin");
+        Files.write(other.toPath(), new byte[] { 99 });
+        assertNull(LogParserEventLog.load(other));
+    }
+}
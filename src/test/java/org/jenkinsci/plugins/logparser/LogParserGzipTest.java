@@ -0,0 +1,139 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import hudson.plugins.logparser.LogParserGzip;
+
+public class LogParserGzipTest {
+
+    private static byte[] data(final Random random, final int length) {
+        // Text-like, so that it compresses
+        final byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (random.nextInt(8) == 0 ? '\n' : 'a' + random.nextInt(26));
+        }
+        return data;
+    }
+
+    private static byte[] concat(final byte[] first, final byte[] second) {
+        final byte[] both = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, both, first.length, second.length);
+        return both;
+    }
+
+    private static byte[] gunzip(final byte[] compressed) throws IOException {
+        final InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed));
+        try {
+            return IOUtils.toByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static long crc(final byte[] data) {
+        final CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    @Test
+    public void testWrite() throws Exception {
+        final byte[] data = data(new Random(1), 100000);
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        final LogParserGzip.Output out = new LogParserGzip.Output(compressed);
+        out.write(data, 0, 30000);
+        out.flush();
+        out.write(data[30000]);
+        out.write(data, 30001, data.length - 30001);
+        assertEquals(crc(data), out.getCrc());
+        assertEquals(data.length, out.getLength());
+        out.close();
+
+        assertArrayEquals(data, gunzip(compressed.toByteArray()));
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        new LogParserGzip.Output(compressed).close();
+
+        assertArrayEquals(new byte[0], gunzip(compressed.toByteArray()));
+    }
+
+    @Test
+    public void testResumeAfterTruncation() throws Exception {
+        final Random random = new Random(2);
+        final byte[] saved = data(random, 50000);
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        final LogParserGzip.Output out = new LogParserGzip.Output(compressed);
+        out.write(saved);
+        out.flush();
+        // The state a checkpoint keeps
+        final int flushedLength = compressed.size();
+        final long crc = out.getCrc();
+        final long length = out.getLength();
+        out.write(data(random, 20000));
+        out.close();
+
+        // Cut back to the flush, dropping what came after and the trailer
+        final ByteArrayOutputStream resumed = new ByteArrayOutputStream();
+        resumed.write(compressed.toByteArray(), 0, flushedLength);
+        final byte[] more = data(random, 70000);
+        final LogParserGzip.Output carryOn = new LogParserGzip.Output(resumed, crc, length);
+        carryOn.write(more);
+        carryOn.close();
+
+        assertArrayEquals(concat(saved, more), gunzip(resumed.toByteArray()));
+    }
+
+    @Test
+    public void testInflateFromFlush() throws Exception {
+        final Random random = new Random(3);
+        final byte[] first = data(random, 40000);
+        final byte[] second = data(random, 40000);
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        final LogParserGzip.Output out = new LogParserGzip.Output(compressed);
+        out.write(first);
+        out.flush();
+        final int secondStart = compressed.size();
+        out.write(second);
+        out.flush();
+        final int secondEnd = compressed.size();
+        out.write(data(random, 1000));
+        out.close();
+
+        // A part which ends at a flush, with no final block
+        final InputStream part = LogParserGzip.inflateFromFlush(new ByteArrayInputStream(
+                compressed.toByteArray(), secondStart, secondEnd - secondStart));
+        try {
+            assertArrayEquals(second, IOUtils.toByteArray(part));
+        } finally {
+            part.close();
+        }
+    }
+
+    @Test
+    public void testCombineCrc() {
+        final Random random = new Random(4);
+        for (int length : new int[] { 0, 1, 7, 1000, 65537 }) {
+            final byte[] first = data(random, random.nextInt(5000));
+            final byte[] second = data(random, length);
+            assertEquals(crc(concat(first, second)),
+                    LogParserGzip.combineCrc(crc(first), crc(second), second.length));
+        }
+    }
+
+}
@@ -0,0 +1,148 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import hudson.plugins.logparser.LogParserLineHashes;
+import hudson.plugins.logparser.LogParserLineReader;
+
+public class LogParserLineHashesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final LogParserLineHashes.Normalizer normalizer = new LogParserLineHashes.Normalizer(
+            LogParserLineHashes.DEFAULT_MASKS);
+
+    private static void append(final File log, final String text) throws IOException {
+        final OutputStream out = new FileOutputStream(log, true);
+        try {
+            out.write(text.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Write the file as a parse of the log as it is now does.
+     */
+    private void parse(final File log) throws IOException {
+        final LogParserLineHashes.Output output = LogParserLineHashes.Output.open(new File(
+                log.getParentFile(), LogParserLineHashes.FILE_NAME), normalizer, 0);
+        final LogParserLineReader reader = new LogParserLineReader(
+                new FileInputStream(log), 0, Charset.defaultCharset());
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.add(normalizer.hashLine(line), reader.getLineStart());
+            }
+        } finally {
+            reader.close();
+        }
+        output.close(log.length());
+    }
+
+    private long[] hashes(final List<String> lines) {
+        final long[] hashes = new long[lines.size()];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = normalizer.hashLine(lines.get(i));
+        }
+        return hashes;
+    }
+
+    private void assertCovers(final File log, final List<String> lines) throws IOException {
+        final LogParserLineHashes hashes = LogParserLineHashes.forLog(log, false, normalizer);
+        try {
+            assertEquals(lines, hashes.getLines());
+            assertArrayEquals(hashes(lines), hashes.getHashes());
+        } finally {
+            hashes.close();
+        }
+    }
+
+    @Test
+    public void testMaskedLinesMatch() {
+        assertEquals(normalizer.hashLine("[INFO] Total time: 12.345 s"),
+                normalizer.hashLine("[INFO] Total time: 9.1 s"));
+        assertEquals(normalizer.hashLine("Finished at: 2024-05-01T10:11:12+02:00"),
+                normalizer.hashLine("Finished at: 2025-01-31T23:59:59+02:00"));
+        assertEquals(normalizer.hashLine("commit 0123abcdef99"),
+                normalizer.hashLine("commit fedcba987654"));
+        assertNotEquals(normalizer.hashLine("a"), normalizer.hashLine("b"));
+    }
+
+    @Test
+    public void testLogGrownAfterParse() throws Exception {
+        final File log = folder.newFile("log");
+        append(log, "first line\r\nsecond line\nunfinished");
+        parse(log);
+        // Marks the hash of the first line, to tell whether it is hashed again
+        final RandomAccessFile file = new RandomAccessFile(new File(log.getParentFile(),
+                LogParserLineHashes.FILE_NAME), "rw");
+        try {
+            file.seek(file.length() - 3 * LogParserLineHashes.RECORD_LENGTH);
+            file.writeLong(42);
+        } finally {
+            file.close();
+        }
+
+        // Logged by Jenkins once the publishers are done
+        append(log, " line\r\nFinished: SUCCESS\n");
+        final List<String> lines = Arrays.asList("first line", "second line", "unfinished line",
+                "Finished: SUCCESS");
+        final long[] expected = hashes(lines);
+        expected[0] = 42;
+        for (int i = 0; i < 2; i++) {
+            final LogParserLineHashes hashes = LogParserLineHashes.forLog(log, false, normalizer);
+            try {
+                assertEquals(lines, hashes.getLines());
+                // Only the lines from the last one parsed on are hashed
+                assertArrayEquals(expected, hashes.getHashes());
+            } finally {
+                hashes.close();
+            }
+        }
+    }
+
+    @Test
+    public void testLineEndSplitAtParse() throws Exception {
+        final File log = folder.newFile("log");
+        append(log, "first line\r");
+        parse(log);
+
+        append(log, "\nsecond line\n");
+        assertCovers(log, Arrays.asList("first line", "second line"));
+    }
+
+    @Test
+    public void testOtherMasksHashAgain() throws Exception {
+        final File log = folder.newFile("log");
+        append(log, "built in 5 ms\n");
+        parse(log);
+
+        final LogParserLineHashes.Normalizer unmasked = new LogParserLineHashes.Normalizer("");
+        final LogParserLineHashes hashes = LogParserLineHashes.forLog(log, false, unmasked);
+        try {
+            assertArrayEquals(new long[] { unmasked.hashLine("built in 5 ms") },
+                    hashes.getHashes());
+        } finally {
+            hashes.close();
+        }
+    }
+
+}
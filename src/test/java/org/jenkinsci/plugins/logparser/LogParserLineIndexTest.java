@@ -0,0 +1,187 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import hudson.plugins.logparser.LogParserConsts;
+import hudson.plugins.logparser.LogParserGzip;
+import hudson.plugins.logparser.LogParserLineIndex;
+
+public class LogParserLineIndexTest {
+
+    private static final List<String> STATUSES = Arrays.asList(LogParserConsts.ERROR,
+            LogParserConsts.WARNING, LogParserConsts.INFO);
+
+    private static final int LINES = 3000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** The rendered lines of the last parsed log written, with their line ends */
+    private final List<String> rendered = new ArrayList<String>();
+
+    private final List<String> errorAnchors = new ArrayList<String>();
+
+    /**
+     * Write a parsed log the way LogParserParser does, with an error every 7
+     * lines and a warning every 11, indexing it as it is written.
+     */
+    private LogParserLineIndex write(final File content, final boolean preformattedHtml)
+            throws IOException {
+        final LogParserLineIndex index = new LogParserLineIndex(STATUSES, preformattedHtml);
+        final CountingOutputStream counter = new CountingOutputStream(new FileOutputStream(content));
+        final OutputStream out = LogParserGzip.isCompressed(content.getPath())
+                ? new LogParserGzip.Output(counter) : counter;
+        final Writer writer = new OutputStreamWriter(out, Charset.defaultCharset());
+        final Map<String, Integer> statusCount = new HashMap<String, Integer>();
+        writer.write("<html>\n<body>\n");
+        if (preformattedHtml) {
+            writer.write("<pre>");
+        }
+        for (int line = 0; line < LINES; line++) {
+            if (line % LogParserLineIndex.INTERVAL == 0) {
+                writer.flush();
+                index.lineStart(line, counter.getByteCount(), statusCount, 10L * line);
+            }
+            final String status = line % 7 == 0 ? LogParserConsts.ERROR
+                    : line % 11 == 0 ? LogParserConsts.WARNING : null;
+            final StringBuilder text = new StringBuilder();
+            if (status != null) {
+                final Integer count = statusCount.get(status);
+                statusCount.put(status, count == null ? 1 : count + 1);
+                final String anchor = status + statusCount.get(status);
+                if (status.equals(LogParserConsts.ERROR)) {
+                    errorAnchors.add(anchor);
+                }
+                text.append("<a name=\"").append(anchor).append("\"></a>");
+            }
+            text.append("line ").append(line).append(" a&lt;b");
+            if (!preformattedHtml) {
+                text.append("<br/>\n");
+            }
+            text.append('\n');
+            rendered.add(text.toString());
+            writer.write(text.toString());
+        }
+        writer.flush();
+        index.setEnd(LINES, counter.getByteCount());
+        writer.write(preformattedHtml ? "</pre></body></html>\n" : "</body></html>\n");
+        writer.close();
+        return index;
+    }
+
+    private String expected(final int from, final int count) {
+        final StringBuilder lines = new StringBuilder();
+        for (int line = from; line < Math.min(LINES, from + count); line++) {
+            lines.append(rendered.get(line));
+        }
+        return lines.toString();
+    }
+
+    private static String copy(final LogParserLineIndex index, final File content,
+            final int from, final int count) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        index.copyLines(content, from, count, out);
+        return out.toString(Charset.defaultCharset().name());
+    }
+
+    private void checkCopyLines(final String name, final boolean preformattedHtml)
+            throws IOException {
+        final File content = folder.newFile(name);
+        final LogParserLineIndex index = write(content, preformattedHtml);
+        final int[][] windows = { { 0, 10 }, { 1020, 10 }, { 1023, 1 }, { 1024, 1 },
+                { 1000, 1100 }, { 2047, 2 }, { 2990, 100 }, { 0, LINES }, { LINES - 1, 1 } };
+        for (final int[] window : windows) {
+            assertEquals(window[0] + "+" + window[1], expected(window[0], window[1]),
+                    copy(index, content, window[0], window[1]));
+        }
+        assertEquals("", copy(index, content, LINES, 10));
+        assertEquals("", copy(index, content, 5, 0));
+    }
+
+    @Test
+    public void testCopyLinesPreformatted() throws Exception {
+        checkCopyLines("log_content.html", true);
+    }
+
+    @Test
+    public void testCopyLines() throws Exception {
+        checkCopyLines("log_content.html", false);
+    }
+
+    @Test
+    public void testCopyLinesCompressed() throws Exception {
+        checkCopyLines("log_content.html" + LogParserGzip.SUFFIX, false);
+    }
+
+    @Test
+    public void testCopyLinesCompressedPreformatted() throws Exception {
+        checkCopyLines("log_content.html" + LogParserGzip.SUFFIX, true);
+    }
+
+    private void checkFindAnchor(final String name, final boolean preformattedHtml)
+            throws IOException {
+        final File content = folder.newFile(name);
+        final LogParserLineIndex index = write(content, preformattedHtml);
+        // Every 7th line, so in the first entry as well as the last one
+        for (int i = 0; i < errorAnchors.size(); i++) {
+            assertEquals(7 * i, index.findAnchor(content, errorAnchors.get(i)));
+        }
+        assertEquals(11, index.findAnchor(content, "WARNING1"));
+
+        assertEquals(-1, index.findAnchor(content, "ERROR" + (errorAnchors.size() + 1)));
+        assertEquals(-1, index.findAnchor(content, "ERROR0"));
+        assertEquals(-1, index.findAnchor(content, "ERROR"));
+        assertEquals(-1, index.findAnchor(content, "ERRORx"));
+        assertEquals(-1, index.findAnchor(content, "DEBUG1"));
+    }
+
+    @Test
+    public void testFindAnchorPreformatted() throws Exception {
+        checkFindAnchor("log_content.html", true);
+    }
+
+    @Test
+    public void testFindAnchor() throws Exception {
+        checkFindAnchor("log_content.html", false);
+    }
+
+    @Test
+    public void testFindAnchorCompressed() throws Exception {
+        checkFindAnchor("log_content.html" + LogParserGzip.SUFFIX, false);
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        final File content = folder.newFile("log_content.html" + LogParserGzip.SUFFIX);
+        final File file = new File(folder.getRoot(), LogParserLineIndex.FILE_NAME);
+        write(content, true).save(file);
+        final LogParserLineIndex index = LogParserLineIndex.load(file);
+
+        assertNotNull(index);
+        assertEquals(true, index.isPreformattedHtml());
+        assertEquals(LINES, index.getLineCount());
+        assertEquals(10L * 2048, index.getEventOffset(2500));
+        assertEquals(expected(1000, 100), copy(index, content, 1000, 100));
+        assertEquals(7 * 300, index.findAnchor(content, "ERROR301"));
+    }
+}
@@ -0,0 +1,126 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import hudson.plugins.logparser.CompiledRuleSet;
+import hudson.plugins.logparser.LogParserConsts;
+import hudson.plugins.logparser.LogParserLineReader;
+import hudson.plugins.logparser.LogParserPipeline;
+import hudson.plugins.logparser.LogParserUtils;
+
+public class LogParserPipelineTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static CompiledRuleSet ruleSet() {
+        return LogParserUtils.compilePatterns(new String[] { "error /ERROR/" },
+                Logger.getLogger(LogParserPipelineTest.class.getName())).getRuleSet();
+    }
+
+    private static String log(final int numLines) {
+        final StringBuilder log = new StringBuilder();
+        for (int i = 0; i < numLines; i++) {
+            log.append(i % 7 == 0 ? "ERROR " + i : "line " + i).append('\n');
+        }
+        return log.toString();
+    }
+
+    private static LogParserLineReader reader(final InputStream in) {
+        return new LogParserLineReader(in, 0, Charset.forName("UTF-8"));
+    }
+
+    private static final class CountingHandler implements LogParserPipeline.LineHandler {
+        private int lines;
+        private int errors;
+
+        public void handleLine(final String line, final long offset, final String status,
+                final long hash) {
+            assertEquals(lines % 7 == 0 ? "ERROR " + lines : "line " + lines, line);
+            if (LogParserConsts.ERROR.equals(status)) {
+                errors++;
+            }
+            lines++;
+        }
+    }
+
+    @Test
+    public void testLinesInOrder() throws Exception {
+        final CountingHandler handler = new CountingHandler();
+        final int lineCount = new LogParserPipeline(ruleSet(), null, executor, 100, 4).run(
+                reader(new ByteArrayInputStream(log(2503).getBytes("UTF-8"))), handler);
+
+        assertEquals(2503, lineCount);
+        assertEquals(2503, handler.lines);
+        assertEquals(358, handler.errors);
+    }
+
+    @Test(timeout = 10000)
+    public void testReaderFailureDoesNotHang() throws Exception {
+        // Fails once the first chunks are read
+        final InputStream failing = new InputStream() {
+            @Override
+            public int read() {
+                throw new IllegalStateException("broken log");
+            }
+        };
+        final InputStream in = new SequenceInputStream(new ByteArrayInputStream(log(1000)
+                .getBytes("UTF-8")), failing);
+        try {
+            new LogParserPipeline(ruleSet(), null, executor, 100, 2).run(reader(in),
+                    new CountingHandler());
+            fail("the failure of the reader was not reported");
+        } catch (IllegalStateException e) {
+            assertEquals("broken log", e.getMessage());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testRejectedChunkDoesNotHang() throws Exception {
+        executor.shutdown();
+        try {
+            new LogParserPipeline(ruleSet(), null, executor, 100, 2).run(
+                    reader(new ByteArrayInputStream(log(1000).getBytes("UTF-8"))),
+                    new CountingHandler());
+            fail("the rejected chunk was not reported");
+        } catch (RejectedExecutionException e) {
+            // Expected
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testIOExceptionOfReader() throws Exception {
+        final InputStream failing = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("unreadable log");
+            }
+        };
+        try {
+            new LogParserPipeline(ruleSet(), null, executor, 100, 2).run(reader(failing),
+                    new CountingHandler());
+            fail("the failure of the reader was not reported");
+        } catch (IOException e) {
+            assertEquals("unreadable log", e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,89 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import hudson.plugins.logparser.LogParserConsts;
+import hudson.plugins.logparser.LogParserEventLog;
+import hudson.plugins.logparser.LogParserLineIndex;
+import hudson.plugins.logparser.LogParserResult;
+
+public class LogParserResultTest {
+
+    private static final int LINES = LogParserEventLogTest.LINES;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LogParserResult parsed(final boolean indexed) throws Exception {
+        final File dir = folder.getRoot();
+        final LogParserEventLog eventLog = new LogParserEventLog(new File(dir,
+                LogParserEventLog.FILE_NAME), LogParserEventLogTest.TAGS);
+        final LogParserLineIndex lineIndex = new LogParserLineIndex(
+                LogParserEventLogTest.TAGS, false);
+        eventLog.open(0);
+        LogParserEventLogTest.write(eventLog, lineIndex, 0, LINES);
+        eventLog.close();
+        if (indexed) {
+            lineIndex.save(new File(dir, LogParserLineIndex.FILE_NAME));
+        }
+
+        final LogParserResult result = new LogParserResult();
+        result.setHtmlLogPath(dir.getPath());
+        return result;
+    }
+
+    @Test
+    public void testOpenEventsOfTag() throws Exception {
+        final LogParserResult result = parsed(true);
+        for (final String tag : LogParserEventLogTest.TAGS) {
+            assertEquals(tag, LogParserEventLogTest.expected(tag, 0, LINES),
+                    LogParserEventLogTest.read(result.openEvents(tag)));
+        }
+        assertEquals(0, LogParserEventLogTest.read(result.openEvents(LogParserConsts.DEBUG))
+                .size());
+    }
+
+    private void checkOpenEventsOfLines(final LogParserResult result) throws Exception {
+        final int[][] ranges = { { 0, LINES }, { 1023, 1025 }, { 2100, 4200 },
+                { LINES, 2 * LINES } };
+        for (final int[] range : ranges) {
+            assertEquals(range[0] + "-" + range[1],
+                    LogParserEventLogTest.expected(null, range[0], range[1]),
+                    LogParserEventLogTest.read(result.openEvents(range[0], range[1])));
+            assertEquals(range[0] + "-" + range[1],
+                    LogParserEventLogTest.expected(LogParserConsts.ERROR, range[0], range[1]),
+                    LogParserEventLogTest.read(result.openEvents(LogParserConsts.ERROR,
+                            range[0], range[1])));
+        }
+    }
+
+    @Test
+    public void testOpenEventsOfLines() throws Exception {
+        checkOpenEventsOfLines(parsed(true));
+    }
+
+    @Test
+    public void testOpenEventsOfLinesWithoutIndex() throws Exception {
+        checkOpenEventsOfLines(parsed(false));
+    }
+
+    @Test
+    public void testOpenEventsNotRecorded() throws Exception {
+        final LogParserResult notParsed = new LogParserResult();
+        assertNull(notParsed.getEventLogFile());
+        assertNull(notParsed.openEvents(LogParserConsts.ERROR));
+        assertNull(notParsed.openEvents(0, 10));
+
+        final LogParserResult parsedBefore = new LogParserResult();
+        parsedBefore.setHtmlLogPath(folder.getRoot().getPath());
+        assertNull(parsedBefore.openEvents(LogParserConsts.ERROR));
+        assertNull(parsedBefore.openEvents(LogParserConsts.ERROR, 0, 10));
+    }
+}
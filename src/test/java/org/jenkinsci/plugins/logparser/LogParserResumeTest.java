@@ -0,0 +1,159 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.FilePath;
+import hudson.model.FreeStyleBuild;
+import hudson.model.Run;
+import hudson.plugins.logparser.LogParserCheckpoint;
+import hudson.plugins.logparser.LogParserEventLog;
+import hudson.plugins.logparser.LogParserLineIndex;
+import hudson.plugins.logparser.LogParserParser;
+import hudson.plugins.logparser.LogParserResult;
+
+/**
+ * Parses a log as it grows, resuming from the checkpoint each time, and
+ * checks that the result is the same as parsing the whole log at once.
+ */
+public class LogParserResumeTest {
+
+    private static final String RULES = "error /ERROR/\nwarning /WARN/\ninfo /INFO/\nstart /^===/\n";
+
+    private static final String[] ARTIFACTS = { "log_content.html", "log_ref.html",
+            LogParserEventLog.FILE_NAME, LogParserLineIndex.FILE_NAME };
+
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FreeStyleBuild build;
+
+    private File rulesFile;
+
+    @Before
+    public void setup() throws Exception {
+        build = jenkinsRule.buildAndAssertSuccess(jenkinsRule.createFreeStyleProject());
+        rulesFile = folder.newFile("rules.txt");
+        Files.write(rulesFile.toPath(), RULES.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] log() {
+        final String[] lines = { "ERROR a<b", "WARN y", "INFO z", "=== section", "plain", "" };
+        final String[] lineEnds = { "\n", "\r\n", "\r" };
+        final Random random = new Random(3);
+        final StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            log.append(lines[random.nextInt(lines.length)]);
+            log.append(lineEnds[random.nextInt(lineEnds.length)]);
+        }
+        // No line end yet
+        log.append("ERROR tail");
+        return log.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private LogParserResult parse(final boolean streaming)
+            throws IOException, InterruptedException {
+        final LogParserParser parser = new LogParserParser(new FilePath(rulesFile), false,
+                jenkinsRule.jenkins.getChannel());
+        parser.setStreaming(streaming);
+        return parser.parseLog((Run<?, ?>) build);
+    }
+
+    private LogParserResult parseGrowing(final byte[] log, final int[] cuts,
+            final boolean streaming) throws IOException, InterruptedException {
+        final File logFile = build.getLogFile();
+        Files.write(logFile.toPath(), new byte[0]);
+        LogParserResult result = null;
+        int written = 0;
+        for (final int cut : cuts) {
+            final FileOutputStream out = new FileOutputStream(logFile, true);
+            try {
+                out.write(log, written, cut - written);
+            } finally {
+                out.close();
+            }
+            written = cut;
+            result = parse(streaming);
+        }
+        return result;
+    }
+
+    private byte[][] artifacts() throws IOException {
+        final File dir = build.getLogFile().getParentFile();
+        final byte[][] artifacts = new byte[ARTIFACTS.length][];
+        for (int i = 0; i < ARTIFACTS.length; i++) {
+            artifacts[i] = Files.readAllBytes(new File(dir, ARTIFACTS[i]).toPath());
+        }
+        return artifacts;
+    }
+
+    private void checkResumed(final int[] cuts, final boolean streaming) throws Exception {
+        final byte[] log = log();
+        final LogParserResult resumed = parseGrowing(log, cuts, streaming);
+        final byte[][] resumedArtifacts = artifacts();
+
+        // Parse the whole log again, from scratch
+        final File checkpoint = new File(build.getLogFile().getParentFile(),
+                LogParserCheckpoint.FILE_NAME);
+        assertTrue(checkpoint.delete());
+        final LogParserResult once = parse(false);
+
+        assertEquals(once.getTotalErrors(), resumed.getTotalErrors());
+        assertEquals(once.getTotalWarnings(), resumed.getTotalWarnings());
+        assertEquals(once.getTotalInfos(), resumed.getTotalInfos());
+        assertEquals(once.getTotalDebugs(), resumed.getTotalDebugs());
+        final byte[][] onceArtifacts = artifacts();
+        for (int i = 0; i < ARTIFACTS.length; i++) {
+            assertArrayEquals(ARTIFACTS[i], onceArtifacts[i], resumedArtifacts[i]);
+        }
+    }
+
+    private static int after(final byte[] log, final String text, final int from) {
+        return new String(log, StandardCharsets.ISO_8859_1).indexOf(text, from) + text.length();
+    }
+
+    /**
+     * Parses up to a line end, then within a line.
+     */
+    @Test
+    public void testResumeWithinLine() throws Exception {
+        final byte[] log = log();
+        final int lineEnd = after(log, "\n", log.length / 3);
+        checkResumed(new int[] { lineEnd, lineEnd + 3, log.length / 2, log.length }, false);
+    }
+
+    /**
+     * Parses up to the "\r" of a "\r\n", so that the "\n" comes with the next
+     * parse.
+     */
+    @Test
+    public void testResumeWithinLineEnd() throws Exception {
+        final byte[] log = log();
+        final int cr = after(log, "\r\n", log.length / 2) - 1;
+        checkResumed(new int[] { cr, log.length }, true);
+        checkResumed(new int[] { log.length / 4, cr, cr + 1, log.length }, false);
+    }
+
+    @Test
+    public void testResumeWithNothingNew() throws Exception {
+        final byte[] log = log();
+        checkResumed(new int[] { log.length / 2, log.length / 2, log.length }, true);
+    }
+}
@@ -0,0 +1,160 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.FilePath;
+import hudson.plugins.logparser.CompiledRuleSet;
+import hudson.plugins.logparser.LogParserParser;
+
+/**
+ * Checks when the parsers of a rules file share its compiled rules and when they are compiled
+ * again.
+ */
+public class LogParserRuleCacheTest {
+
+    private static final String RULES = "error /ERROR/\nwarning /WARN/\ninfo /^INFO/\n";
+
+    // The rule sets cached at most, see LogParserRuleCache.MAX_RULE_SETS
+    private static final int MAX_RULE_SETS = 32;
+
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File rulesFile(final String rules) throws Exception {
+        final File file = folder.newFile();
+        Files.write(file.toPath(), rules.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static CompiledRuleSet ruleSet(final FilePath rulesFile) throws Exception {
+        return new LogParserParser(rulesFile, false, null).getRuleSet();
+    }
+
+    private static CompiledRuleSet ruleSet(final File rulesFile) throws Exception {
+        return ruleSet(new FilePath(rulesFile));
+    }
+
+    @Test
+    public void testSharedWhileUnchanged() throws Exception {
+        final File file = rulesFile(RULES);
+        final CompiledRuleSet ruleSet = ruleSet(file);
+        assertSame(ruleSet, ruleSet(file));
+        assertSame(ruleSet, ruleSet(file));
+    }
+
+    @Test
+    public void testSharedWhenTouched() throws Exception {
+        final File file = rulesFile(RULES);
+        final CompiledRuleSet ruleSet = ruleSet(file);
+        file.setLastModified(file.lastModified() + 10000);
+        assertSame(ruleSet, ruleSet(file));
+        assertSame(ruleSet, ruleSet(file));
+    }
+
+    @Test
+    public void testCompiledAgainWhenChanged() throws Exception {
+        final File file = rulesFile(RULES);
+        final CompiledRuleSet ruleSet = ruleSet(file);
+        final long lastModified = file.lastModified();
+        // Same length
+        Files.write(file.toPath(), RULES.replace("WARN", "FAIL").getBytes(StandardCharsets.UTF_8));
+        file.setLastModified(lastModified + 10000);
+        final CompiledRuleSet changed = ruleSet(file);
+        assertNotSame(ruleSet, changed);
+        assertEquals("warning /FAIL/", changed.getRule(1));
+        assertSame(changed, ruleSet(file));
+    }
+
+    @Test
+    public void testKeyedByPathAndChannel() throws Exception {
+        final File file = rulesFile(RULES);
+        final File copy = rulesFile(RULES);
+        final CompiledRuleSet ruleSet = ruleSet(file);
+        assertNotSame(ruleSet, ruleSet(copy));
+        final FilePath onChannel = new FilePath(jenkinsRule.jenkins.getChannel(),
+                file.getAbsolutePath());
+        final CompiledRuleSet channelRuleSet = ruleSet(onChannel);
+        assertNotSame(ruleSet, channelRuleSet);
+        assertSame(channelRuleSet, ruleSet(onChannel));
+        assertSame(ruleSet, ruleSet(file));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedDropped() throws Exception {
+        final File[] files = new File[MAX_RULE_SETS + 1];
+        final CompiledRuleSet[] ruleSets = new CompiledRuleSet[files.length];
+        for (int i = 0; i < MAX_RULE_SETS; i++) {
+            files[i] = rulesFile(RULES);
+            ruleSets[i] = ruleSet(files[i]);
+        }
+        // Used again, the first is kept and the second is dropped instead
+        assertSame(ruleSets[0], ruleSet(files[0]));
+        files[MAX_RULE_SETS] = rulesFile(RULES);
+        ruleSets[MAX_RULE_SETS] = ruleSet(files[MAX_RULE_SETS]);
+        assertSame(ruleSets[0], ruleSet(files[0]));
+        assertNotSame(ruleSets[1], ruleSet(files[1]));
+    }
+
+    @Test
+    public void testSharedByConcurrentClassifiers() throws Exception {
+        final File file = rulesFile(RULES);
+        final CompiledRuleSet ruleSet = ruleSet(file);
+        final List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < 5000; i++) {
+            lines.add(Arrays.asList("ERROR " + i, "a WARN " + i, "INFO " + i, "not INFO " + i,
+                    "plain " + i).get(i % 5));
+        }
+        final CompiledRuleSet.Classifier sequential = ruleSet.newClassifier();
+        final List<String> expected = new ArrayList<String>();
+        for (String line : lines) {
+            expected.add(sequential.classify(line));
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<List<String>>> futures = new ArrayList<Future<List<String>>>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(new Callable<List<String>>() {
+                    public List<String> call() throws Exception {
+                        // Each build classifies with its own classifier of the shared rules
+                        final CompiledRuleSet.Classifier classifier = ruleSet(file)
+                                .newClassifier();
+                        final List<String> statuses = new ArrayList<String>();
+                        for (String line : lines) {
+                            statuses.add(classifier.classify(line));
+                        }
+                        return statuses;
+                    }
+                }));
+            }
+            for (Future<List<String>> future : futures) {
+                assertEquals(expected, future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertSame(ruleSet, ruleSet(file));
+    }
+
+}
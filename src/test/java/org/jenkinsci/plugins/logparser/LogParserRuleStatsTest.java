@@ -0,0 +1,106 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.FilePath;
+import hudson.model.FreeStyleBuild;
+import hudson.model.Run;
+import hudson.plugins.logparser.CompiledRuleSet;
+import hudson.plugins.logparser.LogParserCheckpoint;
+import hudson.plugins.logparser.LogParserConsts;
+import hudson.plugins.logparser.LogParserParser;
+import hudson.plugins.logparser.LogParserResult;
+
+/**
+ * Checks the counts of the rules written to log_rule_stats.json by a parse.
+ */
+public class LogParserRuleStatsTest {
+
+    private static final String RULES = "error /ERROR/\nwarning /WARN/\ninfo /^INFO/\n";
+
+    private static final String LOG = "ERROR one\nWARN two\nplain\nINFO three\nERROR WARN four\n"
+            + "warn lower case\nan INFO not first\nWARN five\nERROR six\n";
+
+    // Evaluations and matches of each rule: the regular expression of a rule
+    // only runs on the lines not matched yet which contain its literal
+    private static final long[][] EXPECTED = { { 3, 3 }, { 2, 2 }, { 2, 1 } };
+
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FreeStyleBuild build;
+
+    private File rulesFile;
+
+    @Before
+    public void setup() throws Exception {
+        build = jenkinsRule.buildAndAssertSuccess(jenkinsRule.createFreeStyleProject());
+        Files.write(build.getLogFile().toPath(), LOG.getBytes(StandardCharsets.UTF_8));
+        rulesFile = folder.newFile("rules.txt");
+        Files.write(rulesFile.toPath(), RULES.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void clearProperty() {
+        System.clearProperty(CompiledRuleSet.TIME_RULES_PROPERTY);
+    }
+
+    private JSONObject parse(final boolean streaming) throws Exception {
+        // From the start of the log, rather than resuming after the last parse
+        new File(build.getLogFile().getParentFile(), LogParserCheckpoint.FILE_NAME).delete();
+        final LogParserParser parser = new LogParserParser(new FilePath(rulesFile), false,
+                jenkinsRule.jenkins.getChannel());
+        parser.setStreaming(streaming);
+        final LogParserResult result = parser.parseLog((Run<?, ?>) build);
+        final File stats = new File(result.getHtmlLogPath(), LogParserConsts.RULE_STATS_FILE);
+        return JSONObject.fromObject(new String(Files.readAllBytes(stats.toPath()),
+                StandardCharsets.UTF_8));
+    }
+
+    private static void assertCounts(final JSONObject stats, final boolean timed) {
+        assertEquals(9, stats.getLong("lines"));
+        final JSONArray rules = stats.getJSONArray("rules");
+        assertEquals(EXPECTED.length, rules.size());
+        for (int i = 0; i < EXPECTED.length; i++) {
+            final JSONObject rule = rules.getJSONObject(i);
+            assertEquals("evaluations of rule " + i, EXPECTED[i][0], rule.getLong("evaluations"));
+            assertEquals("matches of rule " + i, EXPECTED[i][1], rule.getLong("matches"));
+            assertEquals(timed, rule.has("nanos"));
+        }
+    }
+
+    @Test
+    public void testCountsWithoutTiming() throws Exception {
+        assertFalse(Boolean.getBoolean(CompiledRuleSet.TIME_RULES_PROPERTY));
+        assertCounts(parse(false), false);
+        assertCounts(parse(true), false);
+    }
+
+    @Test
+    public void testCountsWithTiming() throws Exception {
+        System.setProperty(CompiledRuleSet.TIME_RULES_PROPERTY, "true");
+        assertTrue(Boolean.getBoolean(CompiledRuleSet.TIME_RULES_PROPERTY));
+        assertCounts(parse(false), true);
+        assertCounts(parse(true), true);
+    }
+
+}
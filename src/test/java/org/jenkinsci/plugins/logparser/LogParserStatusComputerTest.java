@@ -0,0 +1,118 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.FilePath;
+import hudson.plugins.logparser.CompiledRuleSet;
+import hudson.plugins.logparser.LogParserParser;
+import hudson.plugins.logparser.LogParserStatusComputer;
+import hudson.plugins.logparser.LogParserStatusTable;
+import hudson.plugins.logparser.LogParserUtils;
+import hudson.slaves.DumbSlave;
+
+/**
+ * Checks that a log classified in place by byte ranges, or streamed from an agent, gets the same
+ * statuses as when its lines are read one by one.
+ */
+public class LogParserStatusComputerTest {
+
+    private static final String RULES = "error /ERROR/\nwarning /WARN/\ninfo /^INFO/\n";
+
+    // The endings of the lines, as BufferedReader.readLine splits them
+    private static final String[] LINE_ENDS = { "\r\n", "\n", "\r", "\r\n", "\n\r", "\n" };
+
+    private static final String[] LINES = { "ERROR %d in the build", "a WARN for %d",
+            "INFO %d", "not INFO %d", "plain line %d", "" };
+
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CompiledRuleSet ruleSet;
+
+    private File log;
+
+    @Before
+    public void setup() throws Exception {
+        final File rulesFile = folder.newFile("rules.txt");
+        Files.write(rulesFile.toPath(), RULES.getBytes(StandardCharsets.UTF_8));
+        ruleSet = new LogParserParser(new FilePath(rulesFile), false, null).getRuleSet();
+
+        // Several parts of lines and byte ranges, and no line end at the end
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 45000; i++) {
+            text.append(String.format(LINES[i % LINES.length], i));
+            text.append(" padding the line to spread the log over several ranges");
+            text.append(LINE_ENDS[i % LINE_ENDS.length]);
+        }
+        text.append("ERROR with no line end");
+        log = folder.newFile("log");
+        Files.write(log.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private List<String> readLineByLine() throws Exception {
+        final CompiledRuleSet.Classifier classifier = ruleSet.newClassifier();
+        final List<String> statuses = new ArrayList<String>();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(log), Charset.defaultCharset()));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                statuses.add(classifier.classify(line));
+            }
+        } finally {
+            reader.close();
+        }
+        return statuses;
+    }
+
+    private void assertSameStatuses(final LogParserStatusTable table) throws Exception {
+        final List<String> expected = readLineByLine();
+        assertEquals(expected.size(), table.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals("line " + i, expected.get(i), table.getStatus(i));
+        }
+    }
+
+    @Test
+    public void testMappedLog() throws Exception {
+        final FilePath logPath = new FilePath(log);
+        assertTrue(log.length() > 2 * 1024 * 1024);
+        final LogParserStatusComputer computer = new LogParserStatusComputer(
+                jenkinsRule.jenkins.getChannel(), logPath, ruleSet,
+                LogParserUtils.countLines(log.getAbsolutePath()), "local");
+        assertSameStatuses(computer.getComputedStatusMatches());
+    }
+
+    @Test
+    public void testStreamedFromAgent() throws Exception {
+        final DumbSlave agent = jenkinsRule.createOnlineSlave();
+        final FilePath remoteLog = agent.getRootPath().child("log");
+        remoteLog.copyFrom(new FilePath(log));
+        assertTrue(remoteLog.isRemote());
+        final LogParserStatusComputer computer = new LogParserStatusComputer(
+                jenkinsRule.jenkins.getChannel(), remoteLog, ruleSet,
+                LogParserUtils.countLines(log.getAbsolutePath()), "remote");
+        assertSameStatuses(computer.getComputedStatusMatches());
+    }
+
+}
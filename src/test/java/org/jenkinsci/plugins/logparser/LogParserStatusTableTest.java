@@ -0,0 +1,105 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashSet;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+
+import hudson.plugins.logparser.CompiledPatterns;
+import hudson.plugins.logparser.CompiledRuleSet;
+import hudson.plugins.logparser.LogParserConsts;
+import hudson.plugins.logparser.LogParserStatusTable;
+import hudson.plugins.logparser.LogParserUtils;
+
+public class LogParserStatusTableTest {
+
+    private static final String[] STATUSES = { LogParserConsts.NONE, LogParserConsts.ERROR,
+            LogParserConsts.WARNING, "CUSTOM" };
+
+    @Test
+    public void testGetAndSet() {
+        final LogParserStatusTable table = new LogParserStatusTable(STATUSES);
+        table.setOrdinal(0, 1);
+        table.setOrdinal(5000, 3);
+        table.setOrdinals(10, new byte[] { 2, 2, 0 }, 2);
+
+        assertEquals(5001, table.size());
+        assertEquals(LogParserConsts.ERROR, table.getStatus(0));
+        assertEquals(LogParserConsts.NONE, table.getStatus(1));
+        assertEquals(LogParserConsts.WARNING, table.getStatus(11));
+        assertEquals(LogParserConsts.NONE, table.getStatus(12));
+        assertEquals("CUSTOM", table.getStatus(5000));
+        assertNull(table.getStatus(5001));
+        assertEquals(0, table.getOrdinal(5001));
+        assertEquals(2, table.countByOrdinal()[2]);
+        assertEquals(2, table.getCount(LogParserConsts.WARNING));
+        table.setOrdinal(12, 2);
+        assertEquals(3, table.getCount(LogParserConsts.WARNING));
+        assertEquals(0, table.getCount("UNKNOWN"));
+    }
+
+    @Test
+    public void testSerializationRoundTrip() throws Exception {
+        final LogParserStatusTable table = new LogParserStatusTable(STATUSES);
+        for (int i = 0; i < 100000; i++) {
+            table.setOrdinal(i, i % 1000 == 0 ? 1 : 0);
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(table);
+        out.close();
+        // Run-length encoded: far less than a byte per line
+        assertEquals(true, bytes.size() < 5000);
+
+        final ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()));
+        final LogParserStatusTable copy = (LogParserStatusTable) in.readObject();
+        assertEquals(table.size(), copy.size());
+        for (int i = 0; i < table.size(); i++) {
+            assertEquals(table.getOrdinal(i), copy.getOrdinal(i));
+        }
+        assertEquals(100, copy.getCount(LogParserConsts.ERROR));
+        assertEquals(99900, copy.getCount(LogParserConsts.NONE));
+    }
+
+    @Test
+    public void testTooManyTagsRejected() {
+        final int numTags = LogParserStatusTable.MAX_STATUSES + 10;
+        final String[] rules = new String[numTags + 1];
+        for (int i = 0; i < numTags; i++) {
+            rules[i] = "tag" + i + " /^line " + i + "$/";
+        }
+        // A tag seen before the limit is still usable after it
+        rules[numTags] = "tag3 /^again$/";
+        final CompiledPatterns compiled = LogParserUtils.compilePatterns(rules,
+                Logger.getLogger(getClass().getName()));
+
+        final int lastTag = LogParserStatusTable.MAX_STATUSES - 2;
+        assertEquals(lastTag + 1, new HashSet<String>(compiled.getExtraTags()).size());
+        assertFalse(compiled.getError().contains("tag" + lastTag + " "));
+        assertTrue(compiled.getError().contains("Bad parsing rule:tag" + (lastTag + 1) + " "));
+        assertTrue(compiled.getError().contains("Bad parsing rule:tag" + (numTags - 1) + " "));
+
+        final CompiledRuleSet ruleSet = compiled.getRuleSet();
+        assertEquals(LogParserStatusTable.MAX_STATUSES, ruleSet.getStatuses().length);
+        final CompiledRuleSet.Classifier classifier = ruleSet.newClassifier();
+        assertEquals("tag" + lastTag, classifier.classify("line " + lastTag));
+        assertEquals(LogParserConsts.NONE, classifier.classify("line " + (lastTag + 1)));
+        assertEquals("tag3", classifier.classify("again"));
+
+        final LogParserStatusTable table = ruleSet.newStatusTable();
+        table.setOrdinal(0, classifier.classifyOrdinal("line " + lastTag));
+        assertEquals("tag" + lastTag, table.getStatus(0));
+        assertEquals(1, table.getCount("tag" + lastTag));
+    }
+}
@@ -0,0 +1,121 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.model.FreeStyleBuild;
+import hudson.plugins.logparser.LogParserAction;
+import hudson.plugins.logparser.LogParserPublisher;
+import hudson.plugins.logparser.LogParserTailer;
+
+/**
+ * Checks the lines counted by a {@link LogParserTailer} as the log is written in pieces.
+ */
+public class LogParserTailerTest {
+
+    // Empty lines are counted as infos, so that a line end read as two shows
+    private static final String RULES = "error /ERROR/\nwarning /WARN/\ninfo /^$/\n";
+
+    // As read by the tailer at once
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    // Beyond the length of the lines the tailer keeps
+    private static final int OVERLONG = 1024 * 1024 + 100;
+
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FreeStyleBuild build;
+
+    private LogParserTailer tailer;
+
+    @Before
+    public void setup() throws Exception {
+        build = jenkinsRule.buildAndAssertSuccess(jenkinsRule.createFreeStyleProject());
+        Files.write(build.getLogFile().toPath(), new byte[0]);
+        final File rulesFile = folder.newFile("rules.txt");
+        Files.write(rulesFile.toPath(), RULES.getBytes(StandardCharsets.UTF_8));
+        tailer = new LogParserTailer(build, new LogParserPublisher(false, null,
+                rulesFile.getAbsolutePath()));
+    }
+
+    private void append(final String text) throws IOException {
+        final OutputStream out = new FileOutputStream(build.getLogFile(), true);
+        try {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            out.close();
+        }
+    }
+
+    private void poll(final int errors, final int warnings, final int infos) {
+        tailer.run();
+        final LogParserAction action = build.getAction(LogParserAction.class);
+        assertEquals("errors", errors, action.getTotalErrors());
+        assertEquals("warnings", warnings, action.getTotalWarnings());
+        assertEquals("empty lines", infos, action.getTotalInfos());
+    }
+
+    private static String repeat(final char c, final int count) {
+        final char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    @Test
+    public void testLineEndSplitBetweenPolls() throws Exception {
+        append("ERROR one\r");
+        poll(1, 0, 0);
+        append("\nWARN two\r\n\n");
+        poll(1, 1, 1);
+        append("ERROR three\rWARN four\n");
+        poll(2, 2, 1);
+    }
+
+    @Test
+    public void testLineEndSplitBetweenBlocks() throws Exception {
+        // The "\r" ends the first block, the "\n" starts the second
+        append(repeat('x', BLOCK_SIZE - 1 - "ERROR ".length()));
+        append("ERROR \r\nWARN next\n");
+        poll(1, 1, 0);
+    }
+
+    @Test
+    public void testPartialLineCountedOnceWhole() throws Exception {
+        append("ERROR first\nWARN being");
+        poll(1, 0, 0);
+        poll(1, 0, 0);
+        append(" written");
+        poll(1, 0, 0);
+        append(" now\n");
+        poll(1, 1, 0);
+    }
+
+    @Test
+    public void testOverlongLineClassifiedOnItsBeginning() throws Exception {
+        append("ERROR " + repeat('x', OVERLONG) + "\nWARN after\n");
+        poll(1, 1, 0);
+        // The end of the line is dropped, along with its tag
+        append(repeat('x', OVERLONG) + " ERROR\n");
+        poll(1, 1, 0);
+        append("ERROR last\n");
+        poll(2, 1, 0);
+    }
+
+}
@@ -0,0 +1,183 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import org.jfree.data.category.DefaultCategoryDataset;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.plugins.logparser.LogParserAction;
+import hudson.plugins.logparser.LogParserChartCache;
+import hudson.plugins.logparser.LogParserConsts;
+import hudson.plugins.logparser.LogParserResult;
+import hudson.plugins.logparser.LogParserTrend;
+
+public class LogParserTrendTest {
+
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+
+    private FreeStyleProject project;
+
+    private FreeStyleBuild[] builds;
+
+    @Before
+    public void setup() throws Exception {
+        project = jenkinsRule.createFreeStyleProject("trend");
+        builds = new FreeStyleBuild[3];
+        for (int i = 0; i < builds.length; i++) {
+            builds[i] = jenkinsRule.buildAndAssertSuccess(project);
+        }
+    }
+
+    private static LogParserResult result(final int errors, final int jenkins) {
+        final LogParserResult result = new LogParserResult();
+        result.setTotalErrors(errors);
+        result.setTotalWarnings(1);
+        result.setExtraTags(Collections.singleton("jenkins"));
+        result.putTotalCountsByExtraTag("jenkins", jenkins);
+        return result;
+    }
+
+    private File trendFile() {
+        return new File(project.getRootDir(), LogParserTrend.FILE_NAME);
+    }
+
+    private List<LogParserTrend.Entry> read() {
+        return LogParserTrend.read(project, Integer.MAX_VALUE, LogParserTrend.DEFAULT_WINDOW);
+    }
+
+    private static void assertEntry(final LogParserTrend.Entry entry, final int buildNumber,
+            final long parseMillis, final int errors, final int jenkins) {
+        assertEquals(buildNumber, entry.getBuildNumber());
+        assertEquals(parseMillis, entry.getParseMillis());
+        assertEquals(errors, entry.getCount(LogParserConsts.ERROR));
+        assertEquals(1, entry.getCount(LogParserConsts.WARNING));
+        assertEquals(jenkins, entry.getCount("jenkins"));
+    }
+
+    /**
+     * Record the first two builds before the trend file exists, as done before it was kept.
+     */
+    private void recordWithoutTrend() {
+        builds[0].addAction(new LogParserAction(builds[0], result(1, 10)));
+        builds[1].addAction(new LogParserAction(builds[1], result(2, 20)));
+        assertFalse(trendFile().exists());
+    }
+
+    @Test
+    public void testRecordAndRead() throws Exception {
+        recordWithoutTrend();
+        LogParserTrend.record(builds[2], result(3, 30), 42);
+
+        // Filled from the actions of the earlier builds, extra tags included
+        final List<LogParserTrend.Entry> trend = read();
+        assertEquals(3, trend.size());
+        assertEntry(trend.get(0), 1, 0, 1, 10);
+        assertEntry(trend.get(1), 2, 0, 2, 20);
+        assertEntry(trend.get(2), 3, 42, 3, 30);
+
+        // Up to a build, within a window
+        final List<LogParserTrend.Entry> window = LogParserTrend.read(project, 3, 2);
+        assertEquals(2, window.size());
+        assertEquals(2, window.get(0).getBuildNumber());
+        assertEquals(3, window.get(1).getBuildNumber());
+        assertEquals(2, LogParserTrend.read(project, 2, 100).size());
+
+        // Parsed again, a build is replaced
+        LogParserTrend.record(builds[1], result(5, 50), 7);
+        assertEntry(read().get(1), 2, 7, 5, 50);
+        assertEquals(3, read().size());
+    }
+
+    @Test
+    public void testDeletedBuildDropped() throws Exception {
+        recordWithoutTrend();
+        LogParserTrend.record(builds[2], result(3, 30), 42);
+        assertEquals(3, read().size());
+
+        new LogParserTrend.RunListenerImpl().onDeleted(builds[0]);
+        final List<LogParserTrend.Entry> trend = read();
+        assertEquals(2, trend.size());
+        assertEquals(2, trend.get(0).getBuildNumber());
+        assertEquals(3, trend.get(1).getBuildNumber());
+    }
+
+    @Test
+    public void testLineCutShortDropped() throws Exception {
+        LogParserTrend.record(builds[0], result(1, 10), 5);
+        assertEquals(1, read().size());
+
+        // A crash while appending the line of another build
+        append(trendFile(), "2\t6\terror=1");
+        List<LogParserTrend.Entry> trend = read();
+        assertEquals(1, trend.size());
+        assertEquals(1, trend.get(0).getBuildNumber());
+
+        // Its counts may be cut short too, so it is dropped rather than finished
+        LogParserTrend.record(builds[2], result(3, 30), 42);
+        trend = read();
+        assertEquals(2, trend.size());
+        assertEntry(trend.get(0), 1, 5, 1, 10);
+        assertEntry(trend.get(1), 3, 42, 3, 30);
+        final String content = new String(Files.readAllBytes(trendFile().toPath()),
+                StandardCharsets.UTF_8);
+        assertFalse(content.contains("2\t6"));
+        assertTrue(content.endsWith("\n"));
+    }
+
+    private static LogParserChartCache.Key cacheChart(final String job) {
+        final LogParserChartCache.Key key = new LogParserChartCache.Key(job, 3,
+                LogParserTrend.DEFAULT_WINDOW, 500, 200, "");
+        LogParserChartCache.putDataset(key, new DefaultCategoryDataset());
+        LogParserChartCache.putChart(key, new LogParserChartCache.Chart(new byte[0], ""));
+        return key;
+    }
+
+    @Test
+    public void testCachedChartsDropped() throws Exception {
+        LogParserTrend.record(builds[0], result(1, 10), 5);
+        final LogParserChartCache.Key key = cacheChart(project.getFullName());
+        final LogParserChartCache.Key other = cacheChart("other");
+
+        // Recorded, only the charts of its job are rendered again
+        LogParserTrend.record(builds[2], result(3, 30), 42);
+        assertNull(LogParserChartCache.getChart(key));
+        assertNull(LogParserChartCache.getDataset(key));
+        assertNotNull(LogParserChartCache.getChart(other));
+        assertNotNull(LogParserChartCache.getDataset(other));
+
+        cacheChart(project.getFullName());
+        new LogParserTrend.RunListenerImpl().onDeleted(builds[0]);
+        assertNull(LogParserChartCache.getChart(key));
+        assertNull(LogParserChartCache.getDataset(key));
+        assertNotNull(LogParserChartCache.getChart(other));
+    }
+
+    private static void append(final File file, final String text) throws IOException {
+        final OutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            out.close();
+        }
+    }
+
+}
@@ -0,0 +1,169 @@
+package org.jenkinsci.plugins.logparser;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import hudson.FilePath;
+import hudson.plugins.logparser.CompiledRuleSet;
+import hudson.plugins.logparser.LogParserConsts;
+import hudson.plugins.logparser.LogParserEventLog;
+import hudson.plugins.logparser.LogParserParser;
+
+/**
+ * Compares the memory allocated and the time taken to render the lines of a
+ * log with the former LogParserParser.parseLine, see
+ * {@link LegacyLineRenderer}, which rendered each line into a string that was
+ * then written, and with LogParserParser.renderLine, which writes it straight
+ * away. Also checks that both write the same output and counts.
+ *
+ * Run with: java -cp ... org.jenkinsci.plugins.logparser.RenderLineBenchmark [lines]
+ */
+public class RenderLineBenchmark {
+
+    private static final String RULES = "error /ERROR/\nwarning /WARNING/\nstart /^=== /\n";
+
+    public static void main(final String[] args) throws Exception {
+        final int numLines = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        final File rulesFile = File.createTempFile("render-benchmark", ".rules");
+        rulesFile.deleteOnExit();
+        final FileWriter rulesWriter = new FileWriter(rulesFile);
+        rulesWriter.write(RULES);
+        rulesWriter.close();
+
+        final Random random = new Random(42);
+        final String[] lines = new String[numLines];
+        for (int i = 0; i < numLines; i++) {
+            final int kind = random.nextInt(100);
+            if (kind == 0) {
+                lines[i] = "[ERROR] Failed to execute goal on project <module-" + i + ">";
+            } else if (kind == 1) {
+                lines[i] = "[WARNING] Using platform encoding to copy filtered resources";
+            } else if (kind == 2 && random.nextInt(100) == 0) {
+                lines[i] = "=== Stage " + i + " ===";
+            } else if (kind < 12) {
+                lines[i] = "  at <init>(Main.java:" + i + ") -> List<String> failed";
+            } else {
+                lines[i] = "[INFO] Compiling " + random.nextInt(1000)
+                        + " source files to /home/jenkins/workspace/target/classes";
+            }
+        }
+
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+
+        for (int round = 0; round < 3; round++) {
+            final LogParserParser parser = newParser(rulesFile);
+            final LegacyLineRenderer legacy = new LegacyLineRenderer(parser.getExtraTags(), false);
+            final String[] statuses = classify(parser.getRuleSet(), lines);
+            final HashingWriter legacyOut = new HashingWriter();
+            final HashingWriter out = new HashingWriter();
+            final LogParserEventLog events = recordEvents(parser);
+
+            long allocated = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            for (int i = 0; i < numLines; i++) {
+                legacyOut.write(legacy.parseLine(lines[i], statuses[i]));
+            }
+            final long legacyNanos = System.nanoTime() - start;
+            final long legacyBytes = threads.getThreadAllocatedBytes(threadId) - allocated;
+
+            allocated = threads.getThreadAllocatedBytes(threadId);
+            start = System.nanoTime();
+            for (int i = 0; i < numLines; i++) {
+                parser.renderLine(out, lines[i], statuses[i]);
+            }
+            final long renderNanos = System.nanoTime() - start;
+            final long renderBytes = threads.getThreadAllocatedBytes(threadId) - allocated;
+
+            events.close();
+            final boolean same = legacyOut.sameAs(out)
+                    && legacy.getStatusCount().equals(parser.getStatusCount())
+                    && legacy.getStatusCountPerSection().equals(parser.getStatusCountPerSection());
+            System.out.println(String.format(
+                    "round %d: parseLine %d ms, %d bytes/line - renderLine %d ms, %d bytes/line - same output: %b",
+                    round, legacyNanos / 1000000, legacyBytes / numLines, renderNanos / 1000000,
+                    renderBytes / numLines, same));
+        }
+    }
+
+    private static LogParserParser newParser(final File rulesFile) throws IOException {
+        return new LogParserParser(new FilePath(rulesFile), false, null);
+    }
+
+    private static String[] classify(final CompiledRuleSet ruleSet, final String[] lines) {
+        final CompiledRuleSet.Classifier classifier = ruleSet.newClassifier();
+        final String[] statuses = new String[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+            final String status = classifier.classify(lines[i]);
+            statuses[i] = LogParserConsts.NONE.equals(status) ? null : status;
+        }
+        return statuses;
+    }
+
+    // The event log is only opened by parseLog - point it at a temporary file
+    static LogParserEventLog recordEvents(final LogParserParser parser) throws Exception {
+        final File file = File.createTempFile("render-benchmark", ".events");
+        file.deleteOnExit();
+        final List<String> tags = new ArrayList<String>(LogParserConsts.STATUSES_WITH_LINK_FILES);
+        tags.addAll(parser.getExtraTags());
+        final LogParserEventLog eventLog = new LogParserEventLog(file, tags);
+        eventLog.open(0);
+        final Field field = LogParserParser.class.getDeclaredField("eventLog");
+        field.setAccessible(true);
+        field.set(parser, eventLog);
+        return eventLog;
+    }
+
+    /**
+     * Discards what is written, keeping a hash of it to compare outputs.
+     */
+    private static final class HashingWriter extends Writer {
+        private long hash = 0;
+        private long length = 0;
+
+        boolean sameAs(final HashingWriter other) {
+            return hash == other.hash && length == other.length;
+        }
+
+        @Override
+        public void write(final char[] cbuf, final int off, final int len) {
+            for (int i = off; i < off + len; i++) {
+                hash = 31 * hash + cbuf[i];
+            }
+            length += len;
+        }
+
+        @Override
+        public void write(final String str, final int off, final int len) {
+            for (int i = off; i < off + len; i++) {
+                hash = 31 * hash + str.charAt(i);
+            }
+            length += len;
+        }
+
+        @Override
+        public void write(final int c) {
+            hash = 31 * hash + (char) c;
+            length++;
+        }
+
+        @Override
+        public void flush() {
+            // Nothing buffered
+        }
+
+        @Override
+        public void close() {
+            // Nothing to release
+        }
+    }
+}
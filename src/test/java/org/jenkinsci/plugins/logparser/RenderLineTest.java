@@ -0,0 +1,85 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import hudson.FilePath;
+import hudson.plugins.logparser.LogParserConsts;
+import hudson.plugins.logparser.LogParserEventLog;
+import hudson.plugins.logparser.LogParserParser;
+
+/**
+ * Checks that LogParserParser.renderLine writes the same HTML and counts as
+ * the former LogParserParser.parseLine, see {@link LegacyLineRenderer}.
+ */
+public class RenderLineTest {
+
+    private static final String[][] LINES = {
+            { "plain line", null },
+            { "[ERROR] Failed on <module> & \"quoted\" 'text'", LogParserConsts.ERROR },
+            { "<<>> only <angle> >brackets<", null },
+            { "[WARNING] a -> b < c", LogParserConsts.WARNING },
+            { "=== Stage <one> ===", LogParserConsts.START },
+            { "[INFO] Compiling", LogParserConsts.INFO },
+            { "", null },
+            { "", LogParserConsts.ERROR },
+            { "DEBUG &lt;already escaped&gt;", LogParserConsts.DEBUG },
+            { "jenkins <extra> tag", "jenkins" },
+            { "=== Stage two ===", LogParserConsts.START },
+            { "[ERROR] again \u00e9\u4e2d\ud83d\ude00", LogParserConsts.ERROR },
+            { "  at <init>(Main.java:12)", null },
+            { "jenkins once more", "jenkins" }, };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private void assertSameAsLegacy(final boolean preformattedHtml) throws Exception {
+        final File rulesFile = folder.newFile();
+        Files.write(rulesFile.toPath(), "error /ERROR/\njenkins /jenkins/\n"
+                .getBytes(StandardCharsets.UTF_8));
+        final LogParserParser parser = new LogParserParser(new FilePath(rulesFile),
+                preformattedHtml, null);
+        final LogParserEventLog events = RenderLineBenchmark.recordEvents(parser);
+        final LegacyLineRenderer legacy = new LegacyLineRenderer(parser.getExtraTags(),
+                preformattedHtml);
+        try {
+            // Twice, for the counts in the markers to go beyond one digit
+            for (int round = 0; round < 2; round++) {
+                for (String[] line : LINES) {
+                    final StringWriter out = new StringWriter();
+                    parser.renderLine(out, line[0], line[1]);
+                    assertEquals(legacy.parseLine(line[0], line[1]), out.toString());
+                }
+            }
+            for (int i = 0; i < 10; i++) {
+                legacy.parseLine("ERROR", LogParserConsts.ERROR);
+                parser.renderLine(new StringWriter(), "ERROR", LogParserConsts.ERROR);
+            }
+            assertEquals(legacy.parseLine("[ERROR] <last>", LogParserConsts.ERROR),
+                    parser.parseLine("[ERROR] <last>", LogParserConsts.ERROR));
+            assertEquals(legacy.getStatusCount(), parser.getStatusCount());
+            assertEquals(legacy.getStatusCountPerSection(), parser.getStatusCountPerSection());
+        } finally {
+            events.close();
+        }
+    }
+
+    @Test
+    public void testSameHtml() throws Exception {
+        assertSameAsLegacy(false);
+    }
+
+    @Test
+    public void testSameHtmlPreformatted() throws Exception {
+        assertSameAsLegacy(true);
+    }
+
+}